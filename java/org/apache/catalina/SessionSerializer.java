@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the attributes of a session to and from the form used when a
+ * session is persisted or replicated. Implementations must be thread safe.
+ */
+public interface SessionSerializer {
+
+    /**
+     * Return the name of the format written by this serializer. The name is
+     * written with the session so that the session can be read even if the
+     * serializer configured when it is read is different.
+     *
+     * @return The name of the format
+     */
+    public String getName();
+
+    /**
+     * Write the given session attributes.
+     *
+     * @param out        The stream to write to
+     * @param attributes The attributes to write
+     *
+     * @return The names of the attributes that were not written because their
+     *         values could not be serialized
+     *
+     * @throws IOException if an input/output error occurs
+     */
+    public List<String> writeAttributes(ObjectOutput out,
+            Map<String,Object> attributes) throws IOException;
+
+    /**
+     * Read session attributes written by {@link #writeAttributes}.
+     *
+     * @param in          The stream to read from
+     * @param classLoader The class loader of the web application the session
+     *                    belongs to
+     *
+     * @return The session attributes
+     *
+     * @throws ClassNotFoundException if the class of an attribute value could
+     *                                not be loaded
+     * @throws IOException if an input/output error occurs
+     */
+    public Map<String,Object> readAttributes(ObjectInput in,
+            ClassLoader classLoader) throws ClassNotFoundException, IOException;
+}
@@ -32,6 +32,7 @@ import org.apache.catalina.core.AprLifecycleListener;
 import org.apache.catalina.util.LifecycleMBeanBase;
 import org.apache.coyote.Adapter;
 import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.UpgradeProtocol;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.IntrospectionUtils;
@@ -621,6 +622,26 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * Add a protocol that connections accepted by this Connector may be
+     * upgraded to without the involvement of an application.
+     *
+     * @param upgradeProtocol The protocol to add
+     */
+    public void addUpgradeProtocol(UpgradeProtocol upgradeProtocol) {
+        protocolHandler.addUpgradeProtocol(upgradeProtocol);
+    }
+
+
+    /**
+     * Return the protocols that connections accepted by this Connector may be
+     * upgraded to without the involvement of an application.
+     */
+    public UpgradeProtocol[] findUpgradeProtocols() {
+        return protocolHandler.findUpgradeProtocols();
+    }
+
+
     /**
      * Return the proxy server name for this Connector.
      */
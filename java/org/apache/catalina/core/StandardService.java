@@ -117,6 +117,27 @@ public class StandardService extends LifecycleMBeanBase implements Service {
     }
 
 
+    /**
+     * @return The number of recent request mapping results that are cached or
+     *         zero if the cache is disabled
+     */
+    public int getMappingCacheSize() {
+        return mapper.getMappingCacheSize();
+    }
+
+
+    /**
+     * Set the number of recent request mapping results to cache. Only results
+     * determined by an exact, prefix or extension servlet mapping are cached.
+     *
+     * @param mappingCacheSize The number of results to cache or zero to
+     *                         disable the cache
+     */
+    public void setMappingCacheSize(int mappingCacheSize) {
+        mapper.setMappingCacheSize(mappingCacheSize);
+    }
+
+
     /**
      * Return the <code>Container</code> that handles requests for all
      * <code>Connectors</code> associated with this Service.
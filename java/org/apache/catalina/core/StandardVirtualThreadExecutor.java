@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.catalina.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.util.LifecycleMBeanBase;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+
+/**
+ * An executor that runs each task on a new virtual thread. Requires Java 21 or
+ * later.
+ */
+public class StandardVirtualThreadExecutor extends LifecycleMBeanBase
+        implements Executor {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    // ---------------------------------------------- Properties
+    /**
+     * Default name prefix for the thread name
+     */
+    protected String namePrefix = "tomcat-virt-";
+
+    /**
+     * The maximum number of tasks that may execute concurrently or -1 for no
+     * limit
+     */
+    protected int maxConcurrency = -1;
+
+    /**
+     * The executor we use for this component
+     */
+    protected VirtualThreadExecutor executor = null;
+
+    /**
+     * the name of this thread pool
+     */
+    protected String name;
+
+    // ---------------------------------------------- Constructors
+    public StandardVirtualThreadExecutor() {
+        //empty constructor for the digester
+    }
+
+
+    // ---------------------------------------------- Public Methods
+
+    /**
+     * Start the component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#startInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected void startInternal() throws LifecycleException {
+        if (!VirtualThreadExecutor.isSupported()) {
+            throw new LifecycleException(sm.getString(
+                    "standardVirtualThreadExecutor.notSupported", getName()));
+        }
+        executor = new VirtualThreadExecutor(namePrefix, maxConcurrency);
+
+        setState(LifecycleState.STARTING);
+    }
+
+
+    /**
+     * Stop the component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that needs to be reported
+     */
+    @Override
+    protected void stopInternal() throws LifecycleException {
+
+        setState(LifecycleState.STOPPING);
+        if (executor != null) executor.shutdown();
+        executor = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tasks never wait in a queue so the timeout is ignored.
+     */
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        execute(command);
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (executor != null) {
+            executor.execute(command);
+        } else {
+            throw new IllegalStateException(sm.getString(
+                    "standardVirtualThreadExecutor.notStarted", getName()));
+        }
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Set the maximum number of tasks that may execute concurrently. Tasks
+     * beyond this limit wait, on their own virtual thread, for a running task
+     * to complete. Changes take effect when the executor is next started.
+     *
+     * @param maxConcurrency The new limit or -1 for no limit
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    // Statistics from the executor
+    public int getActiveCount() {
+        return (executor != null) ? executor.getActiveCount() : 0;
+    }
+
+    public int getSubmittedCount() {
+        return (executor != null) ? executor.getSubmittedCount() : 0;
+    }
+
+
+    @Override
+    protected String getDomainInternal() {
+        // No way to navigate to Engine. Needs to have domain set.
+        return null;
+    }
+
+    @Override
+    protected String getObjectNameKeyProperties() {
+        StringBuilder name = new StringBuilder("type=Executor,name=");
+        name.append(getName());
+        return name.toString();
+    }
+}
@@ -98,6 +98,13 @@ public class ClusterRuleSet extends RuleSetBase {
         digester.addSetNext(prefix + "Manager/SessionIdGenerator",
                "setSessionIdGenerator",
                "org.apache.catalina.SessionIdGenerator");
+        digester.addObjectCreate(prefix + "Manager/SessionSerializer",
+                "org.apache.catalina.session.CompactSessionSerializer",
+                "className");
+        digester.addSetProperties(prefix + "Manager/SessionSerializer");
+        digester.addSetNext(prefix + "Manager/SessionSerializer",
+               "setSessionSerializer",
+               "org.apache.catalina.SessionSerializer");
 
         digester.addObjectCreate(prefix + "Channel",
                                  null, // MUST be specified in the element
@@ -68,6 +68,23 @@ public class BackupManager extends ClusterManagerBase
      */
     private boolean terminateOnStartFailure = false;
 
+    /**
+     * Should session changes be replicated by background threads so that
+     * request threads do not wait for the backup node.
+     */
+    private boolean asyncReplication = false;
+
+    /**
+     * The number of threads used for asynchronous replication.
+     */
+    private int replicationThreads = 4;
+
+    /**
+     * The maximum number of replication messages waiting to be sent when
+     * asynchronous replication is used.
+     */
+    private int maxPendingReplications = 1000;
+
     /**
      * Constructor, just calls super()
      *
@@ -144,6 +161,9 @@ public class BackupManager extends ClusterManagerBase
                     this, cluster.getChannel(), rpcTimeout, getMapName(),
                     getClassLoaders(), terminateOnStartFailure);
             map.setChannelSendOptions(mapSendOptions);
+            map.setAsyncReplication(asyncReplication);
+            map.setReplicationThreads(replicationThreads);
+            map.setMaxPendingReplications(maxPendingReplications);
             this.sessions = map;
         }  catch ( Exception x ) {
             log.error(sm.getString("backupManager.startUnable", getName()),x);
@@ -220,6 +240,58 @@ public class BackupManager extends ClusterManagerBase
         return terminateOnStartFailure;
     }
 
+    public void setAsyncReplication(boolean asyncReplication) {
+        this.asyncReplication = asyncReplication;
+    }
+
+    public boolean isAsyncReplication() {
+        return asyncReplication;
+    }
+
+    public void setReplicationThreads(int replicationThreads) {
+        this.replicationThreads = replicationThreads;
+    }
+
+    public int getReplicationThreads() {
+        return replicationThreads;
+    }
+
+    public void setMaxPendingReplications(int maxPendingReplications) {
+        this.maxPendingReplications = maxPendingReplications;
+    }
+
+    public int getMaxPendingReplications() {
+        return maxPendingReplications;
+    }
+
+    public int getPendingReplications() {
+        if (sessions instanceof LazyReplicatedMap) {
+            return ((LazyReplicatedMap<String,Session>) sessions).getPendingReplications();
+        }
+        return 0;
+    }
+
+    public long getReplicationLag() {
+        if (sessions instanceof LazyReplicatedMap) {
+            return ((LazyReplicatedMap<String,Session>) sessions).getReplicationLag();
+        }
+        return 0;
+    }
+
+    public long getMaxReplicationLag() {
+        if (sessions instanceof LazyReplicatedMap) {
+            return ((LazyReplicatedMap<String,Session>) sessions).getMaxReplicationLag();
+        }
+        return 0;
+    }
+
+    public long getReplicationsFailed() {
+        if (sessions instanceof LazyReplicatedMap) {
+            return ((LazyReplicatedMap<String,Session>) sessions).getReplicationsFailed();
+        }
+        return 0;
+    }
+
     @Override
     public String[] getInvalidatedSessions() {
         return new String[0];
@@ -232,6 +304,9 @@ public class BackupManager extends ClusterManagerBase
         result.mapSendOptions = mapSendOptions;
         result.rpcTimeout = rpcTimeout;
         result.terminateOnStartFailure = terminateOnStartFailure;
+        result.asyncReplication = asyncReplication;
+        result.replicationThreads = replicationThreads;
+        result.maxPendingReplications = maxPendingReplications;
         return result;
     }
 
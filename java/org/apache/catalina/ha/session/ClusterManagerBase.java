@@ -24,6 +24,7 @@ import org.apache.catalina.Cluster;
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Loader;
+import org.apache.catalina.Session;
 import org.apache.catalina.SessionIdGenerator;
 import org.apache.catalina.Valve;
 import org.apache.catalina.ha.CatalinaCluster;
@@ -132,6 +133,20 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
         return sessionAttributePattern.matcher(name).matches();
     }
 
+    /**
+     * Backup sessions are only expired once they have been idle for twice the
+     * maximum inactive interval so there is no point inspecting them earlier.
+     */
+    @Override
+    protected long getExpirationTime(Session session) {
+        long expirationTime = super.getExpirationTime(session);
+        if (expirationTime != Long.MAX_VALUE && session instanceof DeltaSession &&
+                !((DeltaSession) session).isPrimarySession()) {
+            expirationTime += session.getMaxInactiveInterval() * 1000L;
+        }
+        return expirationTime;
+    }
+
     public static ClassLoader[] getClassLoaders(Context context) {
         ClassLoader tccl = Thread.currentThread().getContextClassLoader();
         Loader loader = context.getLoader();
@@ -200,6 +215,7 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
         copy.setSecureRandomClass(getSecureRandomClass());
         copy.setSecureRandomProvider(getSecureRandomProvider());
         copy.setSecureRandomAlgorithm(getSecureRandomAlgorithm());
+        copy.setSessionSerializer(getSessionSerializer());
         if (getSessionIdGenerator() != null) {
             try {
                 SessionIdGenerator copyIdGenerator = sessionIdGeneratorClass.newInstance();
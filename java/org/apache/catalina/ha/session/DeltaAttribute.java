@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Session attribute values can implement this interface so that, when the
+ * value is set again on a {@link DeltaSession} after it has been modified, only
+ * the changes to the value are replicated rather than the whole value.
+ * <p>
+ * The whole value is replicated when it is first set on the session and
+ * {@link #resetDiff()} is called once it has been serialized. After that, each
+ * time the value is set on the session again, {@link #getDiff()} is called
+ * when the request completes and the result is passed to
+ * {@link #applyDiff(byte[], int, int)} on the copy of the value held by each of
+ * the other nodes.
+ * <p>
+ * The whole value is also sent, as part of the session, to nodes that are
+ * starting. Such a node may later receive a diff containing changes that the
+ * whole value already included. Diffs should therefore record the new state of
+ * whatever changed (e.g. "quantity of item 3 is 2") rather than the operations
+ * performed (e.g. "add one to quantity of item 3") so that applying them more
+ * than once has no further effect.
+ * <p>
+ * Nodes that do not support this interface will remove the attribute when
+ * they receive a diff so every node in the cluster must support it before
+ * attribute values that implement it are used.
+ */
+public interface DeltaAttribute extends Serializable {
+
+    /**
+     * Return the changes made to this value since the last call to this
+     * method or to {@link #resetDiff()} and start recording changes again.
+     *
+     * @return the changes in a form that can be passed to
+     *         {@link #applyDiff(byte[], int, int)}
+     *
+     * @throws IOException if the changes cannot be serialized
+     */
+    public byte[] getDiff() throws IOException;
+
+    /**
+     * Apply changes obtained from {@link #getDiff()} on another node to this
+     * value.
+     *
+     * @param diff   the changes
+     * @param offset the offset of the changes in the array
+     * @param length the length of the changes
+     *
+     * @throws IOException if the changes cannot be read
+     * @throws ClassNotFoundException if a class in the changes cannot be
+     *                                loaded
+     */
+    public void applyDiff(byte[] diff, int offset, int length)
+            throws IOException, ClassNotFoundException;
+
+    /**
+     * Discard any recorded changes. Called once the whole value has been
+     * serialized for replication.
+     */
+    public void resetDiff();
+}
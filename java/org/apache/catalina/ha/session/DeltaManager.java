@@ -23,8 +23,19 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.Engine;
 import org.apache.catalina.Host;
@@ -36,10 +47,12 @@ import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.io.ReplicationStream;
+import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * The DeltaManager manages replicated sessions by only replicating the deltas
@@ -93,6 +106,38 @@ public class DeltaManager extends ClusterManagerBase{
     private boolean stateTimestampDrop = true ;
     private long stateTransferCreateSendTime;
 
+    /**
+     * The number of members from which session state is requested when this
+     * node starts. Each member sends a different partition of the sessions.
+     */
+    private int stateTransferMembers = 1;
+
+    /**
+     * The number of threads used to deserialize the session state received
+     * when this node starts.
+     */
+    private int stateTransferThreads = 1;
+
+    private final Object stateTransferLock = new Object();
+
+    /**
+     * The member that has been asked for each partition of the session state
+     * that has not yet been received. Guarded by stateTransferLock.
+     */
+    private final Map<Integer,Member> stateTransferPartitions = new HashMap<>();
+    private final Set<Member> stateTransferNoContextMembers = new HashSet<>();
+    private Member[] stateTransferRequestedMembers = new Member[0];
+    private int stateTransferPartitionCount = 1;
+    private boolean stateTransferIncomplete = false;
+    private long stateTransferCompleteTimestamp = Long.MAX_VALUE;
+
+    private volatile ExecutorService stateTransferExecutor = null;
+    private final AtomicInteger stateTransferChunksPending = new AtomicInteger();
+    private final AtomicLong stateTransferSessionsReceived = new AtomicLong();
+    private final AtomicLong stateTransferBytesReceived = new AtomicLong();
+    private volatile long stateTransferStartTime = 0;
+    private volatile long stateTransferEndTime = 0;
+
     // -------------------------------------------------------- stats attributes
 
     private long sessionReplaceCounter = 0 ;
@@ -376,6 +421,103 @@ public class DeltaManager extends ClusterManagerBase{
         this.sendAllSessionsSize = sendAllSessionsSize;
     }
 
+    /**
+     * @return the number of members from which session state is requested
+     *         when this node starts.
+     */
+    public int getStateTransferMembers() {
+        return stateTransferMembers;
+    }
+
+    /**
+     * Set the number of members from which session state is requested when
+     * this node starts. Each member is asked for a different partition of the
+     * sessions so that the members send their partitions in parallel.
+     *
+     * @param stateTransferMembers The number of members
+     */
+    public void setStateTransferMembers(int stateTransferMembers) {
+        this.stateTransferMembers = stateTransferMembers;
+    }
+
+    /**
+     * @return the number of threads used to deserialize the session state
+     *         received when this node starts.
+     */
+    public int getStateTransferThreads() {
+        return stateTransferThreads;
+    }
+
+    /**
+     * Set the number of threads used to deserialize the session state received
+     * when this node starts. If one, the session state is deserialized by the
+     * thread that receives it.
+     *
+     * @param stateTransferThreads The number of threads
+     */
+    public void setStateTransferThreads(int stateTransferThreads) {
+        this.stateTransferThreads = stateTransferThreads;
+    }
+
+    /**
+     * @return the number of sessions received by the most recent session
+     *         state transfer.
+     */
+    public long getStateTransferSessionsReceived() {
+        return stateTransferSessionsReceived.get();
+    }
+
+    /**
+     * @return the number of bytes of session data received by the most recent
+     *         session state transfer.
+     */
+    public long getStateTransferBytesReceived() {
+        return stateTransferBytesReceived.get();
+    }
+
+    /**
+     * @return the number of partitions of the session state that have been
+     *         requested but not yet completely received.
+     */
+    public int getStateTransferPartitionsPending() {
+        synchronized (stateTransferLock) {
+            return stateTransferPartitions.size();
+        }
+    }
+
+    /**
+     * @return the number of received blocks of session state waiting to be
+     *         deserialized.
+     */
+    public int getStateTransferChunksPending() {
+        return stateTransferChunksPending.get();
+    }
+
+    /**
+     * @return the time in milliseconds taken by the most recent session state
+     *         transfer, or taken so far if it is still in progress.
+     */
+    public long getStateTransferTime() {
+        long start = stateTransferStartTime;
+        if (start == 0) {
+            return 0;
+        }
+        long end = stateTransferEndTime;
+        return (end == 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    /**
+     * @return the number of sessions per second received by the most recent
+     *         session state transfer.
+     */
+    public double getStateTransferThroughput() {
+        long time = getStateTransferTime();
+        if (time <= 0) {
+            return 0;
+        }
+        return stateTransferSessionsReceived.get() * 1000.0 / time;
+    }
+
     /**
      * @return Returns the notifySessionListenersOnReplication.
      */
@@ -654,17 +796,21 @@ public class DeltaManager extends ClusterManagerBase{
                 session.resetDeltaRequest();
                 // FIXME How inform other session id cache like SingleSignOn
                 // increment sessionCounter to correct stats report
-                if (findSession(session.getIdInternal()) == null ) {
-                    sessionCounter++;
-                } else {
-                    sessionReplaceCounter++;
-                    // FIXME better is to grap this sessions again !
-                    if (log.isWarnEnabled()) {
-                        log.warn(sm.getString("deltaManager.loading.existing.session",
-                                session.getIdInternal()));
+                // Blocks of sessions may be deserialized concurrently
+                synchronized (stateTransferLock) {
+                    if (findSession(session.getIdInternal()) == null ) {
+                        sessionCounter++;
+                    } else {
+                        sessionReplaceCounter++;
+                        // FIXME better is to grap this sessions again !
+                        if (log.isWarnEnabled()) {
+                            log.warn(sm.getString("deltaManager.loading.existing.session",
+                                    session.getIdInternal()));
+                        }
                     }
                 }
                 add(session);
+                stateTransferSessionsReceived.incrementAndGet();
                 if (notifySessionListenersOnReplication) {
                     session.tellNew();
                 }
@@ -757,31 +903,40 @@ public class DeltaManager extends ClusterManagerBase{
     public synchronized void getAllClusterSessions() {
         if (cluster != null && cluster.getMembers().length > 0) {
             long beforeSendTime = System.currentTimeMillis();
-            Member mbr = findSessionMasterMember();
-            if(mbr == null) { // No domain member found
+            Member[] mbrs = findStateTransferMembers();
+            if(mbrs.length == 0) { // No domain member found
                  return;
             }
-            SessionMessage msg = new SessionMessageImpl(this.getName(),
-                    SessionMessage.EVT_GET_ALL_SESSIONS, null, "GET-ALL", "GET-ALL-" + getName());
-            msg.setTimestamp(beforeSendTime);
             // set reference time
             stateTransferCreateSendTime = beforeSendTime ;
-            // request session state
-            counterSend_EVT_GET_ALL_SESSIONS++;
+            startStateTransfer(mbrs, beforeSendTime);
             stateTransfered = false ;
             // FIXME This send call block the deploy thread, when sender waitForAck is enabled
             try {
                 synchronized(receivedMessageQueue) {
                      receiverQueue = true ;
                 }
-                cluster.send(msg, mbr);
+                // request session state, a partition from each member
+                for (int i = 0; i < mbrs.length; i++) {
+                    requestSessions(mbrs[i], i, mbrs.length, beforeSendTime);
+                }
                 if (log.isInfoEnabled())
-                    log.info(sm.getString("deltaManager.waitForSessionState",
-                            getName(), mbr, Integer.valueOf(getStateTransferTimeout())));
+                    log.info(sm.getString("deltaManager.waitForSessionState", getName(),
+                            mbrs.length == 1 ? mbrs[0] : Arrays.toString(mbrs),
+                            Integer.valueOf(getStateTransferTimeout())));
                 // FIXME At sender ack mode this method check only the state
                 //       transfer and resend is a problem!
                 waitForSendAllSessions(beforeSendTime);
             } finally {
+                ExecutorService executor = stateTransferExecutor;
+                stateTransferExecutor = null;
+                if (executor != null) {
+                    // Allow any blocks still being deserialized to complete
+                    executor.shutdown();
+                }
+                if (stateTransferEndTime == 0) {
+                    stateTransferEndTime = System.currentTimeMillis();
+                }
                 synchronized(receivedMessageQueue) {
                     for (Iterator<SessionMessage> iter = receivedMessageQueue.iterator();
                             iter.hasNext();) {
@@ -817,6 +972,94 @@ public class DeltaManager extends ClusterManagerBase{
         }
     }
 
+    /**
+     * Prepare to receive the session state from the given members.
+     */
+    private void startStateTransfer(Member[] mbrs, long startTime) {
+        synchronized (stateTransferLock) {
+            stateTransferPartitions.clear();
+            for (int i = 0; i < mbrs.length; i++) {
+                stateTransferPartitions.put(Integer.valueOf(i), mbrs[i]);
+            }
+            stateTransferNoContextMembers.clear();
+            stateTransferRequestedMembers = mbrs;
+            stateTransferPartitionCount = mbrs.length;
+            stateTransferIncomplete = false;
+            stateTransferCompleteTimestamp = Long.MAX_VALUE;
+        }
+        stateTransferSessionsReceived.set(0);
+        stateTransferBytesReceived.set(0);
+        stateTransferStartTime = startTime;
+        stateTransferEndTime = 0;
+        if (stateTransferThreads > 1) {
+            stateTransferExecutor = Executors.newFixedThreadPool(stateTransferThreads,
+                    new TaskThreadFactory(getName() + "-StateTransfer-", true,
+                            Thread.NORM_PRIORITY));
+        }
+    }
+
+    /**
+     * Ask a member for a partition of the session state. If the state is not
+     * partitioned the member is asked for all the sessions.
+     */
+    private void requestSessions(Member mbr, int partition, int partitions, long sendTime) {
+        byte[] data = null;
+        if (partitions > 1) {
+            data = new byte[8];
+            XByteBuffer.toBytes(partition, data, 0);
+            XByteBuffer.toBytes(partitions, data, 4);
+        }
+        SessionMessage msg = new SessionMessageImpl(this.getName(),
+                SessionMessage.EVT_GET_ALL_SESSIONS, data, "GET-ALL", "GET-ALL-" + getName());
+        msg.setTimestamp(sendTime);
+        counterSend_EVT_GET_ALL_SESSIONS++;
+        cluster.send(msg, mbr);
+    }
+
+    /**
+     * Mark the session state transfer as complete once every partition has
+     * been received and deserialized.
+     */
+    private void checkStateTransferComplete() {
+        synchronized (stateTransferLock) {
+            if (!stateTransferPartitions.isEmpty() || stateTransferChunksPending.get() > 0 ||
+                    stateTransfered || noContextManagerReceived) {
+                return;
+            }
+            stateTransferEndTime = System.currentTimeMillis();
+            if (stateTransferIncomplete) {
+                noContextManagerReceived = true;
+            } else {
+                if (stateTransferCompleteTimestamp != Long.MAX_VALUE) {
+                    // Messages sent before the earliest snapshot of the
+                    // session state are included in the state
+                    stateTransferCreateSendTime = stateTransferCompleteTimestamp;
+                }
+                stateTransfered = true;
+            }
+        }
+    }
+
+    /**
+     * Find the members to ask for the session state. If more than one member
+     * is returned each one will be asked for a different partition of the
+     * sessions.
+     * @return the members to request the session state from
+     */
+    protected Member[] findStateTransferMembers() {
+        if (stateTransferMembers <= 1) {
+            Member mbr = findSessionMasterMember();
+            return mbr == null ? new Member[0] : new Member[] { mbr };
+        }
+        Member mbrs[] = cluster.getMembers();
+        if (mbrs.length == 0 && log.isWarnEnabled()) {
+            log.warn(sm.getString("deltaManager.noMasterMember",getName(), ""));
+        }
+        Member[] result = new Member[Math.min(stateTransferMembers, mbrs.length)];
+        System.arraycopy(mbrs, 0, result, 0, result.length);
+        return result;
+    }
+
     /**
      * Find the master of the session state
      * @return master member of sessions
@@ -1274,8 +1517,18 @@ public class DeltaManager extends ClusterManagerBase{
             log.debug(sm.getString("deltaManager.receiveMessage.transfercomplete",
                     getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
         }
-        stateTransferCreateSendTime = msg.getTimestamp() ;
-        stateTransfered = true ;
+        synchronized (stateTransferLock) {
+            byte[] partition = msg.getSession();
+            if (partition != null && partition.length == 8) {
+                stateTransferPartitions.remove(Integer.valueOf(XByteBuffer.toInt(partition, 0)));
+            } else {
+                // The member sent all of the sessions
+                stateTransferPartitions.clear();
+            }
+            stateTransferCompleteTimestamp =
+                    Math.min(stateTransferCompleteTimestamp, msg.getTimestamp());
+        }
+        checkStateTransferComplete();
     }
 
     /**
@@ -1384,6 +1637,18 @@ public class DeltaManager extends ClusterManagerBase{
             log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataBegin", getName()));
         }
         byte[] data = msg.getSession();
+        stateTransferBytesReceived.addAndGet(data.length);
+        ExecutorService executor = stateTransferExecutor;
+        if (executor != null) {
+            stateTransferChunksPending.incrementAndGet();
+            try {
+                executor.execute(new DeserializeSessionsTask(data));
+                return;
+            } catch (RejectedExecutionException e) {
+                // The state transfer has finished
+                stateTransferChunksPending.decrementAndGet();
+            }
+        }
         deserializeSessions(data);
         if (log.isDebugEnabled()) {
             log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataAfter", getName()));
@@ -1410,6 +1675,11 @@ public class DeltaManager extends ClusterManagerBase{
         // get all sessions and serialize without sync
         Session[] currentSessions = findSessions();
         long findSessionTimestamp = System.currentTimeMillis() ;
+        byte[] partition = msg.getSession();
+        if (partition != null && partition.length == 8) {
+            currentSessions = selectPartition(currentSessions,
+                    XByteBuffer.toInt(partition, 0), XByteBuffer.toInt(partition, 4));
+        }
         if (isSendAllSessions()) {
             sendSessions(sender, currentSessions, findSessionTimestamp);
         } else {
@@ -1433,7 +1703,7 @@ public class DeltaManager extends ClusterManagerBase{
         }//end if
 
         SessionMessage newmsg = new SessionMessageImpl(name,
-                SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE, null, "SESSION-STATE-TRANSFERED",
+                SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE, partition, "SESSION-STATE-TRANSFERED",
                 "SESSION-STATE-TRANSFERED" + getName());
         newmsg.setTimestamp(findSessionTimestamp);
         if (log.isDebugEnabled()) {
@@ -1471,7 +1741,40 @@ public class DeltaManager extends ClusterManagerBase{
         if (log.isDebugEnabled())
             log.debug(sm.getString("deltaManager.receiveMessage.noContextManager",
                     getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
-        noContextManagerReceived = true ;
+        List<Integer> reassigned = new ArrayList<>();
+        Member replacement = null;
+        synchronized (stateTransferLock) {
+            if (!stateTransferPartitions.containsValue(sender)) {
+                noContextManagerReceived = true ;
+                return;
+            }
+            // Ask another member for the partitions this member cannot send
+            stateTransferNoContextMembers.add(sender);
+            for (Member member : stateTransferRequestedMembers) {
+                if (!stateTransferNoContextMembers.contains(member)) {
+                    replacement = member;
+                    break;
+                }
+            }
+            for (Iterator<Map.Entry<Integer,Member>> iter =
+                    stateTransferPartitions.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<Integer,Member> entry = iter.next();
+                if (entry.getValue().equals(sender)) {
+                    if (replacement == null) {
+                        iter.remove();
+                        stateTransferIncomplete = true;
+                    } else {
+                        entry.setValue(replacement);
+                        reassigned.add(entry.getKey());
+                    }
+                }
+            }
+        }
+        for (Integer partition : reassigned) {
+            requestSessions(replacement, partition.intValue(), stateTransferPartitionCount,
+                    stateTransferStartTime);
+        }
+        checkStateTransferComplete();
     }
 
     /**
@@ -1497,6 +1800,23 @@ public class DeltaManager extends ClusterManagerBase{
         cluster.send(newmsg, sender);
     }
 
+    /**
+     * Select the sessions in the given partition of the session state.
+     * @param sessions all the sessions
+     * @param partition the partition to select
+     * @param partitions the number of partitions
+     * @return the sessions in the partition
+     */
+    protected Session[] selectPartition(Session[] sessions, int partition, int partitions) {
+        List<Session> result = new ArrayList<>(sessions.length / partitions + 1);
+        for (Session session : sessions) {
+            if ((session.getIdInternal().hashCode() & 0x7FFFFFFF) % partitions == partition) {
+                result.add(session);
+            }
+        }
+        return result.toArray(new Session[result.size()]);
+    }
+
     @Override
     public ClusterManager cloneFromTemplate() {
         DeltaManager result = new DeltaManager();
@@ -1509,6 +1829,43 @@ public class DeltaManager extends ClusterManagerBase{
         result.sendAllSessionsSize = sendAllSessionsSize;
         result.sendAllSessionsWaitTime = sendAllSessionsWaitTime ;
         result.stateTimestampDrop = stateTimestampDrop ;
+        result.stateTransferMembers = stateTransferMembers;
+        result.stateTransferThreads = stateTransferThreads;
         return result;
     }
+
+    /**
+     * Deserializes a block of the session state received from another member
+     * while the thread that received it continues to receive the next block.
+     */
+    private class DeserializeSessionsTask implements Runnable {
+
+        private final byte[] data;
+
+        public DeserializeSessionsTask(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public void run() {
+            ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                ClassLoader[] loaders = getClassLoaders();
+                if (loaders != null && loaders.length > 0) {
+                    Thread.currentThread().setContextClassLoader(loaders[0]);
+                }
+                deserializeSessions(data);
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataAfter",
+                            getName()));
+                }
+            } catch (Exception x) {
+                log.error(sm.getString("deltaManager.receiveMessage.error", getName()), x);
+            } finally {
+                Thread.currentThread().setContextClassLoader(contextLoader);
+                stateTransferChunksPending.decrementAndGet();
+                checkStateTransferComplete();
+            }
+        }
+    }
 }
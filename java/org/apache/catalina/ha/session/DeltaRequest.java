@@ -56,6 +56,7 @@ public class DeltaRequest implements Externalizable {
 
     public static final int ACTION_SET = 0;
     public static final int ACTION_REMOVE = 1;
+    public static final int ACTION_DIFF = 2;
 
     public static final String NAME_PRINCIPAL = "__SET__PRINCIPAL__";
     public static final String NAME_MAXINTERVAL = "__SET__MAXINTERVAL__";
@@ -85,6 +86,25 @@ public class DeltaRequest implements Externalizable {
         addAction(TYPE_ATTRIBUTE,action,name,value);
     }
 
+    /**
+     * Record that an attribute value that is already replicated has been set
+     * again so that only the changes to the value are replicated. If the value
+     * has not yet been replicated by this request the whole value is
+     * replicated.
+     * @param name  the attribute name
+     * @param value the attribute value
+     */
+    public void setAttributeDiff(String name, DeltaAttribute value) {
+        for (AttributeInfo info : actions) {
+            if (info.getType() == TYPE_ATTRIBUTE && info.getAction() == ACTION_SET &&
+                    info.getName().equals(name)) {
+                addAction(TYPE_ATTRIBUTE, ACTION_SET, name, value);
+                return;
+            }
+        }
+        addAction(TYPE_ATTRIBUTE, ACTION_DIFF, name, value);
+    }
+
     public void removeAttribute(String name) {
         int action = ACTION_REMOVE;
         addAction(TYPE_ATTRIBUTE,action,name,null);
@@ -173,6 +193,9 @@ public class DeltaRequest implements Externalizable {
                     if ( info.getAction() == ACTION_SET ) {
                         if ( log.isTraceEnabled() ) log.trace("Session.setAttribute('"+info.getName()+"', '"+info.getValue()+"')");
                         session.setAttribute(info.getName(), info.getValue(),notifyListeners,false);
+                    } else if ( info.getAction() == ACTION_DIFF ) {
+                        if ( log.isTraceEnabled() ) log.trace("Session.applyDiff('"+info.getName()+"')");
+                        applyDiff(session, info.getName(), (byte[]) info.getValue(), notifyListeners);
                     }  else {
                         if ( log.isTraceEnabled() ) log.trace("Session.removeAttribute('"+info.getName()+"')");
                         session.removeAttribute(info.getName(),notifyListeners,false);
@@ -217,6 +240,22 @@ public class DeltaRequest implements Externalizable {
         reset();
     }
 
+    private void applyDiff(DeltaSession session, String name, byte[] diff,
+            boolean notifyListeners) {
+        Object value = session.getAttribute(name);
+        if (!(value instanceof DeltaAttribute)) {
+            log.warn(sm.getString("deltaRequest.diffNoAttribute", name, getSessionId()));
+            return;
+        }
+        try {
+            ((DeltaAttribute) value).applyDiff(diff, 0, diff.length);
+        } catch (IOException | ClassNotFoundException e) {
+            log.error(sm.getString("deltaRequest.diffFailed", name, getSessionId()), e);
+            return;
+        }
+        session.setAttribute(name, value, notifyListeners, false);
+    }
+
     public void reset() {
         while ( actions.size() > 0 ) {
             try {
@@ -399,7 +438,16 @@ public class DeltaRequest implements Externalizable {
             out.writeInt(getAction());
             out.writeUTF(getName());
             out.writeBoolean(getValue()!=null);
-            if (getValue()!=null) out.writeObject(getValue());
+            if (getValue()!=null) {
+                if (getAction() == ACTION_DIFF) {
+                    out.writeObject(((DeltaAttribute) getValue()).getDiff());
+                } else {
+                    out.writeObject(getValue());
+                    if (getValue() instanceof DeltaAttribute) {
+                        ((DeltaAttribute) getValue()).resetDiff();
+                    }
+                }
+            }
         }
 
         @Override
@@ -18,7 +18,6 @@ package org.apache.catalina.ha.session;
 
 import java.io.Externalizable;
 import java.io.IOException;
-import java.io.NotSerializableException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
@@ -27,6 +26,9 @@ import java.io.Serializable;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -34,10 +36,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.catalina.Manager;
 import org.apache.catalina.SessionListener;
+import org.apache.catalina.SessionSerializer;
 import org.apache.catalina.ha.CatalinaCluster;
 import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.ha.ClusterSession;
+import org.apache.catalina.session.JavaSessionSerializer;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.session.StandardSession;
 import org.apache.catalina.tribes.io.ReplicationStream;
@@ -291,7 +295,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
 
     public void setMaxInactiveInterval(int interval, boolean addDeltaRequest) {
-        super.maxInactiveInterval = interval;
+        super.setMaxInactiveInterval(interval);
         if (addDeltaRequest && (deltaRequest != null)) {
             lock();
             try {
@@ -703,9 +707,15 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
         lock();
         try {
+            Object oldValue = attributes.get(name);
             super.setAttribute(name,value, notify);
             if (addDeltaRequest && deltaRequest != null && !exclude(name)) {
-                deltaRequest.setAttribute(name, value);
+                if (value == oldValue && value instanceof DeltaAttribute) {
+                    // The other nodes already have this value
+                    deltaRequest.setAttributeDiff(name, (DeltaAttribute) value);
+                } else {
+                    deltaRequest.setAttribute(name, value);
+                }
             }
         } finally {
             unlock();
@@ -739,13 +749,28 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
         // Deserialize the scalar instance variables (except Manager)
         authType = null; // Transient only
-        creationTime = ( (Long) stream.readObject()).longValue();
-        lastAccessedTime = ( (Long) stream.readObject()).longValue();
-        maxInactiveInterval = ( (Integer) stream.readObject()).intValue();
-        isNew = ( (Boolean) stream.readObject()).booleanValue();
-        isValid = ( (Boolean) stream.readObject()).booleanValue();
-        thisAccessedTime = ( (Long) stream.readObject()).longValue();
-        version = ( (Long) stream.readObject()).longValue();
+        SessionSerializer serializer;
+        Object first = stream.readObject();
+        if (first == null) {
+            // Written using a SessionSerializer other than the Java one
+            serializer = getSessionSerializer(stream.readUTF());
+            creationTime = stream.readLong();
+            lastAccessedTime = stream.readLong();
+            maxInactiveInterval = stream.readInt();
+            isNew = stream.readBoolean();
+            isValid = stream.readBoolean();
+            thisAccessedTime = stream.readLong();
+            version = stream.readLong();
+        } else {
+            serializer = getSessionSerializer(JavaSessionSerializer.NAME);
+            creationTime = ( (Long) first).longValue();
+            lastAccessedTime = ( (Long) stream.readObject()).longValue();
+            maxInactiveInterval = ( (Integer) stream.readObject()).intValue();
+            isNew = ( (Boolean) stream.readObject()).booleanValue();
+            isValid = ( (Boolean) stream.readObject()).booleanValue();
+            thisAccessedTime = ( (Long) stream.readObject()).longValue();
+            version = ( (Long) stream.readObject()).longValue();
+        }
         boolean hasPrincipal = stream.readBoolean();
         principal = null;
         if (hasPrincipal) {
@@ -758,20 +783,13 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
         // Deserialize the attribute count and attribute values
         if (attributes == null) attributes = new ConcurrentHashMap<>();
-        int n = ( (Integer) stream.readObject()).intValue();
         boolean isValidSave = isValid;
         isValid = true;
-        for (int i = 0; i < n; i++) {
-            String name = (String) stream.readObject();
-            Object value = stream.readObject();
-            if ( (value instanceof String) && (value.equals(NOT_SERIALIZED)))
-                continue;
-            attributes.put(name, value);
-        }
+        attributes.putAll(serializer.readAttributes(stream, getSerializationClassLoader()));
         isValid = isValidSave;
 
         // Session listeners
-        n = ((Integer) stream.readObject()).intValue();
+        int n = ((Integer) stream.readObject()).intValue();
         if (listeners == null || n > 0) {
             listeners = new ArrayList<>();
         }
@@ -824,49 +842,57 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
     }
 
     private void doWriteObject(ObjectOutput stream) throws IOException {
+        SessionSerializer serializer = getSessionSerializer();
+
         // Write the scalar instance variables (except Manager)
-        stream.writeObject(Long.valueOf(creationTime));
-        stream.writeObject(Long.valueOf(lastAccessedTime));
-        stream.writeObject(Integer.valueOf(maxInactiveInterval));
-        stream.writeObject(Boolean.valueOf(isNew));
-        stream.writeObject(Boolean.valueOf(isValid));
-        stream.writeObject(Long.valueOf(thisAccessedTime));
-        stream.writeObject(Long.valueOf(version));
+        if (JavaSessionSerializer.NAME.equals(serializer.getName())) {
+            // The format used before session serializers were introduced so
+            // that older versions can still read the session
+            stream.writeObject(Long.valueOf(creationTime));
+            stream.writeObject(Long.valueOf(lastAccessedTime));
+            stream.writeObject(Integer.valueOf(maxInactiveInterval));
+            stream.writeObject(Boolean.valueOf(isNew));
+            stream.writeObject(Boolean.valueOf(isValid));
+            stream.writeObject(Long.valueOf(thisAccessedTime));
+            stream.writeObject(Long.valueOf(version));
+        } else {
+            // The null distinguishes this format from the one above
+            stream.writeObject(null);
+            stream.writeUTF(serializer.getName());
+            stream.writeLong(creationTime);
+            stream.writeLong(lastAccessedTime);
+            stream.writeInt(maxInactiveInterval);
+            stream.writeBoolean(isNew);
+            stream.writeBoolean(isValid);
+            stream.writeLong(thisAccessedTime);
+            stream.writeLong(version);
+        }
         stream.writeBoolean(getPrincipal() instanceof Serializable);
         if (getPrincipal() instanceof Serializable) {
             stream.writeObject(getPrincipal());
         }
 
+        // The ID may be null
         stream.writeObject(id);
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaSession.writeSession", id));
 
         // Accumulate the names of serializable and non-serializable attributes
         String keys[] = keys();
-        ArrayList<String> saveNames = new ArrayList<>();
-        ArrayList<Object> saveValues = new ArrayList<>();
+        Map<String,Object> saveAttributes = new LinkedHashMap<>();
         for (int i = 0; i < keys.length; i++) {
             Object value = null;
             value = attributes.get(keys[i]);
             if (value == null || exclude(keys[i]))
                 continue;
             else if (value instanceof Serializable) {
-                saveNames.add(keys[i]);
-                saveValues.add(value);
+                saveAttributes.put(keys[i], value);
             }
         }
 
-        // Serialize the attribute count and the Serializable attributes
-        int n = saveNames.size();
-        stream.writeObject(Integer.valueOf(n));
-        for (int i = 0; i < n; i++) {
-            stream.writeObject( saveNames.get(i));
-            try {
-                stream.writeObject(saveValues.get(i));
-            } catch (NotSerializableException e) {
-                log.error(sm.getString("standardSession.notSerializable",saveNames.get(i), id), e);
-                stream.writeObject(NOT_SERIALIZED);
-                log.error("  storing attribute '" + saveNames.get(i)+ "' with value NOT_SERIALIZED");
-            }
+        // Serialize the Serializable attributes
+        List<String> notSerialized = serializer.writeAttributes(stream, saveAttributes);
+        for (String name : notSerialized) {
+            log.error(sm.getString("standardSession.notSerializable", name, id));
         }
 
         // Serializable listeners
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Host;
@@ -73,6 +74,19 @@ public final class Mapper {
             new ConcurrentHashMap<>();
 
 
+    /**
+     * Incremented after every change to the mappings so that cached mapping
+     * results from before the change are not used.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+
+    /**
+     * Cache of recent mapping results or <code>null</code> if disabled.
+     */
+    private volatile MappingCache mappingCache = null;
+
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -82,6 +96,46 @@ public final class Mapper {
      */
     public void setDefaultHostName(String defaultHostName) {
         this.defaultHostName = defaultHostName;
+        mappingChanged();
+    }
+
+
+    /**
+     * Set the number of recent mapping results to cache. Only results that are
+     * determined by an exact, prefix or extension servlet mapping are cached.
+     * The size is rounded up to a power of two.
+     *
+     * @param mappingCacheSize The number of results to cache or zero to
+     *                         disable the cache
+     */
+    public void setMappingCacheSize(int mappingCacheSize) {
+        if (mappingCacheSize > 0) {
+            mappingCache = new MappingCache(mappingCacheSize);
+        } else {
+            mappingCache = null;
+        }
+    }
+
+
+    public int getMappingCacheSize() {
+        MappingCache mappingCache = this.mappingCache;
+        return mappingCache == null ? 0 : mappingCache.getSize();
+    }
+
+
+    MappingCache getMappingCache() {
+        return mappingCache;
+    }
+
+
+    private void mappingChanged() {
+        generation.incrementAndGet();
+        // Stale results must not keep removed Contexts (and their class
+        // loaders) reachable
+        MappingCache mappingCache = this.mappingCache;
+        if (mappingCache != null) {
+            mappingCache.clear();
+        }
     }
 
     /**
@@ -97,6 +151,7 @@ public final class Mapper {
         MappedHost newHost = new MappedHost(name, host);
         if (insertMap(hosts, newHosts, newHost)) {
             hosts = newHosts;
+            mappingChanged();
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString("mapper.addHost.success", name));
             }
@@ -148,6 +203,7 @@ public final class Mapper {
             }
         }
         hosts = Arrays.copyOf(newHosts, j);
+        mappingChanged();
     }
 
     /**
@@ -172,6 +228,7 @@ public final class Mapper {
         MappedHost[] newHosts = new MappedHost[hosts.length + 1];
         if (insertMap(hosts, newHosts, newAlias)) {
             hosts = newHosts;
+            mappingChanged();
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString("mapper.addHostAlias.success",
                         newAlias.name, newAlias.getRealHostName()));
@@ -209,6 +266,7 @@ public final class Mapper {
         if (removeMap(hosts, newHosts, alias)) {
             hosts = newHosts;
             hostMapping.getRealHost().removeAlias(hostMapping);
+            mappingChanged();
         }
 
     }
@@ -224,6 +282,7 @@ public final class Mapper {
         for (MappedHost alias : realHost.getAliases()) {
             alias.contextList = newContextList;
         }
+        mappingChanged();
     }
 
     /**
@@ -300,6 +359,7 @@ public final class Mapper {
                         newContextVersion)) {
                     mappedContext.versions = newContextVersions;
                     contextObjectToContextVersionMap.put(context, newContextVersion);
+                    mappingChanged();
                 } else {
                     // Re-registration after Context.reload()
                     // Replace ContextVersion with the new one
@@ -307,6 +367,7 @@ public final class Mapper {
                     if (pos >= 0 && contextVersions[pos].name.equals(version)) {
                         contextVersions[pos] = newContextVersion;
                         contextObjectToContextVersionMap.put(context, newContextVersion);
+                        mappingChanged();
                     }
                 }
             }
@@ -352,6 +413,7 @@ public final class Mapper {
                     }
                 } else {
                     context.versions = newContextVersions;
+                    mappingChanged();
                 }
             }
         }
@@ -376,6 +438,7 @@ public final class Mapper {
             return;
         }
         contextVersion.markPaused();
+        mappingChanged();
     }
 
 
@@ -508,6 +571,7 @@ public final class Mapper {
                 }
             }
         }
+        mappingChanged();
     }
 
 
@@ -591,6 +655,7 @@ public final class Mapper {
                 }
             }
         }
+        mappingChanged();
     }
 
 
@@ -614,6 +679,7 @@ public final class Mapper {
                 newWelcomeResources, 0, len - 1);
         newWelcomeResources[len - 1] = welcomeFile;
         contextVersion.welcomeResources = newWelcomeResources;
+        mappingChanged();
     }
 
     /**
@@ -647,6 +713,7 @@ public final class Mapper {
                         newWelcomeResources, match, len - match);
             }
             contextVersion.welcomeResources = newWelcomeResources;
+            mappingChanged();
         }
     }
 
@@ -664,6 +731,7 @@ public final class Mapper {
             return;
         }
         contextVersion.welcomeResources = new String[0];
+        mappingChanged();
     }
 
     /**
@@ -734,6 +802,15 @@ public final class Mapper {
 
         uri.setLimit(-1);
 
+        // Read the generation before mapping so a result is not cached as
+        // current if the mappings change while it is being obtained
+        MappingCache mappingCache = this.mappingCache;
+        int generation = this.generation.get();
+        if (mappingCache != null &&
+                mappingCache.get(host, uri, version, generation, mappingData)) {
+            return;
+        }
+
         // Virtual host mapping
         MappedHost[] hosts = this.hosts;
         MappedHost mappedHost = exactFindIgnoreCase(hosts, host);
@@ -819,7 +896,15 @@ public final class Mapper {
 
         // Wrapper mapping
         if (!contextVersion.isPaused()) {
-            internalMapWrapper(contextVersion, uri, mappingData);
+            boolean cacheable = internalMapWrapper(contextVersion, uri, mappingData);
+            if (cacheable && mappingCache != null) {
+                mappingCache.put(host, uri, version, generation, mappingData);
+                if (this.generation.get() != generation) {
+                    // The mappings changed while this request was being mapped
+                    // and the cache may already have been cleared
+                    mappingCache.clear();
+                }
+            }
         }
 
     }
@@ -827,10 +912,12 @@ public final class Mapper {
 
     /**
      * Wrapper mapping.
+     * @return <code>true</code> if the result was determined only by the
+     *         servlet mappings of the context and may be cached
      * @throws IOException if the buffers are too small to hold the results of
      *                     the mapping.
      */
-    private final void internalMapWrapper(ContextVersion contextVersion,
+    private final boolean internalMapWrapper(ContextVersion contextVersion,
                                           CharChunk path,
                                           MappingData mappingData) throws IOException {
 
@@ -852,16 +939,15 @@ public final class Mapper {
 
         path.setOffset(servletPath);
 
+        WrapperTrie wrapperTrie = contextVersion.getWrapperTrie();
+
         // Rule 1 -- Exact Match
-        MappedWrapper[] exactWrappers = contextVersion.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        internalMapExactWrapper(wrapperTrie, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
-                                       path, mappingData);
+            internalMapWildcardWrapper(wrapperTrie, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -889,16 +975,18 @@ public final class Mapper {
             mappingData.redirectPath.setChars
                 (path.getBuffer(), pathOffset, pathEnd-pathOffset);
             path.setEnd(pathEnd - 1);
-            return;
+            return false;
         }
 
         // Rule 3 -- Extension Match
-        MappedWrapper[] extensionWrappers = contextVersion.extensionWrappers;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData,
+            internalMapExtensionWrapper(wrapperTrie, path, mappingData,
                     true);
         }
 
+        // Rules 4 onwards depend on the presence of resources
+        boolean cacheable = !noServletPath && mappingData.wrapper != null;
+
         // Rule 4 -- Welcome resources processing for servlets
         if (mappingData.wrapper == null) {
             boolean checkWelcomeFiles = checkJspWelcomeFiles;
@@ -916,13 +1004,11 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(wrapperTrie, path, mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
-                        internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
+                        internalMapWildcardWrapper(wrapperTrie, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -933,7 +1019,7 @@ public final class Mapper {
                         WebResource file =
                                 contextVersion.resources.getResource(pathStr);
                         if (file != null && file.isFile()) {
-                            internalMapExtensionWrapper(extensionWrappers, path,
+                            internalMapExtensionWrapper(wrapperTrie, path,
                                                         mappingData, true);
                             if (mappingData.wrapper == null
                                 && contextVersion.defaultWrapper != null) {
@@ -979,7 +1065,7 @@ public final class Mapper {
                     path.append(contextVersion.welcomeResources[i], 0,
                                 contextVersion.welcomeResources[i].length());
                     path.setOffset(servletPath);
-                    internalMapExtensionWrapper(extensionWrappers, path,
+                    internalMapExtensionWrapper(wrapperTrie, path,
                                                 mappingData, false);
                 }
 
@@ -1022,6 +1108,7 @@ public final class Mapper {
         path.setOffset(pathOffset);
         path.setEnd(pathEnd);
 
+        return cacheable;
     }
 
 
@@ -1029,8 +1116,9 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (MappedWrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        MappedWrapper wrapper = exactFind(wrappers, path);
+        (WrapperTrie wrapperTrie, CharChunk path, MappingData mappingData) {
+        MappedWrapper wrapper = wrapperTrie.findExact(
+                path.getBuffer(), path.getStart(), path.getEnd());
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1051,49 +1139,23 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (MappedWrapper[] wrappers, int nesting, CharChunk path,
-         MappingData mappingData) {
+        (WrapperTrie wrapperTrie, CharChunk path, MappingData mappingData) {
 
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+        MappedWrapper wrapper = wrapperTrie.findWildcard(
+                path.getBuffer(), path.getStart(), path.getEnd());
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
         }
     }
 
@@ -1101,12 +1163,12 @@ public final class Mapper {
     /**
      * Extension mappings.
      *
-     * @param wrappers          Set of wrappers to check for matches
+     * @param wrapperTrie       Compiled mappings to check for matches
      * @param path              Path to map
      * @param mappingData       Mapping data for result
      * @param resourceExpected  Is this mapping expecting to find a resource
      */
-    private final void internalMapExtensionWrapper(MappedWrapper[] wrappers,
+    private final void internalMapExtensionWrapper(WrapperTrie wrapperTrie,
             CharChunk path, MappingData mappingData, boolean resourceExpected) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
@@ -1127,9 +1189,8 @@ public final class Mapper {
                 }
             }
             if (period >= 0) {
-                path.setOffset(period + 1);
-                path.setEnd(pathEnd);
-                MappedWrapper wrapper = exactFind(wrappers, path);
+                MappedWrapper wrapper = wrapperTrie.findExtension(
+                        buf, period + 1, pathEnd);
                 if (wrapper != null
                         && (resourceExpected || !wrapper.resourceOnly)) {
                     mappingData.wrapperPath.setChars(buf, servletPath, pathEnd
@@ -1138,8 +1199,6 @@ public final class Mapper {
                             - servletPath);
                     mappingData.wrapper = wrapper.object;
                 }
-                path.setOffset(servletPath);
-                path.setEnd(pathEnd);
             }
         }
     }
@@ -1322,23 +1381,6 @@ public final class Mapper {
         return null;
     }
 
-    /**
-     * Find a map element given its name in a sorted array of map elements. This
-     * will return the element that you were searching for. Otherwise it will
-     * return <code>null</code>.
-     */
-    private static final <T, E extends MapElement<T>> E exactFind(E[] map,
-            CharChunk name) {
-        int pos = find(map, name);
-        if (pos >= 0) {
-            E result = map[pos];
-            if (name.equals(result.name)) {
-                return result;
-            }
-        }
-        return null;
-    }
-
     /**
      * Find a map element given its name in a sorted array of map elements. This
      * will return the element that you were searching for. Otherwise it will
@@ -1657,6 +1699,8 @@ public final class Mapper {
         public MappedWrapper[] extensionWrappers = new MappedWrapper[0];
         public int nesting = 0;
         private volatile boolean paused;
+        // Published via the volatile field so the trie's nodes are visible
+        private volatile WrapperTrie wrapperTrie;
 
         public ContextVersion(String version, String path, int slashCount,
                 Context context, WebResourceRoot resources,
@@ -1675,6 +1719,24 @@ public final class Mapper {
         public void markPaused() {
             paused = true;
         }
+
+        /*
+         * The trie is compiled on first use after the wrappers change rather
+         * than on every change since wrappers are usually added one at a time.
+         */
+        WrapperTrie getWrapperTrie() {
+            MappedWrapper[] exactWrappers = this.exactWrappers;
+            MappedWrapper[] wildcardWrappers = this.wildcardWrappers;
+            MappedWrapper[] extensionWrappers = this.extensionWrappers;
+            WrapperTrie wrapperTrie = this.wrapperTrie;
+            if (wrapperTrie == null || !wrapperTrie.isCompiledFrom(
+                    exactWrappers, wildcardWrappers, extensionWrappers)) {
+                wrapperTrie = new WrapperTrie(
+                        exactWrappers, wildcardWrappers, extensionWrappers);
+                this.wrapperTrie = wrapperTrie;
+            }
+            return wrapperTrie;
+        }
     }
 
     // ---------------------------------------------------- Wrapper Inner Class
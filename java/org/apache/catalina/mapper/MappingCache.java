@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import java.util.Arrays;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
+import org.apache.tomcat.util.buf.Ascii;
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * A bounded cache of recent mapping results, keyed by host name, URI and
+ * requested context version. The cache is direct mapped: each key has a single
+ * slot and a new result replaces whatever occupied the slot. Lookups neither
+ * lock nor allocate.
+ * <p>
+ * Each result records the generation of the {@link Mapper} it was obtained
+ * from. Any change to the Mapper starts a new generation so results from
+ * earlier generations are never returned. The Mapper also clears the cache on
+ * every change so that results from earlier generations do not retain the
+ * Hosts, Contexts and Wrappers (and hence the web application class loaders)
+ * that were removed.
+ * <p>
+ * Only results that depend solely on the configuration of the Mapper may be
+ * cached. Results that depended on the presence of a resource (welcome files,
+ * the default servlet and directory redirects) must not be.
+ */
+final class MappingCache {
+
+    // Entries are immutable so they may be safely published via a data race
+    private final Entry[] entries;
+    private final int mask;
+
+
+    MappingCache(int size) {
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        entries = new Entry[capacity];
+        mask = capacity - 1;
+    }
+
+
+    int getSize() {
+        return entries.length;
+    }
+
+
+    /**
+     * Populate the mapping data from the cache.
+     *
+     * @return <code>true</code> if the result was found in the cache
+     */
+    boolean get(CharChunk host, CharChunk uri, String version, int generation,
+            MappingData mappingData) {
+        int hash = hash(host, uri, version);
+        Entry entry = entries[hash & mask];
+        if (entry == null || entry.hash != hash || entry.generation != generation ||
+                !entry.matches(host, uri, version)) {
+            return false;
+        }
+        mappingData.host = entry.mappedHost;
+        mappingData.context = entry.context;
+        mappingData.contextSlashCount = entry.contextSlashCount;
+        mappingData.contexts = entry.contexts;
+        mappingData.wrapper = entry.wrapper;
+        mappingData.jspWildCard = entry.jspWildCard;
+        setString(mappingData.contextPath, entry.contextPath);
+        setString(mappingData.requestPath, entry.requestPath);
+        setString(mappingData.wrapperPath, entry.wrapperPath);
+        setString(mappingData.pathInfo, entry.pathInfo);
+        return true;
+    }
+
+
+    void put(CharChunk host, CharChunk uri, String version, int generation,
+            MappingData mappingData) {
+        int hash = hash(host, uri, version);
+        entries[hash & mask] = new Entry(hash, host.toString(), uri.toString(),
+                version, generation, mappingData);
+    }
+
+
+    void clear() {
+        Arrays.fill(entries, null);
+    }
+
+
+    /**
+     * Used by the unit tests.
+     *
+     * @param object The Host, Context or Wrapper to look for
+     *
+     * @return <code>true</code> if any cached result refers to the object
+     */
+    boolean references(Object object) {
+        for (Entry entry : entries) {
+            if (entry == null) {
+                continue;
+            }
+            if (entry.mappedHost == object || entry.context == object || entry.wrapper == object) {
+                return true;
+            }
+            if (entry.contexts != null) {
+                for (Context context : entry.contexts) {
+                    if (context == object) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+
+    private static void setString(MessageBytes mb, String value) {
+        if (value != null) {
+            mb.setString(value);
+        }
+    }
+
+
+    private static String toString(MessageBytes mb) {
+        if (mb.isNull()) {
+            return null;
+        }
+        return mb.toString();
+    }
+
+
+    /*
+     * Host names are case insensitive.
+     */
+    private static int hash(CharChunk host, CharChunk uri, String version) {
+        int hash = 0;
+        char[] buf = host.getBuffer();
+        for (int i = host.getStart(); i < host.getEnd(); i++) {
+            hash = 31 * hash + Ascii.toLower(buf[i]);
+        }
+        buf = uri.getBuffer();
+        for (int i = uri.getStart(); i < uri.getEnd(); i++) {
+            hash = 31 * hash + buf[i];
+        }
+        if (version != null) {
+            hash = 31 * hash + version.hashCode();
+        }
+        // Spread the high bits as only the low bits select the slot
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private static final class Entry {
+
+        private final int hash;
+        private final String host;
+        private final String uri;
+        private final String version;
+        private final int generation;
+
+        private final Host mappedHost;
+        private final Context context;
+        private final int contextSlashCount;
+        private final Context[] contexts;
+        private final Wrapper wrapper;
+        private final boolean jspWildCard;
+        private final String contextPath;
+        private final String requestPath;
+        private final String wrapperPath;
+        private final String pathInfo;
+
+        Entry(int hash, String host, String uri, String version, int generation,
+                MappingData mappingData) {
+            this.hash = hash;
+            this.host = host;
+            this.uri = uri;
+            this.version = version;
+            this.generation = generation;
+            mappedHost = mappingData.host;
+            context = mappingData.context;
+            contextSlashCount = mappingData.contextSlashCount;
+            contexts = mappingData.contexts;
+            wrapper = mappingData.wrapper;
+            jspWildCard = mappingData.jspWildCard;
+            contextPath = MappingCache.toString(mappingData.contextPath);
+            requestPath = MappingCache.toString(mappingData.requestPath);
+            wrapperPath = MappingCache.toString(mappingData.wrapperPath);
+            pathInfo = MappingCache.toString(mappingData.pathInfo);
+        }
+
+        boolean matches(CharChunk host, CharChunk uri, String version) {
+            if (this.version == null ? version != null : !this.version.equals(version)) {
+                return false;
+            }
+            return uri.equals(this.uri) && host.equalsIgnoreCase(this.host);
+        }
+    }
+}
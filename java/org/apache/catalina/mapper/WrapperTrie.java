@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import org.apache.catalina.mapper.Mapper.MappedWrapper;
+
+/**
+ * The exact, prefix and extension servlet mappings of a context version
+ * compiled into character tries. A single pass over the path finds the exact
+ * match and the longest prefix match, and a single pass over the extension
+ * finds the extension match, regardless of the number of mappings.
+ * <p>
+ * Instances are immutable. A new instance is compiled whenever the mappings of
+ * the context version change. The arrays the trie was compiled from are
+ * retained so that callers can detect when that has happened.
+ */
+final class WrapperTrie {
+
+    final MappedWrapper[] exactWrappers;
+    final MappedWrapper[] wildcardWrappers;
+    final MappedWrapper[] extensionWrappers;
+
+    private final Node pathRoot;
+    private final Node extensionRoot;
+
+
+    WrapperTrie(MappedWrapper[] exactWrappers, MappedWrapper[] wildcardWrappers,
+            MappedWrapper[] extensionWrappers) {
+        this.exactWrappers = exactWrappers;
+        this.wildcardWrappers = wildcardWrappers;
+        this.extensionWrappers = extensionWrappers;
+
+        pathRoot = new Node();
+        for (MappedWrapper wrapper : exactWrappers) {
+            pathRoot.add(wrapper.name).exact = wrapper;
+        }
+        for (MappedWrapper wrapper : wildcardWrappers) {
+            pathRoot.add(wrapper.name).wildcard = wrapper;
+        }
+        extensionRoot = new Node();
+        for (MappedWrapper wrapper : extensionWrappers) {
+            extensionRoot.add(wrapper.name).exact = wrapper;
+        }
+    }
+
+
+    boolean isCompiledFrom(MappedWrapper[] exactWrappers,
+            MappedWrapper[] wildcardWrappers, MappedWrapper[] extensionWrappers) {
+        return this.exactWrappers == exactWrappers &&
+                this.wildcardWrappers == wildcardWrappers &&
+                this.extensionWrappers == extensionWrappers;
+    }
+
+
+    /**
+     * @return The wrapper whose exact mapping is the given path or
+     *         <code>null</code> if there is none
+     */
+    MappedWrapper findExact(char[] buf, int start, int end) {
+        Node node = pathRoot.find(buf, start, end);
+        return node == null ? null : node.exact;
+    }
+
+
+    /**
+     * @return The wrapper with the longest prefix mapping that matches the
+     *         given path or <code>null</code> if there is none. A prefix only
+     *         matches if it is the whole path or is followed by a '/'.
+     */
+    MappedWrapper findWildcard(char[] buf, int start, int end) {
+        Node node = pathRoot;
+        MappedWrapper result = null;
+        int pos = start;
+        while (true) {
+            if (node.wildcard != null && (pos == end || buf[pos] == '/')) {
+                result = node.wildcard;
+            }
+            if (pos == end) {
+                return result;
+            }
+            node = node.child(buf[pos++]);
+            if (node == null) {
+                return result;
+            }
+        }
+    }
+
+
+    /**
+     * @return The wrapper mapped to the given extension or <code>null</code>
+     *         if there is none
+     */
+    MappedWrapper findExtension(char[] buf, int start, int end) {
+        Node node = extensionRoot.find(buf, start, end);
+        return node == null ? null : node.exact;
+    }
+
+
+    private static final class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        // Sorted so children may be found with a binary search
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+
+        private MappedWrapper exact;
+        private MappedWrapper wildcard;
+
+        Node find(char[] buf, int start, int end) {
+            Node node = this;
+            for (int i = start; i < end && node != null; i++) {
+                node = node.child(buf[i]);
+            }
+            return node;
+        }
+
+        Node child(char c) {
+            char[] keys = this.keys;
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = keys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        /*
+         * Only used while the trie is being compiled.
+         */
+        Node add(String name) {
+            Node node = this;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                Node child = node.child(c);
+                if (child == null) {
+                    child = new Node();
+                    node.insert(c, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        private void insert(char c, Node child) {
+            int pos = 0;
+            while (pos < keys.length && keys[pos] < c) {
+                pos++;
+            }
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newKeys[pos] = c;
+            newChildren[pos] = child;
+            System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+            keys = newKeys;
+            children = newChildren;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Used by the {@link DefaultServlet} to compress static resources. The
+ * compressed content is cached so implementations may favour compression ratio
+ * over speed. Implementations must be thread safe and have a public no-argument
+ * constructor.
+ */
+public interface ContentEncoder {
+
+    /**
+     * @return The HTTP content-coding (as used in the Accept-Encoding and
+     *         Content-Encoding headers) produced by this encoder, in lower case
+     */
+    public String getEncoding();
+
+    /**
+     * Create a stream that encodes the data written to it and writes the result
+     * to the provided stream. Closing the returned stream must complete the
+     * encoding and release any resources used by the encoder.
+     *
+     * @param out The stream to write the encoded data to
+     *
+     * @return The stream to write the data to be encoded to
+     *
+     * @throws IOException If the encoding stream cannot be created
+     */
+    public OutputStream createEncodingStream(OutputStream out) throws IOException;
+}
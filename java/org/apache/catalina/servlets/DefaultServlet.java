@@ -25,10 +25,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.security.AccessController;
@@ -36,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
 
@@ -69,6 +72,7 @@ import org.apache.catalina.connector.ResponseFacade;
 import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
+import org.apache.tomcat.util.http.parser.AcceptEncoding;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
@@ -153,6 +157,12 @@ public class DefaultServlet extends HttpServlet {
      */
     protected static final int BUFFER_SIZE = 4096;
 
+    /**
+     * Cached in place of the compressed content of resources that do not
+     * become smaller when compressed.
+     */
+    private static final byte[] NOT_COMPRESSIBLE = new byte[0];
+
 
     // ----------------------------------------------------- Static Initializer
 
@@ -196,6 +206,53 @@ public class DefaultServlet extends HttpServlet {
      */
     protected boolean gzip = false;
 
+    /**
+     * The formats of pre-compressed versions of files (siblings of the file
+     * with an additional extension) that may be served in preference to the
+     * file, in order of preference.
+     */
+    protected CompressionFormat[] precompressedFormats = new CompressionFormat[0];
+
+    /**
+     * Should compressible files be compressed when they are served? The
+     * compressed content is cached so that each version of a file is only
+     * compressed once for each encoding. By default, it's set to false.
+     */
+    protected boolean compress = false;
+
+    /**
+     * The encoders used to compress files, in order of preference.
+     */
+    protected transient ContentEncoder[] contentEncoders = new ContentEncoder[0];
+
+    /**
+     * The content types (without parameters) of files that will be compressed.
+     */
+    protected String[] compressibleMimeTypes = { "text/html", "text/xml",
+            "text/plain", "text/css", "text/javascript",
+            "application/javascript", "application/json", "application/xml",
+            "image/svg+xml" };
+
+    /**
+     * Minimum size in bytes of files that will be compressed.
+     */
+    protected int compressionMinSize = 2048;
+
+    /**
+     * Maximum size in bytes of files that will be compressed.
+     */
+    protected long compressionMaxSize = 1024 * 1024;
+
+    /**
+     * Maximum total size in bytes of the cached compressed content.
+     */
+    protected long compressionCacheSize = 10 * 1024 * 1024;
+
+    /**
+     * The cache of compressed file content.
+     */
+    private transient EncodedContentCache encodedContentCache = null;
+
     /**
      * The output buffer size to use when serving resources.
      */
@@ -282,6 +339,21 @@ public class DefaultServlet extends HttpServlet {
         if (getServletConfig().getInitParameter("gzip") != null)
             gzip = Boolean.parseBoolean(getServletConfig().getInitParameter("gzip"));
 
+        String precompressed = getServletConfig().getInitParameter("precompressed");
+        if (precompressed != null) {
+            precompressedFormats = parseCompressionFormats(precompressed);
+        } else if (gzip) {
+            precompressedFormats = new CompressionFormat[] {
+                    new CompressionFormat(".gz", "gzip") };
+        }
+
+        if (getServletConfig().getInitParameter("compress") != null)
+            compress = Boolean.parseBoolean(getServletConfig().getInitParameter("compress"));
+
+        if (compress) {
+            initCompression();
+        }
+
         if (getServletConfig().getInitParameter("sendfileSize") != null)
             sendfileSize =
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
@@ -321,6 +393,84 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    private CompressionFormat[] parseCompressionFormats(String precompressed) {
+        if ("true".equalsIgnoreCase(precompressed)) {
+            return new CompressionFormat[] { new CompressionFormat(".br", "br"),
+                    new CompressionFormat(".gz", "gzip") };
+        }
+        List<CompressionFormat> result = new ArrayList<>();
+        if (!"false".equalsIgnoreCase(precompressed)) {
+            // Format is encoding=extension[,encoding=extension]*
+            for (String format : precompressed.split(",")) {
+                int sep = format.indexOf('=');
+                if (sep < 1) {
+                    throw new IllegalArgumentException(sm.getString(
+                            "defaultServlet.invalidPrecompressed", precompressed));
+                }
+                String encoding = format.substring(0, sep).trim();
+                String extension = format.substring(sep + 1).trim();
+                if (encoding.length() == 0 || extension.length() == 0) {
+                    throw new IllegalArgumentException(sm.getString(
+                            "defaultServlet.invalidPrecompressed", precompressed));
+                }
+                result.add(new CompressionFormat(extension,
+                        encoding.toLowerCase(Locale.ENGLISH)));
+            }
+        }
+        return result.toArray(new CompressionFormat[result.size()]);
+    }
+
+
+    private void initCompression() throws ServletException {
+        String value = getServletConfig().getInitParameter("compressionEncoders");
+        if (value == null) {
+            value = GzipContentEncoder.class.getName();
+        }
+        List<ContentEncoder> encoders = new ArrayList<>();
+        for (String className : value.split(",")) {
+            className = className.trim();
+            if (className.length() == 0) {
+                continue;
+            }
+            try {
+                Class<?> clazz = Class.forName(className, true,
+                        Thread.currentThread().getContextClassLoader());
+                encoders.add((ContentEncoder) clazz.newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new ServletException(sm.getString(
+                        "defaultServlet.invalidEncoder", className), e);
+            }
+        }
+        contentEncoders = encoders.toArray(new ContentEncoder[encoders.size()]);
+
+        value = getServletConfig().getInitParameter("compressibleMimeTypes");
+        if (value != null) {
+            List<String> mimeTypes = new ArrayList<>();
+            for (String mimeType : value.split(",")) {
+                mimeType = mimeType.trim();
+                if (mimeType.length() > 0) {
+                    mimeTypes.add(mimeType.toLowerCase(Locale.ENGLISH));
+                }
+            }
+            compressibleMimeTypes = mimeTypes.toArray(new String[mimeTypes.size()]);
+        }
+
+        if (getServletConfig().getInitParameter("compressionMinSize") != null)
+            compressionMinSize =
+                Integer.parseInt(getServletConfig().getInitParameter("compressionMinSize"));
+
+        if (getServletConfig().getInitParameter("compressionMaxSize") != null)
+            compressionMaxSize =
+                Long.parseLong(getServletConfig().getInitParameter("compressionMaxSize"));
+
+        if (getServletConfig().getInitParameter("compressionCacheSize") != null)
+            compressionCacheSize =
+                Long.parseLong(getServletConfig().getInitParameter("compressionCacheSize"));
+
+        encodedContentCache = new EncodedContentCache(compressionCacheSize);
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -786,27 +936,56 @@ public class DefaultServlet extends HttpServlet {
         }
 
 
-        // Serve a gzipped version of the file if present
-        boolean usingGzippedVersion = false;
-        if (gzip && !included && resource.isFile() && !path.endsWith(".gz")) {
-            WebResource gzipResource = resources.getResource(path + ".gz");
-            if (gzipResource.exists() && gzipResource.isFile()) {
-                Collection<String> varyHeaders = response.getHeaders("Vary");
-                boolean addRequired = true;
-                for (String varyHeader : varyHeaders) {
-                    if ("*".equals(varyHeader) ||
-                            "accept-encoding".equalsIgnoreCase(varyHeader)) {
-                        addRequired = false;
-                        break;
+        // Serve a pre-compressed or a cached compressed version of the file if
+        // one is available and is acceptable to the client
+        boolean usingPrecompressedVersion = false;
+        byte[] encodedContent = null;
+        if (!included && resource.isFile()) {
+            List<PrecompressedResource> precompressedResources =
+                    getAvailablePrecompressedResources(path);
+            boolean canCompress = !isError && eTag != null &&
+                    isCompressible(contentType, resource.getContentLength());
+            if (!precompressedResources.isEmpty() || canCompress) {
+                addVaryAcceptEncoding(response);
+                List<AcceptEncoding> acceptEncodings = getAcceptEncodings(request);
+
+                // Pre-compressed resources are preferred as no compression
+                // is required. For equal qualities, any encoding is preferred
+                // over identity.
+                double bestQuality = AcceptEncoding.getQuality(acceptEncodings, "identity");
+                PrecompressedResource bestResource = null;
+                ContentEncoder bestEncoder = null;
+                for (PrecompressedResource precompressedResource : precompressedResources) {
+                    double quality = AcceptEncoding.getQuality(acceptEncodings,
+                            precompressedResource.format.encoding);
+                    if (quality > 0 && (bestResource == null ?
+                            quality >= bestQuality : quality > bestQuality)) {
+                        bestResource = precompressedResource;
+                        bestQuality = quality;
                     }
                 }
-                if (addRequired) {
-                    response.addHeader("Vary", "accept-encoding");
+                if (canCompress) {
+                    for (ContentEncoder contentEncoder : contentEncoders) {
+                        double quality = AcceptEncoding.getQuality(acceptEncodings,
+                                contentEncoder.getEncoding());
+                        if (quality > 0 && (bestResource == null && bestEncoder == null ?
+                                quality >= bestQuality : quality > bestQuality)) {
+                            bestResource = null;
+                            bestEncoder = contentEncoder;
+                            bestQuality = quality;
+                        }
+                    }
                 }
-                if (checkIfGzip(request)) {
-                    response.addHeader("Content-Encoding", "gzip");
-                    resource = gzipResource;
-                    usingGzippedVersion = true;
+
+                if (bestResource != null) {
+                    response.addHeader("Content-Encoding", bestResource.format.encoding);
+                    resource = bestResource.resource;
+                    usingPrecompressedVersion = true;
+                } else if (bestEncoder != null) {
+                    encodedContent = getEncodedContent(path, eTag, resource, bestEncoder);
+                    if (encodedContent != null) {
+                        response.addHeader("Content-Encoding", bestEncoder.getEncoding());
+                    }
                 }
             }
         }
@@ -832,6 +1011,10 @@ public class DefaultServlet extends HttpServlet {
 
                 // Parse range specifier
                 ranges = parseRange(request, response, resource);
+                if (encodedContent != null && ranges != null) {
+                    // Ranges of the compressed content are not supported
+                    ranges = FULL;
+                }
 
                 // ETag header
                 response.setHeader("ETag", eTag);
@@ -841,7 +1024,11 @@ public class DefaultServlet extends HttpServlet {
             }
 
             // Get content length
-            contentLength = resource.getContentLength();
+            if (encodedContent == null) {
+                contentLength = resource.getContentLength();
+            } else {
+                contentLength = encodedContent.length;
+            }
             // Special case for zero length files, which would cause a
             // (silent) ISE when setting the output buffer size
             if (contentLength == 0L) {
@@ -859,7 +1046,7 @@ public class DefaultServlet extends HttpServlet {
             } catch (IllegalStateException e) {
                 // If it fails, we try to get a Writer instead if we're
                 // trying to serve a text file
-                if (!usingGzippedVersion &&
+                if (!usingPrecompressedVersion && encodedContent == null &&
                         ((contentType == null) ||
                                 (contentType.startsWith("text")) ||
                                 (contentType.endsWith("xml")) ||
@@ -936,7 +1123,9 @@ public class DefaultServlet extends HttpServlet {
                         renderResult = render(getPathPrefix(request), resource);
                     } else {
                         // Output is content of resource
-                        if (!checkSendfile(request, response, resource,
+                        if (encodedContent != null) {
+                            ostream.write(encodedContent);
+                        } else if (!checkSendfile(request, response, resource,
                                 contentLength, null)) {
                             // sendfile not possible so check if resource
                             // content is available directly
@@ -1867,6 +2056,130 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    /**
+     * Parse the Accept-Encoding headers of the request.
+     *
+     * @param request   The servlet request we are processing
+     * @return the encodings the client has listed, in the order listed
+     */
+    protected List<AcceptEncoding> getAcceptEncodings(HttpServletRequest request)
+            throws IOException {
+        List<AcceptEncoding> result = new ArrayList<>();
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            result.addAll(AcceptEncoding.parse(new StringReader(headers.nextElement())));
+        }
+        return result;
+    }
+
+
+    /**
+     * Find the pre-compressed versions of the resource at the given path.
+     *
+     * @param path  The path of the resource
+     * @return the pre-compressed versions, in order of preference
+     */
+    protected List<PrecompressedResource> getAvailablePrecompressedResources(String path) {
+        List<PrecompressedResource> result = new ArrayList<>(precompressedFormats.length);
+        for (CompressionFormat format : precompressedFormats) {
+            if (path.endsWith(format.extension)) {
+                // The resource is itself a pre-compressed version
+                return new ArrayList<>();
+            }
+        }
+        for (CompressionFormat format : precompressedFormats) {
+            WebResource precompressedResource = resources.getResource(path + format.extension);
+            if (precompressedResource.exists() && precompressedResource.isFile()) {
+                result.add(new PrecompressedResource(precompressedResource, format));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Determine if a resource should be compressed when it is served.
+     *
+     * @param contentType   The content type of the resource
+     * @param contentLength The length of the resource
+     * @return <code>true</code> if the resource should be compressed
+     */
+    protected boolean isCompressible(String contentType, long contentLength) {
+        if (!compress || contentEncoders.length == 0 || contentType == null ||
+                contentLength < compressionMinSize || contentLength > compressionMaxSize) {
+            return false;
+        }
+        int sep = contentType.indexOf(';');
+        String mimeType = (sep == -1 ? contentType : contentType.substring(0, sep)).trim();
+        for (String compressibleMimeType : compressibleMimeTypes) {
+            if (compressibleMimeType.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void addVaryAcceptEncoding(HttpServletResponse response) {
+        Collection<String> varyHeaders = response.getHeaders("Vary");
+        for (String varyHeader : varyHeaders) {
+            if ("*".equals(varyHeader) ||
+                    "accept-encoding".equalsIgnoreCase(varyHeader)) {
+                return;
+            }
+        }
+        response.addHeader("Vary", "accept-encoding");
+    }
+
+
+    /**
+     * Obtain the compressed content of a resource, compressing it if it is not
+     * already cached.
+     *
+     * @return the compressed content or <code>null</code> if the resource
+     *         could not be compressed or compression does not reduce its size
+     */
+    private byte[] getEncodedContent(String path, String eTag,
+            WebResource resource, ContentEncoder encoder) {
+        String key = EncodedContentCache.createKey(path, eTag, encoder.getEncoding());
+        byte[] result = encodedContentCache.get(key);
+        if (result == null) {
+            long length = resource.getContentLength();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream((int) (length / 2));
+            try (OutputStream os = encoder.createEncodingStream(baos)) {
+                byte[] content = resource.getContent();
+                if (content == null) {
+                    try (InputStream is = resource.getInputStream()) {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int len;
+                        while ((len = is.read(buffer)) != -1) {
+                            os.write(buffer, 0, len);
+                        }
+                    }
+                } else {
+                    os.write(content);
+                }
+            } catch (IOException | RuntimeException e) {
+                log(sm.getString("defaultServlet.compressFailed", path,
+                        encoder.getEncoding()), e);
+                return null;
+            }
+            if (baos.size() < length) {
+                result = baos.toByteArray();
+            } else {
+                // Not worth compressing. Cache that so the attempt isn't
+                // repeated.
+                result = NOT_COMPRESSIBLE;
+            }
+            encodedContentCache.put(key, result);
+        }
+        if (result == NOT_COMPRESSIBLE) {
+            return null;
+        }
+        return result;
+    }
+
+
     /**
      * Check if the if-unmodified-since condition is satisfied.
      *
@@ -2194,6 +2507,40 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    protected static class CompressionFormat implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The extension added to the name of the uncompressed resource to
+         * obtain the name of the pre-compressed resource.
+         */
+        public final String extension;
+
+        /**
+         * The content-coding of the pre-compressed resource.
+         */
+        public final String encoding;
+
+        public CompressionFormat(String extension, String encoding) {
+            this.extension = extension;
+            this.encoding = encoding;
+        }
+    }
+
+
+    protected static class PrecompressedResource {
+
+        public final WebResource resource;
+        public final CompressionFormat format;
+
+        public PrecompressedResource(WebResource resource, CompressionFormat format) {
+            this.resource = resource;
+            this.format = format;
+        }
+    }
+
+
     /**
      * This is secure in the sense that any attempt to use an external entity
      * will trigger an exception.
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded, least recently used cache of the encoded (compressed) forms
+ * of static resources. Entries are keyed by the resource path, the resource's
+ * ETag and the content-coding so a modified resource will never be served from
+ * a stale entry. Stale entries are removed as the cache fills.
+ */
+class EncodedContentCache {
+
+    private final long maxSize;
+
+    // Guarded by this
+    private final LinkedHashMap<String,byte[]> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+
+
+    EncodedContentCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    static String createKey(String path, String eTag, String encoding) {
+        StringBuilder key = new StringBuilder(
+                path.length() + eTag.length() + encoding.length() + 2);
+        key.append(encoding);
+        key.append(' ');
+        key.append(eTag);
+        key.append(' ');
+        key.append(path);
+        return key.toString();
+    }
+
+
+    byte[] get(String key) {
+        lookupCount.incrementAndGet();
+        byte[] result;
+        synchronized (this) {
+            result = entries.get(key);
+        }
+        if (result != null) {
+            hitCount.incrementAndGet();
+        }
+        return result;
+    }
+
+
+    void put(String key, byte[] content) {
+        long entrySize = entrySize(key, content);
+        if (entrySize > maxSize) {
+            return;
+        }
+        synchronized (this) {
+            byte[] old = entries.put(key, content);
+            if (old != null) {
+                size -= entrySize(key, old);
+            }
+            size += entrySize;
+            Iterator<Map.Entry<String,byte[]>> iter = entries.entrySet().iterator();
+            while (size > maxSize && iter.hasNext()) {
+                Map.Entry<String,byte[]> eldest = iter.next();
+                if (eldest.getKey().equals(key)) {
+                    // Never evict the entry that has just been added
+                    continue;
+                }
+                size -= entrySize(eldest.getKey(), eldest.getValue());
+                iter.remove();
+            }
+        }
+    }
+
+
+    /*
+     * The key is included so that entries with no content (resources that did
+     * not compress) still count towards the size of the cache.
+     */
+    private static long entrySize(String key, byte[] content) {
+        return content.length + key.length();
+    }
+
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+
+    synchronized long getSize() {
+        return size;
+    }
+
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+
+    long getLookupCount() {
+        return lookupCount.get();
+    }
+
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.catalina.SessionSerializer;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The default {@link SessionSerializer}. Strings, boxed primitives, byte
+ * arrays, dates and enums are written directly using variable length
+ * integers and length prefixed UTF-8. The class names of enums are written
+ * once per session and then referred to by index. Any other
+ * {@link Serializable} value falls back to Java serialization, using a single
+ * object stream per session so that class descriptors are also only written
+ * once.
+ * <p>
+ * The serialized attributes may optionally be compressed once they exceed a
+ * configurable size.
+ */
+public class CompactSessionSerializer implements SessionSerializer {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    public static final String NAME = "compact";
+
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_TRUE = 4;
+    private static final int TYPE_FALSE = 5;
+    private static final int TYPE_SHORT = 6;
+    private static final int TYPE_BYTE = 7;
+    private static final int TYPE_CHARACTER = 8;
+    private static final int TYPE_FLOAT = 9;
+    private static final int TYPE_DOUBLE = 10;
+    private static final int TYPE_BYTES = 11;
+    private static final int TYPE_DATE = 12;
+    private static final int TYPE_ENUM = 13;
+    private static final int TYPE_SERIALIZED = 14;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    /**
+     * The size, in bytes, above which the serialized attributes are
+     * compressed. A negative value disables compression.
+     */
+    private int compressionThreshold = -1;
+
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public List<String> writeAttributes(ObjectOutput out,
+            Map<String,Object> attributes) throws IOException {
+        List<String> notSerialized = new ArrayList<>();
+        Encoder encoder = new Encoder();
+        for (Map.Entry<String,Object> entry : attributes.entrySet()) {
+            if (!encoder.write(entry.getKey(), entry.getValue())) {
+                notSerialized.add(entry.getKey());
+            }
+        }
+        byte[] data = encoder.finish();
+
+        int flags = 0;
+        int uncompressedLength = data.length;
+        if (compressionThreshold >= 0 && data.length > compressionThreshold) {
+            byte[] compressed = deflate(data);
+            if (compressed.length < data.length) {
+                flags |= FLAG_COMPRESSED;
+                data = compressed;
+            }
+        }
+
+        out.writeByte(flags);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            out.writeInt(uncompressedLength);
+        }
+        out.writeInt(data.length);
+        out.write(data);
+        return notSerialized;
+    }
+
+
+    @Override
+    public Map<String,Object> readAttributes(ObjectInput in,
+            ClassLoader classLoader) throws ClassNotFoundException, IOException {
+        int flags = in.readByte();
+        int uncompressedLength = -1;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            uncompressedLength = in.readInt();
+        }
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            data = inflate(data, uncompressedLength);
+        }
+        return new Decoder(data, classLoader).read();
+    }
+
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    private static byte[] inflate(byte[] data, int uncompressedLength)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[uncompressedLength];
+            int pos = 0;
+            while (pos < uncompressedLength && !inflater.finished()) {
+                int n = inflater.inflate(result, pos, uncompressedLength - pos);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                pos += n;
+            }
+            if (pos != uncompressedLength) {
+                throw new StreamCorruptedException(
+                        sm.getString("compactSessionSerializer.truncated"));
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException(
+                sm.getString("compactSessionSerializer.invalidVarInt"));
+    }
+
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException(
+                sm.getString("compactSessionSerializer.invalidVarInt"));
+    }
+
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /*
+     * The encoded form is:
+     * - the number of attributes
+     * - the length of the encoded attributes
+     * - the encoded attributes
+     * - the Java serialization stream holding any values that fell back to
+     *   Java serialization, in the order they appear in the attributes
+     */
+    private static class Encoder {
+
+        private final ByteArrayOutputStream attributeBuffer = new ByteArrayOutputStream();
+        private final DataOutputStream attributes = new DataOutputStream(attributeBuffer);
+        private final Map<String,Integer> classNames = new HashMap<>();
+        private final List<Object> serializedValues = new ArrayList<>();
+        private ByteArrayOutputStream objectBuffer = null;
+        private ObjectOutputStream objects = null;
+        private int count = 0;
+
+        /**
+         * @return <code>false</code> if the value could not be serialized
+         */
+        boolean write(String name, Object value) throws IOException {
+            Class<?> clazz = value.getClass();
+            if (clazz == String.class) {
+                writeHeader(name, TYPE_STRING);
+                writeString(attributes, (String) value);
+            } else if (clazz == Integer.class) {
+                writeHeader(name, TYPE_INTEGER);
+                int i = ((Integer) value).intValue();
+                writeVarInt(attributes, (i << 1) ^ (i >> 31));
+            } else if (clazz == Long.class) {
+                writeHeader(name, TYPE_LONG);
+                long l = ((Long) value).longValue();
+                writeVarLong(attributes, (l << 1) ^ (l >> 63));
+            } else if (clazz == Boolean.class) {
+                writeHeader(name, ((Boolean) value).booleanValue() ? TYPE_TRUE : TYPE_FALSE);
+            } else if (clazz == Short.class) {
+                writeHeader(name, TYPE_SHORT);
+                attributes.writeShort(((Short) value).shortValue());
+            } else if (clazz == Byte.class) {
+                writeHeader(name, TYPE_BYTE);
+                attributes.writeByte(((Byte) value).byteValue());
+            } else if (clazz == Character.class) {
+                writeHeader(name, TYPE_CHARACTER);
+                attributes.writeChar(((Character) value).charValue());
+            } else if (clazz == Float.class) {
+                writeHeader(name, TYPE_FLOAT);
+                attributes.writeFloat(((Float) value).floatValue());
+            } else if (clazz == Double.class) {
+                writeHeader(name, TYPE_DOUBLE);
+                attributes.writeDouble(((Double) value).doubleValue());
+            } else if (clazz == byte[].class) {
+                byte[] bytes = (byte[]) value;
+                writeHeader(name, TYPE_BYTES);
+                writeVarInt(attributes, bytes.length);
+                attributes.write(bytes);
+            } else if (clazz == Date.class) {
+                writeHeader(name, TYPE_DATE);
+                attributes.writeLong(((Date) value).getTime());
+            } else if (value instanceof Enum) {
+                Enum<?> e = (Enum<?>) value;
+                writeHeader(name, TYPE_ENUM);
+                writeClassName(e.getDeclaringClass().getName());
+                writeString(attributes, e.name());
+            } else if (value instanceof Serializable) {
+                if (!writeSerialized(value)) {
+                    return false;
+                }
+                writeHeader(name, TYPE_SERIALIZED);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        byte[] finish() throws IOException {
+            ByteArrayOutputStream result = new ByteArrayOutputStream(
+                    attributeBuffer.size() + (objectBuffer == null ? 0 : objectBuffer.size()) + 10);
+            DataOutputStream out = new DataOutputStream(result);
+            writeVarInt(out, count);
+            writeVarInt(out, attributeBuffer.size());
+            attributeBuffer.writeTo(out);
+            if (objects != null) {
+                objects.flush();
+                objectBuffer.writeTo(out);
+            }
+            return result.toByteArray();
+        }
+
+        private void writeHeader(String name, int type) throws IOException {
+            writeString(attributes, name);
+            attributes.writeByte(type);
+            count++;
+        }
+
+        private void writeClassName(String className) throws IOException {
+            Integer index = classNames.get(className);
+            if (index == null) {
+                writeVarInt(attributes, 0);
+                writeString(attributes, className);
+                classNames.put(className, Integer.valueOf(classNames.size() + 1));
+            } else {
+                writeVarInt(attributes, index.intValue());
+            }
+        }
+
+        private boolean writeSerialized(Object value) throws IOException {
+            if (objects == null) {
+                objectBuffer = new ByteArrayOutputStream();
+                objects = new ObjectOutputStream(objectBuffer);
+            }
+            try {
+                objects.writeObject(value);
+            } catch (NotSerializableException e) {
+                // The object stream can't be used once writing has failed.
+                // Rebuild it with just the values that were written.
+                objectBuffer = new ByteArrayOutputStream();
+                objects = new ObjectOutputStream(objectBuffer);
+                for (Object serializedValue : serializedValues) {
+                    objects.writeObject(serializedValue);
+                }
+                return false;
+            }
+            serializedValues.add(value);
+            return true;
+        }
+    }
+
+
+    private static class Decoder {
+
+        private final byte[] data;
+        private final ClassLoader classLoader;
+        private final List<String> classNames = new ArrayList<>();
+        private int objectsOffset;
+        private ObjectInputStream objects = null;
+
+        Decoder(byte[] data, ClassLoader classLoader) {
+            this.data = data;
+            this.classLoader = classLoader;
+        }
+
+        Map<String,Object> read() throws ClassNotFoundException, IOException {
+            ByteArrayInputStream bais = new ByteArrayInputStream(data);
+            DataInputStream in = new DataInputStream(bais);
+            int count = readVarInt(in);
+            int attributesLength = readVarInt(in);
+            objectsOffset = data.length - bais.available() + attributesLength;
+
+            Map<String,Object> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = readString(in);
+                attributes.put(name, readValue(in));
+            }
+            if (objects != null) {
+                objects.close();
+            }
+            return attributes;
+        }
+
+        private Object readValue(DataInputStream in)
+                throws ClassNotFoundException, IOException {
+            int type = in.readByte();
+            switch (type) {
+                case TYPE_STRING:
+                    return readString(in);
+                case TYPE_INTEGER: {
+                    int i = readVarInt(in);
+                    return Integer.valueOf((i >>> 1) ^ -(i & 1));
+                }
+                case TYPE_LONG: {
+                    long l = readVarLong(in);
+                    return Long.valueOf((l >>> 1) ^ -(l & 1));
+                }
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                case TYPE_SHORT:
+                    return Short.valueOf(in.readShort());
+                case TYPE_BYTE:
+                    return Byte.valueOf(in.readByte());
+                case TYPE_CHARACTER:
+                    return Character.valueOf(in.readChar());
+                case TYPE_FLOAT:
+                    return Float.valueOf(in.readFloat());
+                case TYPE_DOUBLE:
+                    return Double.valueOf(in.readDouble());
+                case TYPE_BYTES: {
+                    byte[] bytes = new byte[readVarInt(in)];
+                    in.readFully(bytes);
+                    return bytes;
+                }
+                case TYPE_DATE:
+                    return new Date(in.readLong());
+                case TYPE_ENUM:
+                    return readEnum(in);
+                case TYPE_SERIALIZED:
+                    return getObjects().readObject();
+                default:
+                    throw new StreamCorruptedException(sm.getString(
+                            "compactSessionSerializer.invalidType", Integer.toString(type)));
+            }
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private Object readEnum(DataInputStream in)
+                throws ClassNotFoundException, IOException {
+            int index = readVarInt(in);
+            String className;
+            if (index == 0) {
+                className = readString(in);
+                classNames.add(className);
+            } else {
+                className = classNames.get(index - 1);
+            }
+            Class clazz = Class.forName(className, false, getClassLoader());
+            return Enum.valueOf(clazz, readString(in));
+        }
+
+        private ObjectInputStream getObjects() throws IOException {
+            if (objects == null) {
+                ByteArrayInputStream bais = new ByteArrayInputStream(
+                        data, objectsOffset, data.length - objectsOffset);
+                if (classLoader == null) {
+                    objects = new ObjectInputStream(bais);
+                } else {
+                    objects = new CustomObjectInputStream(bais, classLoader);
+                }
+            }
+            return objects;
+        }
+
+        private ClassLoader getClassLoader() {
+            if (classLoader == null) {
+                return Thread.currentThread().getContextClassLoader();
+            }
+            return classLoader;
+        }
+    }
+}
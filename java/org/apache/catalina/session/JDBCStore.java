@@ -30,7 +30,13 @@ import java.sql.Driver;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.naming.Context;
@@ -147,6 +153,54 @@ public class JDBCStore extends StoreBase {
      */
     protected String sessionLastAccessedCol = "lastaccess";
 
+    /**
+     * Should saved sessions be queued and written to the database in batches
+     * by a background thread rather than by the thread saving the session?
+     */
+    protected boolean writeBehind = false;
+
+    /**
+     * The maximum time, in milliseconds, that a queued session waits before
+     * it is written to the database.
+     */
+    protected int writeBehindDelay = 100;
+
+    /**
+     * The maximum number of sessions that may be queued. Saving a session that
+     * fills the queue writes the queued sessions on the saving thread.
+     */
+    protected int writeBehindQueueSize = 1000;
+
+    /**
+     * The maximum number of sessions written to the database in a single
+     * batch.
+     */
+    protected int writeBehindBatchSize = 100;
+
+    /**
+     * Sessions waiting to be written to the database, keyed by session ID.
+     * Saving a session that is already queued replaces the queued data.
+     */
+    private final Map<String,SessionData> pendingSaves = new LinkedHashMap<>();
+
+    /**
+     * The thread that writes queued sessions to the database.
+     */
+    private volatile Thread writeBehindThread = null;
+
+    /**
+     * <code>true</code> while queued sessions can't be written to the
+     * database. Saves then stop flushing the queue on the saving thread and
+     * the write-behind thread backs off until a write succeeds.
+     */
+    private volatile boolean writeBehindFailing = false;
+
+    /**
+     * The longest time, in milliseconds, that the write-behind thread waits
+     * before retrying a failed write.
+     */
+    private static final int WRITE_BEHIND_MAX_RETRY_DELAY = 60000;
+
     // ------------------------------------------------------------- SQL Variables
 
     /**
@@ -164,6 +218,17 @@ public class JDBCStore extends StoreBase {
      */
     protected PreparedStatement preparedSaveSql = null;
 
+    /**
+     * Variable to hold the <code>save()</code> prepared statement used to
+     * update a session that already exists in the database.
+     */
+    protected PreparedStatement preparedUpdateSql = null;
+
+    /**
+     * Variable to hold the <code>expiredKeys()</code> prepared statement.
+     */
+    protected PreparedStatement preparedExpiredKeysSql = null;
+
     /**
      * Variable to hold the <code>clear()</code> prepared statement.
      */
@@ -457,6 +522,80 @@ public class JDBCStore extends StoreBase {
         return this.dataSourceName;
     }
 
+    /**
+     * Set whether saved sessions should be queued and written to the database
+     * in batches by a background thread. Takes effect when the Store is
+     * started.
+     *
+     * @param writeBehind <code>true</code> to enable the write-behind queue
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        boolean oldWriteBehind = this.writeBehind;
+        this.writeBehind = writeBehind;
+        support.firePropertyChange("writeBehind", oldWriteBehind, this.writeBehind);
+    }
+
+    /**
+     * Return <code>true</code> if saved sessions are queued and written to
+     * the database in batches by a background thread.
+     */
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Set the maximum time a queued session waits before it is written to the
+     * database. A value of zero or less writes queued sessions as soon as
+     * possible.
+     *
+     * @param writeBehindDelay The delay in milliseconds
+     */
+    public void setWriteBehindDelay(int writeBehindDelay) {
+        this.writeBehindDelay = writeBehindDelay;
+    }
+
+    /**
+     * Return the maximum time, in milliseconds, a queued session waits before
+     * it is written to the database.
+     */
+    public int getWriteBehindDelay() {
+        return writeBehindDelay;
+    }
+
+    /**
+     * Set the maximum number of sessions that may be queued.
+     *
+     * @param writeBehindQueueSize The maximum number of queued sessions
+     */
+    public void setWriteBehindQueueSize(int writeBehindQueueSize) {
+        this.writeBehindQueueSize = writeBehindQueueSize;
+    }
+
+    /**
+     * Return the maximum number of sessions that may be queued.
+     */
+    public int getWriteBehindQueueSize() {
+        return writeBehindQueueSize;
+    }
+
+    /**
+     * Set the maximum number of sessions written to the database in a single
+     * batch.
+     *
+     * @param writeBehindBatchSize The maximum number of sessions per batch
+     */
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    /**
+     * Return the maximum number of sessions written to the database in a
+     * single batch.
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -470,6 +609,7 @@ public class JDBCStore extends StoreBase {
     public String[] keys() throws IOException {
         String keys[] = null;
         synchronized (this) {
+            flushPendingSaves();
             int numberOfTries = 2;
             while (numberOfTries > 0) {
 
@@ -524,6 +664,7 @@ public class JDBCStore extends StoreBase {
         int size = 0;
 
         synchronized (this) {
+            flushPendingSaves();
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -573,13 +714,26 @@ public class JDBCStore extends StoreBase {
     @Override
     public Session load(String id) throws ClassNotFoundException, IOException {
         StandardSession _session = null;
-        Loader loader = null;
-        ClassLoader classLoader = null;
-        ObjectInputStream ois = null;
-        BufferedInputStream bis = null;
-        org.apache.catalina.Context context = manager.getContext();
+
+        SessionData pending;
+        synchronized (pendingSaves) {
+            pending = pendingSaves.get(id);
+        }
+        if (pending != null) {
+            // Not written to the database yet
+            return readSession(id, new ByteArrayInputStream(pending.data));
+        }
 
         synchronized (this) {
+            // A failed write may have returned the session to the queue while
+            // waiting for the lock
+            synchronized (pendingSaves) {
+                pending = pendingSaves.get(id);
+            }
+            if (pending != null) {
+                return readSession(id, new ByteArrayInputStream(pending.data));
+            }
+
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -587,7 +741,6 @@ public class JDBCStore extends StoreBase {
                     return (null);
                 }
 
-                ClassLoader oldThreadContextCL = Thread.currentThread().getContextClassLoader();
                 try {
                     if (preparedLoadSql == null) {
                         String loadSql = "SELECT " + sessionIdCol + ", "
@@ -601,31 +754,8 @@ public class JDBCStore extends StoreBase {
                     preparedLoadSql.setString(2, getName());
                     try (ResultSet rst = preparedLoadSql.executeQuery()) {
                         if (rst.next()) {
-                            bis = new BufferedInputStream(rst.getBinaryStream(2));
-
-                            if (context != null) {
-                                loader = context.getLoader();
-                            }
-                            if (loader != null) {
-                                classLoader = loader.getClassLoader();
-                            }
-                            if (classLoader != null) {
-                                Thread.currentThread().setContextClassLoader(classLoader);
-                                ois = new CustomObjectInputStream(bis,
-                                        classLoader);
-                            } else {
-                                ois = new ObjectInputStream(bis);
-                            }
-
-                            if (manager.getContext().getLogger().isDebugEnabled()) {
-                                manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".loading",
-                                        id, sessionTable));
-                            }
-
-                            _session = (StandardSession) manager.createEmptySession();
-                            _session.readObjectData(ois);
-                            _session.setManager(manager);
-                          } else if (manager.getContext().getLogger().isDebugEnabled()) {
+                            _session = readSession(id, rst.getBinaryStream(2));
+                        } else if (manager.getContext().getLogger().isDebugEnabled()) {
                             manager.getContext().getLogger().debug(getStoreName() + ": No persisted data object found");
                         }
                         // Break out after the finally block
@@ -636,14 +766,6 @@ public class JDBCStore extends StoreBase {
                     if (dbConnection != null)
                         close(dbConnection);
                 } finally {
-                    if (ois != null) {
-                        try {
-                            ois.close();
-                        } catch (IOException e) {
-                            // Ignore
-                        }
-                    }
-                    Thread.currentThread().setContextClassLoader(oldThreadContextCL);
                     release(_conn);
                 }
                 numberOfTries--;
@@ -653,6 +775,60 @@ public class JDBCStore extends StoreBase {
         return (_session);
     }
 
+    /**
+     * Deserialize a session using the class loader of the web application.
+     *
+     * @param id The session identifier, used for logging
+     * @param is The serialized session data
+     * @return the deserialized <code>Session</code>
+     * @exception ClassNotFoundException if an error occurs
+     * @exception IOException if an input/output error occurred
+     */
+    private StandardSession readSession(String id, InputStream is)
+            throws ClassNotFoundException, IOException {
+        Loader loader = null;
+        ClassLoader classLoader = null;
+        ObjectInputStream ois = null;
+        org.apache.catalina.Context context = manager.getContext();
+
+        ClassLoader oldThreadContextCL = Thread.currentThread().getContextClassLoader();
+        try {
+            BufferedInputStream bis = new BufferedInputStream(is);
+
+            if (context != null) {
+                loader = context.getLoader();
+            }
+            if (loader != null) {
+                classLoader = loader.getClassLoader();
+            }
+            if (classLoader != null) {
+                Thread.currentThread().setContextClassLoader(classLoader);
+                ois = new CustomObjectInputStream(bis, classLoader);
+            } else {
+                ois = new ObjectInputStream(bis);
+            }
+
+            if (manager.getContext().getLogger().isDebugEnabled()) {
+                manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".loading",
+                        id, sessionTable));
+            }
+
+            StandardSession _session = (StandardSession) manager.createEmptySession();
+            _session.readObjectData(ois);
+            _session.setManager(manager);
+            return _session;
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            Thread.currentThread().setContextClassLoader(oldThreadContextCL);
+        }
+    }
+
     /**
      * Remove the Session with the specified session identifier from
      * this Store, if present.  If no such Session is present, this method
@@ -666,6 +842,9 @@ public class JDBCStore extends StoreBase {
     public void remove(String id) throws IOException {
 
         synchronized (this) {
+            synchronized (pendingSaves) {
+                pendingSaves.remove(id);
+            }
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -725,6 +904,9 @@ public class JDBCStore extends StoreBase {
     public void clear() throws IOException {
 
         synchronized (this) {
+            synchronized (pendingSaves) {
+                pendingSaves.clear();
+            }
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -756,75 +938,263 @@ public class JDBCStore extends StoreBase {
     }
 
     /**
-     * Save a session to the Store.
+     * Save a session to the Store. If the write-behind queue is enabled the
+     * session is serialized immediately but written to the database later.
      *
      * @param session the session to be stored
      * @exception IOException if an input/output error occurs
      */
     @Override
     public void save(Session session) throws IOException {
-        ByteArrayOutputStream bos = null;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos =
+                new ObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        SessionData data = new SessionData(session, bos.toByteArray());
+
+        if (writeBehindThread != null) {
+            boolean full;
+            synchronized (pendingSaves) {
+                pendingSaves.put(data.id, data);
+                full = pendingSaves.size() >= writeBehindQueueSize;
+                if ((pendingSaves.size() >= writeBehindBatchSize || writeBehindDelay <= 0) &&
+                        !writeBehindFailing) {
+                    pendingSaves.notifyAll();
+                }
+            }
+            if (full && !writeBehindFailing) {
+                flushPendingSaves();
+            }
+            return;
+        }
 
         synchronized (this) {
+            write(Collections.singletonList(data));
+        }
+    }
+
+    /**
+     * Return the identifiers of the sessions in this Store that may have
+     * expired, based on the last access time and maximum inactive interval
+     * recorded in the database, so that only those sessions are loaded.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    @Override
+    protected String[] expiredKeys() throws IOException {
+        String keys[] = null;
+        synchronized (this) {
+            flushPendingSaves();
             int numberOfTries = 2;
             while (numberOfTries > 0) {
+
                 Connection _conn = getConnection();
                 if (_conn == null) {
-                    return;
+                    return (new String[0]);
                 }
-
                 try {
-                    // If sessions already exist in DB, remove and insert again.
-                    // TODO:
-                    // * Check if ID exists in database and if so use UPDATE.
-                    remove(session.getIdInternal(), _conn);
-
-                    bos = new ByteArrayOutputStream();
-                    try (ObjectOutputStream oos =
-                            new ObjectOutputStream(new BufferedOutputStream(bos))) {
-                        ((StandardSession) session).writeObjectData(oos);
+                    if (preparedExpiredKeysSql == null) {
+                        String expiredKeysSql = "SELECT " + sessionIdCol
+                                + " FROM " + sessionTable + " WHERE "
+                                + sessionAppCol + " = ? AND "
+                                + sessionMaxInactiveCol + " > 0 AND (? - "
+                                + sessionLastAccessedCol + ") / 1000 >= "
+                                + sessionMaxInactiveCol;
+                        preparedExpiredKeysSql = _conn.prepareStatement(expiredKeysSql);
                     }
-                    byte[] obs = bos.toByteArray();
-                    int size = obs.length;
-                    try (ByteArrayInputStream bis = new ByteArrayInputStream(obs, 0, size);
-                            InputStream in = new BufferedInputStream(bis, size)) {
-                        if (preparedSaveSql == null) {
-                            String saveSql = "INSERT INTO " + sessionTable + " ("
-                               + sessionIdCol + ", " + sessionAppCol + ", "
-                               + sessionDataCol + ", " + sessionValidCol
-                               + ", " + sessionMaxInactiveCol + ", "
-                               + sessionLastAccessedCol
-                               + ") VALUES (?, ?, ?, ?, ?, ?)";
-                           preparedSaveSql = _conn.prepareStatement(saveSql);
-                        }
 
-                        preparedSaveSql.setString(1, session.getIdInternal());
-                        preparedSaveSql.setString(2, getName());
-                        preparedSaveSql.setBinaryStream(3, in, size);
-                        preparedSaveSql.setString(4, session.isValid() ? "1" : "0");
-                        preparedSaveSql.setInt(5, session.getMaxInactiveInterval());
-                        preparedSaveSql.setLong(6, session.getLastAccessedTime());
-                        preparedSaveSql.execute();
+                    preparedExpiredKeysSql.setString(1, getName());
+                    preparedExpiredKeysSql.setLong(2, System.currentTimeMillis());
+                    try (ResultSet rst = preparedExpiredKeysSql.executeQuery()) {
+                        ArrayList<String> tmpkeys = new ArrayList<>();
+                        if (rst != null) {
+                            while (rst.next()) {
+                                tmpkeys.add(rst.getString(1));
+                            }
+                        }
+                        keys = tmpkeys.toArray(new String[tmpkeys.size()]);
                         // Break out after the finally block
                         numberOfTries = 0;
                     }
                 } catch (SQLException e) {
                     manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                    keys = new String[0];
+                    // Close the connection so that it gets reopened next time
                     if (dbConnection != null)
                         close(dbConnection);
-                } catch (IOException e) {
-                    // Ignore
                 } finally {
                     release(_conn);
                 }
                 numberOfTries--;
             }
         }
+        return keys;
+    }
 
-        if (manager.getContext().getLogger().isDebugEnabled()) {
-            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
-                    session.getIdInternal(), sessionTable));
+    /**
+     * Write all the sessions queued by the write-behind queue to the
+     * database. If a batch can't be written its sessions are returned to the
+     * queue, unless they have been saved again in the meantime, and the
+     * remainder of the queue is left for a later attempt.
+     *
+     * @return <code>true</code> if the queue was written to the database
+     */
+    public boolean flushPendingSaves() {
+        synchronized (this) {
+            while (true) {
+                List<SessionData> batch = new ArrayList<>();
+                synchronized (pendingSaves) {
+                    Iterator<SessionData> iter = pendingSaves.values().iterator();
+                    while (iter.hasNext() && batch.size() < writeBehindBatchSize) {
+                        batch.add(iter.next());
+                        iter.remove();
+                    }
+                }
+                if (batch.isEmpty()) {
+                    writeBehindFailing = false;
+                    return true;
+                }
+                if (!write(batch)) {
+                    synchronized (pendingSaves) {
+                        for (SessionData data : batch) {
+                            // A newer save of the same session wins
+                            pendingSaves.putIfAbsent(data.id, data);
+                        }
+                    }
+                    writeBehindFailing = true;
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the given sessions to the database. The caller must hold the
+     * lock on this Store.
+     *
+     * @param sessions the serialized sessions to write
+     *
+     * @return <code>true</code> if the sessions were written
+     */
+    private boolean write(List<SessionData> sessions) {
+        boolean written = false;
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            Connection _conn = getConnection();
+            if (_conn == null) {
+                return false;
+            }
+
+            try {
+                write(sessions, _conn);
+                written = true;
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                if (dbConnection != null)
+                    close(dbConnection);
+            } finally {
+                release(_conn);
+            }
+            numberOfTries--;
         }
+
+        if (written && manager.getContext().getLogger().isDebugEnabled()) {
+            for (SessionData data : sessions) {
+                manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
+                        data.id, sessionTable));
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Write the given sessions to the database, updating the sessions that
+     * already exist and then inserting the remainder. Multiple sessions are
+     * written using JDBC batches.
+     *
+     * @param sessions the serialized sessions to write
+     * @param _conn open connection to be used
+     * @throws SQLException if an error occurs while talking to the database
+     */
+    private void write(List<SessionData> sessions, Connection _conn) throws SQLException {
+        if (preparedUpdateSql == null) {
+            String updateSql = "UPDATE " + sessionTable + " SET "
+                    + sessionDataCol + " = ?, " + sessionValidCol + " = ?, "
+                    + sessionMaxInactiveCol + " = ?, "
+                    + sessionLastAccessedCol + " = ? WHERE "
+                    + sessionIdCol + " = ? AND " + sessionAppCol + " = ?";
+            preparedUpdateSql = _conn.prepareStatement(updateSql);
+        }
+
+        List<SessionData> inserts = new ArrayList<>();
+        if (sessions.size() == 1) {
+            SessionData data = sessions.get(0);
+            setUpdateParameters(data);
+            if (preparedUpdateSql.executeUpdate() == 0) {
+                inserts.add(data);
+            }
+        } else {
+            for (SessionData data : sessions) {
+                setUpdateParameters(data);
+                preparedUpdateSql.addBatch();
+            }
+            int[] counts = preparedUpdateSql.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                SessionData data = sessions.get(i);
+                if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                    // The driver can't report if the session existed
+                    setUpdateParameters(data);
+                    if (preparedUpdateSql.executeUpdate() == 0) {
+                        inserts.add(data);
+                    }
+                } else if (counts[i] == 0) {
+                    inserts.add(data);
+                }
+            }
+        }
+
+        if (inserts.isEmpty()) {
+            return;
+        }
+
+        if (preparedSaveSql == null) {
+            String saveSql = "INSERT INTO " + sessionTable + " ("
+               + sessionIdCol + ", " + sessionAppCol + ", "
+               + sessionDataCol + ", " + sessionValidCol
+               + ", " + sessionMaxInactiveCol + ", "
+               + sessionLastAccessedCol
+               + ") VALUES (?, ?, ?, ?, ?, ?)";
+            preparedSaveSql = _conn.prepareStatement(saveSql);
+        }
+
+        for (SessionData data : inserts) {
+            preparedSaveSql.setString(1, data.id);
+            preparedSaveSql.setString(2, getName());
+            preparedSaveSql.setBinaryStream(3, new ByteArrayInputStream(data.data), data.data.length);
+            preparedSaveSql.setString(4, data.valid ? "1" : "0");
+            preparedSaveSql.setInt(5, data.maxInactiveInterval);
+            preparedSaveSql.setLong(6, data.lastAccessedTime);
+            if (inserts.size() == 1) {
+                preparedSaveSql.execute();
+            } else {
+                preparedSaveSql.addBatch();
+            }
+        }
+        if (inserts.size() > 1) {
+            preparedSaveSql.executeBatch();
+        }
+    }
+
+    private void setUpdateParameters(SessionData data) throws SQLException {
+        preparedUpdateSql.setBinaryStream(1, new ByteArrayInputStream(data.data), data.data.length);
+        preparedUpdateSql.setString(2, data.valid ? "1" : "0");
+        preparedUpdateSql.setInt(3, data.maxInactiveInterval);
+        preparedUpdateSql.setLong(4, data.lastAccessedTime);
+        preparedUpdateSql.setString(5, data.id);
+        preparedUpdateSql.setString(6, getName());
     }
 
     // --------------------------------------------------------- Protected Methods
@@ -946,6 +1316,20 @@ public class JDBCStore extends StoreBase {
         }
         this.preparedSaveSql = null;
 
+        try {
+            preparedUpdateSql.close();
+        } catch (Throwable f) {
+            ExceptionUtils.handleThrowable(f);
+        }
+        this.preparedUpdateSql = null;
+
+        try {
+            preparedExpiredKeysSql.close();
+        } catch (Throwable f) {
+            ExceptionUtils.handleThrowable(f);
+        }
+        this.preparedExpiredKeysSql = null;
+
         try {
             preparedClearSql.close();
         } catch (Throwable f) {
@@ -1013,6 +1397,14 @@ public class JDBCStore extends StoreBase {
             this.dbConnection = getConnection();
         }
 
+        if (writeBehind) {
+            Thread thread = new Thread(new WriteBehindWriter(),
+                    getThreadName() + "-WriteBehind[" + getName() + "]");
+            thread.setDaemon(true);
+            writeBehindThread = thread;
+            thread.start();
+        }
+
         super.startInternal();
     }
 
@@ -1028,6 +1420,24 @@ public class JDBCStore extends StoreBase {
 
         super.stopInternal();
 
+        // Stop queueing and write whatever is still queued
+        Thread thread = writeBehindThread;
+        writeBehindThread = null;
+        if (thread != null) {
+            synchronized (pendingSaves) {
+                pendingSaves.notifyAll();
+            }
+        }
+        if (!flushPendingSaves()) {
+            int lost;
+            synchronized (pendingSaves) {
+                lost = pendingSaves.size();
+                pendingSaves.clear();
+            }
+            manager.getContext().getLogger().error(sm.getString(
+                    getStoreName() + ".writeBehindLost", Integer.valueOf(lost)));
+        }
+
         // Close and release everything associated with our db.
         if (dbConnection != null) {
             try {
@@ -1038,4 +1448,73 @@ public class JDBCStore extends StoreBase {
             close(dbConnection);
         }
     }
+
+
+    /**
+     * The serialized form of a session and the session properties stored
+     * alongside it.
+     */
+    private static final class SessionData {
+        private final String id;
+        private final byte[] data;
+        private final boolean valid;
+        private final int maxInactiveInterval;
+        private final long lastAccessedTime;
+
+        public SessionData(Session session, byte[] data) {
+            this.id = session.getIdInternal();
+            this.data = data;
+            this.valid = session.isValid();
+            this.maxInactiveInterval = session.getMaxInactiveInterval();
+            this.lastAccessedTime = session.getLastAccessedTimeInternal();
+        }
+    }
+
+    /**
+     * Writes queued sessions to the database once a batch has been queued or
+     * the write-behind delay has passed.
+     */
+    private class WriteBehindWriter implements Runnable {
+
+        @Override
+        public void run() {
+            int failures = 0;
+            while (writeBehindThread == Thread.currentThread()) {
+                try {
+                    synchronized (pendingSaves) {
+                        if (failures > 0) {
+                            // Don't hammer a database that is unavailable.
+                            // Saves are still queued in the meantime.
+                            pendingSaves.wait(Math.min(WRITE_BEHIND_MAX_RETRY_DELAY,
+                                    (long) Math.max(writeBehindDelay, 1) << Math.min(failures, 16)));
+                        } else if (writeBehindDelay <= 0) {
+                            // No delay, write as soon as a session is queued
+                            if (pendingSaves.isEmpty() &&
+                                    writeBehindThread == Thread.currentThread()) {
+                                pendingSaves.wait();
+                            }
+                        } else if (pendingSaves.size() < writeBehindBatchSize) {
+                            pendingSaves.wait(writeBehindDelay);
+                        }
+                    }
+                    if (writeBehindThread != Thread.currentThread()) {
+                        // Stopping. The queue is flushed by stopInternal().
+                        break;
+                    }
+                    if (flushPendingSaves()) {
+                        failures = 0;
+                    } else {
+                        failures++;
+                    }
+                } catch (InterruptedException e) {
+                    // Ignore
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    manager.getContext().getLogger().error(
+                            sm.getString(getStoreName() + ".writeBehindFail"), t);
+                    failures++;
+                }
+            }
+        }
+    }
 }
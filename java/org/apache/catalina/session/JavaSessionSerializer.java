@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.SessionSerializer;
+
+/**
+ * Serializes every session attribute with Java serialization, as sessions
+ * were serialized before {@link SessionSerializer} was introduced. This is the
+ * default serializer. Sessions written with it use exactly the format used by
+ * earlier versions so that they can still be read by those versions, e.g. by
+ * the other nodes of a cluster during a rolling upgrade.
+ */
+public class JavaSessionSerializer implements SessionSerializer {
+
+    public static final String NAME = "java";
+
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+
+    @Override
+    public List<String> writeAttributes(ObjectOutput out,
+            Map<String,Object> attributes) throws IOException {
+        List<String> notSerialized = new ArrayList<>();
+        out.writeObject(Integer.valueOf(attributes.size()));
+        for (Map.Entry<String,Object> entry : attributes.entrySet()) {
+            out.writeObject(entry.getKey());
+            try {
+                out.writeObject(entry.getValue());
+            } catch (NotSerializableException e) {
+                out.writeObject(StandardSession.NOT_SERIALIZED);
+                notSerialized.add(entry.getKey());
+            }
+        }
+        return notSerialized;
+    }
+
+
+    @Override
+    public Map<String,Object> readAttributes(ObjectInput in,
+            ClassLoader classLoader) throws ClassNotFoundException, IOException {
+        // The stream is responsible for using the correct class loader
+        int n = ((Integer) in.readObject()).intValue();
+        Map<String,Object> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            String name = (String) in.readObject();
+            Object value = in.readObject();
+            if (!StandardSession.NOT_SERIALIZED.equals(value)) {
+                attributes.put(name, value);
+            }
+        }
+        return attributes;
+    }
+}
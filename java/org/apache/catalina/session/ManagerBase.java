@@ -41,6 +41,7 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
 import org.apache.catalina.SessionIdGenerator;
+import org.apache.catalina.SessionSerializer;
 import org.apache.catalina.util.LifecycleMBeanBase;
 import org.apache.catalina.util.SessionIdGeneratorBase;
 import org.apache.catalina.util.StandardSessionIdGenerator;
@@ -122,6 +123,12 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     protected SessionIdGenerator sessionIdGenerator = null;
     protected Class<? extends SessionIdGenerator> sessionIdGeneratorClass = null;
 
+    /**
+     * The serializer used to write the attributes of the sessions of this
+     * Manager.
+     */
+    protected SessionSerializer sessionSerializer = new JavaSessionSerializer();
+
     /**
      * The longest time (in seconds) that an expired session had been alive.
      */
@@ -174,6 +181,28 @@ public abstract class ManagerBase extends LifecycleMBeanBase
      */
     protected long processingTime = 0;
 
+    /**
+     * Processing time of the most recent session expiration.
+     */
+    protected volatile long lastProcessingTime = 0;
+
+    /**
+     * Longest processing time of any session expiration.
+     */
+    protected volatile long maxProcessingTime = 0;
+
+    /**
+     * Number of sessions inspected during session expiration.
+     */
+    protected volatile long inspectedSessions = 0;
+
+    /**
+     * The sessions indexed by the time at which they are next due to be
+     * checked for expiration so that only those sessions need to be inspected.
+     */
+    private final SessionExpirationIndex expirationIndex =
+            new SessionExpirationIndex(1000);
+
     /**
      * Iteration count for background processing.
      */
@@ -330,6 +359,29 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     }
 
 
+    /**
+     * Gets the serializer used to write the attributes of the sessions of
+     * this Manager.
+     *
+     * @return The session serializer
+     */
+    public SessionSerializer getSessionSerializer() {
+        return sessionSerializer;
+    }
+
+
+    /**
+     * Sets the serializer used to write the attributes of the sessions of
+     * this Manager. Sessions written by a different serializer can still be
+     * read.
+     *
+     * @param sessionSerializer The session serializer
+     */
+    public void setSessionSerializer(SessionSerializer sessionSerializer) {
+        this.sessionSerializer = sessionSerializer;
+    }
+
+
     /**
      * Return the descriptive short name of this Manager implementation.
      */
@@ -443,6 +495,33 @@ public abstract class ManagerBase extends LifecycleMBeanBase
         this.processingTime = processingTime;
     }
 
+
+    /**
+     * @return The time, in milliseconds, that the most recent session
+     *         expiration took
+     */
+    public long getLastProcessingTime() {
+        return lastProcessingTime;
+    }
+
+
+    /**
+     * @return The longest time, in milliseconds, that any session expiration
+     *         took
+     */
+    public long getMaxProcessingTime() {
+        return maxProcessingTime;
+    }
+
+
+    /**
+     * @return The number of sessions that have been inspected to determine if
+     *         they have expired
+     */
+    public long getInspectedSessions() {
+        return inspectedSessions;
+    }
+
     /**
      * Return the frequency of manager checks.
      */
@@ -489,21 +568,107 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireDueSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
-        processingTime += ( timeEnd - timeNow );
+        updateProcessingTime(timeEnd - timeNow);
+
+    }
+
+
+    /**
+     * Inspect the sessions that are due to expire and invalidate those that
+     * have expired. Sessions that are still valid are scheduled to be
+     * inspected again when they are next due to expire.
+     *
+     * @param timeNow The current time
+     *
+     * @return The number of sessions that were invalidated
+     */
+    protected int expireDueSessions(long timeNow) {
+        if (expirationIndex.size() != sessions.size()) {
+            // Sessions have been added to or removed from the map directly
+            reindexExpiration();
+        }
+        List<Session> dueSessions = expirationIndex.pollDue(timeNow);
+        int expireHere = 0;
+        for (Session session : dueSessions) {
+            if (!session.isValid()) {
+                expireHere++;
+            } else {
+                scheduleExpiration(session);
+            }
+        }
+        inspectedSessions += dueSessions.size();
+        return expireHere;
+    }
+
+
+    /**
+     * Update the processing time statistics.
+     *
+     * @param time The time, in milliseconds, spent on housekeeping and
+     *             expiration
+     */
+    protected void updateProcessingTime(long time) {
+        processingTime += time;
+        lastProcessingTime = time;
+        if (time > maxProcessingTime) {
+            maxProcessingTime = time;
+        }
+    }
+
 
+    /**
+     * Schedule the given session to be inspected when it is next due to
+     * expire. This is a NO-OP if the session is not managed by this manager.
+     *
+     * @param session The session to schedule
+     */
+    void scheduleExpiration(Session session) {
+        String id = session.getIdInternal();
+        if (id != null && sessions.get(id) == session) {
+            expirationIndex.schedule(session, getExpirationTime(session));
+        }
+    }
+
+
+    /**
+     * Determine when the given session is next due to expire, assuming it is
+     * not accessed in the meantime.
+     *
+     * @param session The session
+     *
+     * @return The time, in milliseconds since the epoch, at which the session
+     *         should be checked or {@link Long#MAX_VALUE} if the session never
+     *         expires
+     */
+    protected long getExpirationTime(Session session) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval <= 0) {
+            return SessionExpirationIndex.NEVER;
+        }
+        return System.currentTimeMillis() - session.getIdleTimeInternal() +
+                maxInactiveInterval * 1000L;
+    }
+
+
+    private void reindexExpiration() {
+        for (Session session : expirationIndex.getSessions()) {
+            String id = session.getIdInternal();
+            if (id == null || sessions.get(id) != session) {
+                expirationIndex.remove(session);
+            }
+        }
+        for (Session session : sessions.values()) {
+            if (!expirationIndex.contains(session)) {
+                scheduleExpiration(session);
+            }
+        }
     }
 
     @Override
@@ -570,6 +735,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
     public void add(Session session) {
 
         sessions.put(session.getIdInternal(), session);
+        scheduleExpiration(session);
         int size = getActiveSessions();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -724,6 +890,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
         }
+        expirationIndex.remove(session);
     }
 
 
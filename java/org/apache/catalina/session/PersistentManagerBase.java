@@ -413,16 +413,10 @@ public abstract class PersistentManagerBase extends ManagerBase
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         if(log.isDebugEnabled())
-             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (!sessions[i].isValid()) {
-                expiredSessions.incrementAndGet();
-                expireHere++;
-            }
-        }
+             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireDueSessions(timeNow);
+        expiredSessions.addAndGet(expireHere);
         processPersistenceChecks();
         if (getStore() instanceof StoreBase) {
             ((StoreBase) getStore()).processExpires();
@@ -431,7 +425,7 @@ public abstract class PersistentManagerBase extends ManagerBase
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
-        processingTime += (timeEnd - timeNow);
+        updateProcessingTime(timeEnd - timeNow);
 
     }
 
@@ -0,0 +1,853 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Session;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.juli.logging.Log;
+
+/**
+ * Implementation of the <b>Store</b> interface that appends saved Sessions
+ * to a small number of memory-mapped segment files rather than writing a
+ * file per Session. An in-memory index records where the current copy of
+ * each Session is stored. Segments that mostly contain records for Sessions
+ * that have since been saved again or removed are compacted by the
+ * background expiration processing. The index is rebuilt from the segments
+ * when the Store starts, ignoring any records that were incompletely
+ * written.
+ */
+public final class SegmentStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    /**
+     * The extension to use for segment filenames.
+     */
+    private static final String SEGMENT_EXT = ".segment";
+
+    private static final int SEGMENT_MAGIC = 0x54435331;
+
+    private static final int SEGMENT_HEADER_LENGTH = 8;
+
+    /**
+     * Each record starts with the length of the record body and the CRC-32
+     * of the record body.
+     */
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    /**
+     * Record type, last accessed time, maximum inactive interval and session
+     * identifier length.
+     */
+    private static final int RECORD_BODY_MIN_LENGTH = 1 + 8 + 4 + 2;
+
+    private static final byte RECORD_SAVE = 1;
+
+    private static final byte RECORD_REMOVE = 2;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The pathname of the directory in which the segments are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    private String directory = ".";
+
+    /**
+     * A File representing the directory in which the segments are stored.
+     */
+    private File directoryFile = null;
+
+    /**
+     * The size of each segment in bytes.
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * The proportion of a segment that must be live records for the segment
+     * not to be compacted.
+     */
+    private double compactionRatio = 0.5;
+
+    /**
+     * Should changes be forced to the storage device after every save and
+     * remove?
+     */
+    private boolean forceWrites = false;
+
+    /**
+     * The segments, oldest first. The last segment is the one to which
+     * records are appended.
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * The location of the current record for each stored session.
+     */
+    private final Map<String,Location> index = new HashMap<>();
+
+    private long nextSequence = 0;
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "segmentStore";
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return the directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store.
+     *
+     * @param path The new directory path
+     */
+    public void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        this.directoryFile = null;
+        support.firePropertyChange("directory", oldDirectory, this.directory);
+    }
+
+
+    /**
+     * @return the size in bytes of new segments.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Set the size of new segments. A session that does not fit in a segment
+     * of this size is written to a segment large enough to hold it.
+     *
+     * @param segmentSize The new segment size in bytes
+     */
+    public void setSegmentSize(int segmentSize) {
+        int oldSegmentSize = this.segmentSize;
+        this.segmentSize = segmentSize;
+        support.firePropertyChange("segmentSize", oldSegmentSize, this.segmentSize);
+    }
+
+
+    /**
+     * @return the proportion of a segment below which the live records in the
+     *         segment will be moved so the segment can be deleted.
+     */
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+
+    /**
+     * Set the proportion of a segment below which the live records in the
+     * segment will be moved so the segment can be deleted.
+     *
+     * @param compactionRatio The new compaction ratio between 0 and 1
+     */
+    public void setCompactionRatio(double compactionRatio) {
+        double oldCompactionRatio = this.compactionRatio;
+        this.compactionRatio = compactionRatio;
+        support.firePropertyChange("compactionRatio",
+                Double.valueOf(oldCompactionRatio), Double.valueOf(this.compactionRatio));
+    }
+
+
+    /**
+     * @return <code>true</code> if changes are forced to the storage device
+     *         after every save and remove.
+     */
+    public boolean getForceWrites() {
+        return forceWrites;
+    }
+
+
+    /**
+     * Set whether changes are forced to the storage device after every save
+     * and remove. If not, changes are left for the operating system to write
+     * and are forced when the Store stops.
+     *
+     * @param forceWrites The new value
+     */
+    public void setForceWrites(boolean forceWrites) {
+        boolean oldForceWrites = this.forceWrites;
+        this.forceWrites = forceWrites;
+        support.firePropertyChange("forceWrites", oldForceWrites, this.forceWrites);
+    }
+
+
+    /**
+     * @return the number of segment files currently in use.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized int getSize() throws IOException {
+        return index.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        for (Segment segment : segments) {
+            delete(segment);
+        }
+        segments.clear();
+        index.clear();
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    @Override
+    public synchronized String[] keys() throws IOException {
+        return index.keySet().toArray(new String[index.size()]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+
+        byte[] data;
+        synchronized (this) {
+            Location location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+            Log log = manager.getContext().getLogger();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString(getStoreName() + ".loading", id,
+                        location.segment.file.getAbsolutePath()));
+            }
+            ByteBuffer buffer = location.segment.buffer.duplicate();
+            int dataOffset = location.offset + RECORD_HEADER_LENGTH +
+                    RECORD_BODY_MIN_LENGTH + location.idLength;
+            buffer.position(dataOffset);
+            data = new byte[location.offset + location.length - dataOffset];
+            buffer.get(data);
+        }
+
+        ClassLoader oldThreadContextCL = Thread.currentThread().getContextClassLoader();
+        ClassLoader classLoader = null;
+        Context context = manager.getContext();
+        if (context != null) {
+            Loader loader = context.getLoader();
+            if (loader != null) {
+                classLoader = loader.getClassLoader();
+            }
+        }
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        try (ObjectInputStream ois = classLoader == null ? new ObjectInputStream(bais) :
+                new CustomObjectInputStream(bais, classLoader)) {
+            if (classLoader != null) {
+                Thread.currentThread().setContextClassLoader(classLoader);
+            }
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            Thread.currentThread().setContextClassLoader(oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void remove(String id) throws IOException {
+        Location location = index.remove(id);
+        if (location == null) {
+            return;
+        }
+        Log log = manager.getContext().getLogger();
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString(getStoreName() + ".removing", id,
+                    location.segment.file.getAbsolutePath()));
+        }
+        location.segment.liveBytes -= location.length;
+        // A removal record is required so that the session is not restored
+        // from its previous record when the Store restarts
+        append(RECORD_REMOVE, id, 0, 0, new byte[0]);
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        byte[] data = bos.toByteArray();
+
+        synchronized (this) {
+            String id = session.getIdInternal();
+            Location location = append(RECORD_SAVE, id,
+                    session.getThisAccessedTimeInternal(),
+                    session.getMaxInactiveInterval(), data);
+            Log log = manager.getContext().getLogger();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString(getStoreName() + ".saving", id,
+                        location.segment.file.getAbsolutePath()));
+            }
+            location.segment.liveBytes += location.length;
+            Location previous = index.put(id, location);
+            if (previous != null) {
+                previous.segment.liveBytes -= previous.length;
+            }
+        }
+    }
+
+
+    /**
+     * Expire sessions as described by {@link StoreBase#processExpires()} and
+     * then compact any segments that are mostly unused.
+     */
+    @Override
+    public void processExpires() {
+        super.processExpires();
+        if (!getState().isAvailable()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            manager.getContext().getLogger().error(
+                    sm.getString("segmentStore.compactFail"), e);
+        }
+    }
+
+
+    /**
+     * Move the live records from any segment, other than the one currently
+     * being written, where they occupy less than the configured
+     * {@link #getCompactionRatio() proportion} of the segment and then
+     * delete the segment.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    public synchronized void compact() throws IOException {
+        Segment[] candidates = segments.toArray(new Segment[segments.size()]);
+        for (int i = 0; i < candidates.length - 1; i++) {
+            Segment segment = candidates[i];
+            if (segment.liveBytes < (segment.position - SEGMENT_HEADER_LENGTH) * compactionRatio) {
+                compact(segment, segments.get(0) != segment);
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * The last accessed time and maximum inactive interval of each session
+     * are held in the index so only the sessions that have expired need to be
+     * loaded.
+     */
+    @Override
+    protected synchronized String[] expiredKeys() throws IOException {
+        long timeNow = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String,Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            if (location.maxInactiveInterval > 0 && (timeNow - location.thisAccessedTime) /
+                    1000L >= location.maxInactiveInterval) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+
+    /**
+     * Open the existing segments and rebuild the index from them.
+     *
+     * @exception LifecycleException if the segments cannot be read
+     */
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        try {
+            open();
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+        super.startInternal();
+    }
+
+
+    /**
+     * Force any changes to the segments to the storage device and release
+     * them.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        index.clear();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private void open() throws IOException {
+        segments.clear();
+        index.clear();
+        nextSequence = 0;
+
+        File dir = directory();
+        String[] files = dir.list();
+        if (files == null) {
+            return;
+        }
+        List<Long> sequences = new ArrayList<>();
+        for (String file : files) {
+            if (file.endsWith(SEGMENT_EXT)) {
+                try {
+                    sequences.add(Long.valueOf(Long.parseLong(file.substring(
+                            0, file.length() - SEGMENT_EXT.length()), 16)));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        Long[] sorted = sequences.toArray(new Long[sequences.size()]);
+        Arrays.sort(sorted);
+
+        for (Long sequence : sorted) {
+            nextSequence = sequence.longValue() + 1;
+            Segment segment = map(new File(dir, segmentName(sequence.longValue())), -1);
+            if (segment.buffer.capacity() < SEGMENT_HEADER_LENGTH ||
+                    segment.buffer.getInt(0) != SEGMENT_MAGIC) {
+                manager.getContext().getLogger().warn(sm.getString(
+                        "segmentStore.invalidSegment", segment.file.getAbsolutePath()));
+                continue;
+            }
+            segments.add(segment);
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            recover(segments.get(i), i == segments.size() - 1);
+        }
+    }
+
+
+    /**
+     * Read the records in the given segment, adding them to the index,
+     * until the end of the written records or the first record that was
+     * not completely written. Only the last segment is appended to so only
+     * an incomplete record in the last segment can be the result of an
+     * interrupted write. Anything else is left as it is for investigation.
+     */
+    private void recover(Segment segment, boolean last) {
+        MappedByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = SEGMENT_HEADER_LENGTH;
+        boolean complete = true;
+        while (position + RECORD_HEADER_LENGTH <= capacity) {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength == 0) {
+                break;
+            }
+            int idLength = 0;
+            if (bodyLength >= RECORD_BODY_MIN_LENGTH &&
+                    bodyLength <= capacity - position - RECORD_HEADER_LENGTH) {
+                idLength = buffer.getShort(position + RECORD_HEADER_LENGTH + 13) & 0xFFFF;
+            }
+            if (bodyLength < RECORD_BODY_MIN_LENGTH + idLength ||
+                    bodyLength > capacity - position - RECORD_HEADER_LENGTH ||
+                    buffer.getInt(position + 4) != crc(buffer,
+                            position + RECORD_HEADER_LENGTH, bodyLength)) {
+                complete = false;
+                break;
+            }
+
+            int body = position + RECORD_HEADER_LENGTH;
+            String id = readId(buffer, body + RECORD_BODY_MIN_LENGTH, idLength);
+            int length = RECORD_HEADER_LENGTH + bodyLength;
+            Location previous;
+            if (buffer.get(body) == RECORD_SAVE) {
+                Location location = new Location(segment, position, length, idLength,
+                        buffer.getLong(body + 1), buffer.getInt(body + 9));
+                segment.liveBytes += length;
+                previous = index.put(id, location);
+            } else {
+                previous = index.remove(id);
+            }
+            if (previous != null) {
+                previous.segment.liveBytes -= previous.length;
+            }
+            position += length;
+        }
+
+        if (!complete) {
+            manager.getContext().getLogger().warn(sm.getString("segmentStore.truncated",
+                    segment.file.getAbsolutePath(), Integer.valueOf(position)));
+            if (last) {
+                // Clear everything after the last complete record so that
+                // nothing left from the incomplete write can be mistaken for
+                // a record once new records are appended
+                for (int i = position; i < capacity; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                buffer.force();
+            }
+        }
+        segment.position = position;
+    }
+
+
+    /**
+     * Copy the live records and any removal records that are still required
+     * from the given segment to the end of the current segment and delete
+     * the given segment.
+     */
+    private void compact(Segment segment, boolean olderSegments) throws IOException {
+        Log log = manager.getContext().getLogger();
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("segmentStore.compacting",
+                    segment.file.getAbsolutePath(), Long.valueOf(segment.liveBytes)));
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        // Copies may span more than one segment if a segment fills up
+        List<Segment> targets = new ArrayList<>();
+        int position = SEGMENT_HEADER_LENGTH;
+        while (position < segment.position) {
+            int length = RECORD_HEADER_LENGTH + buffer.getInt(position);
+            int body = position + RECORD_HEADER_LENGTH;
+            int idLength = buffer.getShort(body + 13) & 0xFFFF;
+            String id = readId(buffer, body + RECORD_BODY_MIN_LENGTH, idLength);
+            Location current = index.get(id);
+            if (buffer.get(body) == RECORD_SAVE) {
+                if (current != null && current.segment == segment && current.offset == position) {
+                    Segment target = segmentFor(length);
+                    addTarget(targets, target);
+                    copy(buffer, position, length, target);
+                    current.segment = target;
+                    current.offset = target.position;
+                    target.position += length;
+                    target.liveBytes += length;
+                }
+            } else if (current == null && olderSegments) {
+                // The session may still have a save record in an older segment
+                Segment target = segmentFor(length);
+                addTarget(targets, target);
+                copy(buffer, position, length, target);
+                target.position += length;
+            }
+            position += length;
+        }
+        // The copies must be on the storage device before the only other
+        // copy of the records is deleted, whatever forceWrites is set to
+        for (Segment target : targets) {
+            target.buffer.force();
+        }
+        segments.remove(segment);
+        delete(segment);
+    }
+
+
+    private static void addTarget(List<Segment> targets, Segment target) {
+        if (targets.isEmpty() || targets.get(targets.size() - 1) != target) {
+            targets.add(target);
+        }
+    }
+
+
+    private Location append(byte type, String id, long thisAccessedTime,
+            int maxInactiveInterval, byte[] data) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = RECORD_BODY_MIN_LENGTH + idBytes.length + data.length;
+        int length = RECORD_HEADER_LENGTH + bodyLength;
+        Segment segment = segmentFor(length);
+
+        int offset = segment.position;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + RECORD_HEADER_LENGTH);
+        buffer.put(type);
+        buffer.putLong(thisAccessedTime);
+        buffer.putInt(maxInactiveInterval);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(data);
+        buffer.putInt(offset + 4, crc(buffer, offset + RECORD_HEADER_LENGTH, bodyLength));
+        buffer.putInt(offset, bodyLength);
+        segment.position += length;
+
+        if (forceWrites) {
+            segment.buffer.force();
+        }
+        return new Location(segment, offset, length, idBytes.length,
+                thisAccessedTime, maxInactiveInterval);
+    }
+
+
+    /**
+     * Return the segment to which a record of the given length should be
+     * appended, creating a new segment if the current segment is full.
+     */
+    private Segment segmentFor(int length) throws IOException {
+        if (!segments.isEmpty()) {
+            Segment current = segments.get(segments.size() - 1);
+            if (current.buffer.capacity() - current.position >= length) {
+                return current;
+            }
+        }
+        File file = new File(directory(), segmentName(nextSequence++));
+        Segment segment = map(file, Math.max(segmentSize, SEGMENT_HEADER_LENGTH + length));
+        segment.buffer.putInt(0, SEGMENT_MAGIC);
+        segment.position = SEGMENT_HEADER_LENGTH;
+        segments.add(segment);
+        return segment;
+    }
+
+
+    private static void copy(ByteBuffer source, int offset, int length, Segment target) {
+        ByteBuffer record = source.duplicate();
+        record.position(offset);
+        record.limit(offset + length);
+        ByteBuffer buffer = target.buffer.duplicate();
+        buffer.position(target.position);
+        buffer.put(record);
+    }
+
+
+    /**
+     * Map the given file. If a size is given the file is created with that
+     * size, otherwise the existing file is mapped.
+     */
+    private static Segment map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel channel = raf.getChannel()) {
+            if (size > 0) {
+                raf.setLength(size);
+            }
+            // The mapping remains valid once the channel is closed
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+        }
+    }
+
+
+    private void delete(Segment segment) {
+        // The file cannot be unmapped explicitly. Platforms that do not allow
+        // a mapped file to be deleted will fail here.
+        if (!segment.file.delete() && segment.file.exists()) {
+            manager.getContext().getLogger().warn(sm.getString(
+                    "segmentStore.deleteFailed", segment.file.getAbsolutePath()));
+        }
+    }
+
+
+    private static int crc(ByteBuffer source, int offset, int length) {
+        ByteBuffer buffer = source.duplicate();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+
+    private static String readId(ByteBuffer source, int offset, int length) {
+        byte[] id = new byte[length];
+        ByteBuffer buffer = source.duplicate();
+        buffer.position(offset);
+        buffer.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+
+    private static String segmentName(long sequence) {
+        return String.format("%016x", Long.valueOf(sequence)) + SEGMENT_EXT;
+    }
+
+
+    /**
+     * Return a File object representing the pathname to our
+     * segment directory.  The directory will be created if it does not
+     * already exist.
+     */
+    private File directory() throws IOException {
+
+        if (this.directoryFile != null) {
+            return this.directoryFile;
+        }
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Context context = manager.getContext();
+            if (context != null) {
+                ServletContext servletContext = context.getServletContext();
+                File work = (File)
+                    servletContext.getAttribute(ServletContext.TEMPDIR);
+                file = new File(work, this.directory);
+            } else {
+                throw new IllegalArgumentException
+                    ("Parent Container is not a Context");
+            }
+        }
+        if (!file.exists() || !file.isDirectory()) {
+            if (!file.delete() && file.exists()) {
+                throw new IOException(
+                        sm.getString("fileStore.deleteFailed", file));
+            }
+            if (!file.mkdirs() && !file.isDirectory()) {
+                throw new IOException(
+                        sm.getString("fileStore.createFailed", file));
+            }
+        }
+        this.directoryFile = file;
+        return file;
+    }
+
+
+    // ------------------------------------------------------ Segment and index
+
+    private static final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The offset at which the next record will be written.
+         */
+        private int position;
+
+        /**
+         * The number of bytes occupied by records that are the current record
+         * for a session.
+         */
+        private long liveBytes;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+
+    private static final class Location {
+
+        private Segment segment;
+        private int offset;
+        private final int length;
+        private final int idLength;
+        private final long thisAccessedTime;
+        private final int maxInactiveInterval;
+
+        private Location(Segment segment, int offset, int length, int idLength,
+                long thisAccessedTime, int maxInactiveInterval) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.idLength = idLength;
+            this.thisAccessedTime = thisAccessedTime;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.catalina.Session;
+
+/**
+ * Index of sessions by the time at which they are next due to be checked for
+ * expiration. Sessions are grouped into buckets of a fixed length of time so
+ * that the background expiration process only has to inspect the sessions in
+ * the buckets that have become due rather than every session.
+ * <p>
+ * The index is not updated when a session is accessed. A session that is
+ * found to still be valid when its bucket becomes due is simply scheduled
+ * again based on its current idle time.
+ */
+final class SessionExpirationIndex {
+
+    /**
+     * Expiration time of a session that never expires.
+     */
+    static final long NEVER = Long.MAX_VALUE;
+
+    private final long bucketLength;
+
+    private final TreeMap<Long,Set<Session>> buckets = new TreeMap<>();
+
+    // Bucket each indexed session is held in. Sessions that never expire are
+    // indexed but are not held in any bucket.
+    private final Map<Session,Long> scheduled = new IdentityHashMap<>();
+
+
+    /**
+     * @param bucketLength The length of time, in milliseconds, covered by each
+     *                     bucket
+     */
+    SessionExpirationIndex(long bucketLength) {
+        this.bucketLength = bucketLength;
+    }
+
+
+    /**
+     * Add the session to the index or move it if it is already indexed.
+     *
+     * @param session        The session to schedule
+     * @param expirationTime The time, in milliseconds since the epoch, at
+     *                       which the session should be checked or
+     *                       {@link #NEVER}
+     */
+    synchronized void schedule(Session session, long expirationTime) {
+        long key = NEVER;
+        if (expirationTime != NEVER) {
+            // Round up so a session is never checked before it is due
+            key = (expirationTime + bucketLength - 1) / bucketLength;
+        }
+        Long previous = scheduled.put(session, Long.valueOf(key));
+        if (previous != null) {
+            if (previous.longValue() == key) {
+                return;
+            }
+            removeFromBucket(session, previous);
+        }
+        if (key != NEVER) {
+            Long bucketKey = Long.valueOf(key);
+            Set<Session> bucket = buckets.get(bucketKey);
+            if (bucket == null) {
+                bucket = Collections.newSetFromMap(new IdentityHashMap<Session,Boolean>());
+                buckets.put(bucketKey, bucket);
+            }
+            bucket.add(session);
+        }
+    }
+
+
+    synchronized void remove(Session session) {
+        Long key = scheduled.remove(session);
+        if (key != null) {
+            removeFromBucket(session, key);
+        }
+    }
+
+
+    synchronized boolean contains(Session session) {
+        return scheduled.containsKey(session);
+    }
+
+
+    /**
+     * @return The number of indexed sessions, including those that never
+     *         expire
+     */
+    synchronized int size() {
+        return scheduled.size();
+    }
+
+
+    synchronized Session[] getSessions() {
+        return scheduled.keySet().toArray(new Session[0]);
+    }
+
+
+    /**
+     * Remove all the sessions that are due to be checked from the index.
+     *
+     * @param time The current time in milliseconds since the epoch
+     *
+     * @return The sessions that were due
+     */
+    synchronized List<Session> pollDue(long time) {
+        long key = time / bucketLength;
+        List<Session> result = new ArrayList<>();
+        while (!buckets.isEmpty() && buckets.firstKey().longValue() <= key) {
+            Set<Session> bucket = buckets.pollFirstEntry().getValue();
+            for (Session session : bucket) {
+                scheduled.remove(session);
+            }
+            result.addAll(bucket);
+        }
+        return result;
+    }
+
+
+    synchronized void clear() {
+        buckets.clear();
+        scheduled.clear();
+    }
+
+
+    private void removeFromBucket(Session session, Long key) {
+        if (key.longValue() == NEVER) {
+            return;
+        }
+        Set<Session> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(session);
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+}
@@ -18,7 +18,7 @@ package org.apache.catalina.session;
 
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
-import java.io.NotSerializableException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -31,6 +31,7 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,10 +50,12 @@ import javax.servlet.http.HttpSessionListener;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
+import org.apache.catalina.Loader;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
 import org.apache.catalina.SessionEvent;
 import org.apache.catalina.SessionListener;
+import org.apache.catalina.SessionSerializer;
 import org.apache.catalina.TomcatPrincipal;
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -605,6 +608,9 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).scheduleExpiration(this);
+        }
     }
 
 
@@ -1610,15 +1616,29 @@ public class StandardSession implements HttpSession, Session, Serializable {
 
         // Deserialize the scalar instance variables (except Manager)
         authType = null;        // Transient only
-        creationTime = ((Long) stream.readObject()).longValue();
-        lastAccessedTime = ((Long) stream.readObject()).longValue();
-        maxInactiveInterval = ((Integer) stream.readObject()).intValue();
-        isNew = ((Boolean) stream.readObject()).booleanValue();
-        isValid = ((Boolean) stream.readObject()).booleanValue();
-        thisAccessedTime = ((Long) stream.readObject()).longValue();
+        SessionSerializer serializer;
+        Object first = stream.readObject();
+        if (first == null) {
+            // Written using a SessionSerializer other than the Java one
+            serializer = getSessionSerializer(stream.readUTF());
+            creationTime = stream.readLong();
+            lastAccessedTime = stream.readLong();
+            maxInactiveInterval = stream.readInt();
+            isNew = stream.readBoolean();
+            isValid = stream.readBoolean();
+            thisAccessedTime = stream.readLong();
+            id = (String) stream.readObject();
+        } else {
+            serializer = getSessionSerializer(JavaSessionSerializer.NAME);
+            creationTime = ((Long) first).longValue();
+            lastAccessedTime = ((Long) stream.readObject()).longValue();
+            maxInactiveInterval = ((Integer) stream.readObject()).intValue();
+            isNew = ((Boolean) stream.readObject()).booleanValue();
+            isValid = ((Boolean) stream.readObject()).booleanValue();
+            thisAccessedTime = ((Long) stream.readObject()).longValue();
+            id = (String) stream.readObject();
+        }
         principal = null;        // Transient only
-        //        setId((String) stream.readObject());
-        id = (String) stream.readObject();
         if (manager.getContext().getLogger().isDebugEnabled())
             manager.getContext().getLogger().debug
                 ("readObject() loading session " + id);
@@ -1626,18 +1646,15 @@ public class StandardSession implements HttpSession, Session, Serializable {
         // Deserialize the attribute count and attribute values
         if (attributes == null)
             attributes = new ConcurrentHashMap<>();
-        int n = ((Integer) stream.readObject()).intValue();
         boolean isValidSave = isValid;
         isValid = true;
-        for (int i = 0; i < n; i++) {
-            String name = (String) stream.readObject();
-            Object value = stream.readObject();
-            if ((value instanceof String) && (value.equals(NOT_SERIALIZED)))
-                continue;
+        Map<String,Object> values =
+                serializer.readAttributes(stream, getSerializationClassLoader());
+        for (Map.Entry<String,Object> entry : values.entrySet()) {
             if (manager.getContext().getLogger().isDebugEnabled())
-                manager.getContext().getLogger().debug("  loading attribute '" + name +
-                    "' with value '" + value + "'");
-            attributes.put(name, value);
+                manager.getContext().getLogger().debug("  loading attribute '" + entry.getKey() +
+                    "' with value '" + entry.getValue() + "'");
+            attributes.put(entry.getKey(), entry.getValue());
         }
         isValid = isValidSave;
 
@@ -1672,13 +1689,30 @@ public class StandardSession implements HttpSession, Session, Serializable {
      */
     protected void doWriteObject(ObjectOutputStream stream) throws IOException {
 
+        SessionSerializer serializer = getSessionSerializer();
+
         // Write the scalar instance variables (except Manager)
-        stream.writeObject(Long.valueOf(creationTime));
-        stream.writeObject(Long.valueOf(lastAccessedTime));
-        stream.writeObject(Integer.valueOf(maxInactiveInterval));
-        stream.writeObject(Boolean.valueOf(isNew));
-        stream.writeObject(Boolean.valueOf(isValid));
-        stream.writeObject(Long.valueOf(thisAccessedTime));
+        if (JavaSessionSerializer.NAME.equals(serializer.getName())) {
+            // The format used before session serializers were introduced so
+            // that older versions can still read the session
+            stream.writeObject(Long.valueOf(creationTime));
+            stream.writeObject(Long.valueOf(lastAccessedTime));
+            stream.writeObject(Integer.valueOf(maxInactiveInterval));
+            stream.writeObject(Boolean.valueOf(isNew));
+            stream.writeObject(Boolean.valueOf(isValid));
+            stream.writeObject(Long.valueOf(thisAccessedTime));
+        } else {
+            // The null distinguishes this format from the one above
+            stream.writeObject(null);
+            stream.writeUTF(serializer.getName());
+            stream.writeLong(creationTime);
+            stream.writeLong(lastAccessedTime);
+            stream.writeInt(maxInactiveInterval);
+            stream.writeBoolean(isNew);
+            stream.writeBoolean(isValid);
+            stream.writeLong(thisAccessedTime);
+        }
+        // The ID may be null
         stream.writeObject(id);
         if (manager.getContext().getLogger().isDebugEnabled())
             manager.getContext().getLogger().debug
@@ -1686,47 +1720,86 @@ public class StandardSession implements HttpSession, Session, Serializable {
 
         // Accumulate the names of serializable and non-serializable attributes
         String keys[] = keys();
-        ArrayList<String> saveNames = new ArrayList<>();
-        ArrayList<Object> saveValues = new ArrayList<>();
+        Map<String,Object> saveAttributes = new LinkedHashMap<>();
         for (int i = 0; i < keys.length; i++) {
             Object value = attributes.get(keys[i]);
             if (value == null)
                 continue;
             else if ( (value instanceof Serializable)
                     && (!exclude(keys[i]) )) {
-                saveNames.add(keys[i]);
-                saveValues.add(value);
+                saveAttributes.put(keys[i], value);
             } else {
                 removeAttributeInternal(keys[i], true);
             }
         }
 
-        // Serialize the attribute count and the Serializable attributes
-        int n = saveNames.size();
-        stream.writeObject(Integer.valueOf(n));
-        for (int i = 0; i < n; i++) {
-            stream.writeObject(saveNames.get(i));
-            try {
-                stream.writeObject(saveValues.get(i));
-                if (manager.getContext().getLogger().isDebugEnabled())
-                    manager.getContext().getLogger().debug
-                        ("  storing attribute '" + saveNames.get(i) +
-                        "' with value '" + saveValues.get(i) + "'");
-            } catch (NotSerializableException e) {
-                manager.getContext().getLogger().warn
-                    (sm.getString("standardSession.notSerializable",
-                     saveNames.get(i), id), e);
-                stream.writeObject(NOT_SERIALIZED);
-                if (manager.getContext().getLogger().isDebugEnabled())
+        // Serialize the Serializable attributes
+        List<String> notSerialized = serializer.writeAttributes(stream, saveAttributes);
+        for (String name : notSerialized) {
+            manager.getContext().getLogger().warn
+                (sm.getString("standardSession.notSerializable", name, id));
+        }
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            for (Map.Entry<String,Object> entry : saveAttributes.entrySet()) {
+                if (!notSerialized.contains(entry.getKey())) {
                     manager.getContext().getLogger().debug
-                       ("  storing attribute '" + saveNames.get(i) +
-                        "' with value NOT_SERIALIZED");
+                        ("  storing attribute '" + entry.getKey() +
+                        "' with value '" + entry.getValue() + "'");
+                }
             }
         }
 
     }
 
 
+    /**
+     * Return the serializer to use to write the attributes of this session.
+     */
+    protected SessionSerializer getSessionSerializer() {
+        if (manager instanceof ManagerBase) {
+            return ((ManagerBase) manager).getSessionSerializer();
+        }
+        return new JavaSessionSerializer();
+    }
+
+
+    /**
+     * Return the serializer that reads attributes written in the given format.
+     *
+     * @param name The name of the format
+     *
+     * @exception InvalidObjectException if the format is not recognised
+     */
+    protected SessionSerializer getSessionSerializer(String name)
+            throws InvalidObjectException {
+        SessionSerializer serializer = getSessionSerializer();
+        if (serializer.getName().equals(name)) {
+            return serializer;
+        } else if (CompactSessionSerializer.NAME.equals(name)) {
+            return new CompactSessionSerializer();
+        } else if (JavaSessionSerializer.NAME.equals(name)) {
+            return new JavaSessionSerializer();
+        }
+        throw new InvalidObjectException(
+                sm.getString("standardSession.unknownSerializer", name));
+    }
+
+
+    /**
+     * Return the class loader to use to load the classes of attribute values
+     * when reading this session.
+     */
+    protected ClassLoader getSerializationClassLoader() {
+        if (manager != null && manager.getContext() != null) {
+            Loader loader = manager.getContext().getLoader();
+            if (loader != null && loader.getClassLoader() != null) {
+                return loader.getClassLoader();
+            }
+        }
+        return Thread.currentThread().getContextClassLoader();
+    }
+
+
     /**
      * Exclude standard attributes that cannot be serialized.
      * @param name the attribute's name
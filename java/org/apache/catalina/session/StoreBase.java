@@ -128,7 +128,7 @@ public abstract class StoreBase extends LifecycleBase implements Store {
         }
 
         try {
-            keys = keys();
+            keys = expiredKeys();
         } catch (IOException e) {
             manager.getContext().getLogger().error("Error getting keys", e);
             return;
@@ -184,6 +184,19 @@ public abstract class StoreBase extends LifecycleBase implements Store {
     }
 
 
+    /**
+     * Return the identifiers of the sessions in this Store that may have
+     * expired. Each of these sessions is loaded to determine if it has
+     * expired. This implementation returns all the sessions in the Store.
+     *
+     * @return the identifiers of the sessions to check
+     * @exception IOException if an input/output error occurred
+     */
+    protected String[] expiredKeys() throws IOException {
+        return keys();
+    }
+
+
     @Override
     protected void initInternal() {
         // NOOP
@@ -160,6 +160,14 @@ public class ContextRuleSet extends RuleSetBase {
                             "setSessionIdGenerator",
                             "org.apache.catalina.SessionIdGenerator");
 
+        digester.addObjectCreate(prefix + "Context/Manager/SessionSerializer",
+                                 "org.apache.catalina.session.CompactSessionSerializer",
+                                 "className");
+        digester.addSetProperties(prefix + "Context/Manager/SessionSerializer");
+        digester.addSetNext(prefix + "Context/Manager/SessionSerializer",
+                            "setSessionSerializer",
+                            "org.apache.catalina.SessionSerializer");
+
         digester.addObjectCreate(prefix + "Context/Parameter",
                                  "org.apache.tomcat.util.descriptor.web.ApplicationParameter");
         digester.addSetProperties(prefix + "Context/Parameter");
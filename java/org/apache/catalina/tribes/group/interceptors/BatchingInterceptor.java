@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.ErrorHandler;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Combines the messages sent to a member within a short window into a single
+ * message so that many small messages, such as session or replicated map
+ * updates, result in fewer writes and network packets. The combined message is
+ * split up again on the receiving member and the messages are passed on in the
+ * order they were sent.
+ * <p>
+ * Only messages that have all the bits of the option flag set are combined, by
+ * default <code>Channel.SEND_OPTIONS_ASYNCHRONOUS</code>, since the sender
+ * does not wait for them to be sent. Combined messages are sent once the
+ * messages pending for a member reach <code>maxSize</code> bytes, once
+ * <code>maxDelay</code> milliseconds have passed or, to preserve ordering, just
+ * before any other message is sent to that member. Completion and errors are
+ * reported to the <code>ErrorHandler</code> of each message, if any.
+ * <p>
+ * Every member must use this interceptor, at the same position in the stack.
+ *
+ * <br><b>Configuration Options</b><br>
+ * BatchingInterceptor.maxDelay=&lt;milliseconds&gt; - how long messages may wait to be combined <b>default=10</b><br>
+ * BatchingInterceptor.maxSize=&lt;bytes&gt; - size at which the pending messages are sent <b>default=64*1024</b><br>
+ */
+public class BatchingInterceptor extends ChannelInterceptorBase {
+
+    private static final Log log = LogFactory.getLog(BatchingInterceptor.class);
+
+    protected static final AtomicInteger cnt = new AtomicInteger(0);
+
+    protected final ConcurrentMap<Member,Batch> batches = new ConcurrentHashMap<>();
+    protected long maxDelay = 10;
+    protected int maxSize = 64 * 1024;
+    protected volatile boolean running = false;
+    protected FlushThread thread = null;
+
+    protected final AtomicLong messagesBatched = new AtomicLong(0);
+    protected final AtomicLong batchesSent = new AtomicLong(0);
+
+
+    public BatchingInterceptor() {
+        setOptionFlag(Channel.SEND_OPTIONS_ASYNCHRONOUS);
+    }
+
+
+    @Override
+    public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload)
+            throws ChannelException {
+        int size = getEntryLength(msg);
+        boolean udp = (msg.getOptions() & Channel.SEND_OPTIONS_UDP) == Channel.SEND_OPTIONS_UDP;
+        if (!running || udp || size > maxSize || !okToProcess(msg.getOptions())) {
+            // Anything pending for these members was sent first
+            for (int i = 0; i < destination.length; i++) {
+                flush(destination[i]);
+            }
+            msg.getMessage().append(false);
+            super.sendMessage(destination, msg, payload);
+            return;
+        }
+        ErrorHandler handler = (payload == null) ? null : payload.getErrorHandler();
+        for (int i = 0; i < destination.length; i++) {
+            boolean added = false;
+            while (!added) {
+                Batch batch = getBatch(destination[i]);
+                synchronized (batch) {
+                    // The batch may have been removed, by memberDisappeared()
+                    // or stop(), since it was looked up. Messages added to it
+                    // now would never be sent.
+                    if (batches.get(destination[i]) != batch) {
+                        continue;
+                    }
+                    if (batch.count > 0 && (batch.options != msg.getOptions() ||
+                            batch.buffer.getLength() + size > maxSize)) {
+                        send(batch);
+                    }
+                    batch.add(msg, handler);
+                    added = true;
+                }
+            }
+        }
+        messagesBatched.incrementAndGet();
+    }
+
+
+    @Override
+    public void messageReceived(ChannelMessage msg) {
+        XByteBuffer buffer = msg.getMessage();
+        boolean batched = XByteBuffer.toBoolean(buffer.getBytesDirect(), buffer.getLength() - 1);
+        buffer.trim(1);
+        if (!batched) {
+            super.messageReceived(msg);
+            return;
+        }
+        byte[] data = buffer.getBytesDirect();
+        int offset = 0;
+        while (offset < buffer.getLength()) {
+            long timestamp = XByteBuffer.toLong(data, offset);
+            offset += 8;
+            byte[] uniqueId = new byte[XByteBuffer.toInt(data, offset)];
+            offset += 4;
+            System.arraycopy(data, offset, uniqueId, 0, uniqueId.length);
+            offset += uniqueId.length;
+            int length = XByteBuffer.toInt(data, offset);
+            offset += 4;
+            XByteBuffer message = new XByteBuffer(length, false);
+            message.append(data, offset, length);
+            offset += length;
+            ChannelData cdata = new ChannelData(uniqueId, message, timestamp);
+            cdata.setOptions(msg.getOptions());
+            cdata.setAddress(msg.getAddress());
+            super.messageReceived(cdata);
+        }
+    }
+
+
+    @Override
+    public void memberDisappeared(Member member) {
+        Batch batch = batches.remove(member);
+        if (batch != null) {
+            synchronized (batch) {
+                if (batch.count > 0) {
+                    ChannelException x = new ChannelException(
+                            "Member disappeared before the batched messages were sent.");
+                    x.addFaultyMember(member, new ChannelException("Member disappeared."));
+                    fail(batch, x);
+                }
+            }
+        }
+        super.memberDisappeared(member);
+    }
+
+
+    @Override
+    public synchronized void start(int svc) throws ChannelException {
+        super.start(svc);
+        if (thread == null && (svc & Channel.SND_TX_SEQ) == Channel.SND_TX_SEQ) {
+            running = true;
+            thread = new FlushThread();
+            thread.setDaemon(true);
+            thread.setName("BatchingInterceptor.FlushThread-" + cnt.addAndGet(1));
+            thread.start();
+        }
+    }
+
+
+    @Override
+    public synchronized void stop(int svc) throws ChannelException {
+        if (thread != null && (svc & Channel.SND_TX_SEQ) == Channel.SND_TX_SEQ) {
+            running = false;
+            thread.interrupt();
+            thread = null;
+            flush();
+            batches.clear();
+        }
+        super.stop(svc);
+    }
+
+
+    /**
+     * Send the messages pending for every member.
+     */
+    public void flush() {
+        Iterator<Batch> iter = batches.values().iterator();
+        while (iter.hasNext()) {
+            Batch batch = iter.next();
+            synchronized (batch) {
+                send(batch);
+            }
+        }
+    }
+
+
+    protected void flush(Member member) {
+        Batch batch = batches.get(member);
+        if (batch != null) {
+            synchronized (batch) {
+                send(batch);
+            }
+        }
+    }
+
+
+    protected Batch getBatch(Member member) {
+        Batch batch = batches.get(member);
+        if (batch == null) {
+            batch = new Batch(member);
+            Batch existing = batches.putIfAbsent(member, batch);
+            if (existing != null) {
+                batch = existing;
+            }
+        }
+        return batch;
+    }
+
+
+    /**
+     * Send the messages pending in a batch. Must be called while holding the
+     * lock on the batch so that messages for the member are sent in order.
+     *
+     * @param batch the batch to send
+     */
+    protected void send(Batch batch) {
+        if (batch.count == 0) {
+            return;
+        }
+        ChannelData data = new ChannelData(true);
+        data.setAddress(batch.address);
+        data.setTimestamp(System.currentTimeMillis());
+        data.setOptions(batch.options);
+        batch.buffer.append(true);
+        data.setMessage(batch.buffer);
+        try {
+            super.sendMessage(new Member[] { batch.member }, data, null);
+            batchesSent.incrementAndGet();
+            for (int i = 0; i < batch.handlers.size(); i++) {
+                try {
+                    batch.handlers.get(i).handleCompletion(batch.ids.get(i));
+                } catch (Exception ex) {
+                    log.error("Unable to report back completed message.", ex);
+                }
+            }
+        } catch (ChannelException x) {
+            fail(batch, x);
+        } finally {
+            batch.reset();
+        }
+    }
+
+
+    /**
+     * Report an error to the senders of the messages pending in a batch and
+     * discard them. Must be called while holding the lock on the batch.
+     *
+     * @param batch the batch whose messages could not be sent
+     * @param x     the error to report
+     */
+    protected void fail(Batch batch, ChannelException x) {
+        if (batch.handlers.isEmpty()) {
+            log.warn("Unable to send " + batch.count + " batched messages to [" +
+                    batch.member + "]", x);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Unable to send " + batch.count + " batched messages to [" +
+                    batch.member + "]", x);
+        }
+        for (int i = 0; i < batch.handlers.size(); i++) {
+            try {
+                batch.handlers.get(i).handleError(x, batch.ids.get(i));
+            } catch (Exception ex) {
+                log.error("Unable to report back error message.", ex);
+            }
+        }
+        batch.reset();
+    }
+
+
+    protected static int getEntryLength(ChannelMessage msg) {
+        return 8 + 4 + msg.getUniqueId().length + 4 + msg.getMessage().getLength();
+    }
+
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the number of messages that have been combined with others
+     */
+    public long getMessagesBatched() {
+        return messagesBatched.get();
+    }
+
+    /**
+     * @return the number of combined messages that have been sent
+     */
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+
+    /**
+     * The messages pending for a single member.
+     */
+    protected static class Batch {
+        private final Member member;
+        private final XByteBuffer buffer = new XByteBuffer(1024, false);
+        private final List<ErrorHandler> handlers = new ArrayList<>();
+        private final List<UniqueId> ids = new ArrayList<>();
+        private Member address;
+        private int options;
+        private int count;
+
+        public Batch(Member member) {
+            this.member = member;
+        }
+
+        public void add(ChannelMessage msg, ErrorHandler handler) {
+            if (count == 0) {
+                address = msg.getAddress();
+                options = msg.getOptions();
+            }
+            byte[] uniqueId = msg.getUniqueId();
+            buffer.append(msg.getTimestamp());
+            buffer.append(uniqueId.length);
+            buffer.append(uniqueId, 0, uniqueId.length);
+            buffer.append(msg.getMessage().getLength());
+            buffer.append(msg.getMessage().getBytesDirect(), 0, msg.getMessage().getLength());
+            if (handler != null) {
+                handlers.add(handler);
+                ids.add(new UniqueId(uniqueId));
+            }
+            count++;
+        }
+
+        public void reset() {
+            buffer.reset();
+            handlers.clear();
+            ids.clear();
+            address = null;
+            count = 0;
+        }
+    }
+
+
+    protected class FlushThread extends Thread {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    sleep(maxDelay);
+                    flush();
+                } catch (InterruptedException ix) {
+                    // Ignore. Probably triggered by a call to stop().
+                } catch (Exception x) {
+                    log.warn("Unable to send batched messages.", x);
+                }
+            }
+        }
+    }
+}
@@ -20,19 +20,36 @@ package org.apache.catalina.tribes.group.interceptors;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import org.apache.catalina.tribes.ChannelException;
 import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.group.ChannelInterceptorBase;
 import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 
 /**
+ * Compresses messages before they are sent and decompresses them on receipt.
+ * <p>
+ * By default every message is compressed using GZIP. Messages smaller than
+ * <code>threshold</code> bytes can be sent uncompressed and the
+ * <code>lz</code> codec, a simple LZ77 codec, can be used instead of GZIP to
+ * use much less CPU at the cost of a lower compression ratio. Such messages
+ * start with a byte identifying the format, which can not be mistaken for the
+ * start of a GZIP stream. Every member must therefore be able to read them
+ * before <code>threshold</code> or the <code>lz</code> codec is used.
+ * <p>
+ * The deflate and inflate state is reused by each thread.
+ *
  * @version 1.0
  */
 public class GzipInterceptor extends ChannelInterceptorBase {
@@ -41,12 +58,76 @@ public class GzipInterceptor extends ChannelInterceptorBase {
 
     public static final int DEFAULT_BUFFER_SIZE = 2048;
 
+    public static final String CODEC_GZIP = "gzip";
+    public static final String CODEC_LZ = "lz";
+
+    private static final byte FORMAT_STORED = 0;
+    private static final byte FORMAT_LZ = 2;
+
+    private static final byte[] GZIP_HEADER = new byte[] {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private static final ThreadLocal<int[]> lzTables = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << LzCodec.HASH_LOG];
+        }
+    };
+
+    private String codec = CODEC_GZIP;
+    private boolean lz = false;
+    private int threshold = 0;
+
+    private final AtomicLong messagesCompressed = new AtomicLong(0);
+    private final AtomicLong messagesNotCompressed = new AtomicLong(0);
+    private final AtomicLong bytesBeforeCompression = new AtomicLong(0);
+    private final AtomicLong bytesAfterCompression = new AtomicLong(0);
+    private final AtomicLong compressionTime = new AtomicLong(0);
+    private final AtomicLong decompressionTime = new AtomicLong(0);
+
     @Override
     public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
         try {
-            byte[] data = compress(msg.getMessage().getBytes());
-            msg.getMessage().trim(msg.getMessage().getLength());
-            msg.getMessage().append(data,0,data.length);
+            XByteBuffer buffer = msg.getMessage();
+            int length = buffer.getLength();
+            byte[] data;
+            if (length < threshold) {
+                data = store(buffer.getBytesDirect(), 0, length);
+                messagesNotCompressed.incrementAndGet();
+            } else {
+                long start = System.nanoTime();
+                if (lz) {
+                    data = compressLz(buffer.getBytesDirect(), 0, length);
+                } else {
+                    data = compress(buffer.getBytesDirect(), 0, length);
+                }
+                compressionTime.addAndGet(System.nanoTime() - start);
+                if (data.length > length + 1 && (threshold > 0 || lz)) {
+                    // Do not send incompressible data larger than it was
+                    data = store(buffer.getBytesDirect(), 0, length);
+                    messagesNotCompressed.incrementAndGet();
+                } else {
+                    messagesCompressed.incrementAndGet();
+                    bytesBeforeCompression.addAndGet(length);
+                    bytesAfterCompression.addAndGet(data.length);
+                }
+            }
+            buffer.trim(length);
+            buffer.append(data,0,data.length);
             super.sendMessage(destination, msg, payload);
         } catch ( IOException x ) {
             log.error("Unable to compress byte contents");
@@ -57,9 +138,12 @@ public class GzipInterceptor extends ChannelInterceptorBase {
     @Override
     public void messageReceived(ChannelMessage msg) {
         try {
-            byte[] data = decompress(msg.getMessage().getBytes());
-            msg.getMessage().trim(msg.getMessage().getLength());
-            msg.getMessage().append(data,0,data.length);
+            XByteBuffer buffer = msg.getMessage();
+            long start = System.nanoTime();
+            byte[] data = decode(buffer.getBytesDirect(), 0, buffer.getLength());
+            decompressionTime.addAndGet(System.nanoTime() - start);
+            buffer.trim(buffer.getLength());
+            buffer.append(data,0,data.length);
             super.messageReceived(msg);
         } catch ( IOException x ) {
             log.error("Unable to decompress byte contents",x);
@@ -67,11 +151,35 @@ public class GzipInterceptor extends ChannelInterceptorBase {
     }
 
     public static byte[] compress(byte[] data) throws IOException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        GZIPOutputStream gout = new GZIPOutputStream(bout);
-        gout.write(data);
-        gout.flush();
-        gout.close();
+        return compress(data, 0, data.length);
+    }
+
+    /**
+     * Compress data using GZIP.
+     *
+     * @param data   the data to compress
+     * @param offset the offset of the data in the array
+     * @param length the length of the data
+     * @return the compressed data
+     * @throws IOException
+     */
+    public static byte[] compress(byte[] data, int offset, int length) throws IOException {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(
+                Math.max(DEFAULT_BUFFER_SIZE, length / 2));
+        bout.write(GZIP_HEADER);
+        byte[] tmp = new byte[DEFAULT_BUFFER_SIZE];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(tmp);
+            bout.write(tmp, 0, count);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        writeIntLE((int) crc.getValue(), bout);
+        writeIntLE(length, bout);
         return bout.toByteArray();
     }
 
@@ -81,16 +189,207 @@ public class GzipInterceptor extends ChannelInterceptorBase {
      * @throws IOException
      */
     public static byte[] decompress(byte[] data) throws IOException {
+        return decompress(data, 0, data.length);
+    }
+
+    /**
+     * Decompress GZIP data.
+     *
+     * @param data   the data to decompress
+     * @param offset the offset of the data in the array
+     * @param length the length of the data
+     * @return the decompressed data
+     * @throws IOException
+     */
+    public static byte[] decompress(byte[] data, int offset, int length) throws IOException {
+        if (length < GZIP_HEADER.length + 8 || data[offset + 3] != 0) {
+            // Short, or using optional header fields, so use the stream
+            return decompressStream(data, offset, length);
+        }
+        int trailer = offset + length - 8;
+        int size = readIntLE(data, trailer + 4);
+        if (size < 0) {
+            // Over 2GB (the size is only stored modulo 2^32)
+            return decompressStream(data, offset, length);
+        }
+        byte[] result = new byte[size];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, offset + GZIP_HEADER.length, trailer - offset - GZIP_HEADER.length);
+        try {
+            int count = 0;
+            while (count < size) {
+                int n = inflater.inflate(result, count, size - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() ||
+                        inflater.needsDictionary())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != size) {
+                throw new IOException("Invalid GZIP data");
+            }
+        } catch (DataFormatException x) {
+            throw new IOException(x);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(result, 0, size);
+        if ((int) crc.getValue() != readIntLE(data, trailer)) {
+            throw new IOException("Invalid GZIP data, CRC mismatch");
+        }
+        return result;
+    }
+
+    private static byte[] decompressStream(byte[] data, int offset, int length)
+            throws IOException {
         ByteArrayOutputStream bout =
             new ByteArrayOutputStream(DEFAULT_BUFFER_SIZE);
-        ByteArrayInputStream bin = new ByteArrayInputStream(data);
+        ByteArrayInputStream bin = new ByteArrayInputStream(data, offset, length);
         GZIPInputStream gin = new GZIPInputStream(bin);
         byte[] tmp = new byte[DEFAULT_BUFFER_SIZE];
-        int length = gin.read(tmp);
-        while (length > -1) {
-            bout.write(tmp, 0, length);
-            length = gin.read(tmp);
+        int read = gin.read(tmp);
+        while (read > -1) {
+            bout.write(tmp, 0, read);
+            read = gin.read(tmp);
         }
         return bout.toByteArray();
     }
+
+    /**
+     * Compress data using the LZ codec.
+     *
+     * @param data   the data to compress
+     * @param offset the offset of the data in the array
+     * @param length the length of the data
+     * @return the compressed data, including the format and length header
+     */
+    public static byte[] compressLz(byte[] data, int offset, int length) {
+        byte[] buf = new byte[5 + LzCodec.maxCompressedLength(length)];
+        buf[0] = FORMAT_LZ;
+        XByteBuffer.toBytes(length, buf, 1);
+        int count = LzCodec.compress(data, offset, length, buf, 5, lzTables.get());
+        byte[] result = new byte[5 + count];
+        System.arraycopy(buf, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Decode a received message, whatever the format.
+     *
+     * @param data   the received data
+     * @param offset the offset of the data in the array
+     * @param length the length of the data
+     * @return the original data
+     * @throws IOException if the data is not valid
+     */
+    public static byte[] decode(byte[] data, int offset, int length) throws IOException {
+        if (length == 0) {
+            throw new IOException("Empty message");
+        }
+        switch (data[offset]) {
+            case FORMAT_STORED: {
+                byte[] result = new byte[length - 1];
+                System.arraycopy(data, offset + 1, result, 0, result.length);
+                return result;
+            }
+            case FORMAT_LZ: {
+                if (length < 5) {
+                    throw new IOException("Invalid compressed data");
+                }
+                int size = XByteBuffer.toInt(data, offset + 1);
+                if (size < 0) {
+                    throw new IOException("Invalid compressed data");
+                }
+                byte[] result = new byte[size];
+                LzCodec.decompress(data, offset + 5, length - 5, result, 0, size);
+                return result;
+            }
+            default:
+                return decompress(data, offset, length);
+        }
+    }
+
+    private static byte[] store(byte[] data, int offset, int length) {
+        byte[] result = new byte[length + 1];
+        result[0] = FORMAT_STORED;
+        System.arraycopy(data, offset, result, 1, length);
+        return result;
+    }
+
+    private static void writeIntLE(int value, ByteArrayOutputStream out) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static int readIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) |
+                ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        if (CODEC_LZ.equalsIgnoreCase(codec)) {
+            this.lz = true;
+            this.codec = CODEC_LZ;
+        } else if (CODEC_GZIP.equalsIgnoreCase(codec)) {
+            this.lz = false;
+            this.codec = CODEC_GZIP;
+        } else {
+            throw new IllegalArgumentException("Unknown compression codec [" + codec + "]");
+        }
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the number of messages sent compressed
+     */
+    public long getMessagesCompressed() {
+        return messagesCompressed.get();
+    }
+
+    /**
+     * @return the number of messages sent uncompressed, because they were
+     *         smaller than the threshold or could not be compressed
+     */
+    public long getMessagesNotCompressed() {
+        return messagesNotCompressed.get();
+    }
+
+    /**
+     * @return the size of the compressed messages divided by their original
+     *         size
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.get();
+        if (before == 0) {
+            return 1.0;
+        }
+        return (double) bytesAfterCompression.get() / before;
+    }
+
+    /**
+     * @return the time, in milliseconds, spent compressing messages
+     */
+    public long getCompressionTime() {
+        return compressionTime.get() / 1000000;
+    }
+
+    /**
+     * @return the time, in milliseconds, spent decoding received messages
+     */
+    public long getDecompressionTime() {
+        return decompressionTime.get() / 1000000;
+    }
 }
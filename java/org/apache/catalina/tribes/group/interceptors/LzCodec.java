@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A simple and fast LZ77 style codec that trades compression ratio for much
+ * lower CPU use than deflate. There is no entropy coding; repeated sequences
+ * of at least four bytes, found with a single entry hash table, are replaced
+ * by a reference to their previous occurrence.
+ * <p>
+ * The compressed data is a series of sequences, each made of:
+ * <ul>
+ * <li>a token byte, the high four bits being the number of literals and the
+ *     low four bits the match length minus four. A value of 15 means more
+ *     length bytes follow, each adding up to 255, until one is less than 255
+ *     </li>
+ * <li>the literals</li>
+ * <li>the two byte, little endian, offset of the match</li>
+ * </ul>
+ * The last sequence only has literals.
+ */
+final class LzCodec {
+
+    static final int HASH_LOG = 12;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // No match may start in the last MATCH_LIMIT bytes and the last
+    // LAST_LITERALS bytes are always literals
+    private static final int MATCH_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+
+    private LzCodec() {
+        // Utility class
+    }
+
+
+    /**
+     * @param length the length of the data to compress
+     * @return the largest possible length of the compressed data
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+
+    /**
+     * Compress data.
+     *
+     * @param src    the data to compress
+     * @param srcOff the offset of the data
+     * @param srcLen the length of the data
+     * @param dst    the buffer for the compressed data, which must have room
+     *               for {@link #maxCompressedLength(int)} bytes
+     * @param dstOff the offset to write the compressed data at
+     * @param table  a hash table of <code>1 &lt;&lt; HASH_LOG</code> entries,
+     *               which may be reused for the next call
+     *
+     * @return the length of the compressed data
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+            int[] table) {
+        int end = srcOff + srcLen;
+        int matchLimit = end - MATCH_LIMIT;
+        int matchEnd = end - LAST_LITERALS;
+        int ip = srcOff;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen >= MATCH_LIMIT) {
+            // Positions are stored relative to srcOff plus one so that zero
+            // means no position
+            Arrays.fill(table, 0);
+            ip++;
+            while (ip < matchLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h] - 1 + srcOff;
+                table[h] = ip - srcOff + 1;
+                if (ref < srcOff || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+                // Extend the match backwards over pending literals
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                // Extend the match forwards
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchEnd && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+                if (ip < matchLimit) {
+                    // Index a position inside the match to improve the next
+                    // search
+                    table[hash(readInt(src, ip - 2))] = ip - 2 - srcOff + 1;
+                }
+            }
+        }
+
+        // Last literals
+        int literals = end - anchor;
+        op = writeToken(literals, dst, op);
+        System.arraycopy(src, anchor, dst, op, literals);
+        return op + literals - dstOff;
+    }
+
+
+    /**
+     * Decompress data.
+     *
+     * @param src    the compressed data
+     * @param srcOff the offset of the compressed data
+     * @param srcLen the length of the compressed data
+     * @param dst    the buffer for the decompressed data
+     * @param dstOff the offset to write the decompressed data at
+     * @param dstLen the length of the decompressed data
+     *
+     * @throws IOException if the compressed data is not valid
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+            int dstLen) throws IOException {
+        int ip = srcOff;
+        int end = srcOff + srcLen;
+        int op = dstOff;
+        int opEnd = dstOff + dstLen;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (literals > end - ip || literals > opEnd - op) {
+                    throw new IOException("Invalid compressed data");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == end) {
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || matchLen > opEnd - op) {
+                    throw new IOException("Invalid compressed data");
+                }
+                // Matches may overlap the output so copy byte by byte
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException x) {
+            throw new IOException("Invalid compressed data", x);
+        }
+        if (op != opEnd) {
+            throw new IOException("Invalid compressed data");
+        }
+    }
+
+
+    private static int writeSequence(byte[] src, int literalOff, int literals, int offset,
+            int matchLen, byte[] dst, int op) {
+        int tokenOff = op;
+        op = writeToken(literals, dst, op);
+        System.arraycopy(src, literalOff, dst, op, literals);
+        op += literals;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        int len = matchLen - MIN_MATCH;
+        if (len >= 15) {
+            dst[tokenOff] |= 15;
+            len -= 15;
+            while (len >= 255) {
+                dst[op++] = (byte) 255;
+                len -= 255;
+            }
+            dst[op++] = (byte) len;
+        } else {
+            dst[tokenOff] |= len;
+        }
+        return op;
+    }
+
+
+    /*
+     * Writes the token, with the number of literals in the high four bits, and
+     * any extra length bytes.
+     */
+    private static int writeToken(int length, byte[] dst, int op) {
+        if (length >= 15) {
+            dst[op++] = (byte) (15 << 4);
+            length -= 15;
+            while (length >= 255) {
+                dst[op++] = (byte) 255;
+                length -= 255;
+            }
+            dst[op++] = (byte) length;
+        } else {
+            dst[op++] = (byte) (length << 4);
+        }
+        return op;
+    }
+
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) |
+                ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+    }
+
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -20,14 +20,39 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Buffer pool that keeps returned buffers in size classes, one lock-free queue
+ * per power of two, so that a buffer taken from the pool is always large
+ * enough for the request and never has to be expanded (and its content
+ * copied) to satisfy it.
  *
  * @version 1.0
  */
 class BufferPool15Impl implements BufferPool.BufferPoolAPI {
+
+    /**
+     * Smallest size class. Requests for fewer bytes are served from this class.
+     */
+    protected static final int MIN_SIZE_CLASS = 10;
+
+    /**
+     * Largest size class, 1 MiB. Larger requests get a buffer of exactly the
+     * requested size rather than one rounded up to a power of two, and
+     * buffers larger than 2^MAX_SIZE_CLASS bytes are never returned to the
+     * pool.
+     */
+    protected static final int MAX_SIZE_CLASS = 20;
+
     protected int maxSize;
     protected final AtomicInteger size = new AtomicInteger(0);
-    protected final ConcurrentLinkedQueue<XByteBuffer> queue =
-            new ConcurrentLinkedQueue<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected final ConcurrentLinkedQueue<XByteBuffer>[] queues =
+            new ConcurrentLinkedQueue[MAX_SIZE_CLASS + 1];
+
+    public BufferPool15Impl() {
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
 
     @Override
     public void setMaxSize(int bytes) {
@@ -37,26 +62,41 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
 
     @Override
     public XByteBuffer getBuffer(int minSize, boolean discard) {
-        XByteBuffer buffer = queue.poll();
-        if ( buffer != null ) size.addAndGet(-buffer.getCapacity());
-        if ( buffer == null ) buffer = new XByteBuffer(minSize,discard);
-        else if ( buffer.getCapacity() <= minSize ) buffer.expand(minSize);
-        buffer.setDiscard(discard);
-        buffer.reset();
+        int sizeClass = sizeClassFor(minSize);
+        if (sizeClass > MAX_SIZE_CLASS) {
+            return new XByteBuffer(minSize, discard);
+        }
+        XByteBuffer buffer = queues[sizeClass].poll();
+        if ( buffer != null ) {
+            size.addAndGet(-buffer.getCapacity());
+            buffer.setDiscard(discard);
+            buffer.reset();
+        } else {
+            buffer = new XByteBuffer(1 << sizeClass, discard);
+        }
         return buffer;
     }
 
     @Override
     public void returnBuffer(XByteBuffer buffer) {
-        if ( (size.get() + buffer.getCapacity()) <= maxSize ) {
-            size.addAndGet(buffer.getCapacity());
-            queue.offer(buffer);
+        int capacity = buffer.getCapacity();
+        if (capacity < (1 << MIN_SIZE_CLASS) || capacity > (1 << MAX_SIZE_CLASS)) {
+            return;
+        }
+        // Every buffer in a class holds at least 2^class bytes
+        int sizeClass = 31 - Integer.numberOfLeadingZeros(capacity);
+        if ( (size.addAndGet(capacity)) <= maxSize ) {
+            queues[sizeClass].offer(buffer);
+        } else {
+            size.addAndGet(-capacity);
         }
     }
 
     @Override
     public void clear() {
-        queue.clear();
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+            queues[i].clear();
+        }
         size.set(0);
     }
 
@@ -64,4 +104,16 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
         return maxSize;
     }
 
+
+    /**
+     * @param minSize the number of bytes requested
+     * @return the smallest size class whose buffers hold at least
+     *         <code>minSize</code> bytes
+     */
+    protected static int sizeClassFor(int minSize) {
+        if (minSize <= (1 << MIN_SIZE_CLASS)) {
+            return MIN_SIZE_CLASS;
+        }
+        return 32 - Integer.numberOfLeadingZeros(minSize - 1);
+    }
 }
@@ -121,10 +121,7 @@ public class ObjectReader {
     public ChannelMessage[] execute() throws java.io.IOException {
         int pkgCnt = buffer.countPackages();
         ChannelMessage[] result = new ChannelMessage[pkgCnt];
-        for (int i=0; i<pkgCnt; i++)  {
-            ChannelMessage data = buffer.extractPackage(true);
-            result[i] = data;
-        }
+        System.arraycopy(buffer.extractPackages(pkgCnt), 0, result, 0, pkgCnt);
         return result;
     }
 
@@ -320,12 +320,53 @@ public class XByteBuffer {
 
     }
 
+    /**
+     * Extracts a message from a package. The message is read directly from
+     * this buffer so only the message bytes are copied, into a buffer obtained
+     * from the {@link BufferPool}.
+     * If no package exists, a IllegalStateException will be thrown.
+     * @param clearFromBuffer - if true, the package will be removed from the byte buffer
+     * @return - the message contained in the package
+     */
     public ChannelData extractPackage(boolean clearFromBuffer) {
-        XByteBuffer xbuf = extractDataPackage(clearFromBuffer);
-        ChannelData cdata = ChannelData.getDataFromPackage(xbuf);
+        int psize = countPackages(true);
+        if (psize == 0) {
+            throw new java.lang.IllegalStateException("No package exists in XByteBuffer");
+        }
+        int size = toInt(buf, START_DATA.length);
+        ChannelData cdata = ChannelData.getDataFromPackage(buf, START_DATA.length + 4);
+        if (clearFromBuffer) {
+            int totalsize = START_DATA.length + 4 + size + END_DATA.length;
+            bufSize = bufSize - totalsize;
+            System.arraycopy(buf, totalsize, buf, 0, bufSize);
+        }
         return cdata;
     }
 
+    /**
+     * Extracts the messages from the first <code>count</code> packages and
+     * removes those packages from the buffer. Unlike repeated calls to
+     * {@link #extractPackage(boolean)}, the remaining bytes are moved to the
+     * start of the buffer once rather than once per package.
+     * @param count - the number of packages to extract, as returned by
+     *                {@link #countPackages()}
+     * @return - the messages contained in the packages
+     */
+    public ChannelData[] extractPackages(int count) {
+        ChannelData[] result = new ChannelData[count];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            int size = toInt(buf, pos + START_DATA.length);
+            result[i] = ChannelData.getDataFromPackage(buf, pos + START_DATA.length + 4);
+            pos += START_DATA.length + 4 + size + END_DATA.length;
+        }
+        if (pos > 0) {
+            bufSize = bufSize - pos;
+            System.arraycopy(buf, pos, buf, 0, bufSize);
+        }
+        return result;
+    }
+
     /**
      * Creates a complete data package
      * @param cdata - the message data to be contained within the package
@@ -337,10 +378,29 @@ public class XByteBuffer {
         int dlength = cdata.getDataPackageLength();
         int length = getDataPackageLength(dlength);
         byte[] data = new byte[length];
-        int offset = 0;
+        return createDataPackage(cdata, dlength, data, 0);
+    }
+
+    /**
+     * Creates a complete data package in the given buffer, which must have
+     * room for {@link #getDataPackageLength(int)} of
+     * {@link ChannelData#getDataPackageLength()} bytes after
+     * <code>offset</code>. This allows the package to be written to a pooled
+     * buffer rather than to a newly allocated array.
+     * @param cdata - the message data to be contained within the package
+     * @param data - the buffer to write the package to
+     * @param offset - the offset in the buffer to start the package at
+     * @return - the buffer
+     */
+    public static byte[] createDataPackage(ChannelData cdata, byte[] data, int offset) {
+        return createDataPackage(cdata, cdata.getDataPackageLength(), data, offset);
+    }
+
+    private static byte[] createDataPackage(ChannelData cdata, int dlength, byte[] data,
+            int offset) {
         System.arraycopy(START_DATA, 0, data, offset, START_DATA.length);
         offset += START_DATA.length;
-        toBytes(dlength,data, START_DATA.length);
+        toBytes(dlength,data, offset);
         offset += 4;
         cdata.getDataPackage(data,offset);
         offset += dlength;
@@ -29,6 +29,13 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.tribes.Channel;
 import org.apache.catalina.tribes.ChannelException;
@@ -42,6 +49,8 @@ import org.apache.catalina.tribes.group.RpcCallback;
 import org.apache.catalina.tribes.group.RpcChannel;
 import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.catalina.tribes.util.Arrays;
+import org.apache.catalina.tribes.util.ExecutorFactory;
+import org.apache.catalina.tribes.util.TcclThreadFactory;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
@@ -140,6 +149,42 @@ public abstract class AbstractReplicatedMap<K,V>
      */
     protected transient String mapname = "";
 
+    /**
+     * Should replication and remove messages be sent by background threads
+     * rather than by the thread that changed the map
+     */
+    protected transient boolean asyncReplication = false;
+
+    /**
+     * The number of threads used to send messages when asynchronous
+     * replication is enabled. All the messages for a key are sent, in order,
+     * by the same thread.
+     */
+    protected transient int replicationThreads = 4;
+
+    /**
+     * The maximum number of messages queued for sending when asynchronous
+     * replication is enabled. Threads changing the map wait once this is
+     * reached.
+     */
+    protected transient int maxPendingReplications = 1000;
+
+    protected transient volatile ExecutorService[] replicationExecutors = null;
+    /**
+     * The number of messages queued, and not yet sent, by each of the
+     * {@link #replicationExecutors}.
+     */
+    protected transient AtomicInteger[] queuedReplications = null;
+    protected transient Semaphore pendingReplications = null;
+    /**
+     * Set once the replication executors have been stopped. They are never
+     * created again afterwards. Guarded by <code>this</code>.
+     */
+    protected transient boolean replicationStopped = false;
+    protected final transient AtomicLong replicationsFailed = new AtomicLong(0);
+    protected final transient AtomicLong replicationLag = new AtomicLong(0);
+    protected final transient AtomicLong maxReplicationLag = new AtomicLong(0);
+
 //------------------------------------------------------------------------------
 //              map owner interface
 //------------------------------------------------------------------------------
@@ -329,6 +374,7 @@ public abstract class AbstractReplicatedMap<K,V>
     }
 
     public void breakdown() {
+        stopReplicationExecutors();
         if (this.rpcChannel != null) {
             this.rpcChannel.breakdown();
         }
@@ -454,7 +500,7 @@ public abstract class AbstractReplicatedMap<K,V>
             try {
                 if ( channel!=null && entry.getBackupNodes()!= null && entry.getBackupNodes().length > 0 ) {
                     if (rentry != null) rentry.setLastTimeReplicated(System.currentTimeMillis());
-                    channel.send(entry.getBackupNodes(), msg, channelSendOptions);
+                    send(key, entry.getBackupNodes(), msg);
                 }
             } catch (ChannelException x) {
                 log.error("Unable to replicate data.", x);
@@ -463,6 +509,138 @@ public abstract class AbstractReplicatedMap<K,V>
 
     }
 
+    /**
+     * Sends a message about a key to the given members. If asynchronous
+     * replication is enabled the message is queued and sent, after any
+     * messages queued earlier for the same key, by a background thread.
+     * Failures are then logged rather than thrown.
+     * @param key the key the message is about
+     * @param destination the members to send the message to
+     * @param msg the message
+     * @throws ChannelException if the message is sent synchronously and the
+     *         send fails
+     */
+    protected void send(Object key, Member[] destination, MapMessage msg)
+            throws ChannelException {
+        ExecutorService executor = asyncReplication ? getReplicationExecutor(key) : null;
+        if (executor == null) {
+            channel.send(destination, msg, channelSendOptions);
+            return;
+        }
+        AtomicInteger queued = queuedReplications[replicationLane(key)];
+        pendingReplications.acquireUninterruptibly();
+        queued.incrementAndGet();
+        try {
+            executor.execute(new ReplicationTask(channel, destination, msg, queued));
+        } catch (RejectedExecutionException x) {
+            // The map is being shut down
+            queued.decrementAndGet();
+            pendingReplications.release();
+            throw new ChannelException(x);
+        }
+    }
+
+    /**
+     * Waits until the messages queued for a key, if any, have been sent. This
+     * returns at once if nothing is queued for the thread that sends the
+     * messages for the key. Otherwise the calling thread waits for the
+     * messages queued before it for that thread, which may include messages
+     * for other keys, for up to {@link #rpcTimeout} milliseconds.
+     * @param key the key
+     */
+    protected void awaitReplication(Object key) {
+        ExecutorService executor = asyncReplication ? getReplicationExecutor(key) : null;
+        if (executor == null || queuedReplications[replicationLane(key)].get() == 0) {
+            return;
+        }
+        try {
+            Future<?> done = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // NO-OP. Only used to wait for the queued messages.
+                }
+            });
+            done.get(rpcTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception x) {
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to wait for the replication of key:" + key, x);
+            }
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the executor that sends the messages for the key. Once the
+     *         executors have been stopped, the stopped executor is returned so
+     *         that new messages are rejected, or <code>null</code> if the
+     *         executors were never started.
+     */
+    protected ExecutorService getReplicationExecutor(Object key) {
+        ExecutorService[] executors = replicationExecutors;
+        if (executors == null) {
+            synchronized (this) {
+                if (channel == null || replicationStopped) {
+                    return null;
+                }
+                if (replicationExecutors == null) {
+                    int threads = Math.max(1, replicationThreads);
+                    executors = new ExecutorService[threads];
+                    AtomicInteger[] queued = new AtomicInteger[threads];
+                    for (int i = 0; i < threads; i++) {
+                        executors[i] = ExecutorFactory.newThreadPool(1, 1, 60, TimeUnit.SECONDS,
+                                new TcclThreadFactory("ReplicatedMap[" + mapname +
+                                        "]-Replication-" + i + "-"));
+                        queued[i] = new AtomicInteger(0);
+                    }
+                    pendingReplications = new Semaphore(Math.max(1, maxPendingReplications));
+                    queuedReplications = queued;
+                    replicationExecutors = executors;
+                }
+                executors = replicationExecutors;
+            }
+        }
+        return executors[replicationLane(key, executors.length)];
+    }
+
+    private int replicationLane(Object key) {
+        return replicationLane(key, replicationExecutors.length);
+    }
+
+    private static int replicationLane(Object key, int lanes) {
+        return (key.hashCode() & 0x7FFFFFFF) % lanes;
+    }
+
+    /**
+     * Stops the replication executors, waiting up to {@link #rpcTimeout}
+     * milliseconds in total for the messages already queued to be sent.
+     * Messages queued afterwards are rejected.
+     */
+    protected void stopReplicationExecutors() {
+        ExecutorService[] executors;
+        synchronized (this) {
+            // The stopped executors are kept so that concurrent senders are
+            // rejected rather than starting a new set of executors
+            replicationStopped = true;
+            executors = replicationExecutors;
+        }
+        if (executors == null) {
+            return;
+        }
+        // Give the queued messages the chance to be sent
+        for (int i = 0; i < executors.length; i++) {
+            executors[i].shutdown();
+        }
+        long deadline = System.currentTimeMillis() + rpcTimeout;
+        try {
+            for (int i = 0; i < executors.length; i++) {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                executors[i].awaitTermination(wait, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * This can be invoked by a periodic thread to replicate out any changes.
      * For maps that don't store objects that implement ReplicatedMapEntry, this
@@ -885,7 +1063,7 @@ public abstract class AbstractReplicatedMap<K,V>
         try {
             if (getMapMembers().length > 0 && notify) {
                 MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_REMOVE, false, (Serializable) key, null, null, null,null);
-                getChannel().send(getMapMembers(), msg, getChannelSendOptions());
+                send(key, getMapMembers(), msg);
             }
         } catch ( ChannelException x ) {
             log.error("Unable to replicate out data for a LazyReplicatedMap.remove operation",x);
@@ -1001,6 +1179,19 @@ public abstract class AbstractReplicatedMap<K,V>
         return put(key, value, true);
     }
 
+    /**
+     * Adds an entry to the map.
+     * <p>
+     * If asynchronous replication is enabled and messages are still queued for
+     * the key, for example the removal of a previous entry for the key, this
+     * waits for up to {@link #rpcTimeout} milliseconds for them to be sent so
+     * that the backup node does not receive them after the new entry.
+     *
+     * @param key the key
+     * @param value the value
+     * @param notify <code>true</code> to publish the entry to the other nodes
+     * @return the previous value for the key, if any
+     */
     public V put(K key, V value, boolean notify) {
         MapEntry<K,V> entry = new MapEntry<>(key, value);
         entry.setBackup(false);
@@ -1014,6 +1205,8 @@ public abstract class AbstractReplicatedMap<K,V>
         if ( containsKey(key) ) old = remove(key);
         try {
             if ( notify ) {
+                //the backup must not receive queued messages after the new entry
+                awaitReplication(key);
                 Member[] backup = publishEntryInfo(key, value);
                 entry.setBackupNodes(backup);
             }
@@ -1551,4 +1744,104 @@ public abstract class AbstractReplicatedMap<K,V>
         this.accessTimeout = accessTimeout;
     }
 
+    public boolean isAsyncReplication() {
+        return asyncReplication;
+    }
+
+    public void setAsyncReplication(boolean asyncReplication) {
+        this.asyncReplication = asyncReplication;
+    }
+
+    public int getReplicationThreads() {
+        return replicationThreads;
+    }
+
+    public void setReplicationThreads(int replicationThreads) {
+        this.replicationThreads = replicationThreads;
+    }
+
+    public int getMaxPendingReplications() {
+        return maxPendingReplications;
+    }
+
+    public void setMaxPendingReplications(int maxPendingReplications) {
+        this.maxPendingReplications = maxPendingReplications;
+    }
+
+    /**
+     * @return the number of messages queued for asynchronous replication that
+     *         have not been sent yet
+     */
+    public int getPendingReplications() {
+        Semaphore pending = pendingReplications;
+        if (pending == null) {
+            return 0;
+        }
+        return Math.max(1, maxPendingReplications) - pending.availablePermits();
+    }
+
+    /**
+     * @return the number of asynchronous replication messages that could not
+     *         be sent
+     */
+    public long getReplicationsFailed() {
+        return replicationsFailed.get();
+    }
+
+    /**
+     * @return the time, in milliseconds, between the most recently sent
+     *         asynchronous replication message being queued and being sent
+     */
+    public long getReplicationLag() {
+        return replicationLag.get();
+    }
+
+    /**
+     * @return the longest time, in milliseconds, that an asynchronous
+     *         replication message has taken from being queued to being sent
+     */
+    public long getMaxReplicationLag() {
+        return maxReplicationLag.get();
+    }
+
+
+    /**
+     * Sends a single message queued for asynchronous replication.
+     */
+    protected class ReplicationTask implements Runnable {
+
+        private final Channel channel;
+        private final Member[] destination;
+        private final MapMessage msg;
+        private final AtomicInteger queuedCount;
+        private final long queued = System.currentTimeMillis();
+
+        public ReplicationTask(Channel channel, Member[] destination, MapMessage msg,
+                AtomicInteger queuedCount) {
+            this.channel = channel;
+            this.destination = destination;
+            this.msg = msg;
+            this.queuedCount = queuedCount;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.send(destination, msg, channelSendOptions);
+            } catch (Exception x) {
+                replicationsFailed.incrementAndGet();
+                log.error("Unable to replicate data.", x);
+            } finally {
+                queuedCount.decrementAndGet();
+                pendingReplications.release();
+                long lag = System.currentTimeMillis() - queued;
+                replicationLag.set(lag);
+                long max = maxReplicationLag.get();
+                while (lag > max && !maxReplicationLag.compareAndSet(max, lag)) {
+                    max = maxReplicationLag.get();
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -61,6 +61,17 @@ public class RxTaskPool {
      * Find an idle worker thread, if any.  Could return null.
      */
     public AbstractRxTask getRxTask()
+    {
+        return getRxTask(true);
+    }
+
+    /**
+     * Find an idle worker thread, if any.  Could return null.
+     * @param wait <code>true</code> to wait for a worker to be returned if
+     *             they are all in use, <code>false</code> to return
+     *             <code>null</code> immediately
+     */
+    public AbstractRxTask getRxTask(boolean wait)
     {
         AbstractRxTask worker = null;
         synchronized (mutex) {
@@ -75,6 +86,8 @@ public class RxTaskPool {
                 } else if ( used.size() < this.maxTasks && creator != null) {
                     worker = creator.createRxTask();
                     configureTask(worker);
+                } else if ( !wait ) {
+                    break;
                 } else {
                     try {
                         mutex.wait();
@@ -30,6 +30,9 @@ import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.catalina.tribes.io.ObjectReader;
@@ -42,6 +45,16 @@ import org.apache.catalina.tribes.util.StringManager;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
+/**
+ * A receiver using NIO. The first selector thread accepts connections and
+ * reads from the UDP channel. When <code>selectorCount</code> is greater than
+ * one, accepted connections are shared between that many selector threads,
+ * each connection staying with the same selector for its lifetime.
+ * <p>
+ * Readable channels are handed to a {@link NioReplicationTask}. If every task
+ * is in use, the channel is queued, without blocking the selector thread, and
+ * is serviced by the next task to complete.
+ */
 public class NioReceiver extends ReceiverBase implements Runnable {
 
     private static final Log log = LogFactory.getLog(NioReceiver.class);
@@ -60,9 +73,55 @@ public class NioReceiver extends ReceiverBase implements Runnable {
 
     protected final LinkedList<Runnable> events = new LinkedList<>();
 
+    private int selectorCount = 1;
+    private volatile Poller[] pollers = null;
+    private final AtomicInteger pollerRotater = new AtomicInteger(0);
+
+    private final ConcurrentLinkedQueue<SelectionKey> pendingReads =
+            new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingReadCount = new AtomicInteger(0);
+    private final AtomicInteger maxPendingReads = new AtomicInteger(0);
+    private final AtomicLong deferredReads = new AtomicLong(0);
+
     public NioReceiver() {
     }
 
+    /**
+     * @return the number of selector threads used to read from the
+     *         connections
+     */
+    public int getSelectorCount() {
+        return selectorCount;
+    }
+
+    public void setSelectorCount(int selectorCount) {
+        this.selectorCount = Math.max(1, selectorCount);
+    }
+
+    /**
+     * @return the number of readable channels currently waiting for a
+     *         replication task to become available
+     */
+    public int getPendingReads() {
+        return pendingReadCount.get();
+    }
+
+    /**
+     * @return the largest number of readable channels that have been waiting
+     *         for a replication task at the same time
+     */
+    public int getMaxPendingReads() {
+        return maxPendingReads.get();
+    }
+
+    /**
+     * @return the number of times a readable channel had to wait because
+     *         every replication task was in use
+     */
+    public long getDeferredReads() {
+        return deferredReads.get();
+    }
+
     @Override
     public void stop() {
         this.stopListening();
@@ -123,6 +182,12 @@ public class NioReceiver extends ReceiverBase implements Runnable {
         // register the ServerSocketChannel with the Selector
         serverChannel.register(this.selector.get(), SelectionKey.OP_ACCEPT);
 
+        // the additional selectors that connections are shared between
+        pollers = new Poller[selectorCount - 1];
+        for (int i = 0; i < pollers.length; i++) {
+            pollers[i] = new Poller(Selector.open());
+        }
+
         //set up the datagram channel
         if (this.getUdpPort()>0) {
             datagramChannel = DatagramChannel.open();
@@ -152,6 +217,27 @@ public class NioReceiver extends ReceiverBase implements Runnable {
         }
     }
 
+    /**
+     * Add an event to be run by the thread of the selector the key is
+     * registered with.
+     *
+     * @param key   the key the event is for
+     * @param event the event
+     */
+    public void addEvent(SelectionKey key, Runnable event) {
+        Poller[] pollers = this.pollers;
+        if (pollers != null) {
+            Selector selector = key.selector();
+            for (int i = 0; i < pollers.length; i++) {
+                if (pollers[i].selector == selector) {
+                    pollers[i].addEvent(event);
+                    return;
+                }
+            }
+        }
+        addEvent(event);
+    }
+
     public void events() {
         if ( events.size() == 0 ) return;
         synchronized (events) {
@@ -188,7 +274,11 @@ public class NioReceiver extends ReceiverBase implements Runnable {
         long now = System.currentTimeMillis();
         if ( (now-lastCheck) < getSelectorTimeout() ) return;
         //timeout
-        Selector tmpsel = this.selector.get();
+        socketTimeouts(this.selector.get(), now);
+        lastCheck = System.currentTimeMillis();
+    }
+
+    private void socketTimeouts(Selector tmpsel, long now) {
         Set<SelectionKey> keys =  (isListening()&&tmpsel!=null)?tmpsel.keys():null;
         if ( keys == null ) return;
         for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
@@ -227,7 +317,6 @@ public class NioReceiver extends ReceiverBase implements Runnable {
                 cancelledKey(key);
             }
         }
-        lastCheck = System.currentTimeMillis();
     }
 
 
@@ -253,6 +342,11 @@ public class NioReceiver extends ReceiverBase implements Runnable {
             registerChannel(selector,datagramChannel,SelectionKey.OP_READ,oreader);
         }
 
+        Poller[] pollers = this.pollers;
+        for (int i = 0; pollers != null && i < pollers.length; i++) {
+            pollers[i].start(i + 1);
+        }
+
         while (doListen() && selector != null) {
             // this may block for a long time, upon return the
             // selected set contains keys of the ready channels
@@ -291,10 +385,15 @@ public class NioReceiver extends ReceiverBase implements Runnable {
                         channel.socket().setSoLinger(getSoLingerOn(),getSoLingerTime());
                         channel.socket().setSoTimeout(getTimeout());
                         Object attach = new ObjectReader(channel);
-                        registerChannel(selector,
-                                        channel,
-                                        SelectionKey.OP_READ,
-                                        attach);
+                        Poller poller = getPoller();
+                        if (poller == null) {
+                            registerChannel(selector,
+                                            channel,
+                                            SelectionKey.OP_READ,
+                                            attach);
+                        } else {
+                            poller.register(channel, attach);
+                        }
                     }
                     // is there data to read on this channel?
                     if (key.isReadable()) {
@@ -352,6 +451,7 @@ public class NioReceiver extends ReceiverBase implements Runnable {
                     log.warn(sm.getString("NioReceiver.stop.threadRunning"));
                 }
                 closeSelector();
+                stopPollers();
             } catch (Exception x) {
                 log.error(sm.getString("NioReceiver.stop.fail"), x);
             } finally {
@@ -360,8 +460,23 @@ public class NioReceiver extends ReceiverBase implements Runnable {
         }
     }
 
+    private void stopPollers() throws InterruptedException {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) return;
+        for (int i = 0; i < pollers.length; i++) {
+            pollers[i].selector.wakeup();
+        }
+        for (int i = 0; i < pollers.length; i++) {
+            pollers[i].stop();
+        }
+        this.pollers = null;
+    }
+
     private void closeSelector() throws IOException {
-        Selector selector = this.selector.getAndSet(null);
+        closeSelector(this.selector.getAndSet(null));
+    }
+
+    private static void closeSelector(Selector selector) throws IOException {
         if (selector == null) return;
         try {
             Iterator<SelectionKey> it = selector.keys().iterator();
@@ -405,6 +520,19 @@ public class NioReceiver extends ReceiverBase implements Runnable {
         channel.register(selector, ops, attach);
     }
 
+    /**
+     * Select the selector for a new connection.
+     *
+     * @return the poller to register the connection with or <code>null</code>
+     *         to use the selector of the listening thread
+     */
+    private Poller getPoller() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null || pollers.length == 0) return null;
+        int index = Math.abs(pollerRotater.getAndIncrement() % (pollers.length + 1));
+        return (index == 0) ? null : pollers[index - 1];
+    }
+
     /**
      * Start thread and listen
      */
@@ -431,13 +559,22 @@ public class NioReceiver extends ReceiverBase implements Runnable {
      *  will then de-register the channel on the next select call.
      */
     protected void readDataFromSocket(SelectionKey key) throws Exception {
-        NioReplicationTask task = (NioReplicationTask) getTaskPool().getRxTask();
+        NioReplicationTask task = (NioReplicationTask) getTaskPool().getRxTask(false);
         if (task == null) {
-            // No threads/tasks available, do nothing, the selection
-            // loop will keep calling this method until a
-            // thread becomes available, the thread pool itself has a waiting mechanism
-            // so we will not wait here.
+            // No threads/tasks available. Stop selecting the key and queue it
+            // rather than blocking the selector thread, the next task to
+            // complete will service it.
             if (log.isDebugEnabled()) log.debug("No TcpReplicationThread available");
+            key.interestOps(key.interestOps() & ~(SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+            pendingReads.offer(key);
+            int pending = pendingReadCount.incrementAndGet();
+            int max = maxPendingReads.get();
+            while (pending > max && !maxPendingReads.compareAndSet(max, pending)) {
+                max = maxPendingReads.get();
+            }
+            deferredReads.incrementAndGet();
+            // A task may have been returned since the pool was checked
+            dispatchPendingReads();
         } else {
             // invoking this wakes up the worker thread then returns
             //add task to thread pool
@@ -446,5 +583,139 @@ public class NioReceiver extends ReceiverBase implements Runnable {
         }
     }
 
+    /**
+     * Hand the queued readable channels to replication tasks while tasks are
+     * available. Called after a channel is queued and after a task is
+     * returned to the pool so that no channel is left waiting.
+     */
+    protected void dispatchPendingReads() {
+        while (!pendingReads.isEmpty()) {
+            NioReplicationTask task = (NioReplicationTask) getTaskPool().getRxTask(false);
+            if (task == null) {
+                return;
+            }
+            SelectionKey key = pendingReads.poll();
+            if (key == null) {
+                getTaskPool().returnWorker(task);
+                return;
+            }
+            pendingReadCount.decrementAndGet();
+            try {
+                task.serviceChannel(key);
+            } catch (CancelledKeyException ckx) {
+                getTaskPool().returnWorker(task);
+                cancelledKey(key);
+                continue;
+            }
+            getExecutor().execute(task);
+        }
+    }
+
+
+    /**
+     * An additional selector, and its thread, that reads from a share of the
+     * accepted connections.
+     */
+    private class Poller implements Runnable {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> events = new ConcurrentLinkedQueue<>();
+        private long lastCheck = System.currentTimeMillis();
+        private Thread thread;
+
+        public Poller(Selector selector) {
+            this.selector = selector;
+        }
+
+        public void start(int index) {
+            thread = new Thread(this, "NioReceiver-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void stop() throws InterruptedException {
+            Thread thread = this.thread;
+            if (thread != null) {
+                thread.join(5000);
+                if (thread.isAlive()) {
+                    log.warn(sm.getString("NioReceiver.stop.threadRunning"));
+                }
+            }
+            try {
+                closeSelector(selector);
+            } catch (IOException x) {
+                log.error(sm.getString("NioReceiver.stop.fail"), x);
+            }
+        }
+
+        public void addEvent(Runnable event) {
+            events.offer(event);
+            if ( log.isTraceEnabled() ) log.trace("Adding event to selector:"+event);
+            if ( isListening() ) selector.wakeup();
+        }
+
+        public void register(final SocketChannel channel, final Object attach) {
+            addEvent(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        registerChannel(selector, channel, SelectionKey.OP_READ, attach);
+                    } catch (Exception x) {
+                        log.error(sm.getString("NioReceiver.requestError"), x);
+                        try { channel.close(); } catch (IOException e) { if (log.isDebugEnabled()) log.debug("", e); }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (doListen()) {
+                try {
+                    Runnable r;
+                    while ((r = events.poll()) != null) {
+                        try {
+                            if ( log.isTraceEnabled() ) log.trace("Processing event in selector:"+r);
+                            r.run();
+                        } catch ( Exception x ) {
+                            log.error("",x);
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if ((now - lastCheck) >= getSelectorTimeout()) {
+                        socketTimeouts(selector, now);
+                        lastCheck = System.currentTimeMillis();
+                    }
+                    int n = selector.select(getSelectorTimeout());
+                    if (n == 0) {
+                        continue; // nothing to do
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isReadable()) {
+                            readDataFromSocket(key);
+                        } else {
+                            key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
+                        }
+                    }
+                } catch (java.nio.channels.ClosedSelectorException cse) {
+                    // ignore is normal at shutdown or stop listen socket
+                } catch (java.nio.channels.CancelledKeyException nx) {
+                    log.warn(sm.getString("NioReceiver.clientDisconnect"));
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    log.error(sm.getString("NioReceiver.requestError"), t);
+                }
+            }
+            try {
+                closeSelector(selector);
+            } catch (Exception x) {
+                if (log.isDebugEnabled()) log.debug("Unable to close selector.", x);
+            }
+        }
+    }
+
 
 }
@@ -64,9 +64,16 @@ public class NioReplicationTask extends AbstractRxTask {
         this.receiver = receiver;
     }
 
-    // loop forever waiting for work to do
     @Override
-    public synchronized void run() {
+    public void run() {
+        process();
+        // service any channels that became readable while every task was
+        // busy. This must be done without holding the lock on this task as
+        // servicing them needs the lock of another task.
+        receiver.dispatchPendingReads();
+    }
+
+    protected synchronized void process() {
         if ( buffer == null ) {
             int size = getRxBufSize();
             if (key.channel() instanceof DatagramChannel) {
@@ -121,7 +128,7 @@ public class NioReplicationTask extends AbstractRxTask {
     /**
      * Called to initiate a unit of work by this worker thread
      * on the provided SelectionKey object.  This method is
-     * synchronized, as is the run() method, so only one key
+     * synchronized, as is the process() method, so only one key
      * can be serviced at a given time.
      * Before waking the worker thread, and before returning
      * to the main selection loop, this key's interest set is
@@ -265,7 +272,7 @@ public class NioReplicationTask extends AbstractRxTask {
                 }
             }
         };
-        receiver.addEvent(r);
+        receiver.addEvent(key, r);
     }
 
     private void cancelKey(final SelectionKey key) {
@@ -286,7 +293,7 @@ public class NioReplicationTask extends AbstractRxTask {
                 NioReceiver.cancelledKey(key);
             }
         };
-        receiver.addEvent(cx);
+        receiver.addEvent(key, cx);
     }
 
 
@@ -62,6 +62,8 @@ public class NioSender extends AbstractSender {
     protected ByteBuffer readbuf = null;
     protected ByteBuffer writebuf = null;
     protected volatile byte[] current = null;
+    protected int currentOffset = 0;
+    protected int currentLength = 0;
     protected final XByteBuffer ackbuf = new XByteBuffer(128,true);
     protected int remaining = 0;
     protected boolean complete;
@@ -226,7 +228,7 @@ public class NioSender extends AbstractSender {
             readbuf.clear();
         }
         if ( writebuf == null ) {
-            writebuf = getWriteBuffer();
+            if (getDirectBuffer()) writebuf = getWriteBuffer();
         } else {
             writebuf.clear();
         }
@@ -352,20 +354,23 @@ public class NioSender extends AbstractSender {
         if (data != null) {
             synchronized (this) {
                 current = data;
+                currentOffset = offset;
+                currentLength = length;
                 remaining = length;
                 ackbuf.clear();
-                if (writebuf != null) {
-                    writebuf.clear();
+                if (getDirectBuffer()) {
+                    if (writebuf == null || writebuf.capacity() < length) {
+                        writebuf = getBuffer(length);
+                    } else {
+                        writebuf.clear();
+                    }
+                    writebuf.put(data,offset,length);
+                    writebuf.flip();
                 } else {
-                    writebuf = getBuffer(length);
-                }
-                if (writebuf.capacity() < length) {
-                    writebuf = getBuffer(length);
+                    // A heap buffer would be copied to a temporary direct
+                    // buffer by the channel anyway so write from the array
+                    writebuf = ByteBuffer.wrap(data,offset,length);
                 }
-
-                // TODO use ByteBuffer.wrap to avoid copying the data.
-                writebuf.put(data,offset,length);
-                writebuf.flip();
                 if (isConnected()) {
                     if (isUdpBased())
                         dataChannel.register(getSelector(), SelectionKey.OP_WRITE, this);
@@ -380,6 +385,14 @@ public class NioSender extends AbstractSender {
         return current;
     }
 
+    public int getMessageOffset() {
+        return currentOffset;
+    }
+
+    public int getMessageLength() {
+        return currentLength;
+    }
+
 
     public boolean isComplete() {
         return complete;
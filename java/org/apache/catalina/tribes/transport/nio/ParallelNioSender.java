@@ -30,6 +30,7 @@ import org.apache.catalina.tribes.ChannelException;
 import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.io.BufferPool;
 import org.apache.catalina.tribes.io.ChannelData;
 import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.catalina.tribes.transport.AbstractSender;
@@ -57,10 +58,14 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
             throws ChannelException {
         long start = System.currentTimeMillis();
         this.setUdpBased((msg.getOptions()&Channel.SEND_OPTIONS_UDP) == Channel.SEND_OPTIONS_UDP);
-        byte[] data = XByteBuffer.createDataPackage((ChannelData)msg);
+        // Frame the message once, in a pooled buffer, for all destinations
+        ChannelData cdata = (ChannelData) msg;
+        int length = XByteBuffer.getDataPackageLength(cdata.getDataPackageLength());
+        XByteBuffer buffer = BufferPool.getBufferPool().getBuffer(length, false);
+        XByteBuffer.createDataPackage(cdata, buffer.getBytesDirect(), 0);
         NioSender[] senders = setupForSend(destination);
         connect(senders);
-        setData(senders,data);
+        setData(senders,buffer.getBytesDirect(),length);
 
         int remaining = senders.length;
         ChannelException cx = null;
@@ -112,6 +117,8 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
             try { this.disconnect(); } catch (Exception e) {/*Ignore*/}
             if ( x instanceof ChannelException ) throw (ChannelException)x;
             else throw new ChannelException(x);
+        } finally {
+            BufferPool.getBufferPool().returnBuffer(buffer);
         }
 
     }
@@ -183,7 +190,8 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
                         sender.disconnect();
                         sender.connect();
                         sender.setAttempt(attempt);
-                        sender.setMessage(data);
+                        sender.setMessage(data,sender.getMessageOffset(),
+                                sender.getMessageLength());
                     }catch ( Exception ignore){
                         state.setFailing();
                     }
@@ -213,11 +221,12 @@ public class ParallelNioSender extends AbstractSender implements MultiPointSende
         if ( x != null ) throw x;
     }
 
-    private void setData(NioSender[] senders, byte[] data) throws ChannelException {
+    private void setData(NioSender[] senders, byte[] data, int length)
+            throws ChannelException {
         ChannelException x = null;
         for (int i=0; i<senders.length; i++ ) {
             try {
-                senders[i].setMessage(data);
+                senders[i].setMessage(data,0,length);
             }catch ( IOException io ) {
                 if ( x==null ) x = new ChannelException(io);
                 x.addFaultyMember(senders[i].getDestination(),io);
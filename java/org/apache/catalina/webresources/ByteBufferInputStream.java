@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An InputStream that reads the remaining content of a ByteBuffer. Used to
+ * read cached content that is held outside of the Java heap. The buffer must
+ * not be shared with any other reader. Closing the stream tells the owning
+ * {@link CachedResource} that the buffer is no longer being read so that the
+ * memory may be released. The stream must not be read once it is closed.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private final ByteBuffer buffer;
+    private final CachedResource owner;
+    private int mark = -1;
+    private volatile boolean closed = false;
+
+
+    ByteBufferInputStream(ByteBuffer buffer, CachedResource owner) {
+        this.buffer = buffer;
+        this.owner = owner;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        int remaining = buffer.remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = Math.min(len, remaining);
+        buffer.get(b, off, count);
+        return count;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return buffer.remaining();
+    }
+
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = buffer.position();
+    }
+
+
+    @Override
+    public synchronized void reset() throws IOException {
+        ensureOpen();
+        if (mark == -1) {
+            buffer.rewind();
+        } else {
+            buffer.position(mark);
+        }
+    }
+
+
+    @Override
+    public void close() {
+        boolean release = false;
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                release = true;
+            }
+        }
+        if (release) {
+            owner.releaseContentBuffer();
+        }
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            // The buffer may have been unmapped
+            throw new IOException(sm.getString("byteBufferInputStream.closed"));
+        }
+    }
+}
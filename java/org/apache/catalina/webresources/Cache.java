@@ -16,43 +16,84 @@
  */
 package org.apache.catalina.webresources;
 
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.catalina.WebResource;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
 import org.apache.tomcat.util.res.StringManager;
 
+/**
+ * Caches resource metadata and content for a {@link StandardRoot}.
+ * <p>
+ * Entries are evicted using a W-TinyLFU policy. New entries are placed in a
+ * small LRU admission window. Entries leaving the window are only admitted to
+ * the main cache if they have been accessed more often than the entry that
+ * would have to be evicted to make room for them. The main cache is a
+ * segmented LRU with a probation segment for entries that have not been
+ * accessed since admission and a protected segment for those that have.
+ * Access frequencies are estimated by a {@link FrequencySketch}. This means a
+ * single pass over a large number of resources (e.g. by a crawler) cannot
+ * displace frequently used entries. All policy operations are constant time.
+ * <p>
+ * Cached content is held in <code>byte[]</code>s by default. It may instead be
+ * held outside of the Java heap, in direct {@link java.nio.ByteBuffer}s or in
+ * read-only mappings of the underlying files, so that a large cache does not
+ * increase the size of the old generation and GC pause times.
+ */
 public class Cache {
 
     private static final Log log = LogFactory.getLog(Cache.class);
     protected static final StringManager sm =
             StringManager.getManager(Constants.Package);
 
-    private static final long TARGET_FREE_PERCENT_GET = 5;
-    private static final long TARGET_FREE_PERCENT_BACKGROUND = 10;
+    // Values for CachedResource.queue
+    static final int QUEUE_NONE = 0;
+    static final int QUEUE_WINDOW = 1;
+    static final int QUEUE_PROBATION = 2;
+    static final int QUEUE_PROTECTED = 3;
+    static final int QUEUE_REMOVED = 4;
+
+    // Share of maxSize used for the admission window
+    private static final long WINDOW_PERCENT = 1;
+    // Share of the main cache used for the protected segment
+    private static final long PROTECTED_PERCENT = 80;
 
     // objectMaxSize must be < maxSize/20
     private static final int OBJECT_MAX_SIZE_FACTOR = 20;
 
     private final StandardRoot root;
-    private final AtomicLong size = new AtomicLong(0);
 
     private long ttl = 5000;
     private long maxSize = 10 * 1024 * 1024;
     private int objectMaxSize = (int) maxSize/OBJECT_MAX_SIZE_FACTOR;
+    private volatile ContentStorage contentStorage = ContentStorage.HEAP;
 
-    private AtomicLong lookupCount = new AtomicLong(0);
-    private AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong lookupCount = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong rejectionCount = new AtomicLong(0);
+    private final AtomicLong invalidationCount = new AtomicLong(0);
 
     private final ConcurrentMap<String,CachedResource> resourceCache =
             new ConcurrentHashMap<>();
 
+    // The eviction policy. All fields are guarded by evictionLock.
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AccessOrderQueue window = new AccessOrderQueue(QUEUE_WINDOW);
+    private final AccessOrderQueue probation = new AccessOrderQueue(QUEUE_PROBATION);
+    private final AccessOrderQueue protectedSegment = new AccessOrderQueue(QUEUE_PROTECTED);
+    private final FrequencySketch sketch = new FrequencySketch();
+    private int entryCount = 0;
+    // Written with evictionLock held, read without it
+    private volatile long size = 0;
+
     public Cache(StandardRoot root) {
         this.root = root;
     }
@@ -73,10 +114,12 @@ public class Cache {
         }
 
         if (cacheEntry == null) {
+            missCount.incrementAndGet();
+
             // Local copy to ensure consistency
             int objectMaxSizeBytes = getObjectMaxSizeBytes();
-            CachedResource newCacheEntry =
-                    new CachedResource(this, root, path, getTtl(), objectMaxSizeBytes);
+            CachedResource newCacheEntry = new CachedResource(this, root, path,
+                    getTtl(), objectMaxSizeBytes, contentStorage);
 
             // Concurrent callers will end up with the same CachedResource
             // instance
@@ -89,26 +132,7 @@ public class Cache {
 
                 // Even if the resource content larger than objectMaxSizeBytes
                 // there is still benefit in caching the resource metadata
-
-                long delta = cacheEntry.getSize();
-                size.addAndGet(delta);
-
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize =
-                            maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(
-                            targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path));
-                    }
-                }
+                addCacheEntry(cacheEntry);
             } else {
                 // Another thread added the entry to the cache
                 // Make sure it is validated
@@ -116,6 +140,7 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            recordAccess(cacheEntry);
         }
 
         return cacheEntry;
@@ -135,6 +160,8 @@ public class Cache {
         }
 
         if (cacheEntry == null) {
+            missCount.incrementAndGet();
+
             // Local copy to ensure consistency
             int objectMaxSizeBytes = getObjectMaxSizeBytes();
             CachedResource newCacheEntry =
@@ -150,25 +177,7 @@ public class Cache {
                 cacheEntry.validateResources(useClassLoaderResources);
 
                 // Content will not be cached but we still need metadata size
-                long delta = cacheEntry.getSize();
-                size.addAndGet(delta);
-
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize =
-                            maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(
-                            targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path));
-                    }
-                }
+                addCacheEntry(cacheEntry);
             } else {
                 // Another thread added the entry to the cache
                 // Make sure it is validated
@@ -176,30 +185,22 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            recordAccess(cacheEntry);
         }
 
         return cacheEntry.getWebResources();
     }
 
     protected void backgroundProcess() {
-        // Create an ordered set of all cached resources with the least recently
-        // used first. This is a background process so we can afford to take the
-        // time to order the elements first
-        TreeSet<CachedResource> orderedResources =
-                new TreeSet<>(new EvictionOrder());
-        orderedResources.addAll(resourceCache.values());
-
-        Iterator<CachedResource> iter = orderedResources.iterator();
-
-        long targetSize =
-                maxSize * (100 - TARGET_FREE_PERCENT_BACKGROUND) / 100;
-        long newSize = evict(targetSize, iter);
-
-        if (newSize > targetSize) {
-            log.info(sm.getString("cache.backgroundEvictFail",
-                    Long.valueOf(TARGET_FREE_PERCENT_BACKGROUND),
-                    root.getContext().getName(),
-                    Long.valueOf(newSize / 1024)));
+        // Eviction normally takes place as entries are added. This handles the
+        // case where maxSize has been reduced while the cache is running.
+        if (size > maxSize) {
+            evictionLock.lock();
+            try {
+                evict(maxSize);
+            } finally {
+                evictionLock.unlock();
+            }
         }
     }
 
@@ -212,27 +213,174 @@ public class Cache {
         return false;
     }
 
-    private long evict(long targetSize, Iterator<CachedResource> iter) {
+    private void addCacheEntry(CachedResource cacheEntry) {
+        // Size must be calculated after the entry has been validated
+        long weight = cacheEntry.getSize();
+        String path = cacheEntry.getWebappPath();
 
-        long now = System.currentTimeMillis();
+        evictionLock.lock();
+        try {
+            if (cacheEntry.queue == QUEUE_REMOVED) {
+                // Removed by a concurrent call to removeCacheEntry()
+                return;
+            }
+            if (weight > maxSize) {
+                cacheEntry.queue = QUEUE_REMOVED;
+                cacheEntry.releaseContent();
+                resourceCache.remove(path, cacheEntry);
+                rejectionCount.incrementAndGet();
+                log.warn(sm.getString("cache.addFail", path));
+                return;
+            }
+            sketch.ensureCapacity(++entryCount);
+            sketch.increment(path.hashCode());
+            cacheEntry.weight = weight;
+            window.addLast(cacheEntry);
+            size += weight;
+            evict(maxSize);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
 
-        long newSize = size.get();
+    private void recordAccess(CachedResource cacheEntry) {
+        // Recording accesses is best effort. Rather than have request threads
+        // wait for each other on popular resources, the access is not recorded
+        // if another thread is updating the policy.
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(cacheEntry.getWebappPath().hashCode());
+            switch (cacheEntry.queue) {
+                case QUEUE_WINDOW:
+                    window.moveToLast(cacheEntry);
+                    break;
+                case QUEUE_PROBATION:
+                    probation.remove(cacheEntry);
+                    protectedSegment.addLast(cacheEntry);
+                    long protectedMax = (maxSize - windowMax()) * PROTECTED_PERCENT / 100;
+                    while (protectedSegment.weight > protectedMax &&
+                            protectedSegment.head != cacheEntry) {
+                        CachedResource demoted = protectedSegment.head;
+                        protectedSegment.remove(demoted);
+                        probation.addLast(demoted);
+                    }
+                    break;
+                case QUEUE_PROTECTED:
+                    protectedSegment.moveToLast(cacheEntry);
+                    break;
+                default:
+                    // Not yet added to, or already removed from, the policy
+                    break;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
 
-        while (newSize > targetSize && iter.hasNext()) {
-            CachedResource resource = iter.next();
+    /*
+     * Must be called with evictionLock held.
+     */
+    private void evict(long targetSize) {
+        // Move entries that have overflowed the window to the main cache if
+        // they are accessed more frequently than the entries they would
+        // displace
+        long windowMax = windowMax();
+        while (window.weight > windowMax && window.head != null) {
+            CachedResource candidate = window.head;
+            window.remove(candidate);
+            if (admit(candidate, targetSize)) {
+                probation.addLast(candidate);
+            } else {
+                discard(candidate);
+                rejectionCount.incrementAndGet();
+            }
+        }
 
-            // Don't expire anything that has been checked within the TTL
-            if (resource.getNextCheck() > now) {
-                continue;
+        // Handles a reduction in the target size
+        while (size > targetSize) {
+            CachedResource victim = probation.head;
+            if (victim == null) {
+                victim = protectedSegment.head;
             }
+            if (victim == null) {
+                victim = window.head;
+            }
+            if (victim == null) {
+                break;
+            }
+            removeFromPolicy(victim);
+            evictionCount.incrementAndGet();
+        }
+    }
 
-            // Remove the entry from the cache
-            removeCacheEntry(resource.getWebappPath());
+    /*
+     * Must be called with evictionLock held. Evicts entries from the main cache
+     * to make room for the candidate while the candidate is the more
+     * frequently used.
+     */
+    private boolean admit(CachedResource candidate, long targetSize) {
+        int candidateFrequency = -1;
+        while (size > targetSize) {
+            CachedResource victim = probation.head;
+            if (victim == null) {
+                victim = protectedSegment.head;
+            }
+            if (victim == null) {
+                // The main cache is empty
+                return true;
+            }
+            if (candidateFrequency == -1) {
+                candidateFrequency = sketch.frequency(candidate.getWebappPath().hashCode());
+            }
+            if (candidateFrequency <= sketch.frequency(victim.getWebappPath().hashCode())) {
+                return false;
+            }
+            removeFromPolicy(victim);
+            evictionCount.incrementAndGet();
+        }
+        return true;
+    }
 
-            newSize = size.get();
+    /*
+     * Must be called with evictionLock held.
+     */
+    private void removeFromPolicy(CachedResource cacheEntry) {
+        switch (cacheEntry.queue) {
+            case QUEUE_WINDOW:
+                window.remove(cacheEntry);
+                break;
+            case QUEUE_PROBATION:
+                probation.remove(cacheEntry);
+                break;
+            case QUEUE_PROTECTED:
+                protectedSegment.remove(cacheEntry);
+                break;
+            default:
+                // Not in the policy so not included in the size
+                cacheEntry.queue = QUEUE_REMOVED;
+                cacheEntry.releaseContent();
+                return;
         }
+        discard(cacheEntry);
+    }
+
+    /*
+     * Must be called with evictionLock held and with the entry already removed
+     * from its queue.
+     */
+    private void discard(CachedResource cacheEntry) {
+        cacheEntry.queue = QUEUE_REMOVED;
+        cacheEntry.releaseContent();
+        size -= cacheEntry.weight;
+        entryCount--;
+        // Only remove the mapping if it has not already been replaced
+        resourceCache.remove(cacheEntry.getWebappPath(), cacheEntry);
+    }
 
-        return newSize;
+    private long windowMax() {
+        return maxSize * WINDOW_PERCENT / 100;
     }
 
     void removeCacheEntry(String path) {
@@ -240,8 +388,13 @@ public class Cache {
         // once and the cache size is only updated (if required) once.
         CachedResource cachedResource = resourceCache.remove(path);
         if (cachedResource != null) {
-            long delta = cachedResource.getSize();
-            size.addAndGet(-delta);
+            invalidationCount.incrementAndGet();
+            evictionLock.lock();
+            try {
+                removeFromPolicy(cachedResource);
+            } finally {
+                evictionLock.unlock();
+            }
         }
     }
 
@@ -263,6 +416,44 @@ public class Cache {
         this.maxSize = maxSize * 1024;
     }
 
+    /**
+     * @return The name of the storage used for the content of new cache entries
+     */
+    public String getContentStorage() {
+        return contentStorage.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Set where the content of new cache entries is stored. Existing entries
+     * are not affected.
+     *
+     * @param contentStorage <code>heap</code> for <code>byte[]</code>s,
+     *                       <code>direct</code> for direct ByteBuffers or
+     *                       <code>mapped</code> for read-only mappings of the
+     *                       underlying files where possible, else direct
+     *                       ByteBuffers. Mappings are released when entries
+     *                       are removed from the cache so <code>mapped</code>
+     *                       falls back to <code>heap</code> if the JVM is
+     *                       unable to unmap files.
+     */
+    public void setContentStorage(String contentStorage) {
+        ContentStorage value;
+        try {
+            value = ContentStorage.valueOf(
+                    contentStorage.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(sm.getString(
+                    "cache.invalidContentStorage", contentStorage), e);
+        }
+        if (value == ContentStorage.MAPPED && !ByteBufferUtils.isCleanSupported()) {
+            // Mapped files could not be released before they were collected
+            // which would hold file handles and, on Windows, lock the files
+            log.warn(sm.getString("cache.mappedUnsupported"));
+            value = ContentStorage.HEAP;
+        }
+        this.contentStorage = value;
+    }
+
     public long getLookupCount() {
         return lookupCount.get();
     }
@@ -271,6 +462,48 @@ public class Cache {
         return hitCount.get();
     }
 
+    /**
+     * @return The number of lookups for resources that were not found in the
+     *         cache, or were found but were no longer valid
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The number of entries removed from the cache to keep it within
+     *         its maximum size
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return The number of new entries that were not admitted to the cache
+     *         because they were used less frequently than the entries they
+     *         would have displaced or were larger than the cache
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    /**
+     * @return The number of entries removed from the cache because the
+     *         resource was modified, deleted or failed revalidation
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public void resetStatistics() {
+        lookupCount.set(0);
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+        rejectionCount.set(0);
+        invalidationCount.set(0);
+    }
+
     public void setObjectMaxSize(int objectMaxSize) {
         if (objectMaxSize * 1024L > Integer.MAX_VALUE) {
             log.warn(sm.getString("cache.objectMaxSizeTooBigBytes", Integer.valueOf(objectMaxSize)));
@@ -302,30 +535,103 @@ public class Cache {
     }
 
     public void clear() {
-        resourceCache.clear();
-        size.set(0);
+        evictionLock.lock();
+        try {
+            for (CachedResource cacheEntry : resourceCache.values()) {
+                cacheEntry.queue = QUEUE_REMOVED;
+                cacheEntry.releaseContent();
+            }
+            resourceCache.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            sketch.clear();
+            entryCount = 0;
+            size = 0;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     public long getSize() {
-        return size.get() / 1024;
+        return size / 1024;
+    }
+
+    public int getEntryCount() {
+        return resourceCache.size();
     }
 
-    private static class EvictionOrder implements Comparator<CachedResource> {
 
-        @Override
-        public int compare(CachedResource cr1, CachedResource cr2) {
-            long nc1 = cr1.getNextCheck();
-            long nc2 = cr2.getNextCheck();
+    enum ContentStorage {
+        HEAP,
+        DIRECT,
+        MAPPED
+    }
+
+
+    /*
+     * A doubly linked list of cache entries with the least recently used at
+     * the head. Not thread safe.
+     */
+    private static class AccessOrderQueue {
+
+        private final int id;
+        private CachedResource head;
+        private CachedResource tail;
+        private long weight;
 
-            // Oldest resource should be first (so iterator goes from oldest to
-            // youngest.
-            if (nc1 == nc2) {
-                return 0;
-            } else if (nc1 > nc2) {
-                return -1;
+        AccessOrderQueue(int id) {
+            this.id = id;
+        }
+
+        void addLast(CachedResource cacheEntry) {
+            cacheEntry.queue = id;
+            cacheEntry.previous = tail;
+            cacheEntry.next = null;
+            if (tail == null) {
+                head = cacheEntry;
             } else {
-                return 1;
+                tail.next = cacheEntry;
+            }
+            tail = cacheEntry;
+            weight += cacheEntry.weight;
+        }
+
+        void remove(CachedResource cacheEntry) {
+            if (cacheEntry.previous == null) {
+                head = cacheEntry.next;
+            } else {
+                cacheEntry.previous.next = cacheEntry.next;
+            }
+            if (cacheEntry.next == null) {
+                tail = cacheEntry.previous;
+            } else {
+                cacheEntry.next.previous = cacheEntry.previous;
+            }
+            cacheEntry.previous = null;
+            cacheEntry.next = null;
+            cacheEntry.queue = QUEUE_NONE;
+            weight -= cacheEntry.weight;
+        }
+
+        void moveToLast(CachedResource cacheEntry) {
+            if (cacheEntry != tail) {
+                remove(cacheEntry);
+                addLast(cacheEntry);
+            }
+        }
+
+        void clear() {
+            CachedResource cacheEntry = head;
+            while (cacheEntry != null) {
+                CachedResource next = cacheEntry.next;
+                cacheEntry.previous = null;
+                cacheEntry.next = null;
+                cacheEntry = next;
             }
+            head = null;
+            tail = null;
+            weight = 0;
         }
     }
 }
@@ -17,13 +17,23 @@
 package org.apache.catalina.webresources;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.cert.Certificate;
 import java.util.jar.Manifest;
 
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+import org.apache.tomcat.util.res.StringManager;
 
 /**
  * This class is designed to wrap a 'raw' WebResource and providing caching for
@@ -32,6 +42,10 @@ import org.apache.catalina.WebResourceRoot;
  */
 public class CachedResource implements WebResource {
 
+    private static final Log log = LogFactory.getLog(CachedResource.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
     // Estimate (on high side to be safe) of average size excluding content
     // based on profiler data.
     private static final long CACHE_ENTRY_SIZE = 500;
@@ -41,6 +55,7 @@ public class CachedResource implements WebResource {
     private final String webAppPath;
     private final long ttl;
     private final int objectMaxSizeBytes;
+    private final Cache.ContentStorage contentStorage;
 
     private volatile WebResource webResource;
     private volatile WebResource[] webResources;
@@ -49,20 +64,38 @@ public class CachedResource implements WebResource {
     private volatile Long cachedLastModified = null;
     private volatile String cachedLastModifiedHttp = null;
     private volatile byte[] cachedContent = null;
+    private volatile ByteBuffer cachedContentBuffer = null;
     private volatile Boolean cachedIsFile = null;
     private volatile Boolean cachedIsDirectory = null;
     private volatile Boolean cachedExists = null;
     private volatile Boolean cachedIsVirtual = null;
     private volatile Long cachedContentLength = null;
 
+    // Lifecycle of cachedContentBuffer. Guarded by this.
+    private int contentBufferReaders = 0;
+    private boolean contentReleased = false;
+
+    // Used by Cache to track this entry in its eviction policy. Guarded by the
+    // Cache's eviction lock.
+    CachedResource previous;
+    CachedResource next;
+    int queue = Cache.QUEUE_NONE;
+    long weight;
+
 
     public CachedResource(Cache cache, StandardRoot root, String path, long ttl,
             int objectMaxSizeBytes) {
+        this(cache, root, path, ttl, objectMaxSizeBytes, Cache.ContentStorage.HEAP);
+    }
+
+    CachedResource(Cache cache, StandardRoot root, String path, long ttl,
+            int objectMaxSizeBytes, Cache.ContentStorage contentStorage) {
         this.cache = cache;
         this.root = root;
         this.webAppPath = path;
         this.ttl = ttl;
         this.objectMaxSizeBytes = objectMaxSizeBytes;
+        this.contentStorage = contentStorage;
     }
 
     protected boolean validateResource(boolean useClassLoaderResources) {
@@ -264,6 +297,13 @@ public class CachedResource implements WebResource {
 
     @Override
     public InputStream getInputStream() {
+        if (contentStorage != Cache.ContentStorage.HEAP) {
+            ByteBuffer contentBuffer = acquireContentBuffer();
+            if (contentBuffer == null) {
+                return webResource.getInputStream();
+            }
+            return new ByteBufferInputStream(contentBuffer, this);
+        }
         byte[] content = cachedContent;
         if (content == null) {
             // Can't cache InputStreams
@@ -272,8 +312,18 @@ public class CachedResource implements WebResource {
         return new ByteArrayInputStream(content);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the content is cached outside of the Java heap this always returns
+     * <code>null</code> since returning it would require a copy on the heap.
+     * Use {@link #getInputStream()} instead.
+     */
     @Override
     public byte[] getContent() {
+        if (contentStorage != Cache.ContentStorage.HEAP) {
+            return null;
+        }
         byte[] cachedContent = this.cachedContent;
         if (cachedContent == null) {
             if (getContentLength() > objectMaxSizeBytes) {
@@ -285,6 +335,86 @@ public class CachedResource implements WebResource {
         return cachedContent;
     }
 
+    /*
+     * Returns a duplicate, so each stream has its own position, of the cached
+     * content buffer and registers the caller as a reader of the buffer. The
+     * caller must call releaseContentBuffer() once it has finished reading.
+     * Returns null if the content is not cached or has been released.
+     */
+    private synchronized ByteBuffer acquireContentBuffer() {
+        if (contentReleased) {
+            return null;
+        }
+        ByteBuffer contentBuffer = cachedContentBuffer;
+        if (contentBuffer == null) {
+            if (getContentLength() > objectMaxSizeBytes) {
+                return null;
+            }
+            contentBuffer = loadContentBuffer();
+            if (contentBuffer == null) {
+                return null;
+            }
+            cachedContentBuffer = contentBuffer;
+        }
+        contentBufferReaders++;
+        return contentBuffer.duplicate();
+    }
+
+    synchronized void releaseContentBuffer() {
+        contentBufferReaders--;
+        if (contentReleased && contentBufferReaders == 0) {
+            cleanContentBuffer();
+        }
+    }
+
+    /*
+     * Called by the Cache once this entry has been removed from it. The memory
+     * (or file mapping) is released immediately if no stream is reading the
+     * content, else once the last such stream is closed. Streams that are
+     * never closed leave the release to the garbage collector.
+     */
+    synchronized void releaseContent() {
+        contentReleased = true;
+        if (contentBufferReaders == 0) {
+            cleanContentBuffer();
+        }
+    }
+
+    synchronized boolean isContentBufferReleased() {
+        return contentReleased && cachedContentBuffer == null;
+    }
+
+    private void cleanContentBuffer() {
+        ByteBuffer contentBuffer = cachedContentBuffer;
+        cachedContentBuffer = null;
+        ByteBufferUtils.cleanDirectBuffer(contentBuffer);
+    }
+
+    private ByteBuffer loadContentBuffer() {
+        if (contentStorage == Cache.ContentStorage.MAPPED && webResource.isFile()) {
+            String path = webResource.getCanonicalPath();
+            if (path != null) {
+                try (FileChannel channel = FileChannel.open(
+                        Paths.get(path), StandardOpenOption.READ)) {
+                    // The mapping remains valid after the channel is closed
+                    return channel.map(MapMode.READ_ONLY, 0, getContentLength());
+                } catch (IOException | RuntimeException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("cachedResource.mapFail", webAppPath), e);
+                    }
+                }
+            }
+        }
+        byte[] content = webResource.getContent();
+        if (content == null) {
+            return null;
+        }
+        ByteBuffer result = ByteBuffer.allocateDirect(content.length);
+        result.put(content);
+        result.flip();
+        return result;
+    }
+
     @Override
     public long getCreation() {
         return webResource.getCreation();
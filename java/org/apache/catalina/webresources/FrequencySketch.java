@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+/**
+ * A compact, approximate record of how often keys have been accessed, used by
+ * {@link Cache} to decide whether a new entry is worth admitting at the
+ * expense of an existing one.
+ * <p>
+ * This is a count-min sketch with 4-bit counters, sixteen to a
+ * <code>long</code>. Each key maps to four counters and its estimated
+ * frequency is the smallest of them. Once the number of increments reaches
+ * ten times the number of counter groups, all counters are halved so the
+ * sketch favours recent popularity over historic popularity.
+ * <p>
+ * This class is not thread safe. The caller must provide any necessary
+ * synchronization.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = new long[] {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL,
+            0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private static final int MIN_TABLE_SIZE = 64;
+    private static final int MAX_TABLE_SIZE = 1 << 26;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+
+    FrequencySketch() {
+        ensureCapacity(MIN_TABLE_SIZE);
+    }
+
+
+    /**
+     * Grow the sketch, if necessary, so it can track at least the given number
+     * of keys with reasonable accuracy. Growing discards all current counts.
+     *
+     * @param expectedKeys The number of distinct keys expected to be tracked
+     */
+    void ensureCapacity(long expectedKeys) {
+        int size = MIN_TABLE_SIZE;
+        while (size < expectedKeys && size < MAX_TABLE_SIZE) {
+            size <<= 1;
+        }
+        if (table != null && table.length >= size) {
+            return;
+        }
+        table = new long[size];
+        tableMask = size - 1;
+        sampleSize = 10 * size;
+        additions = 0;
+    }
+
+
+    /**
+     * @param hashCode The hash code of the key
+     *
+     * @return The estimated number of times the key has been accessed, capped
+     *         at 15
+     */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+
+    /**
+     * Record an access for the given key.
+     *
+     * @param hashCode The hash code of the key
+     */
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            added |= incrementAt(index, start + i);
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+
+    void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        additions = 0;
+    }
+
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+
+    /*
+     * Halve every counter. The low bit of each counter is lost which is
+     * accounted for by adjusting the number of additions.
+     */
+    private void reset() {
+        int oddCount = 0;
+        for (int i = 0; i < table.length; i++) {
+            oddCount += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = (additions - (oddCount >>> 2)) >>> 1;
+    }
+
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -529,6 +529,22 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         return cache.getObjectMaxSize();
     }
 
+    /**
+     * Set where the cache stores the content of cached resources.
+     *
+     * @param cacheContentStorage <code>heap</code> (the default) to store
+     *        content in <code>byte[]</code>s, <code>direct</code> to store it in
+     *        direct ByteBuffers or <code>mapped</code> to use read-only
+     *        mappings of the underlying files where possible
+     */
+    public void setCacheContentStorage(String cacheContentStorage) {
+        cache.setContentStorage(cacheContentStorage);
+    }
+
+    public String getCacheContentStorage() {
+        return cache.getContentStorage();
+    }
+
     @Override
     public void setTrackLockedFiles(boolean trackLockedFiles) {
         this.trackLockedFiles = trackLockedFiles;
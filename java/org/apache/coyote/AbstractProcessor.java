@@ -62,10 +62,20 @@ public abstract class AbstractProcessor implements ActionHook, Processor {
     }
 
     public AbstractProcessor(AbstractEndpoint<?> endpoint) {
+        this(endpoint, new Request(), new Response());
+    }
+
+
+    /**
+     * Intended for use by protocols that create the request and response
+     * before the processor, such as the streams of a multiplexed connection.
+     */
+    protected AbstractProcessor(AbstractEndpoint<?> endpoint, Request coyoteRequest,
+            Response coyoteResponse) {
         this.endpoint = endpoint;
         asyncStateMachine = new AsyncStateMachine(this);
-        request = new Request();
-        response = new Response();
+        request = coyoteRequest;
+        response = coyoteResponse;
         response.setHook(this);
         request.setResponse(response);
     }
@@ -175,6 +175,25 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Protocols that do not support upgrade ignore the upgrade protocol and
+     * log a warning.
+     */
+    @Override
+    public void addUpgradeProtocol(UpgradeProtocol upgradeProtocol) {
+        getLog().warn(sm.getString("abstractProtocolHandler.noUpgrade",
+                upgradeProtocol.getClass().getName(), getName()));
+    }
+
+
+    @Override
+    public UpgradeProtocol[] findUpgradeProtocols() {
+        return new UpgradeProtocol[0];
+    }
+
+
     // ---------------------- Properties that are passed through to the EndPoint
 
     @Override
@@ -189,6 +208,11 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
         endpoint.setMaxThreads(maxThreads);
     }
 
+    public boolean getUseVirtualThreads() { return endpoint.getUseVirtualThreads(); }
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        endpoint.setUseVirtualThreads(useVirtualThreads);
+    }
+
     public int getMaxConnections() { return endpoint.getMaxConnections(); }
     public void setMaxConnections(int maxConnections) {
         endpoint.setMaxConnections(maxConnections);
@@ -441,6 +465,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
         }
 
         if (this.domain != null) {
+            endpoint.setDomain(domain);
             try {
                 tpOname = new ObjectName(domain + ":" +
                         "type=ThreadPool,name=" + getName());
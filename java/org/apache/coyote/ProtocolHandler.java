@@ -94,4 +94,18 @@ public interface ProtocolHandler {
      * Does this ProtocolHandler support sendfile?
      */
     public boolean isSendfileSupported();
+
+
+    /**
+     * Add a new protocol that connections handled by this ProtocolHandler may
+     * be upgraded to.
+     */
+    public void addUpgradeProtocol(UpgradeProtocol upgradeProtocol);
+
+
+    /**
+     * Return the protocols that connections handled by this ProtocolHandler
+     * may be upgraded to.
+     */
+    public UpgradeProtocol[] findUpgradeProtocols();
 }
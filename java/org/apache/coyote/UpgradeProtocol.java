@@ -0,0 +1,69 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+
+/**
+ * A protocol that an HTTP/1.1 connection may be upgraded to, either via the
+ * HTTP/1.1 upgrade mechanism or via TLS protocol negotiation.
+ */
+public interface UpgradeProtocol {
+
+    /**
+     * @param isSecure Is this for a connector that is configured to support
+     *                 TLS. Some protocols (e.g. HTTP/2) only support HTTP
+     *                 upgrade over non-secure connections.
+     *
+     * @return The name that clients will use to request an upgrade to this
+     *         protocol via an HTTP/1.1 upgrade request or <code>null</code> if
+     *         upgrade via an HTTP/1.1 upgrade request is not supported.
+     */
+    public String getHttpUpgradeName(boolean isSecure);
+
+    /**
+     * @return The name of the protocol as listed in the IANA ALPN protocol ID
+     *         registry or <code>null</code> if upgrade via TLS protocol
+     *         negotiation is not supported.
+     */
+    public String getAlpnName();
+
+    /**
+     * Determine if the given HTTP/1.1 upgrade request is acceptable to this
+     * protocol. If it is not, the request will be processed as a plain
+     * HTTP/1.1 request.
+     *
+     * @param request The HTTP/1.1 request requesting the upgrade
+     *
+     * @return <code>true</code> if the upgrade will be performed, otherwise
+     *         <code>false</code>
+     */
+    public boolean accept(Request request);
+
+    /**
+     * @param socketWrapper The socket that is being upgraded
+     * @param adapter       The Adapter instance to be used to process any
+     *                      requests received over the upgraded connection
+     * @param request       A copy of the HTTP/1.1 request that triggered the
+     *                      upgrade
+     *
+     * @return An instance of the HTTP upgrade handler for this protocol
+     */
+    public InternalHttpUpgradeHandler getInternalUpgradeHandler(
+            SocketWrapperBase<?> socketWrapper, Adapter adapter, Request request);
+}
@@ -73,6 +73,14 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)getEndpoint()).getPollerThreadCount();
     }
 
+    public void setUseLeastLoadedPoller(boolean useLeastLoadedPoller) {
+        ((NioEndpoint)getEndpoint()).setUseLeastLoadedPoller(useLeastLoadedPoller);
+    }
+
+    public boolean getUseLeastLoadedPoller() {
+        return ((NioEndpoint)getEndpoint()).getUseLeastLoadedPoller();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ((NioEndpoint)getEndpoint()).setSelectorTimeout(timeout);
     }
@@ -19,7 +19,9 @@ package org.apache.coyote.http11;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.Enumeration;
 import java.util.Locale;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
@@ -32,7 +34,9 @@ import org.apache.coyote.AbstractProcessor;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.AsyncContextCallback;
 import org.apache.coyote.ErrorState;
+import org.apache.coyote.Request;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.UpgradeProtocol;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
@@ -42,6 +46,7 @@ import org.apache.coyote.http11.filters.IdentityOutputFilter;
 import org.apache.coyote.http11.filters.SavedRequestInputFilter;
 import org.apache.coyote.http11.filters.VoidInputFilter;
 import org.apache.coyote.http11.filters.VoidOutputFilter;
+import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -226,6 +231,13 @@ public class Http11Processor extends AbstractProcessor {
     protected HttpUpgradeHandler httpUpgradeHandler = null;
 
 
+    /**
+     * The protocols, keyed by the name used in the HTTP Upgrade header, that
+     * are supported via Tomcat's internal upgrade mechanism.
+     */
+    private Map<String,UpgradeProtocol> httpUpgradeProtocols = null;
+
+
     /**
      * Sendfile data.
      */
@@ -477,6 +489,16 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
+    /**
+     * Set the protocols that a connection may be upgraded to without the
+     * involvement of an application.
+     */
+    public void setHttpUpgradeProtocols(
+            Map<String,UpgradeProtocol> httpUpgradeProtocols) {
+        this.httpUpgradeProtocols = httpUpgradeProtocols;
+    }
+
+
     /**
      * Set the server header name.
      */
@@ -501,12 +523,13 @@ public class Http11Processor extends AbstractProcessor {
      */
     private boolean isCompressable() {
 
-        // Check if content is not already gzipped
+        // Check if content is not already encoded (e.g. a pre-compressed
+        // resource served by the DefaultServlet)
         MessageBytes contentEncodingMB =
             response.getMimeHeaders().getValue("Content-Encoding");
 
         if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1)) {
+            && !contentEncodingMB.toString().trim().equalsIgnoreCase("identity")) {
             return false;
         }
 
@@ -1114,6 +1137,26 @@ public class Http11Processor extends AbstractProcessor {
                 }
             }
 
+            // Has an upgrade to an internally supported protocol been
+            // requested?
+            if (!getErrorState().isError()) {
+                UpgradeProtocol upgradeProtocol = getRequestedUpgradeProtocol();
+                if (upgradeProtocol != null) {
+                    response.setStatus(HttpServletResponse.SC_SWITCHING_PROTOCOLS);
+                    response.setHeader("Connection", "Upgrade");
+                    response.setHeader("Upgrade", request.getHeader("Upgrade"));
+                    action(ActionCode.CLOSE, null);
+                    getAdapter().log(request, response, 0);
+
+                    InternalHttpUpgradeHandler upgradeHandler =
+                            upgradeProtocol.getInternalUpgradeHandler(
+                                    socketWrapper, getAdapter(), cloneRequest(request));
+                    action(ActionCode.UPGRADE, upgradeHandler);
+                    rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+                    return SocketState.UPGRADING;
+                }
+            }
+
             if (maxKeepAliveRequests == 1) {
                 keepAlive = false;
             } else if (maxKeepAliveRequests > 0 &&
@@ -1236,6 +1279,66 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
+    /**
+     * Determine if the current request asks for an upgrade to one of the
+     * protocols Tomcat supports internally and, if it does, if the protocol
+     * will accept the upgrade.
+     *
+     * @return The protocol to upgrade to or <code>null</code> if the request
+     *         should be processed as an HTTP/1.1 request
+     */
+    private UpgradeProtocol getRequestedUpgradeProtocol() {
+        if (httpUpgradeProtocols == null || httpUpgradeProtocols.isEmpty()) {
+            return null;
+        }
+        Enumeration<String> connectionValues =
+                request.getMimeHeaders().values("Connection");
+        boolean foundUpgrade = false;
+        while (connectionValues.hasMoreElements() && !foundUpgrade) {
+            foundUpgrade = connectionValues.nextElement().toLowerCase(
+                    Locale.ENGLISH).contains("upgrade");
+        }
+        if (!foundUpgrade) {
+            return null;
+        }
+        String requestedProtocol = request.getHeader("Upgrade");
+        if (requestedProtocol == null) {
+            return null;
+        }
+        UpgradeProtocol upgradeProtocol =
+                httpUpgradeProtocols.get(requestedProtocol.trim());
+        if (upgradeProtocol != null && upgradeProtocol.accept(request)) {
+            return upgradeProtocol;
+        }
+        return null;
+    }
+
+
+    /**
+     * Copy the information from the HTTP/1.1 request that triggered an
+     * upgrade that the new protocol requires since this processor (and the
+     * request) will be recycled once the upgrade completes.
+     */
+    private static Request cloneRequest(Request source) throws IOException {
+        Request dest = new Request();
+
+        dest.method().duplicate(source.method());
+        dest.requestURI().duplicate(source.requestURI());
+        dest.queryString().duplicate(source.queryString());
+        dest.serverName().duplicate(source.serverName());
+        dest.setServerPort(source.getServerPort());
+
+        MimeHeaders sourceHeaders = source.getMimeHeaders();
+        MimeHeaders destHeaders = dest.getMimeHeaders();
+        for (int i = 0; i < sourceHeaders.size(); i++) {
+            destHeaders.addValue(sourceHeaders.getName(i).toString()).duplicate(
+                    sourceHeaders.getValue(i));
+        }
+
+        return dest;
+    }
+
+
     private boolean handleIncompleteRequestLineRead() {
         // Haven't finished reading the request so keep the socket
         // open
@@ -0,0 +1,151 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The settings, as defined in section 6.5.2 of RFC 7540, for one end of an
+ * HTTP/2 connection.
+ */
+public class ConnectionSettings {
+
+    private static final Log log = LogFactory.getLog(ConnectionSettings.class);
+    private static final StringManager sm = StringManager.getManager(ConnectionSettings.class);
+
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    public static final long UNLIMITED = ((long)1 << 32); // Use the maximum possible
+    public static final int MAX_WINDOW_SIZE = (1 << 31) - 1;
+
+    public static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+    public static final boolean DEFAULT_ENABLE_PUSH = true;
+    public static final long DEFAULT_MAX_CONCURRENT_STREAMS = UNLIMITED;
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = (1 << 16) - 1;
+    public static final int MIN_MAX_FRAME_SIZE = 1 << 14;
+    public static final int MAX_MAX_FRAME_SIZE = (1 << 24) - 1;
+    public static final int DEFAULT_MAX_FRAME_SIZE = MIN_MAX_FRAME_SIZE;
+    public static final long DEFAULT_MAX_HEADER_LIST_SIZE = UNLIMITED;
+
+    private volatile int headerTableSize = DEFAULT_HEADER_TABLE_SIZE;
+    private volatile boolean enablePush = DEFAULT_ENABLE_PUSH;
+    private volatile long maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+    private volatile int initialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+    private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private volatile long maxHeaderListSize = DEFAULT_MAX_HEADER_LIST_SIZE;
+
+
+    /**
+     * Apply a single setting received in a SETTINGS frame.
+     *
+     * @param parameterId The identifier of the setting
+     * @param value       The new value for the setting
+     *
+     * @throws ConnectionException If the value is not valid for the setting
+     */
+    public void set(int parameterId, long value) throws ConnectionException {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("connectionSettings.debug",
+                    Integer.toString(parameterId), Long.toString(value)));
+        }
+
+        switch(parameterId) {
+        case SETTINGS_HEADER_TABLE_SIZE:
+            // Anything larger than an int is treated as an int since that is
+            // already far larger than any sensible table size
+            headerTableSize = (int) Math.min(value, Integer.MAX_VALUE);
+            break;
+        case SETTINGS_ENABLE_PUSH:
+            if (value == 0) {
+                enablePush = false;
+            } else if (value == 1) {
+                enablePush = true;
+            } else {
+                throw new ConnectionException(sm.getString(
+                        "connectionSettings.enablePushInvalid", Long.toString(value)),
+                        Http2Error.PROTOCOL_ERROR);
+            }
+            break;
+        case SETTINGS_MAX_CONCURRENT_STREAMS:
+            maxConcurrentStreams = value;
+            break;
+        case SETTINGS_INITIAL_WINDOW_SIZE:
+            if (value > MAX_WINDOW_SIZE) {
+                throw new ConnectionException(sm.getString(
+                        "connectionSettings.windowSizeTooBig", Long.toString(value),
+                        Integer.toString(MAX_WINDOW_SIZE)), Http2Error.FLOW_CONTROL_ERROR);
+            }
+            initialWindowSize = (int) value;
+            break;
+        case SETTINGS_MAX_FRAME_SIZE:
+            if (value < MIN_MAX_FRAME_SIZE || value > MAX_MAX_FRAME_SIZE) {
+                throw new ConnectionException(sm.getString(
+                        "connectionSettings.maxFrameSizeInvalid", Long.toString(value),
+                        Integer.toString(MIN_MAX_FRAME_SIZE),
+                        Integer.toString(MAX_MAX_FRAME_SIZE)), Http2Error.PROTOCOL_ERROR);
+            }
+            maxFrameSize = (int) value;
+            break;
+        case SETTINGS_MAX_HEADER_LIST_SIZE:
+            maxHeaderListSize = value;
+            break;
+        default:
+            // Unknown settings must be ignored (RFC 7540, section 6.5.2)
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("connectionSettings.unknown",
+                        Integer.toString(parameterId), Long.toString(value)));
+            }
+        }
+    }
+
+
+    public int getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+
+    public boolean getEnablePush() {
+        return enablePush;
+    }
+
+
+    public long getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+
+    public long getMaxHeaderListSize() {
+        return maxHeaderListSize;
+    }
+}
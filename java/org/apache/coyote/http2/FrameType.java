@@ -0,0 +1,90 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The frame types defined in section 6 of RFC 7540.
+ */
+public enum FrameType {
+
+    DATA          (0x00, false, true),
+    HEADERS       (0x01, false, true),
+    PRIORITY      (0x02, false, true),
+    RST           (0x03, false, true),
+    SETTINGS      (0x04, true,  false),
+    PUSH_PROMISE  (0x05, false, true),
+    PING          (0x06, true,  false),
+    GOAWAY        (0x07, true,  false),
+    WINDOW_UPDATE (0x08, true,  true),
+    CONTINUATION  (0x09, false, true),
+    UNKNOWN       (0x100, true, true);
+
+    private static final StringManager sm = StringManager.getManager(FrameType.class);
+
+    private static final FrameType[] TYPES_BY_ID = new FrameType[CONTINUATION.id + 1];
+
+    static {
+        for (FrameType type : values()) {
+            if (type != UNKNOWN) {
+                TYPES_BY_ID[type.id] = type;
+            }
+        }
+    }
+
+    private final int id;
+    private final boolean streamZeroAllowed;
+    private final boolean streamNonZeroAllowed;
+
+
+    private FrameType(int id, boolean streamZeroAllowed, boolean streamNonZeroAllowed) {
+        this.id = id;
+        this.streamZeroAllowed = streamZeroAllowed;
+        this.streamNonZeroAllowed = streamNonZeroAllowed;
+    }
+
+
+    public byte getIdByte() {
+        return (byte) id;
+    }
+
+
+    /**
+     * Check that a frame of this type may be sent on the given stream.
+     *
+     * @param streamId The stream the frame was received for
+     *
+     * @throws ConnectionException if the frame type is not permitted on the
+     *                             given stream
+     */
+    public void checkStream(int streamId) throws ConnectionException {
+        if (streamId == 0 && !streamZeroAllowed ||
+                streamId != 0 && !streamNonZeroAllowed) {
+            throw new ConnectionException(sm.getString("frameType.checkStream", this,
+                    Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+        }
+    }
+
+
+    public static FrameType valueOf(int i) {
+        if (i < 0 || i >= TYPES_BY_ID.length) {
+            return UNKNOWN;
+        }
+        return TYPES_BY_ID[i];
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The static Huffman code defined in Appendix B of RFC 7541. The code is
+ * canonical so only the code lengths need to be listed, the codes themselves
+ * are generated when the class is loaded.
+ */
+final class HPackHuffman {
+
+    private static final StringManager sm = StringManager.getManager(HPackHuffman.class);
+
+    private static final int EOS = 256;
+
+    private static final int[] CODE_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+         6, 10, 10, 12, 13,  6,  8, 11, 10, 10,  8, 11,  8,  6,  6,  6,
+         5,  5,  5,  6,  6,  6,  6,  6,  6,  6,  7,  8, 15,  6, 12, 10,
+        13,  6,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,
+         7,  7,  7,  7,  7,  7,  7,  7,  8,  7,  8, 13, 19, 13, 14,  6,
+        15,  5,  6,  5,  6,  5,  6,  6,  6,  5,  7,  7,  6,  6,  6,  5,
+         6,  7,  6,  5,  5,  6,  7,  7,  7,  7,  7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30 // EOS
+    };
+
+    private static final int[] CODES = new int[CODE_LENGTHS.length];
+
+    /*
+     * The decoding tree. Each node occupies two consecutive entries, the child
+     * for a zero bit followed by the child for a one bit. A positive entry is
+     * the offset of the child node, a negative entry is a leaf holding the
+     * symbol (-entry - 1). Zero means no child since the root is never a
+     * child.
+     */
+    private static final int[] DECODING_TREE;
+
+    static {
+        // Assign canonical codes: shortest codes first, ties broken by symbol
+        int code = 0;
+        int previousLength = 0;
+        for (int length = 1; length <= 30; length++) {
+            for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+                if (CODE_LENGTHS[symbol] == length) {
+                    code <<= (length - previousLength);
+                    previousLength = length;
+                    CODES[symbol] = code;
+                    code++;
+                }
+            }
+        }
+
+        // A complete prefix code with n leaves has n - 1 internal nodes
+        int[] tree = new int[2 * (CODE_LENGTHS.length - 1)];
+        int nextFreeNode = 2;
+        for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+            int node = 0;
+            for (int bit = CODE_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int index = node + ((CODES[symbol] >>> bit) & 1);
+                if (bit == 0) {
+                    tree[index] = -symbol - 1;
+                } else {
+                    if (tree[index] == 0) {
+                        tree[index] = nextFreeNode;
+                        nextFreeNode += 2;
+                    }
+                    node = tree[index];
+                }
+            }
+        }
+        DECODING_TREE = tree;
+    }
+
+
+    private HPackHuffman() {
+        // Utility class
+    }
+
+
+    /**
+     * Decodes a Huffman encoded string.
+     *
+     * @param data   The buffer holding the encoded string
+     * @param length The length of the encoded string in octets
+     * @param target The buffer to append the decoded characters to
+     *
+     * @throws HpackException if the data is not a valid Huffman encoding
+     */
+    static void decode(ByteBuffer data, int length, StringBuilder target) throws HpackException {
+        int node = 0;
+        // Number of bits read since the last complete symbol and whether they
+        // were all ones (padding must be the most significant bits of EOS)
+        int bitsSinceSymbol = 0;
+        boolean allOnes = true;
+        for (int i = 0; i < length; i++) {
+            int b = data.get() & 0xFF;
+            for (int bit = 7; bit >= 0; bit--) {
+                int value = (b >>> bit) & 1;
+                int next = DECODING_TREE[node + value];
+                bitsSinceSymbol++;
+                if (value == 0) {
+                    allOnes = false;
+                }
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == EOS) {
+                        throw new HpackException(sm.getString("hpackhuffman.eos"));
+                    }
+                    target.append((char) symbol);
+                    node = 0;
+                    bitsSinceSymbol = 0;
+                    allOnes = true;
+                } else {
+                    node = next;
+                }
+            }
+        }
+        if (bitsSinceSymbol > 7 || !allOnes) {
+            throw new HpackException(sm.getString("hpackhuffman.invalidPadding"));
+        }
+    }
+
+
+    /**
+     * Determine the length, in octets, of the Huffman encoding of the given
+     * string.
+     *
+     * @param toEncode        The string to be encoded
+     * @param forceLowercase  Should the string be converted to lower case
+     *                        during encoding
+     *
+     * @return The encoded length in octets or -1 if the string contains
+     *         characters outside the ISO-8859-1 range
+     */
+    static int encodedLength(String toEncode, boolean forceLowercase) {
+        long bits = 0;
+        for (int i = 0; i < toEncode.length(); i++) {
+            char c = toEncode.charAt(i);
+            if (c > 255) {
+                return -1;
+            }
+            if (forceLowercase) {
+                c = (char) (Hpack.toLower((byte) c) & 0xFF);
+            }
+            bits += CODE_LENGTHS[c];
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+
+    /**
+     * Huffman encodes the given string. The caller is responsible for ensuring
+     * that the buffer has at least {@link #encodedLength(String, boolean)}
+     * octets remaining.
+     *
+     * @param buffer          The buffer to write the encoded string to
+     * @param toEncode        The string to encode
+     * @param forceLowercase  Should the string be converted to lower case
+     *                        during encoding
+     */
+    static void encode(ByteBuffer buffer, String toEncode, boolean forceLowercase) {
+        long current = 0;
+        int bitsInCurrent = 0;
+        for (int i = 0; i < toEncode.length(); i++) {
+            int c = toEncode.charAt(i) & 0xFF;
+            if (forceLowercase) {
+                c = Hpack.toLower((byte) c) & 0xFF;
+            }
+            current = (current << CODE_LENGTHS[c]) | CODES[c];
+            bitsInCurrent += CODE_LENGTHS[c];
+            while (bitsInCurrent >= 8) {
+                bitsInCurrent -= 8;
+                buffer.put((byte) (current >>> bitsInCurrent));
+            }
+        }
+        if (bitsInCurrent > 0) {
+            // Pad with the most significant bits of EOS (all ones)
+            current = (current << (8 - bitsInCurrent)) | (0xFF >>> bitsInCurrent);
+            buffer.put((byte) current);
+        }
+    }
+}
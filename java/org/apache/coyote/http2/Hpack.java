@@ -0,0 +1,208 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Constants and primitives shared by the HPACK (RFC 7541) encoder and decoder.
+ */
+final class Hpack {
+
+    private static final StringManager sm = StringManager.getManager(Hpack.class);
+
+    private static final byte LOWER_DIFF = 'a' - 'A';
+
+    /**
+     * The overhead, in octets, that RFC 7541 section 4.1 adds to the length of
+     * the name and value of every entry in the dynamic table.
+     */
+    static final int HEADER_ENTRY_OVERHEAD = 32;
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    static final HeaderField[] STATIC_TABLE;
+    static final int STATIC_TABLE_LENGTH;
+
+    static {
+        HeaderField[] fields = new HeaderField[62];
+        // Note: The static table is 1-indexed
+        fields[1] = new HeaderField(":authority", null);
+        fields[2] = new HeaderField(":method", "GET");
+        fields[3] = new HeaderField(":method", "POST");
+        fields[4] = new HeaderField(":path", "/");
+        fields[5] = new HeaderField(":path", "/index.html");
+        fields[6] = new HeaderField(":scheme", "http");
+        fields[7] = new HeaderField(":scheme", "https");
+        fields[8] = new HeaderField(":status", "200");
+        fields[9] = new HeaderField(":status", "204");
+        fields[10] = new HeaderField(":status", "206");
+        fields[11] = new HeaderField(":status", "304");
+        fields[12] = new HeaderField(":status", "400");
+        fields[13] = new HeaderField(":status", "404");
+        fields[14] = new HeaderField(":status", "500");
+        fields[15] = new HeaderField("accept-charset", null);
+        fields[16] = new HeaderField("accept-encoding", "gzip, deflate");
+        fields[17] = new HeaderField("accept-language", null);
+        fields[18] = new HeaderField("accept-ranges", null);
+        fields[19] = new HeaderField("accept", null);
+        fields[20] = new HeaderField("access-control-allow-origin", null);
+        fields[21] = new HeaderField("age", null);
+        fields[22] = new HeaderField("allow", null);
+        fields[23] = new HeaderField("authorization", null);
+        fields[24] = new HeaderField("cache-control", null);
+        fields[25] = new HeaderField("content-disposition", null);
+        fields[26] = new HeaderField("content-encoding", null);
+        fields[27] = new HeaderField("content-language", null);
+        fields[28] = new HeaderField("content-length", null);
+        fields[29] = new HeaderField("content-location", null);
+        fields[30] = new HeaderField("content-range", null);
+        fields[31] = new HeaderField("content-type", null);
+        fields[32] = new HeaderField("cookie", null);
+        fields[33] = new HeaderField("date", null);
+        fields[34] = new HeaderField("etag", null);
+        fields[35] = new HeaderField("expect", null);
+        fields[36] = new HeaderField("expires", null);
+        fields[37] = new HeaderField("from", null);
+        fields[38] = new HeaderField("host", null);
+        fields[39] = new HeaderField("if-match", null);
+        fields[40] = new HeaderField("if-modified-since", null);
+        fields[41] = new HeaderField("if-none-match", null);
+        fields[42] = new HeaderField("if-range", null);
+        fields[43] = new HeaderField("if-unmodified-since", null);
+        fields[44] = new HeaderField("last-modified", null);
+        fields[45] = new HeaderField("link", null);
+        fields[46] = new HeaderField("location", null);
+        fields[47] = new HeaderField("max-forwards", null);
+        fields[48] = new HeaderField("proxy-authenticate", null);
+        fields[49] = new HeaderField("proxy-authorization", null);
+        fields[50] = new HeaderField("range", null);
+        fields[51] = new HeaderField("referer", null);
+        fields[52] = new HeaderField("refresh", null);
+        fields[53] = new HeaderField("retry-after", null);
+        fields[54] = new HeaderField("server", null);
+        fields[55] = new HeaderField("set-cookie", null);
+        fields[56] = new HeaderField("strict-transport-security", null);
+        fields[57] = new HeaderField("transfer-encoding", null);
+        fields[58] = new HeaderField("user-agent", null);
+        fields[59] = new HeaderField("vary", null);
+        fields[60] = new HeaderField("via", null);
+        fields[61] = new HeaderField("www-authenticate", null);
+        STATIC_TABLE = fields;
+        STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+    }
+
+
+    private Hpack() {
+        // Utility class
+    }
+
+
+    static class HeaderField {
+        final String name;
+        final String value;
+        final int size;
+
+        HeaderField(String name, String value) {
+            this.name = name;
+            this.value = value;
+            if (value != null) {
+                // HPACK strings are ISO-8859-1 so one char is one octet
+                this.size = HEADER_ENTRY_OVERHEAD + name.length() + value.length();
+            } else {
+                this.size = -1;
+            }
+        }
+    }
+
+
+    /**
+     * Decodes an integer in the HPACK prefix format (RFC 7541 section 5.1).
+     *
+     * @param source The buffer that contains the integer
+     * @param n      The encoding prefix length
+     *
+     * @return The decoded integer
+     *
+     * @throws HpackException if the buffer ends before the integer or the
+     *                        integer is too large to be handled
+     */
+    static int decodeInteger(ByteBuffer source, int n) throws HpackException {
+        if (source.remaining() == 0) {
+            throw new HpackException(sm.getString("hpack.integerTruncated"));
+        }
+        int mask = (1 << n) - 1;
+        int i = mask & source.get();
+        if (i < mask) {
+            return i;
+        }
+        int m = 0;
+        int b;
+        do {
+            if (source.remaining() == 0) {
+                throw new HpackException(sm.getString("hpack.integerTruncated"));
+            }
+            if (m >= 28) {
+                // Larger than any value a sane peer will send
+                throw new HpackException(sm.getString("hpack.integerTooBig"));
+            }
+            b = source.get();
+            i = i + (b & 127) * (1 << m);
+            m += 7;
+        } while ((b & 128) == 128);
+        if (i < 0) {
+            throw new HpackException(sm.getString("hpack.integerTooBig"));
+        }
+        return i;
+    }
+
+
+    /**
+     * Encodes an integer in the HPACK prefix format. The bits of the first
+     * octet that are not part of the prefix must already have been written to
+     * the current position of the buffer by the caller.
+     *
+     * @param source The buffer that will hold the integer
+     * @param value  The integer to encode
+     * @param n      The encoding prefix length
+     */
+    static void encodeInteger(ByteBuffer source, int value, int n) {
+        int twoNminus1 = (1 << n) - 1;
+        int pos = source.position() - 1;
+        if (value < twoNminus1) {
+            source.put(pos, (byte) (source.get(pos) | value));
+        } else {
+            source.put(pos, (byte) (source.get(pos) | twoNminus1));
+            value = value - twoNminus1;
+            while (value >= 128) {
+                source.put((byte) (value % 128 + 128));
+                value = value / 128;
+            }
+            source.put((byte) value);
+        }
+    }
+
+
+    static byte toLower(byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return (byte) (b + LOWER_DIFF);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+
+import org.apache.coyote.http2.Hpack.HeaderField;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Decoder for HPACK (RFC 7541) header blocks. An instance maintains the
+ * dynamic table for one direction of one connection so header blocks must be
+ * passed to {@link #decode(ByteBuffer)} in the order they were received.
+ */
+public class HpackDecoder {
+
+    private static final StringManager sm = StringManager.getManager(HpackDecoder.class);
+
+    private static final int DEFAULT_RING_BUFFER_SIZE = 10;
+
+    /**
+     * The object that receives the decoded headers.
+     */
+    private HeaderEmitter headerEmitter;
+
+    /**
+     * The dynamic table, stored as a ring buffer.
+     */
+    private HeaderField[] headerTable;
+
+    /**
+     * The position of the most recently added entry in the ring buffer.
+     */
+    private int firstSlotPosition = 0;
+
+    /**
+     * The number of entries in the dynamic table.
+     */
+    private int filledTableSlots = 0;
+
+    /**
+     * The current size of the dynamic table as defined by RFC 7541.
+     */
+    private int currentMemorySize = 0;
+
+    /**
+     * The maximum size of the dynamic table this end of the connection has
+     * advertised via SETTINGS_HEADER_TABLE_SIZE.
+     */
+    private int maxMemorySizeHard;
+
+    /**
+     * The maximum size of the dynamic table the encoder has chosen to use.
+     * Must not exceed {@link #maxMemorySizeHard}.
+     */
+    private int maxMemorySizeSoft;
+
+    private final StringBuilder stringBuilder = new StringBuilder();
+
+
+    public HpackDecoder(int maxMemorySize) {
+        this.maxMemorySizeHard = maxMemorySize;
+        this.maxMemorySizeSoft = maxMemorySize;
+        headerTable = new HeaderField[DEFAULT_RING_BUFFER_SIZE];
+    }
+
+
+    public HpackDecoder() {
+        this(Hpack.DEFAULT_TABLE_SIZE);
+    }
+
+
+    /**
+     * Decodes a complete header block, passing each header to the current
+     * {@link HeaderEmitter}.
+     *
+     * @param buffer The buffer holding the complete header block
+     *
+     * @throws HpackException if the header block is not valid. The compression
+     *                        context will be unusable after this.
+     */
+    public void decode(ByteBuffer buffer) throws HpackException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if ((b & 0x80) != 0) {
+                // Indexed header field (section 6.1)
+                int index = Hpack.decodeInteger(buffer, 7);
+                if (index == 0) {
+                    throw new HpackException(sm.getString("hpackdecoder.zeroIndex"));
+                }
+                HeaderField field = getHeaderField(index);
+                emitHeader(field.name, field.value);
+            } else if ((b & 0x40) != 0) {
+                // Literal header field with incremental indexing (6.2.1)
+                String headerName = readHeaderName(buffer, 6);
+                String headerValue = readHpackString(buffer);
+                emitHeader(headerName, headerValue);
+                addEntryToHeaderTable(new HeaderField(headerName, headerValue));
+            } else if ((b & 0x20) != 0) {
+                // Dynamic table size update (6.3)
+                int size = Hpack.decodeInteger(buffer, 5);
+                if (size > maxMemorySizeHard) {
+                    throw new HpackException(sm.getString("hpackdecoder.maxMemorySizeExceeded",
+                            Integer.toString(size), Integer.toString(maxMemorySizeHard)));
+                }
+                maxMemorySizeSoft = size;
+                evictToFit(0);
+            } else {
+                // Literal header field without indexing (6.2.2) or never
+                // indexed (6.2.3). Both are treated the same way here.
+                String headerName = readHeaderName(buffer, 4);
+                String headerValue = readHpackString(buffer);
+                emitHeader(headerName, headerValue);
+            }
+        }
+    }
+
+
+    private String readHeaderName(ByteBuffer buffer, int prefixLength) throws HpackException {
+        int index = Hpack.decodeInteger(buffer, prefixLength);
+        if (index == 0) {
+            return readHpackString(buffer);
+        }
+        return getHeaderField(index).name;
+    }
+
+
+    private String readHpackString(ByteBuffer buffer) throws HpackException {
+        if (!buffer.hasRemaining()) {
+            throw new HpackException(sm.getString("hpackdecoder.truncated"));
+        }
+        boolean huffman = (buffer.get(buffer.position()) & 0x80) != 0;
+        int length = Hpack.decodeInteger(buffer, 7);
+        if (buffer.remaining() < length) {
+            throw new HpackException(sm.getString("hpackdecoder.truncated"));
+        }
+        stringBuilder.setLength(0);
+        if (huffman) {
+            HPackHuffman.decode(buffer, length, stringBuilder);
+        } else {
+            for (int i = 0; i < length; i++) {
+                stringBuilder.append((char) (buffer.get() & 0xFF));
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+
+    private HeaderField getHeaderField(int index) throws HpackException {
+        if (index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_TABLE[index];
+        }
+        int dynamicIndex = index - Hpack.STATIC_TABLE_LENGTH - 1;
+        if (dynamicIndex >= filledTableSlots) {
+            throw new HpackException(sm.getString("hpackdecoder.headerTableIndexInvalid",
+                    Integer.toString(index), Integer.toString(Hpack.STATIC_TABLE_LENGTH),
+                    Integer.toString(filledTableSlots)));
+        }
+        int position = firstSlotPosition - dynamicIndex;
+        if (position < 0) {
+            position += headerTable.length;
+        }
+        return headerTable[position];
+    }
+
+
+    private void addEntryToHeaderTable(HeaderField entry) {
+        if (entry.size > maxMemorySizeSoft) {
+            // An entry larger than the table empties the table and is not
+            // added (section 4.4)
+            clearTable();
+            return;
+        }
+        evictToFit(entry.size);
+        if (filledTableSlots == headerTable.length) {
+            resizeTable();
+        }
+        if (filledTableSlots > 0) {
+            firstSlotPosition = (firstSlotPosition + 1) % headerTable.length;
+        }
+        headerTable[firstSlotPosition] = entry;
+        filledTableSlots++;
+        currentMemorySize += entry.size;
+    }
+
+
+    private void evictToFit(int required) {
+        while (filledTableSlots > 0 && currentMemorySize + required > maxMemorySizeSoft) {
+            int oldest = firstSlotPosition - filledTableSlots + 1;
+            if (oldest < 0) {
+                oldest += headerTable.length;
+            }
+            currentMemorySize -= headerTable[oldest].size;
+            headerTable[oldest] = null;
+            filledTableSlots--;
+        }
+    }
+
+
+    private void clearTable() {
+        for (int i = 0; i < headerTable.length; i++) {
+            headerTable[i] = null;
+        }
+        firstSlotPosition = 0;
+        filledTableSlots = 0;
+        currentMemorySize = 0;
+    }
+
+
+    private void resizeTable() {
+        HeaderField[] newTable = new HeaderField[headerTable.length * 2];
+        // Copy oldest to newest so the newest entry ends up in the last slot
+        for (int i = 0; i < filledTableSlots; i++) {
+            int position = firstSlotPosition - filledTableSlots + 1 + i;
+            if (position < 0) {
+                position += headerTable.length;
+            }
+            newTable[i] = headerTable[position];
+        }
+        headerTable = newTable;
+        firstSlotPosition = filledTableSlots - 1;
+    }
+
+
+    private void emitHeader(String name, String value) throws HpackException {
+        if (headerEmitter != null) {
+            headerEmitter.emitHeader(name, value);
+        }
+    }
+
+
+    /**
+     * Set the maximum size of the dynamic table. This must match the value
+     * this end of the connection has advertised via
+     * SETTINGS_HEADER_TABLE_SIZE.
+     */
+    public void setMaxMemorySize(int maxMemorySize) {
+        this.maxMemorySizeHard = maxMemorySize;
+        if (maxMemorySizeSoft > maxMemorySize) {
+            maxMemorySizeSoft = maxMemorySize;
+            evictToFit(0);
+        }
+    }
+
+
+    public void setHeaderEmitter(HeaderEmitter headerEmitter) {
+        this.headerEmitter = headerEmitter;
+    }
+
+
+    public HeaderEmitter getHeaderEmitter() {
+        return headerEmitter;
+    }
+
+
+    // Package private for unit tests
+    int getCurrentMemorySize() {
+        return currentMemorySize;
+    }
+
+
+    int getFilledTableSlots() {
+        return filledTableSlots;
+    }
+
+
+    /**
+     * Interface implemented by the recipient of decoded headers.
+     */
+    public interface HeaderEmitter {
+
+        /**
+         * Pass a single decoded header to the recipient.
+         *
+         * @param name  The header name (in lower case for HTTP/2)
+         * @param value The header value
+         *
+         * @throws HpackException if the header is not acceptable
+         */
+        void emitHeader(String name, String value) throws HpackException;
+    }
+}
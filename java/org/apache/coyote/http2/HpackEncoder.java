@@ -0,0 +1,315 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Encoder for HPACK (RFC 7541) header blocks. An instance maintains the
+ * dynamic table for one direction of one connection so header blocks must be
+ * written to the connection in the order they were encoded.
+ */
+public class HpackEncoder {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * Headers whose values change so often that adding them to the dynamic
+     * table would only evict more useful entries.
+     */
+    private static final Set<String> SKIP;
+
+    /**
+     * Static table entries keyed by header name.
+     */
+    private static final Map<String,TableEntry[]> ENCODING_STATIC_TABLE;
+
+    static {
+        Set<String> skip = new HashSet<>();
+        skip.add(":path");
+        skip.add("content-length");
+        skip.add("content-range");
+        skip.add("date");
+        skip.add("etag");
+        skip.add("expires");
+        skip.add("last-modified");
+        skip.add("location");
+        skip.add("set-cookie");
+        SKIP = Collections.unmodifiableSet(skip);
+
+        Map<String,List<TableEntry>> working = new HashMap<>();
+        for (int i = 1; i < Hpack.STATIC_TABLE.length; ++i) {
+            Hpack.HeaderField field = Hpack.STATIC_TABLE[i];
+            List<TableEntry> entries = working.get(field.name);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                working.put(field.name, entries);
+            }
+            entries.add(new TableEntry(field.name, field.value, i));
+        }
+        Map<String,TableEntry[]> staticTable = new HashMap<>();
+        for (Map.Entry<String,List<TableEntry>> entry : working.entrySet()) {
+            staticTable.put(entry.getKey(), entry.getValue().toArray(new TableEntry[0]));
+        }
+        ENCODING_STATIC_TABLE = Collections.unmodifiableMap(staticTable);
+    }
+
+    /**
+     * The dynamic table entries keyed by header name.
+     */
+    private final Map<String,List<TableEntry>> dynamicTable = new HashMap<>();
+
+    /**
+     * The dynamic table entries, oldest first.
+     */
+    private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
+
+    /**
+     * Incremented for every entry added to the dynamic table. Used to convert
+     * entries to HPACK indexes.
+     */
+    private int entryPositionCounter = 0;
+
+    private int currentTableSize = 0;
+
+    private int maxTableSize = Hpack.DEFAULT_TABLE_SIZE;
+
+    /**
+     * A table size change that the decoder needs to be told about at the start
+     * of the next header block or -1 if there is no pending change.
+     */
+    private int newMaxTableSize = -1;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+
+
+    /**
+     * Encodes the given headers as a single header block. Header names are
+     * converted to lower case.
+     *
+     * @param headers The headers to encode. Any pseudo-headers must be at the
+     *                start of the list.
+     *
+     * @return A buffer, ready for reading, containing the header block. The
+     *         buffer is reused by the next call to this method.
+     */
+    public ByteBuffer encode(MimeHeaders headers) {
+        buffer.clear();
+        if (newMaxTableSize != -1) {
+            ensureCapacity(6);
+            buffer.put((byte) 0x20);
+            Hpack.encodeInteger(buffer, newMaxTableSize, 5);
+            newMaxTableSize = -1;
+        }
+        for (int i = 0; i < headers.size(); i++) {
+            String value = headers.getValue(i).toString();
+            if (value == null) {
+                continue;
+            }
+            String name = headers.getName(i).toString().toLowerCase(Locale.ENGLISH);
+            // Three integers plus the two strings is the worst case
+            ensureCapacity(name.length() + value.length() + 16);
+            encodeHeader(name, value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+
+    private void encodeHeader(String name, String value) {
+        int index = findIndex(name, value);
+        if (index > 0) {
+            // Indexed header field
+            buffer.put((byte) 0x80);
+            Hpack.encodeInteger(buffer, index, 7);
+            return;
+        }
+
+        int nameIndex = findNameIndex(name);
+        boolean addToTable = shouldAddToTable(name, value);
+        if (addToTable) {
+            // Literal header field with incremental indexing
+            buffer.put((byte) 0x40);
+            Hpack.encodeInteger(buffer, nameIndex, 6);
+        } else {
+            // Literal header field without indexing
+            buffer.put((byte) 0x00);
+            Hpack.encodeInteger(buffer, nameIndex, 4);
+        }
+        if (nameIndex == 0) {
+            writeString(name);
+        }
+        writeString(value);
+        if (addToTable) {
+            addToDynamicTable(name, value);
+        }
+    }
+
+
+    private void writeString(String toEncode) {
+        int huffmanLength = HPackHuffman.encodedLength(toEncode, false);
+        if (huffmanLength >= 0 && huffmanLength < toEncode.length()) {
+            buffer.put((byte) 0x80);
+            Hpack.encodeInteger(buffer, huffmanLength, 7);
+            HPackHuffman.encode(buffer, toEncode, false);
+        } else {
+            buffer.put((byte) 0x00);
+            Hpack.encodeInteger(buffer, toEncode.length(), 7);
+            for (int i = 0; i < toEncode.length(); i++) {
+                buffer.put((byte) toEncode.charAt(i));
+            }
+        }
+    }
+
+
+    private int findIndex(String name, String value) {
+        TableEntry[] staticEntries = ENCODING_STATIC_TABLE.get(name);
+        if (staticEntries != null) {
+            for (TableEntry entry : staticEntries) {
+                if (value.equals(entry.value)) {
+                    return entry.position;
+                }
+            }
+        }
+        List<TableEntry> dynamicEntries = dynamicTable.get(name);
+        if (dynamicEntries != null) {
+            for (TableEntry entry : dynamicEntries) {
+                if (value.equals(entry.value)) {
+                    return dynamicIndex(entry);
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    private int findNameIndex(String name) {
+        TableEntry[] staticEntries = ENCODING_STATIC_TABLE.get(name);
+        if (staticEntries != null) {
+            return staticEntries[0].position;
+        }
+        List<TableEntry> dynamicEntries = dynamicTable.get(name);
+        if (dynamicEntries != null && !dynamicEntries.isEmpty()) {
+            return dynamicIndex(dynamicEntries.get(dynamicEntries.size() - 1));
+        }
+        return 0;
+    }
+
+
+    private int dynamicIndex(TableEntry entry) {
+        return Hpack.STATIC_TABLE_LENGTH + entryPositionCounter - entry.position;
+    }
+
+
+    private boolean shouldAddToTable(String name, String value) {
+        return !SKIP.contains(name) &&
+                Hpack.HEADER_ENTRY_OVERHEAD + name.length() + value.length() <= maxTableSize;
+    }
+
+
+    private void addToDynamicTable(String name, String value) {
+        TableEntry entry = new TableEntry(name, value, entryPositionCounter++);
+        evictToFit(entry.size);
+        List<TableEntry> entries = dynamicTable.get(name);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            dynamicTable.put(name, entries);
+        }
+        entries.add(entry);
+        evictionQueue.add(entry);
+        currentTableSize += entry.size;
+    }
+
+
+    private void evictToFit(int required) {
+        while (!evictionQueue.isEmpty() && currentTableSize + required > maxTableSize) {
+            TableEntry oldest = evictionQueue.poll();
+            currentTableSize -= oldest.size;
+            List<TableEntry> entries = dynamicTable.get(oldest.name);
+            entries.remove(oldest);
+            if (entries.isEmpty()) {
+                dynamicTable.remove(oldest.name);
+            }
+        }
+    }
+
+
+    private void ensureCapacity(int required) {
+        if (buffer.remaining() < required) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(
+                    Math.max(buffer.capacity() * 2, buffer.position() + required));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+
+    /**
+     * Set the maximum size of the dynamic table. The size actually used will
+     * not exceed the default size, regardless of what the peer permits, to
+     * limit the memory used per connection.
+     *
+     * @param newSize The value the peer sent for SETTINGS_HEADER_TABLE_SIZE
+     */
+    public void setMaxTableSize(int newSize) {
+        int size = Math.min(newSize, Hpack.DEFAULT_TABLE_SIZE);
+        if (size == maxTableSize) {
+            return;
+        }
+        maxTableSize = size;
+        newMaxTableSize = size;
+        evictToFit(0);
+    }
+
+
+    // Package private for unit tests
+    int getCurrentTableSize() {
+        return currentTableSize;
+    }
+
+
+    private static class TableEntry {
+        final String name;
+        final String value;
+        final int size;
+        final int position;
+
+        TableEntry(String name, String value, int position) {
+            this.name = name;
+            this.value = value;
+            this.position = position;
+            if (value != null) {
+                this.size = Hpack.HEADER_ENTRY_OVERHEAD + name.length() + value.length();
+            } else {
+                this.size = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+
+/**
+ * HTTP/2 (RFC 7540) support for the HTTP/1.1 connectors. To enable it, nest
+ * an <code>UpgradeProtocol</code> element in the Connector:
+ * <pre>
+ * &lt;Connector port="8080" protocol="org.apache.coyote.http11.Http11NioProtocol"&gt;
+ *   &lt;UpgradeProtocol className="org.apache.coyote.http2.Http2Protocol" /&gt;
+ * &lt;/Connector&gt;
+ * </pre>
+ * Clients may then switch a connection to HTTP/2 using the
+ * <code>Upgrade: h2c</code> mechanism described in section 3.2 of RFC 7540.
+ */
+public class Http2Protocol implements UpgradeProtocol {
+
+    static final long DEFAULT_WRITE_TIMEOUT = 10000;
+    static final long DEFAULT_MAX_CONCURRENT_STREAMS = 200;
+    // This default is defined by the HTTP/2 specification
+    static final int DEFAULT_INITIAL_WINDOW_SIZE = (1 << 16) - 1;
+
+    private static final String HTTP_UPGRADE_NAME = "h2c";
+    private static final String ALPN_NAME = "h2";
+
+    // All timeouts in milliseconds
+    private long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+    private long maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+    private int initialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    // Streams in async mode across all connections. The thread that checks
+    // them for timeouts only runs while at least one stream is waiting.
+    private final Set<StreamProcessor> waitingProcessors = new HashSet<>();
+    private Thread asyncTimeoutThread = null;
+
+
+    @Override
+    public String getHttpUpgradeName(boolean isSecure) {
+        if (isSecure) {
+            // h2c is only defined for cleartext connections. h2 over TLS is
+            // negotiated via ALPN.
+            return null;
+        } else {
+            return HTTP_UPGRADE_NAME;
+        }
+    }
+
+
+    @Override
+    public String getAlpnName() {
+        return ALPN_NAME;
+    }
+
+
+    @Override
+    public boolean accept(Request request) {
+        // Exactly one HTTP2-Settings header is required (RFC 7540, 3.2.1)
+        Enumeration<String> settings = request.getMimeHeaders().values("HTTP2-Settings");
+        int count = 0;
+        while (settings.hasMoreElements()) {
+            count++;
+            settings.nextElement();
+        }
+        if (count != 1) {
+            return false;
+        }
+        // Requests with a body are processed as HTTP/1.1 since the body would
+        // have to be read before the switch to HTTP/2
+        if (request.getContentLengthLong() > 0 ||
+                request.getMimeHeaders().getValue("transfer-encoding") != null) {
+            return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public InternalHttpUpgradeHandler getInternalUpgradeHandler(
+            SocketWrapperBase<?> socketWrapper, Adapter adapter, Request coyoteRequest) {
+        return new Http2UpgradeHandler(this, adapter, socketWrapper, coyoteRequest);
+    }
+
+
+    /**
+     * @return The time, in milliseconds, a stream will wait for the client to
+     *         open the flow control window or for a blocking write to
+     *         complete before the write fails. A value of zero or less means
+     *         wait indefinitely.
+     */
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+
+    /**
+     * @return The maximum number of concurrent streams a client may open on a
+     *         single connection. Streams opened beyond this limit are refused.
+     */
+    public long getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+
+    public void setMaxConcurrentStreams(long maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+
+    /**
+     * @return The initial flow control window, in bytes, advertised for each
+     *         stream. This is also the maximum request body data buffered per
+     *         stream.
+     */
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+
+    public void setInitialWindowSize(int initialWindowSize) {
+        this.initialWindowSize = initialWindowSize;
+    }
+
+
+    void addWaitingProcessor(StreamProcessor processor) {
+        synchronized (waitingProcessors) {
+            waitingProcessors.add(processor);
+            if (asyncTimeoutThread == null) {
+                asyncTimeoutThread = new Thread(new AsyncTimeout(), "http2-AsyncTimeout");
+                asyncTimeoutThread.setContextClassLoader(getClass().getClassLoader());
+                asyncTimeoutThread.setDaemon(true);
+                asyncTimeoutThread.start();
+            }
+        }
+    }
+
+
+    void removeWaitingProcessor(StreamProcessor processor) {
+        synchronized (waitingProcessors) {
+            waitingProcessors.remove(processor);
+        }
+    }
+
+
+    /**
+     * Fires the async timeout for streams that have been waiting for longer
+     * than their timeout. This is the HTTP/2 equivalent of the endpoint's
+     * async timeout thread which only sees the connection's socket.
+     */
+    private class AsyncTimeout implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                long now = System.currentTimeMillis();
+                List<StreamProcessor> expired = new ArrayList<>();
+                synchronized (waitingProcessors) {
+                    if (waitingProcessors.isEmpty()) {
+                        asyncTimeoutThread = null;
+                        return;
+                    }
+                    Iterator<StreamProcessor> iter = waitingProcessors.iterator();
+                    while (iter.hasNext()) {
+                        StreamProcessor processor = iter.next();
+                        if (processor.isAsyncTimedOut(now)) {
+                            iter.remove();
+                            expired.add(processor);
+                        }
+                    }
+                }
+                // Dispatch outside of the lock as processing may re-register
+                // the stream
+                for (StreamProcessor processor : expired) {
+                    processor.timeoutAsync();
+                }
+            }
+        }
+    }
+}
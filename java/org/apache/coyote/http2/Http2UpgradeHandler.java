@@ -0,0 +1,984 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.WebConnection;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
+import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.codec.binary.Base64;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Handles an HTTP/2 connection that has been upgraded from HTTP/1.1 via the
+ * <code>Upgrade: h2c</code> mechanism.
+ * <p>
+ * Frames are read using non-blocking I/O on the thread that processes the
+ * socket. Each stream is processed by a {@link StreamProcessor} on a
+ * separate container thread obtained from the endpoint's executor. Frames
+ * are written from any thread using blocking I/O with all writes serialised
+ * by a single lock, which also protects the state of the HPACK encoder.
+ * <p>
+ * Request body data is buffered per stream (up to the stream's flow control
+ * window) so the connection's read thread never has to wait for an
+ * application to read. As a consequence the connection level flow control
+ * window is replenished as soon as DATA frames are received while stream
+ * level windows are only replenished as the application consumes the data.
+ * <p>
+ * Stream priorities are accepted but are not used to order writes.
+ */
+public class Http2UpgradeHandler implements InternalHttpUpgradeHandler, ReadListener {
+
+    private static final Log log = LogFactory.getLog(Http2UpgradeHandler.class);
+    private static final StringManager sm = StringManager.getManager(Http2UpgradeHandler.class);
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+
+    private static final byte[] CLIENT_PREFACE =
+            "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int FLAG_END_STREAM = 0x01;
+    private static final int FLAG_ACK = 0x01;
+    private static final int FLAG_END_HEADERS = 0x04;
+    private static final int FLAG_PADDED = 0x08;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final byte[] SETTINGS_ACK = { 0x00, 0x00, 0x00, 0x04, 0x01, 0x00, 0x00, 0x00, 0x00 };
+
+    /*
+     * The largest header block that will be accepted. The block has to be
+     * decoded to keep the HPACK state in sync so exceeding this is a
+     * connection error.
+     */
+    private static final int MAX_HEADER_BLOCK_SIZE = 64 * 1024;
+
+    private static final HeaderEmitter DISCARDING_EMITTER = new HeaderEmitter() {
+        @Override
+        public void emitHeader(String name, String value) {
+            // Headers for refused streams and trailers are ignored
+        }
+    };
+
+    private final Http2Protocol protocol;
+    private final Adapter adapter;
+    private final SocketWrapperBase<?> socketWrapper;
+    private volatile Request upgradeRequest;
+
+    private volatile WebConnection connection;
+    private volatile ServletInputStream inputStream;
+    private volatile ServletOutputStream outputStream;
+    private volatile boolean closed = false;
+
+    private final ConnectionSettings remoteSettings = new ConnectionSettings();
+    private final HpackDecoder hpackDecoder = new HpackDecoder();
+    // Guarded by writeLock
+    private final HpackEncoder hpackEncoder = new HpackEncoder();
+
+    private final Object writeLock = new Object();
+    private final Object flowControlLock = new Object();
+    // Connection level send window. Guarded by flowControlLock
+    private long windowSize = ConnectionSettings.DEFAULT_INITIAL_WINDOW_SIZE;
+
+    private final Map<Integer,Stream> streams = new ConcurrentHashMap<>();
+    private volatile int maxRemoteStreamId = 0;
+
+    // Read state. Only accessed by the thread processing the socket.
+    private final byte[] inBuffer =
+            new byte[FRAME_HEADER_LENGTH + ConnectionSettings.DEFAULT_MAX_FRAME_SIZE];
+    private int inLimit = 0;
+    private boolean prefaceReceived = false;
+    private boolean goAwayReceived = false;
+    private int pendingConnectionWindowUpdate = 0;
+    private int headersStreamId = 0;
+    private Stream headersStream = null;
+    private boolean headersEndStream = false;
+    private boolean headersTrailers = false;
+    private ByteBuffer headerBlock = ByteBuffer.allocate(1024);
+
+
+    public Http2UpgradeHandler(Http2Protocol protocol, Adapter adapter,
+            SocketWrapperBase<?> socketWrapper, Request upgradeRequest) {
+        this.protocol = protocol;
+        this.adapter = adapter;
+        this.socketWrapper = socketWrapper;
+        this.upgradeRequest = upgradeRequest;
+    }
+
+
+    @Override
+    public void init(WebConnection webConnection) {
+        connection = webConnection;
+        try {
+            inputStream = connection.getInputStream();
+            outputStream = connection.getOutputStream();
+        } catch (IOException ioe) {
+            log.warn(sm.getString("upgradeHandler.init.ioe"), ioe);
+            close();
+            return;
+        }
+
+        // The upgrade processor disables the socket timeouts
+        socketWrapper.setWriteTimeout(protocol.getWriteTimeout());
+
+        Request request = upgradeRequest;
+        upgradeRequest = null;
+
+        try {
+            // The server connection preface is a SETTINGS frame and must be
+            // the first thing sent after the 101 response
+            writeSettings();
+            processUpgradeSettings(request.getHeader("HTTP2-Settings"));
+        } catch (ConnectionException ce) {
+            closeConnection(ce);
+            return;
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.init.ioe"), ioe);
+            }
+            close();
+            return;
+        }
+
+        // The request that triggered the upgrade is processed as stream 1
+        Stream stream = new Stream(Integer.valueOf(1), this, request);
+        streams.put(stream.getIdentifier(), stream);
+        maxRemoteStreamId = 1;
+        startProcessing(stream);
+
+        inputStream.setReadListener(this);
+    }
+
+
+    private void processUpgradeSettings(String settings) throws ConnectionException {
+        byte[] payload = Base64.decodeBase64(settings);
+        if (payload.length % 6 != 0) {
+            throw new ConnectionException(sm.getString("upgradeHandler.invalidUpgradeSettings"),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+        for (int i = 0; i < payload.length; i += 6) {
+            remoteSettings.set(ByteUtil.getTwoBytes(payload, i),
+                    ByteUtil.getFourBytes(payload, i + 2));
+        }
+        synchronized (writeLock) {
+            hpackEncoder.setMaxTableSize(remoteSettings.getHeaderTableSize());
+        }
+    }
+
+
+    private void startProcessing(Stream stream) {
+        StreamProcessor processor = new StreamProcessor(stream, protocol, adapter, socketWrapper);
+        stream.setProcessor(processor);
+        socketWrapper.getEndpoint().getExecutor().execute(processor);
+    }
+
+
+    // ----------------------------------------------------- ReadListener methods
+
+    @Override
+    public void onDataAvailable() {
+        try {
+            while (!closed && inputStream.isReady()) {
+                int read = inputStream.read(inBuffer, inLimit, inBuffer.length - inLimit);
+                if (read < 1) {
+                    // -1 triggers a call to onAllDataRead()
+                    break;
+                }
+                inLimit += read;
+                processInput();
+            }
+        } catch (ConnectionException ce) {
+            closeConnection(ce);
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror", connectionId()), ioe);
+            }
+            close();
+        }
+    }
+
+
+    @Override
+    public void onAllDataRead() {
+        // The client has closed the connection
+        close();
+    }
+
+
+    @Override
+    public void onError(Throwable t) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.ioerror", connectionId()), t);
+        }
+        close();
+    }
+
+
+    // ---------------------------------------------------------- Frame reading
+
+    private void processInput() throws ConnectionException, IOException {
+        int pos = 0;
+        if (!prefaceReceived) {
+            if (inLimit < CLIENT_PREFACE.length) {
+                return;
+            }
+            for (int i = 0; i < CLIENT_PREFACE.length; i++) {
+                if (inBuffer[i] != CLIENT_PREFACE[i]) {
+                    throw new ConnectionException(sm.getString("upgradeHandler.invalidPreface"),
+                            Http2Error.PROTOCOL_ERROR);
+                }
+            }
+            pos = CLIENT_PREFACE.length;
+            prefaceReceived = true;
+        }
+
+        while (!closed && inLimit - pos >= FRAME_HEADER_LENGTH) {
+            int payloadSize = ByteUtil.getThreeBytes(inBuffer, pos);
+            if (payloadSize > ConnectionSettings.DEFAULT_MAX_FRAME_SIZE) {
+                throw new ConnectionException(sm.getString("upgradeHandler.payloadTooBig",
+                        Integer.toString(payloadSize)), Http2Error.FRAME_SIZE_ERROR);
+            }
+            if (inLimit - pos < FRAME_HEADER_LENGTH + payloadSize) {
+                // Wait for the rest of the frame
+                break;
+            }
+            FrameType frameType = FrameType.valueOf(ByteUtil.getOneByte(inBuffer, pos + 3));
+            int flags = ByteUtil.getOneByte(inBuffer, pos + 4);
+            int streamId = ByteUtil.get31Bits(inBuffer, pos + 5);
+            processFrame(frameType, flags, streamId, pos + FRAME_HEADER_LENGTH, payloadSize);
+            pos += FRAME_HEADER_LENGTH + payloadSize;
+        }
+
+        // Send a single WINDOW_UPDATE for all the DATA frames just processed
+        if (pendingConnectionWindowUpdate > 0 && !closed) {
+            writeWindowUpdate(0, pendingConnectionWindowUpdate);
+            pendingConnectionWindowUpdate = 0;
+        }
+
+        // Move any partial frame to the start of the buffer
+        if (pos > 0) {
+            System.arraycopy(inBuffer, pos, inBuffer, 0, inLimit - pos);
+            inLimit -= pos;
+        }
+    }
+
+
+    private void processFrame(FrameType frameType, int flags, int streamId, int pos, int len)
+            throws ConnectionException, IOException {
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.processFrame", connectionId(),
+                    Integer.toString(streamId), frameType, Integer.toString(flags),
+                    Integer.toString(len)));
+        }
+
+        if (headersStreamId != 0 &&
+                (frameType != FrameType.CONTINUATION || streamId != headersStreamId)) {
+            throw new ConnectionException(sm.getString("upgradeHandler.continuationExpected",
+                    Integer.toString(headersStreamId), frameType, Integer.toString(streamId)),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+
+        frameType.checkStream(streamId);
+
+        try {
+            switch (frameType) {
+            case DATA:
+                processDataFrame(flags, streamId, pos, len);
+                break;
+            case HEADERS:
+                processHeadersFrame(flags, streamId, pos, len);
+                break;
+            case PRIORITY:
+                if (len != 5) {
+                    throw new StreamException(sm.getString("upgradeHandler.invalidFrameLength",
+                            frameType, Integer.toString(len)),
+                            Http2Error.FRAME_SIZE_ERROR, streamId);
+                }
+                // Priorities are not used
+                break;
+            case RST:
+                processRstFrame(streamId, pos, len);
+                break;
+            case SETTINGS:
+                processSettingsFrame(flags, pos, len);
+                break;
+            case PUSH_PROMISE:
+                throw new ConnectionException(sm.getString("upgradeHandler.pushPromise"),
+                        Http2Error.PROTOCOL_ERROR);
+            case PING:
+                processPingFrame(flags, pos, len);
+                break;
+            case GOAWAY:
+                if (len < 8) {
+                    throw new ConnectionException(sm.getString(
+                            "upgradeHandler.invalidFrameLength", frameType,
+                            Integer.toString(len)), Http2Error.FRAME_SIZE_ERROR);
+                }
+                // Streams already started will be completed but no new ones
+                // will be accepted
+                goAwayReceived = true;
+                break;
+            case WINDOW_UPDATE:
+                processWindowUpdateFrame(streamId, pos, len);
+                break;
+            case CONTINUATION:
+                processContinuationFrame(flags, streamId, pos, len);
+                break;
+            case UNKNOWN:
+                // Unknown frame types must be ignored (RFC 7540, 4.1)
+                break;
+            }
+        } catch (StreamException se) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.streamError", connectionId(),
+                        Integer.toString(se.getStreamId())), se);
+            }
+            Stream stream = streams.get(Integer.valueOf(se.getStreamId()));
+            if (stream == null) {
+                writeRst(se.getStreamId(), se.getError());
+            } else {
+                resetStream(stream, se.getError());
+            }
+        }
+    }
+
+
+    private void processDataFrame(int flags, int streamId, int pos, int len)
+            throws ConnectionException, StreamException, IOException {
+        int dataPos = pos;
+        int dataLen = len;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padLength = len == 0 ? 0 : ByteUtil.getOneByte(inBuffer, pos);
+            if (len == 0 || padLength >= len) {
+                throw new ConnectionException(sm.getString("upgradeHandler.invalidPadding",
+                        Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+            }
+            dataPos++;
+            dataLen = len - 1 - padLength;
+        }
+
+        // The entire frame counts against flow control. Data is buffered by
+        // the stream so the connection window can be replenished immediately.
+        pendingConnectionWindowUpdate += len;
+
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream == null) {
+            if (streamId > maxRemoteStreamId) {
+                throw new ConnectionException(sm.getString("upgradeHandler.idleStream",
+                        FrameType.DATA, Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+            }
+            // Closed or reset stream. Ignore the data (RFC 7540, 5.1).
+            return;
+        }
+        if (stream.isInputEnded()) {
+            throw new StreamException(sm.getString("upgradeHandler.streamClosed",
+                    FrameType.DATA, Integer.toString(streamId)),
+                    Http2Error.STREAM_CLOSED, streamId);
+        }
+        if (dataLen > 0) {
+            stream.receivedData(inBuffer, dataPos, dataLen);
+        }
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.receivedEndOfStream();
+        } else if (len > dataLen) {
+            // Padding is never seen by the application so return the
+            // stream level credit now
+            writeWindowUpdate(stream, len - dataLen);
+        }
+    }
+
+
+    private void processHeadersFrame(int flags, int streamId, int pos, int len)
+            throws ConnectionException, StreamException {
+        int padLength = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (len == 0) {
+                throw new ConnectionException(sm.getString("upgradeHandler.invalidPadding",
+                        Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+            }
+            padLength = ByteUtil.getOneByte(inBuffer, pos);
+            pos++;
+            len--;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            // Stream dependency and weight are not used
+            pos += 5;
+            len -= 5;
+        }
+        len -= padLength;
+        if (len < 0) {
+            throw new ConnectionException(sm.getString("upgradeHandler.invalidPadding",
+                    Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+        }
+
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        boolean trailers = false;
+        if (stream == null) {
+            if (streamId % 2 == 0 || streamId <= maxRemoteStreamId) {
+                throw new ConnectionException(sm.getString("upgradeHandler.invalidStreamId",
+                        Integer.toString(streamId), Integer.toString(maxRemoteStreamId)),
+                        Http2Error.PROTOCOL_ERROR);
+            }
+            maxRemoteStreamId = streamId;
+            if (!goAwayReceived && streams.size() < protocol.getMaxConcurrentStreams()) {
+                stream = new Stream(Integer.valueOf(streamId), this);
+                streams.put(stream.getIdentifier(), stream);
+            } else if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.refuseStream", connectionId(),
+                        Integer.toString(streamId)));
+            }
+            // A refused stream leaves stream == null. The header block still
+            // has to be decoded to keep the HPACK state in sync.
+        } else {
+            if (stream.isInputEnded()) {
+                throw new StreamException(sm.getString("upgradeHandler.streamClosed",
+                        FrameType.HEADERS, Integer.toString(streamId)),
+                        Http2Error.STREAM_CLOSED, streamId);
+            }
+            trailers = true;
+        }
+
+        headersStreamId = streamId;
+        headersStream = stream;
+        headersEndStream = (flags & FLAG_END_STREAM) != 0;
+        headersTrailers = trailers;
+        headerBlock.clear();
+        appendHeaderBlock(pos, len);
+
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            headersComplete();
+        }
+    }
+
+
+    private void processContinuationFrame(int flags, int streamId, int pos, int len)
+            throws ConnectionException, StreamException {
+        if (headersStreamId == 0) {
+            throw new ConnectionException(sm.getString("upgradeHandler.unexpectedContinuation",
+                    Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+        }
+        appendHeaderBlock(pos, len);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            headersComplete();
+        }
+    }
+
+
+    private void appendHeaderBlock(int pos, int len) throws ConnectionException {
+        if (headerBlock.remaining() < len) {
+            int newSize = headerBlock.position() + len;
+            if (newSize > MAX_HEADER_BLOCK_SIZE) {
+                throw new ConnectionException(sm.getString("upgradeHandler.headersTooLarge",
+                        Integer.toString(headersStreamId), Integer.toString(MAX_HEADER_BLOCK_SIZE)),
+                        Http2Error.ENHANCE_YOUR_CALM);
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(newSize, headerBlock.capacity() * 2));
+            headerBlock.flip();
+            larger.put(headerBlock);
+            headerBlock = larger;
+        }
+        headerBlock.put(inBuffer, pos, len);
+    }
+
+
+    private void headersComplete() throws ConnectionException, StreamException {
+        int streamId = headersStreamId;
+        Stream stream = headersStream;
+        boolean endOfStream = headersEndStream;
+        boolean trailers = headersTrailers;
+        headersStreamId = 0;
+        headersStream = null;
+
+        if (stream == null || trailers) {
+            hpackDecoder.setHeaderEmitter(DISCARDING_EMITTER);
+        } else {
+            hpackDecoder.setHeaderEmitter(stream);
+        }
+        headerBlock.flip();
+        try {
+            hpackDecoder.decode(headerBlock);
+        } catch (HpackException he) {
+            ConnectionException ce = new ConnectionException(sm.getString(
+                    "upgradeHandler.hpackError", Integer.toString(streamId)),
+                    Http2Error.COMPRESSION_ERROR);
+            ce.initCause(he);
+            throw ce;
+        } finally {
+            hpackDecoder.setHeaderEmitter(null);
+        }
+
+        if (stream == null) {
+            writeRstQuietly(streamId, Http2Error.REFUSED_STREAM);
+            return;
+        }
+        if (trailers && !endOfStream) {
+            throw new StreamException(sm.getString("upgradeHandler.trailersWithoutEndStream",
+                    Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR, streamId);
+        }
+        if (endOfStream) {
+            stream.receivedEndOfStream();
+        }
+        if (!trailers) {
+            startProcessing(stream);
+        }
+    }
+
+
+    private void processRstFrame(int streamId, int pos, int len) throws ConnectionException {
+        if (len != 4) {
+            throw new ConnectionException(sm.getString("upgradeHandler.invalidFrameLength",
+                    FrameType.RST, Integer.toString(len)), Http2Error.FRAME_SIZE_ERROR);
+        }
+        Stream stream = streams.remove(Integer.valueOf(streamId));
+        if (stream == null) {
+            if (streamId > maxRemoteStreamId) {
+                throw new ConnectionException(sm.getString("upgradeHandler.idleStream",
+                        FrameType.RST, Integer.toString(streamId)), Http2Error.PROTOCOL_ERROR);
+            }
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.rstReceived", connectionId(),
+                    Integer.toString(streamId),
+                    Long.toString(ByteUtil.getFourBytes(inBuffer, pos))));
+        }
+        stream.reset();
+        synchronized (flowControlLock) {
+            flowControlLock.notifyAll();
+        }
+    }
+
+
+    private void processSettingsFrame(int flags, int pos, int len)
+            throws ConnectionException, IOException {
+        if ((flags & FLAG_ACK) != 0) {
+            if (len != 0) {
+                throw new ConnectionException(sm.getString("upgradeHandler.invalidFrameLength",
+                        FrameType.SETTINGS, Integer.toString(len)), Http2Error.FRAME_SIZE_ERROR);
+            }
+            // Acknowledgement of the server's settings
+            return;
+        }
+        if (len % 6 != 0) {
+            throw new ConnectionException(sm.getString("upgradeHandler.invalidFrameLength",
+                    FrameType.SETTINGS, Integer.toString(len)), Http2Error.FRAME_SIZE_ERROR);
+        }
+
+        int oldInitialWindowSize = remoteSettings.getInitialWindowSize();
+        int oldHeaderTableSize = remoteSettings.getHeaderTableSize();
+        for (int i = pos; i < pos + len; i += 6) {
+            remoteSettings.set(ByteUtil.getTwoBytes(inBuffer, i), ByteUtil.getFourBytes(inBuffer, i + 2));
+        }
+
+        int delta = remoteSettings.getInitialWindowSize() - oldInitialWindowSize;
+        if (delta != 0) {
+            // Applies to all open streams (RFC 7540, 6.9.2)
+            synchronized (flowControlLock) {
+                for (Stream stream : streams.values()) {
+                    try {
+                        stream.incrementWindowSize(delta);
+                    } catch (StreamException se) {
+                        throw new ConnectionException(se.getMessage(),
+                                Http2Error.FLOW_CONTROL_ERROR);
+                    }
+                }
+                flowControlLock.notifyAll();
+            }
+        }
+
+        synchronized (writeLock) {
+            if (remoteSettings.getHeaderTableSize() != oldHeaderTableSize) {
+                hpackEncoder.setMaxTableSize(remoteSettings.getHeaderTableSize());
+            }
+            writeFrame(SETTINGS_ACK, null, 0, 0);
+        }
+    }
+
+
+    private void processPingFrame(int flags, int pos, int len)
+            throws ConnectionException, IOException {
+        if (len != 8) {
+            throw new ConnectionException(sm.getString("upgradeHandler.invalidFrameLength",
+                    FrameType.PING, Integer.toString(len)), Http2Error.FRAME_SIZE_ERROR);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            // The server never sends a PING so ignore any ACKs
+            return;
+        }
+        byte[] header = createFrameHeader(8, FrameType.PING, FLAG_ACK, 0);
+        synchronized (writeLock) {
+            writeFrame(header, inBuffer, pos, 8);
+        }
+    }
+
+
+    private void processWindowUpdateFrame(int streamId, int pos, int len)
+            throws ConnectionException, StreamException {
+        if (len != 4) {
+            throw new ConnectionException(sm.getString("upgradeHandler.invalidFrameLength",
+                    FrameType.WINDOW_UPDATE, Integer.toString(len)), Http2Error.FRAME_SIZE_ERROR);
+        }
+        int increment = ByteUtil.get31Bits(inBuffer, pos);
+        if (increment == 0) {
+            String msg = sm.getString("upgradeHandler.zeroWindowUpdate", Integer.toString(streamId));
+            if (streamId == 0) {
+                throw new ConnectionException(msg, Http2Error.PROTOCOL_ERROR);
+            } else {
+                throw new StreamException(msg, Http2Error.PROTOCOL_ERROR, streamId);
+            }
+        }
+
+        synchronized (flowControlLock) {
+            if (streamId == 0) {
+                long newWindowSize = windowSize + increment;
+                if (newWindowSize > ConnectionSettings.MAX_WINDOW_SIZE) {
+                    throw new ConnectionException(sm.getString("upgradeHandler.windowSizeTooBig",
+                            Long.toString(newWindowSize)), Http2Error.FLOW_CONTROL_ERROR);
+                }
+                windowSize = newWindowSize;
+            } else {
+                Stream stream = streams.get(Integer.valueOf(streamId));
+                if (stream == null) {
+                    if (streamId > maxRemoteStreamId) {
+                        throw new ConnectionException(sm.getString("upgradeHandler.idleStream",
+                                FrameType.WINDOW_UPDATE, Integer.toString(streamId)),
+                                Http2Error.PROTOCOL_ERROR);
+                    }
+                    // Closed stream
+                    return;
+                }
+                stream.incrementWindowSize(increment);
+            }
+            flowControlLock.notifyAll();
+        }
+    }
+
+
+    // ---------------------------------------------------------- Frame writing
+
+    private static byte[] createFrameHeader(int payloadLength, FrameType type, int flags,
+            int streamId) {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        ByteUtil.setThreeBytes(header, 0, payloadLength);
+        header[3] = type.getIdByte();
+        header[4] = (byte) flags;
+        ByteUtil.set31Bits(header, 5, streamId);
+        return header;
+    }
+
+
+    /*
+     * Must hold writeLock.
+     */
+    private void writeFrame(byte[] header, byte[] payload, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException(sm.getString("upgradeHandler.connectionClosed", connectionId()));
+        }
+        outputStream.write(header);
+        if (len > 0) {
+            outputStream.write(payload, off, len);
+        }
+        outputStream.flush();
+    }
+
+
+    private void writeSettings() throws IOException {
+        byte[] payload = new byte[12];
+        ByteUtil.setTwoBytes(payload, 0, ConnectionSettings.SETTINGS_MAX_CONCURRENT_STREAMS);
+        ByteUtil.setFourBytes(payload, 2, protocol.getMaxConcurrentStreams());
+        ByteUtil.setTwoBytes(payload, 6, ConnectionSettings.SETTINGS_INITIAL_WINDOW_SIZE);
+        ByteUtil.setFourBytes(payload, 8, protocol.getInitialWindowSize());
+        byte[] header = createFrameHeader(payload.length, FrameType.SETTINGS, 0, 0);
+        synchronized (writeLock) {
+            writeFrame(header, payload, 0, payload.length);
+        }
+    }
+
+
+    void writeHeaders(Stream stream, MimeHeaders headers, boolean endOfStream)
+            throws IOException {
+        checkStreamWritable(stream);
+        int streamId = stream.getIdentifier().intValue();
+        synchronized (writeLock) {
+            // Encoding must happen under the lock so the header blocks are
+            // sent in the same order the encoder's dynamic table was updated
+            ByteBuffer block = hpackEncoder.encode(headers);
+            int maxFrameSize = remoteSettings.getMaxFrameSize();
+            boolean first = true;
+            do {
+                int len = Math.min(block.remaining(), maxFrameSize);
+                int flags = 0;
+                if (len == block.remaining()) {
+                    flags |= FLAG_END_HEADERS;
+                }
+                if (first && endOfStream) {
+                    flags |= FLAG_END_STREAM;
+                }
+                byte[] header = createFrameHeader(len,
+                        first ? FrameType.HEADERS : FrameType.CONTINUATION, flags, streamId);
+                writeFrame(header, block.array(), block.arrayOffset() + block.position(), len);
+                block.position(block.position() + len);
+                first = false;
+            } while (block.hasRemaining());
+        }
+    }
+
+
+    /**
+     * Writes response body data, splitting it into DATA frames as required by
+     * the flow control windows and the client's maximum frame size.
+     */
+    void writeBody(Stream stream, byte[] data, int off, int len) throws IOException {
+        while (len > 0) {
+            int size = reserveWindowSize(stream,
+                    Math.min(len, remoteSettings.getMaxFrameSize()));
+            writeData(stream, data, off, size, false);
+            off += size;
+            len -= size;
+        }
+    }
+
+
+    /**
+     * Writes a single DATA frame. The caller is responsible for having
+     * reserved any flow control window required.
+     */
+    void writeData(Stream stream, byte[] data, int off, int len, boolean endOfStream)
+            throws IOException {
+        checkStreamWritable(stream);
+        byte[] header = createFrameHeader(len, FrameType.DATA,
+                endOfStream ? FLAG_END_STREAM : 0, stream.getIdentifier().intValue());
+        synchronized (writeLock) {
+            writeFrame(header, data, off, len);
+        }
+    }
+
+
+    private void checkStreamWritable(Stream stream) throws IOException {
+        if (stream.isReset()) {
+            throw new IOException(sm.getString("upgradeHandler.streamReset",
+                    connectionId(), stream.getIdentifier()));
+        }
+    }
+
+
+    /**
+     * Wait until both the connection and stream flow control windows are
+     * open and then reserve as much of the requested size as possible.
+     *
+     * @return The number of bytes that may be sent, always greater than zero
+     */
+    private int reserveWindowSize(Stream stream, int requested) throws IOException {
+        long timeout = protocol.getWriteTimeout();
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (flowControlLock) {
+            while (true) {
+                if (closed) {
+                    throw new IOException(sm.getString("upgradeHandler.connectionClosed",
+                            connectionId()));
+                }
+                checkStreamWritable(stream);
+                long available = Math.min(windowSize, stream.getWindowSize());
+                if (available > 0) {
+                    int reserved = (int) Math.min(available, requested);
+                    windowSize -= reserved;
+                    stream.decrementWindowSize(reserved);
+                    return reserved;
+                }
+                try {
+                    if (timeout > 0) {
+                        long remaining = end - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException(sm.getString(
+                                    "upgradeHandler.windowTimeout", connectionId(),
+                                    stream.getIdentifier()));
+                        }
+                        flowControlLock.wait(remaining);
+                    } else {
+                        flowControlLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Replenish the flow control window of a stream after the application has
+     * consumed request body data.
+     */
+    void writeWindowUpdate(Stream stream, int increment) throws IOException {
+        if (stream.isReset()) {
+            return;
+        }
+        writeWindowUpdate(stream.getIdentifier().intValue(), increment);
+    }
+
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] frame = createFrameHeader(4, FrameType.WINDOW_UPDATE, 0, streamId);
+        byte[] payload = new byte[4];
+        ByteUtil.set31Bits(payload, 0, increment);
+        synchronized (writeLock) {
+            writeFrame(frame, payload, 0, 4);
+        }
+    }
+
+
+    private void writeRst(int streamId, Http2Error error) throws IOException {
+        byte[] header = createFrameHeader(4, FrameType.RST, 0, streamId);
+        byte[] payload = new byte[4];
+        ByteUtil.setFourBytes(payload, 0, error.getCode());
+        synchronized (writeLock) {
+            writeFrame(header, payload, 0, 4);
+        }
+    }
+
+
+    private void writeRstQuietly(int streamId, Http2Error error) {
+        try {
+            writeRst(streamId, error);
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.rstFail", connectionId(),
+                        Integer.toString(streamId)), ioe);
+            }
+        }
+    }
+
+
+    /**
+     * Called when the server has finished writing the response for a stream.
+     * The stream is closed unless the client is still sending the request
+     * body in which case it is told to stop (RFC 7540, 8.1).
+     */
+    void streamOutputEnded(Stream stream) {
+        if (!stream.isInputEnded()) {
+            resetStream(stream, Http2Error.NO_ERROR);
+        } else {
+            streams.remove(stream.getIdentifier());
+        }
+    }
+
+
+    /**
+     * Reset a stream and inform the client.
+     */
+    void resetStream(Stream stream, Http2Error error) {
+        streams.remove(stream.getIdentifier());
+        stream.reset();
+        synchronized (flowControlLock) {
+            flowControlLock.notifyAll();
+        }
+        writeRstQuietly(stream.getIdentifier().intValue(), error);
+    }
+
+
+    // ------------------------------------------------------- Connection close
+
+    private void closeConnection(Http2Exception ce) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.connectionError", connectionId()), ce);
+        }
+        byte[] header = createFrameHeader(8, FrameType.GOAWAY, 0, 0);
+        byte[] payload = new byte[8];
+        ByteUtil.set31Bits(payload, 0, maxRemoteStreamId);
+        ByteUtil.setFourBytes(payload, 4, ce.getError().getCode());
+        try {
+            synchronized (writeLock) {
+                writeFrame(header, payload, 0, 8);
+            }
+        } catch (IOException ioe) {
+            // Ignore. The connection is being closed anyway.
+        }
+        close();
+    }
+
+
+    /*
+     * Only called by the thread processing the socket. The upgrade processor
+     * closes the socket once this thread exits.
+     */
+    private void close() {
+        closed = true;
+        try {
+            connection.close();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.closeFail", connectionId()), e);
+            }
+        }
+        destroy();
+    }
+
+
+    @Override
+    public void destroy() {
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.reset();
+        }
+        streams.clear();
+        synchronized (flowControlLock) {
+            flowControlLock.notifyAll();
+        }
+    }
+
+
+    // ------------------------------------------------ Stream support methods
+
+    ConnectionSettings getRemoteSettings() {
+        return remoteSettings;
+    }
+
+
+    int getLocalInitialWindowSize() {
+        // The client may use the default window size until it acknowledges
+        // the server's settings
+        return Math.max(protocol.getInitialWindowSize(),
+                ConnectionSettings.DEFAULT_INITIAL_WINDOW_SIZE);
+    }
+
+
+    long getStreamReadTimeout() {
+        return socketWrapper.getEndpoint().getSoTimeout();
+    }
+
+
+    private String connectionId() {
+        return socketWrapper.toString();
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A single HTTP/2 stream, i.e. one request/response exchange multiplexed over
+ * an HTTP/2 connection.
+ * <p>
+ * Request body data received by the connection is buffered here until the
+ * application reads it. The buffer is sized to the initial flow control
+ * window advertised for the stream so a well-behaved client can never
+ * overflow it. Response data is passed back to the connection which is
+ * responsible for flow control and framing.
+ */
+public class Stream implements HeaderEmitter {
+
+    private static final Log log = LogFactory.getLog(Stream.class);
+    private static final StringManager sm = StringManager.getManager(Stream.class);
+
+    private final Integer identifier;
+    private final Http2UpgradeHandler handler;
+    private final Request coyoteRequest;
+    private final Response coyoteResponse = new Response();
+    private final StreamInputBuffer inputBuffer = new StreamInputBuffer();
+    private final StreamOutputBuffer outputBuffer = new StreamOutputBuffer();
+    private volatile StreamProcessor processor = null;
+
+    // Guarded by the flow control lock of the connection
+    private long windowSize;
+
+    private volatile boolean inputEnded = false;
+    private volatile boolean outputEnded = false;
+    private volatile boolean reset = false;
+
+
+    Stream(Integer identifier, Http2UpgradeHandler handler) {
+        this(identifier, handler, null);
+    }
+
+
+    /**
+     * @param identifier     The stream identifier
+     * @param handler        The connection the stream is multiplexed over
+     * @param coyoteRequest  The request that triggered the HTTP/1.1 upgrade
+     *                       if this is stream 1 of an upgraded connection,
+     *                       otherwise <code>null</code>
+     */
+    Stream(Integer identifier, Http2UpgradeHandler handler, Request coyoteRequest) {
+        this.identifier = identifier;
+        this.handler = handler;
+        this.windowSize = handler.getRemoteSettings().getInitialWindowSize();
+        if (coyoteRequest == null) {
+            this.coyoteRequest = new Request();
+        } else {
+            // The upgrade request has been fully received so the stream
+            // starts in the half-closed (remote) state (RFC 7540, 3.2)
+            this.coyoteRequest = coyoteRequest;
+            this.coyoteRequest.scheme().setString("http");
+            // These only applied to the HTTP/1.1 connection
+            MimeHeaders headers = this.coyoteRequest.getMimeHeaders();
+            headers.removeHeader("connection");
+            headers.removeHeader("upgrade");
+            headers.removeHeader("http2-settings");
+            inputEnded = true;
+        }
+        this.coyoteRequest.protocol().setString("HTTP/2.0");
+        this.coyoteRequest.setStartTime(System.currentTimeMillis());
+        this.coyoteRequest.setInputBuffer(inputBuffer);
+        coyoteResponse.setOutputBuffer(outputBuffer);
+    }
+
+
+    @Override
+    public void emitHeader(String name, String value) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("stream.header.debug", identifier, name, value));
+        }
+
+        switch (name) {
+        case ":method": {
+            coyoteRequest.method().setString(value);
+            break;
+        }
+        case ":scheme": {
+            coyoteRequest.scheme().setString(value);
+            break;
+        }
+        case ":path": {
+            // Use bytes so the URI is %nn decoded by the Adapter in the same
+            // way as an HTTP/1.1 request URI
+            int queryStart = value.indexOf('?');
+            if (queryStart == -1) {
+                setBytes(coyoteRequest.requestURI(), value);
+            } else {
+                setBytes(coyoteRequest.requestURI(), value.substring(0, queryStart));
+                setBytes(coyoteRequest.queryString(), value.substring(queryStart + 1));
+            }
+            break;
+        }
+        case ":authority": {
+            int portStart = value.lastIndexOf(':');
+            if (portStart > value.lastIndexOf(']')) {
+                coyoteRequest.serverName().setString(value.substring(0, portStart));
+                try {
+                    coyoteRequest.setServerPort(
+                            Integer.parseInt(value.substring(portStart + 1)));
+                } catch (NumberFormatException nfe) {
+                    // Leave the port unset. The Adapter will use the
+                    // connector's port.
+                }
+            } else {
+                coyoteRequest.serverName().setString(value);
+            }
+            // The Servlet API expects a host header
+            coyoteRequest.getMimeHeaders().setValue("host").setString(value);
+            break;
+        }
+        default: {
+            if ("host".equals(name) &&
+                    coyoteRequest.getMimeHeaders().getValue("host") != null) {
+                // :authority takes precedence (RFC 7540, 8.1.2.3)
+                break;
+            }
+            coyoteRequest.getMimeHeaders().addValue(name).setString(value);
+        }
+        }
+    }
+
+
+    private static void setBytes(MessageBytes mb, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        mb.setBytes(bytes, 0, bytes.length);
+    }
+
+
+    Integer getIdentifier() {
+        return identifier;
+    }
+
+
+    Request getCoyoteRequest() {
+        return coyoteRequest;
+    }
+
+
+    Response getCoyoteResponse() {
+        return coyoteResponse;
+    }
+
+
+    StreamInputBuffer getInputBuffer() {
+        return inputBuffer;
+    }
+
+
+    StreamOutputBuffer getOutputBuffer() {
+        return outputBuffer;
+    }
+
+
+    Http2UpgradeHandler getHandler() {
+        return handler;
+    }
+
+
+    void setProcessor(StreamProcessor processor) {
+        this.processor = processor;
+    }
+
+
+    // ------------------------------------------------- Send flow control window
+    // All of these must be called while holding the connection's flow control
+    // lock.
+
+    long getWindowSize() {
+        return windowSize;
+    }
+
+
+    void incrementWindowSize(int increment) throws StreamException {
+        long newWindowSize = windowSize + increment;
+        if (newWindowSize > ConnectionSettings.MAX_WINDOW_SIZE) {
+            throw new StreamException(sm.getString("stream.windowSizeTooBig", identifier,
+                    Long.toString(newWindowSize)), Http2Error.FLOW_CONTROL_ERROR,
+                    identifier.intValue());
+        }
+        windowSize = newWindowSize;
+    }
+
+
+    void decrementWindowSize(int decrement) {
+        windowSize -= decrement;
+    }
+
+
+    // ------------------------------------------------------ Stream state change
+
+    /**
+     * Called by the connection when DATA is received for this stream.
+     */
+    void receivedData(byte[] src, int offset, int len) throws StreamException {
+        inputBuffer.onData(src, offset, len);
+        notifyProcessor();
+    }
+
+
+    /**
+     * Called by the connection when END_STREAM is received for this stream.
+     */
+    void receivedEndOfStream() {
+        inputEnded = true;
+        inputBuffer.onEndOfStream();
+        notifyProcessor();
+    }
+
+
+    private void notifyProcessor() {
+        StreamProcessor processor = this.processor;
+        if (processor != null) {
+            processor.onDataAvailable();
+        }
+    }
+
+
+    boolean isInputEnded() {
+        return inputEnded;
+    }
+
+
+    boolean isOutputEnded() {
+        return outputEnded;
+    }
+
+
+    /**
+     * Called when the stream has been reset by either end point or when the
+     * connection is closed. Any threads blocked reading from or writing to the
+     * stream will be woken and will see an IOException.
+     */
+    void reset() {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("stream.reset", identifier));
+        }
+        reset = true;
+        inputBuffer.onEndOfStream();
+    }
+
+
+    boolean isReset() {
+        return reset;
+    }
+
+
+    void writeHeaders(MimeHeaders headers, boolean endOfStream) throws IOException {
+        handler.writeHeaders(this, headers, endOfStream);
+        if (endOfStream) {
+            outputEnded();
+        }
+    }
+
+
+    private void outputEnded() throws IOException {
+        outputEnded = true;
+        handler.streamOutputEnded(this);
+    }
+
+
+    class StreamInputBuffer implements InputBuffer {
+
+        /*
+         * Written by the connection's read thread in onData(), read by the
+         * application thread in doRead(). Both are guarded by synchronizing on
+         * this.
+         */
+        private ByteBuffer inBuffer;
+        private byte[] outBuffer;
+
+
+        @Override
+        public int doRead(ByteChunk chunk, Request request) throws IOException {
+            int written;
+            synchronized (this) {
+                long timeout = handler.getStreamReadTimeout();
+                long end = System.currentTimeMillis() + timeout;
+                while (inBuffer == null || inBuffer.position() == 0) {
+                    if (reset) {
+                        throw new IOException(sm.getString("stream.inputReset", identifier));
+                    }
+                    if (inputEnded) {
+                        return -1;
+                    }
+                    try {
+                        if (timeout > 0) {
+                            long remaining = end - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                throw new SocketTimeoutException(
+                                        sm.getString("stream.readTimeout", identifier));
+                            }
+                            wait(remaining);
+                        } else {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                inBuffer.flip();
+                written = inBuffer.remaining();
+                if (outBuffer == null || outBuffer.length < written) {
+                    outBuffer = new byte[inBuffer.capacity()];
+                }
+                inBuffer.get(outBuffer, 0, written);
+                inBuffer.clear();
+            }
+            chunk.setBytes(outBuffer, 0, written);
+
+            // The application has consumed the data so the client may send
+            // some more
+            if (!inputEnded) {
+                handler.writeWindowUpdate(Stream.this, written);
+            }
+            return written;
+        }
+
+
+        synchronized void onData(byte[] src, int offset, int len) throws StreamException {
+            if (inBuffer == null) {
+                inBuffer = ByteBuffer.allocate(handler.getLocalInitialWindowSize());
+            }
+            if (len > inBuffer.remaining()) {
+                throw new StreamException(sm.getString("stream.flowControlExceeded",
+                        identifier, Integer.toString(len),
+                        Integer.toString(inBuffer.remaining())),
+                        Http2Error.FLOW_CONTROL_ERROR, identifier.intValue());
+            }
+            inBuffer.put(src, offset, len);
+            notifyAll();
+        }
+
+
+        synchronized void onEndOfStream() {
+            notifyAll();
+        }
+
+
+        synchronized int available() {
+            if (inBuffer == null) {
+                return 0;
+            }
+            return inBuffer.position();
+        }
+
+
+        boolean isFinished() {
+            return inputEnded && available() == 0;
+        }
+    }
+
+
+    class StreamOutputBuffer implements OutputBuffer {
+
+        private volatile long written = 0;
+        private volatile boolean bodyAllowed = true;
+
+
+        @Override
+        public int doWrite(ByteChunk chunk) throws IOException {
+            if (!coyoteResponse.isCommitted()) {
+                coyoteResponse.action(ActionCode.COMMIT, null);
+            }
+            int len = chunk.getLength();
+            if (bodyAllowed && len > 0) {
+                handler.writeBody(Stream.this, chunk.getBuffer(), chunk.getStart(), len);
+            }
+            written += len;
+            return len;
+        }
+
+
+        @Override
+        public long getBytesWritten() {
+            return written;
+        }
+
+
+        /**
+         * HEAD requests and some status codes must not have a response body.
+         * Any body the application writes for such a response is silently
+         * swallowed.
+         */
+        void setBodyAllowed(boolean bodyAllowed) {
+            this.bodyAllowed = bodyAllowed;
+        }
+
+
+        /**
+         * Ends the stream with an empty DATA frame. The headers must already
+         * have been written.
+         */
+        void close() throws IOException {
+            if (outputEnded) {
+                return;
+            }
+            handler.writeData(Stream.this, null, 0, 0, true);
+            outputEnded();
+        }
+    }
+}
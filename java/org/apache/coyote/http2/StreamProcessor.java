@@ -0,0 +1,566 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpUpgradeHandler;
+
+import org.apache.coyote.AbstractProcessor;
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.Adapter;
+import org.apache.coyote.AsyncContextCallback;
+import org.apache.coyote.ContainerThreadMarker;
+import org.apache.coyote.ErrorState;
+import org.apache.coyote.RequestInfo;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
+import org.apache.tomcat.util.net.SSLSupport;
+import org.apache.tomcat.util.net.SocketStatus;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Processes a single HTTP/2 stream using a container thread obtained from the
+ * endpoint's executor. The request has been fully parsed by the connection
+ * before processing starts.
+ */
+public class StreamProcessor extends AbstractProcessor implements Runnable {
+
+    private static final Log log = LogFactory.getLog(StreamProcessor.class);
+    private static final StringManager smHttp2 = StringManager.getManager(StreamProcessor.class);
+
+    private final Stream stream;
+    private final Http2Protocol protocol;
+
+    // Non-blocking I/O dispatches requested by the application
+    private final Set<SocketStatus> dispatches = new LinkedHashSet<>();
+    private volatile boolean readInterest = false;
+
+    // Async timeout state. A timeout of zero or less means no timeout.
+    private volatile long asyncTimeout = -1;
+    private volatile long lastAsyncStart = 0;
+    private volatile boolean asyncTimeoutFired = false;
+
+
+    StreamProcessor(Stream stream, Http2Protocol protocol, Adapter adapter,
+            SocketWrapperBase<?> socketWrapper) {
+        super(socketWrapper.getEndpoint(), stream.getCoyoteRequest(), stream.getCoyoteResponse());
+        this.stream = stream;
+        this.protocol = protocol;
+        setAdapter(adapter);
+        setSocketWrapper(socketWrapper);
+    }
+
+
+    /**
+     * Process the request using the current thread.
+     */
+    @Override
+    public void run() {
+        processStream(null);
+    }
+
+
+    private void dispatch(final SocketStatus status) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                processStream(status);
+            }
+        });
+    }
+
+
+    /*
+     * Synchronized so only one container thread processes the stream at any
+     * one time.
+     */
+    private synchronized void processStream(SocketStatus status) {
+        ContainerThreadMarker.set();
+        protocol.removeWaitingProcessor(this);
+        try {
+            SocketState state;
+            if (status == null) {
+                state = service();
+            } else {
+                state = asyncDispatch(status);
+            }
+            while (true) {
+                if (state != SocketState.CLOSED && isAsync()) {
+                    state = asyncPostProcess();
+                }
+                if (state == SocketState.ASYNC_END) {
+                    state = asyncDispatch(SocketStatus.OPEN_READ);
+                    continue;
+                }
+                SocketStatus next = nextDispatch();
+                if (next == null || state == SocketState.CLOSED) {
+                    break;
+                }
+                state = asyncDispatch(next);
+            }
+            if (state == SocketState.LONG) {
+                // The async timeout runs from the end of the most recent
+                // processing of the stream, as it does for HTTP/1.1
+                lastAsyncStart = System.currentTimeMillis();
+                protocol.addWaitingProcessor(this);
+            }
+        } finally {
+            ContainerThreadMarker.clear();
+        }
+    }
+
+
+    private SocketState service() {
+        RequestInfo rp = request.getRequestProcessor();
+        try {
+            rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+            getAdapter().service(request, response);
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            log.error(smHttp2.getString("streamProcessor.service", stream.getIdentifier()), t);
+            response.setStatus(500);
+            setErrorState(ErrorState.CLOSE_NOW, t);
+        }
+        return endOfProcessing();
+    }
+
+
+    @Override
+    public SocketState asyncDispatch(SocketStatus status) {
+        try {
+            if (status == SocketStatus.OPEN_WRITE && response.getWriteListener() != null) {
+                asyncStateMachine.asyncOperation();
+            } else if (status == SocketStatus.OPEN_READ && request.getReadListener() != null &&
+                    (stream.getInputBuffer().available() > 0 || stream.isInputEnded())) {
+                asyncStateMachine.asyncOperation();
+            }
+        } catch (IllegalStateException ise) {
+            // Request/Response not in correct state for non-blocking I/O
+            if (log.isDebugEnabled()) {
+                log.debug(smHttp2.getString("streamProcessor.nonBlockingError",
+                        stream.getIdentifier()), ise);
+            }
+            status = (status == SocketStatus.OPEN_WRITE) ?
+                    SocketStatus.ASYNC_WRITE_ERROR : SocketStatus.ASYNC_READ_ERROR;
+        }
+        RequestInfo rp = request.getRequestProcessor();
+        try {
+            rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+            if (!getAdapter().asyncDispatch(request, response, status)) {
+                setErrorState(ErrorState.CLOSE_NOW, null);
+            }
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            setErrorState(ErrorState.CLOSE_NOW, t);
+            log.error(smHttp2.getString("streamProcessor.service", stream.getIdentifier()), t);
+        }
+        return endOfProcessing();
+    }
+
+
+    private SocketState endOfProcessing() {
+        if (!getErrorState().isError() && isAsync()) {
+            return SocketState.LONG;
+        }
+        RequestInfo rp = request.getRequestProcessor();
+        rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+        if (!stream.isOutputEnded()) {
+            if (getErrorState().isIoAllowed()) {
+                action(ActionCode.CLOSE, null);
+            } else {
+                // The response can't be completed cleanly
+                stream.getHandler().resetStream(stream, Http2Error.INTERNAL_ERROR);
+            }
+        }
+        request.updateCounters();
+        return SocketState.CLOSED;
+    }
+
+
+    private synchronized SocketStatus nextDispatch() {
+        Iterator<SocketStatus> iter = dispatches.iterator();
+        if (iter.hasNext()) {
+            SocketStatus result = iter.next();
+            iter.remove();
+            return result;
+        }
+        return null;
+    }
+
+
+    private synchronized void addDispatch(SocketStatus status) {
+        dispatches.add(status);
+    }
+
+
+    /**
+     * Called by the connection when request body data or the end of the
+     * request body has been received for this stream.
+     */
+    void onDataAvailable() {
+        if (readInterest) {
+            readInterest = false;
+            dispatch(SocketStatus.OPEN_READ);
+        }
+    }
+
+
+    /**
+     * @param now   The current time in milliseconds
+     *
+     * @return <code>true</code> if the stream has been waiting in async mode
+     *         for longer than its timeout or if it has been reset while
+     *         waiting
+     */
+    boolean isAsyncTimedOut(long now) {
+        if (asyncTimeoutFired) {
+            // Avoid multiple timeouts
+            return false;
+        }
+        if (stream.isReset()) {
+            return true;
+        }
+        long timeout = asyncTimeout;
+        return timeout > 0 && (now - lastAsyncStart) > timeout;
+    }
+
+
+    /**
+     * Called by the protocol's async timeout thread once the stream has timed
+     * out. The timeout is processed on a container thread.
+     */
+    void timeoutAsync() {
+        asyncTimeoutFired = true;
+        dispatch(SocketStatus.TIMEOUT);
+    }
+
+
+    @Override
+    public void action(ActionCode actionCode, Object param) {
+        switch (actionCode) {
+        case COMMIT: {
+            if (response.isCommitted()) {
+                return;
+            }
+            try {
+                stream.writeHeaders(prepareHeaders(), false);
+            } catch (IOException ioe) {
+                setErrorState(ErrorState.CLOSE_NOW, ioe);
+            }
+            break;
+        }
+        case CLOSE: {
+            try {
+                if (response.isCommitted()) {
+                    stream.getOutputBuffer().close();
+                } else {
+                    // Nothing has been written so the response is complete
+                    // with the headers
+                    stream.writeHeaders(prepareHeaders(), true);
+                }
+            } catch (IOException ioe) {
+                setErrorState(ErrorState.CLOSE_NOW, ioe);
+            }
+            break;
+        }
+        case ACK:
+        case CLIENT_FLUSH: {
+            // Every write is flushed to the network so there is nothing to do
+            break;
+        }
+        case IS_ERROR: {
+            ((AtomicBoolean) param).set(getErrorState().isError());
+            break;
+        }
+        case DISABLE_SWALLOW_INPUT: {
+            // Unread request body data only affects this stream
+            break;
+        }
+        case RESET: {
+            // NO-OP. Nothing is buffered by the processor.
+            break;
+        }
+        case CLOSE_NOW: {
+            setErrorState(ErrorState.CLOSE_NOW, null);
+            break;
+        }
+        case REQ_HOST_ADDR_ATTRIBUTE: {
+            request.remoteAddr().setString(socketWrapper.getRemoteAddr());
+            break;
+        }
+        case REQ_HOST_ATTRIBUTE: {
+            request.remoteHost().setString(socketWrapper.getRemoteHost());
+            break;
+        }
+        case REQ_REMOTEPORT_ATTRIBUTE: {
+            request.setRemotePort(socketWrapper.getRemotePort());
+            break;
+        }
+        case REQ_LOCAL_NAME_ATTRIBUTE: {
+            request.localName().setString(socketWrapper.getLocalName());
+            break;
+        }
+        case REQ_LOCAL_ADDR_ATTRIBUTE: {
+            request.localAddr().setString(socketWrapper.getLocalAddr());
+            break;
+        }
+        case REQ_LOCALPORT_ATTRIBUTE: {
+            request.setLocalPort(socketWrapper.getLocalPort());
+            break;
+        }
+        case REQ_SSL_ATTRIBUTE:
+        case REQ_SSL_CERTIFICATE: {
+            // h2c connections are never secure
+            break;
+        }
+        case ASYNC_START: {
+            asyncTimeoutFired = false;
+            asyncStateMachine.asyncStart((AsyncContextCallback) param);
+            break;
+        }
+        case ASYNC_DISPATCHED: {
+            asyncStateMachine.asyncDispatched();
+            break;
+        }
+        case ASYNC_TIMEOUT: {
+            AtomicBoolean result = (AtomicBoolean) param;
+            result.set(asyncStateMachine.asyncTimeout());
+            break;
+        }
+        case ASYNC_RUN: {
+            asyncStateMachine.asyncRun((Runnable) param);
+            break;
+        }
+        case ASYNC_ERROR: {
+            asyncStateMachine.asyncError();
+            break;
+        }
+        case ASYNC_IS_STARTED: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncStarted());
+            break;
+        }
+        case ASYNC_IS_COMPLETING: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isCompleting());
+            break;
+        }
+        case ASYNC_IS_DISPATCHING: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncDispatching());
+            break;
+        }
+        case ASYNC_IS_ASYNC: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsync());
+            break;
+        }
+        case ASYNC_IS_TIMINGOUT: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncTimingOut());
+            break;
+        }
+        case ASYNC_IS_ERROR: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncError());
+            break;
+        }
+        case ASYNC_COMPLETE: {
+            if (asyncStateMachine.asyncComplete()) {
+                dispatch(SocketStatus.OPEN_READ);
+            }
+            break;
+        }
+        case ASYNC_SETTIMEOUT: {
+            if (param == null) {
+                return;
+            }
+            asyncTimeout = ((Long) param).longValue();
+            break;
+        }
+        case ASYNC_DISPATCH: {
+            if (asyncStateMachine.asyncDispatch()) {
+                dispatch(SocketStatus.OPEN_READ);
+            }
+            break;
+        }
+        case AVAILABLE: {
+            request.setAvailable(stream.getInputBuffer().available());
+            break;
+        }
+        case NB_WRITE_INTEREST: {
+            // Writes always block so the stream is always ready for write
+            ((AtomicBoolean) param).set(true);
+            break;
+        }
+        case NB_READ_INTEREST: {
+            readInterest = true;
+            if (stream.getInputBuffer().available() > 0 || stream.isInputEnded()) {
+                // Data arrived between the application checking and
+                // registering interest
+                onDataAvailable();
+            }
+            break;
+        }
+        case REQUEST_BODY_FULLY_READ: {
+            ((AtomicBoolean) param).set(stream.getInputBuffer().isFinished());
+            break;
+        }
+        case DISPATCH_READ: {
+            addDispatch(SocketStatus.OPEN_READ);
+            break;
+        }
+        case DISPATCH_WRITE: {
+            addDispatch(SocketStatus.OPEN_WRITE);
+            break;
+        }
+        case DISPATCH_EXECUTE: {
+            SocketStatus next;
+            while ((next = nextDispatch()) != null) {
+                dispatch(next);
+            }
+            break;
+        }
+        case UPGRADE: {
+            // HTTP/1.1 upgrade is not permitted over HTTP/2 (RFC 7540, 8.1.1)
+            log.warn(smHttp2.getString("streamProcessor.upgrade", stream.getIdentifier()));
+            setErrorState(ErrorState.CLOSE_NOW, null);
+            break;
+        }
+        default: {
+            // Includes REQ_SET_BODY_REPLAY which is not supported
+            break;
+        }
+        }
+    }
+
+
+    /**
+     * Marks the response as committed and builds the header block to send,
+     * starting with the :status pseudo-header. Connection-specific headers
+     * are not permitted in HTTP/2 (RFC 7540, 8.1.2.2) and are dropped.
+     */
+    private MimeHeaders prepareHeaders() {
+        response.setCommitted(true);
+
+        int statusCode = response.getStatus();
+        boolean bodyAllowed = statusCode >= 200 && statusCode != 204 && statusCode != 304 &&
+                !request.method().equals("HEAD");
+        stream.getOutputBuffer().setBodyAllowed(bodyAllowed);
+
+        MimeHeaders headers = new MimeHeaders();
+        headers.addValue(":status").setString(Integer.toString(statusCode));
+
+        String contentType = response.getContentType();
+        if (contentType != null) {
+            headers.addValue("content-type").setString(contentType);
+        }
+        String contentLanguage = response.getContentLanguage();
+        if (contentLanguage != null) {
+            headers.addValue("content-language").setString(contentLanguage);
+        }
+        long contentLength = response.getContentLengthLong();
+        if (contentLength >= 0 && statusCode >= 200 && statusCode != 204) {
+            headers.addValue("content-length").setLong(contentLength);
+        }
+
+        MimeHeaders responseHeaders = response.getMimeHeaders();
+        boolean hasDate = false;
+        for (int i = 0; i < responseHeaders.size(); i++) {
+            MessageBytes value = responseHeaders.getValue(i);
+            String name = responseHeaders.getName(i).toString().toLowerCase(Locale.ENGLISH);
+            switch (name) {
+            case "connection":
+            case "keep-alive":
+            case "proxy-connection":
+            case "transfer-encoding":
+            case "upgrade":
+            case "content-type":
+            case "content-language":
+            case "content-length":
+                continue;
+            case "date":
+                hasDate = true;
+                break;
+            default:
+                break;
+            }
+            headers.addValue(name).setString(value.toString());
+        }
+        if (!hasDate) {
+            headers.addValue("date").setString(FastHttpDateFormat.getCurrentDate());
+        }
+
+        return headers;
+    }
+
+
+    @Override
+    public SocketState process(SocketWrapperBase<?> socket) throws IOException {
+        // Should never happen. Streams are processed via run().
+        throw new IllegalStateException();
+    }
+
+
+    @Override
+    public boolean isUpgrade() {
+        return false;
+    }
+
+
+    @Override
+    public SocketState upgradeDispatch(SocketStatus status) {
+        return null;
+    }
+
+
+    @Override
+    public HttpUpgradeHandler getHttpUpgradeHandler() {
+        return null;
+    }
+
+
+    @Override
+    public ByteBuffer getLeftoverInput() {
+        return null;
+    }
+
+
+    @Override
+    public void recycle() {
+        // NO-OP. Stream processors are not re-used.
+    }
+
+
+    @Override
+    public void setSslSupport(SSLSupport sslSupport) {
+        // NO-OP. h2c connections are never secure.
+    }
+
+
+    @Override
+    protected Log getLog() {
+        return log;
+    }
+}
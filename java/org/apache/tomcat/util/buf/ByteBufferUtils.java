@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Releases the memory of direct and memory mapped {@link ByteBuffer}s without
+ * waiting for them to be garbage collected. Unmapping a file mapping releases
+ * the file handle and, on Windows, the lock on the file.
+ * <p>
+ * A buffer must not be used, directly or through a view or duplicate, once it
+ * has been cleaned. Doing so may crash the JVM.
+ */
+public class ByteBufferUtils {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+    private static final Log log = LogFactory.getLog(ByteBufferUtils.class);
+
+    // Java 9+
+    private static final Object unsafe;
+    private static final Method invokeCleanerMethod;
+    // Java 8
+    private static final Method cleanerMethod;
+    private static final Method cleanMethod;
+
+    static {
+        ByteBuffer tempBuffer = ByteBuffer.allocateDirect(0);
+        Object unsafeLocal = null;
+        Method invokeCleanerMethodLocal = null;
+        Method cleanerMethodLocal = null;
+        Method cleanMethodLocal = null;
+        try {
+            Class<?> clazz = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = clazz.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeLocal = theUnsafe.get(null);
+            invokeCleanerMethodLocal = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleanerMethodLocal.invoke(unsafeLocal, tempBuffer);
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            unsafeLocal = null;
+            invokeCleanerMethodLocal = null;
+            tempBuffer = ByteBuffer.allocateDirect(0);
+            try {
+                cleanerMethodLocal = tempBuffer.getClass().getMethod("cleaner");
+                cleanerMethodLocal.setAccessible(true);
+                Object cleanerObject = cleanerMethodLocal.invoke(tempBuffer);
+                cleanMethodLocal = cleanerObject.getClass().getMethod("clean");
+                cleanMethodLocal.invoke(cleanerObject);
+            } catch (Throwable t2) {
+                ExceptionUtils.handleThrowable(t2);
+                log.warn(sm.getString("byteBufferUtils.cleaner"), t2);
+                cleanerMethodLocal = null;
+                cleanMethodLocal = null;
+            }
+        }
+        unsafe = unsafeLocal;
+        invokeCleanerMethod = invokeCleanerMethodLocal;
+        cleanerMethod = cleanerMethodLocal;
+        cleanMethod = cleanMethodLocal;
+    }
+
+
+    private ByteBufferUtils() {
+        // Hide the default constructor since this is a utility class.
+    }
+
+
+    /**
+     * @return <code>true</code> if {@link #cleanDirectBuffer(ByteBuffer)} is
+     *         able to release buffers on this JVM
+     */
+    public static boolean isCleanSupported() {
+        return invokeCleanerMethod != null || cleanMethod != null;
+    }
+
+
+    /**
+     * Releases the memory, or the file mapping, of a direct buffer. Heap
+     * buffers, views and duplicates are ignored: only the buffer that was
+     * allocated or mapped may be cleaned.
+     *
+     * @param buf The buffer to release
+     */
+    public static void cleanDirectBuffer(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        try {
+            if (invokeCleanerMethod != null) {
+                invokeCleanerMethod.invoke(unsafe, buf);
+            } else if (cleanMethod != null) {
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleanMethod.invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            // Views and duplicates have no cleaner of their own
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("byteBufferUtils.cleaner"), e);
+            }
+        }
+    }
+}
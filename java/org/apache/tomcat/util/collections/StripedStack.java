@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free alternative to {@link SynchronizedStack} for pools of re-usable
+ * objects that are shared by many threads. The pool is split into a number of
+ * stripes, each of which is a fixed array of slots that are claimed and
+ * released with compare-and-set. Threads start with a stripe selected from
+ * their thread ID and only look at other stripes when theirs is empty (pop)
+ * or full (push) so, under load, threads rarely compete for the same slots.
+ * <p>
+ * The size limit has the same meaning as for {@link SynchronizedStack}: a
+ * limit of -1 means the pool is unbounded and any other value is the maximum
+ * number of objects the pool will hold. Unlike {@link SynchronizedStack} the
+ * limit is always enforced exactly. Objects are returned in approximately, but
+ * not strictly, LIFO order.
+ * <p>
+ * An unbounded pool uses a {@link ConcurrentLinkedQueue} for any objects that
+ * do not fit in the stripes. Only those objects create garbage when pooled.
+ *
+ * @param <T> The type of object managed by this stack
+ */
+public class StripedStack<T> {
+
+    private static final int DEFAULT_LIMIT = -1;
+    private static final int MAX_STRIPES = 64;
+    /*
+     * The number of slots per stripe for an unbounded pool.
+     */
+    private static final int UNBOUNDED_STRIPE_SIZE = 32;
+
+    private final int limit;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final Queue<Object> overflow;
+
+
+    public StripedStack() {
+        this(DEFAULT_LIMIT);
+    }
+
+
+    public StripedStack(int limit) {
+        this(limit, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * @param limit       The maximum number of objects to hold or -1 for no
+     *                    limit
+     * @param concurrency The expected number of threads using the pool
+     *                    concurrently. Used to size the number of stripes.
+     */
+    public StripedStack(int limit, int concurrency) {
+        this.limit = limit;
+
+        int stripeCount = 1;
+        while (stripeCount < concurrency && stripeCount < MAX_STRIPES) {
+            stripeCount <<= 1;
+        }
+        // There is no point having more stripes than objects
+        while (limit != -1 && stripeCount > 1 && stripeCount > limit) {
+            stripeCount >>= 1;
+        }
+
+        stripes = new Stripe[stripeCount];
+        stripeMask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            int stripeSize;
+            if (limit == -1) {
+                stripeSize = UNBOUNDED_STRIPE_SIZE;
+            } else {
+                // Share the limit as evenly as possible
+                stripeSize = limit / stripeCount + (i < limit % stripeCount ? 1 : 0);
+            }
+            stripes[i] = new Stripe(stripeSize);
+        }
+
+        if (limit == -1) {
+            overflow = new ConcurrentLinkedQueue<>();
+        } else {
+            overflow = null;
+        }
+    }
+
+
+    /**
+     * Add an object to the pool.
+     *
+     * @param obj The object to add
+     *
+     * @return <code>true</code> if the object was added, <code>false</code>
+     *         if the pool is full
+     */
+    public boolean push(T obj) {
+        int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            if (stripes[(home + i) & stripeMask].push(obj)) {
+                return true;
+            }
+        }
+        if (overflow != null) {
+            return overflow.offer(obj);
+        }
+        return false;
+    }
+
+
+    /**
+     * Remove an object from the pool.
+     *
+     * @return An object from the pool or <code>null</code> if the pool is
+     *         empty
+     */
+    @SuppressWarnings("unchecked")
+    public T pop() {
+        int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            Object result = stripes[(home + i) & stripeMask].pop();
+            if (result != null) {
+                return (T) result;
+            }
+        }
+        if (overflow != null) {
+            return (T) overflow.poll();
+        }
+        return null;
+    }
+
+
+    /**
+     * Remove all objects from the pool. Objects pushed concurrently with this
+     * call may or may not be removed.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+        if (overflow != null) {
+            overflow.clear();
+        }
+    }
+
+
+    /**
+     * @return The maximum number of objects that this pool will hold or -1 if
+     *         there is no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+
+    private int homeStripe() {
+        // Thread IDs are usually sequential so spread them across the stripes
+        long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & stripeMask;
+    }
+
+
+    private static class Stripe {
+
+        private final AtomicReferenceArray<Object> slots;
+        /*
+         * Approximate number of occupied slots. Only used to avoid scanning
+         * stripes that are empty or full so it does not have to be exact.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+        /*
+         * Where the next push is likely to succeed. Slots are normally filled
+         * from the bottom up so this is usually just above the top occupied
+         * slot. It is only a hint so updates are not atomic with the slots.
+         */
+        private volatile int top = 0;
+
+        Stripe(int size) {
+            slots = new AtomicReferenceArray<>(size);
+        }
+
+        boolean push(Object obj) {
+            int size = slots.length();
+            if (count.get() >= size) {
+                return false;
+            }
+            int start = Math.min(top, size - 1);
+            for (int i = 0; i < size; i++) {
+                int index = start + i;
+                if (index >= size) {
+                    index -= size;
+                }
+                if (slots.get(index) == null && slots.compareAndSet(index, null, obj)) {
+                    top = index + 1;
+                    count.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Object pop() {
+            if (count.get() <= 0) {
+                return null;
+            }
+            int size = slots.length();
+            // Scan down from the hint so recently pushed objects are preferred
+            int start = Math.min(top, size) - 1;
+            if (start < 0) {
+                start = size - 1;
+            }
+            for (int i = 0; i < size; i++) {
+                int index = start - i;
+                if (index < 0) {
+                    index += size;
+                }
+                Object result = slots.get(index);
+                if (result != null && slots.compareAndSet(index, result, null)) {
+                    top = index;
+                    count.decrementAndGet();
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        void clear() {
+            for (int i = 0; i < slots.length(); i++) {
+                if (slots.getAndSet(i, null) != null) {
+                    count.decrementAndGet();
+                }
+            }
+            top = 0;
+        }
+    }
+}
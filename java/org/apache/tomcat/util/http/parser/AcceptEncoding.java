@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class AcceptEncoding {
+
+    private final String encoding;
+    private final double quality;
+
+    protected AcceptEncoding(String encoding, double quality) {
+        this.encoding = encoding;
+        this.quality = quality;
+    }
+
+    /**
+     * @return The content-coding in lower case, <code>identity</code> or
+     *         <code>*</code>
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public double getQuality() {
+        return quality;
+    }
+
+
+    /**
+     * Parse an Accept-Encoding header. Unlike {@link AcceptLanguage}, entries
+     * with a quality of zero are retained since they explicitly mark an
+     * encoding (including <code>identity</code>) as not acceptable.
+     *
+     * @param input The header value to parse
+     *
+     * @return The encodings in the order they appear in the header
+     *
+     * @throws IOException If an error occurs reading the input
+     */
+    public static List<AcceptEncoding> parse(StringReader input) throws IOException {
+
+        List<AcceptEncoding> result = new ArrayList<>();
+
+        do {
+            String encoding = HttpParser.readToken(input);
+            if (encoding == null) {
+                // Invalid encoding, skip to the next one
+                HttpParser.skipUntil(input, 0, ',');
+                continue;
+            }
+
+            if (encoding.length() == 0) {
+                // No more data to read
+                break;
+            }
+
+            // See if a quality has been provided
+            double quality = 1;
+            SkipResult lookForSemiColon = HttpParser.skipConstant(input, ";");
+            if (lookForSemiColon == SkipResult.FOUND) {
+                quality = HttpParser.readWeight(input, ',');
+            }
+
+            result.add(new AcceptEncoding(encoding.toLowerCase(Locale.ENGLISH), quality));
+        } while (true);
+
+        return result;
+    }
+
+
+    /**
+     * Determine the quality the client has assigned to the given content
+     * coding. An explicit entry for the coding takes precedence over
+     * <code>*</code>. If neither is present, <code>identity</code> is
+     * acceptable and all other codings are not.
+     *
+     * @param acceptEncodings The parsed Accept-Encoding header(s)
+     * @param encoding        The content coding, in lower case
+     *
+     * @return The quality, zero if the coding is not acceptable
+     */
+    public static double getQuality(List<AcceptEncoding> acceptEncodings,
+            String encoding) {
+        double wildcard = -1;
+        for (AcceptEncoding acceptEncoding : acceptEncodings) {
+            if (acceptEncoding.getEncoding().equals(encoding)) {
+                return acceptEncoding.getQuality();
+            }
+            if ("*".equals(acceptEncoding.getEncoding())) {
+                wildcard = acceptEncoding.getQuality();
+            }
+        }
+        if (wildcard >= 0) {
+            return wildcard;
+        }
+        if ("identity".equals(encoding)) {
+            return 1;
+        }
+        return 0;
+    }
+}
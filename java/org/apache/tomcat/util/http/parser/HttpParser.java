@@ -350,6 +350,9 @@ public class HttpParser {
             c = input.read();
             if (c == '.') {
                 value.append('.');
+            } else if (c == delimiter || c == 9 || c == 32 || c == -1) {
+                // No fractional part. Don't read past the end of the weight.
+                return Double.parseDouble(value.toString());
             } else if (c < '0' || c > '9') {
                 decimalPlacesRead = 3;
             }
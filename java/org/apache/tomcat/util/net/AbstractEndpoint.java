@@ -41,6 +41,7 @@ import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 /**
  *
  * @author Mladen Turk
@@ -315,6 +316,18 @@ public abstract class AbstractEndpoint<S> {
     public Executor getExecutor() { return executor; }
 
 
+    /**
+     * Should the internal executor run each task on a new virtual thread
+     * rather than on a thread from a pool? Requires Java 21 or later. Ignored
+     * if an external executor is used.
+     */
+    private boolean useVirtualThreads = false;
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+    public boolean getUseVirtualThreads() { return useVirtualThreads; }
+
+
     /**
      * Server socket port.
      */
@@ -474,6 +487,15 @@ public abstract class AbstractEndpoint<S> {
     public void setName(String name) { this.name = name; }
     public String getName() { return name; }
 
+    /**
+     * JMX domain of the protocol handler that owns this endpoint, used when
+     * registering any additional MBeans. <code>null</code> if the protocol
+     * handler is not registered with JMX.
+     */
+    private String domain = null;
+    public void setDomain(String domain) { this.domain = domain; }
+    public String getDomain() { return domain; }
+
     /**
      * The default is true - the created threads will be
      *  in daemon mode. If set to false, the control thread
@@ -556,6 +578,8 @@ public abstract class AbstractEndpoint<S> {
         if (executor!=null) {
             if (executor instanceof ThreadPoolExecutor) {
                 return ((ThreadPoolExecutor)executor).getPoolSize();
+            } else if (executor instanceof VirtualThreadExecutor) {
+                return ((VirtualThreadExecutor)executor).getSubmittedCount();
             } else if (executor instanceof ResizableExecutor) {
                 return ((ResizableExecutor)executor).getPoolSize();
             } else {
@@ -575,6 +599,8 @@ public abstract class AbstractEndpoint<S> {
         if (executor!=null) {
             if (executor instanceof ThreadPoolExecutor) {
                 return ((ThreadPoolExecutor)executor).getActiveCount();
+            } else if (executor instanceof VirtualThreadExecutor) {
+                return ((VirtualThreadExecutor)executor).getActiveCount();
             } else if (executor instanceof ResizableExecutor) {
                 return ((ResizableExecutor)executor).getActiveCount();
             } else {
@@ -596,6 +622,10 @@ public abstract class AbstractEndpoint<S> {
 
     public void createExecutor() {
         internalExecutor = true;
+        if (useVirtualThreads) {
+            executor = new VirtualThreadExecutor(getName() + "-virt-");
+            return;
+        }
         TaskQueue taskqueue = new TaskQueue();
         TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
@@ -621,6 +651,20 @@ public abstract class AbstractEndpoint<S> {
                 }
                 TaskQueue queue = (TaskQueue) tpe.getQueue();
                 queue.setParent(null);
+            } else if (executor instanceof VirtualThreadExecutor) {
+                VirtualThreadExecutor vte = (VirtualThreadExecutor) executor;
+                vte.shutdown();
+                long timeout = getExecutorTerminationTimeoutMillis();
+                if (timeout > 0) {
+                    try {
+                        vte.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    if (!vte.isTerminated()) {
+                        getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+                    }
+                }
             }
             executor = null;
         }
@@ -53,6 +53,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.ByteBufferHolder;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
@@ -69,6 +70,18 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
     private static final Log log = LogFactory.getLog(Nio2Endpoint.class);
 
+    /**
+     * Files (or the remaining parts of files) at least this large are written
+     * by sendfile directly from a memory mapping of the file rather than being
+     * copied through the socket's write buffer.
+     */
+    private static final long SENDFILE_MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * The maximum size of a single sendfile memory mapping.
+     */
+    private static final long SENDFILE_MAP_MAX_SIZE = 8 * 1024 * 1024;
+
 
     // ----------------------------------------------------------------- Fields
 
@@ -1504,13 +1517,13 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                 failed(new EOFException(), attachment);
                 return;
             }
-            // TODO: Lots of direct access to the socketWriteBuffer.
-            //       Refactor to use socketBufferHandler
             attachment.pos += nWrite.intValue();
             if (!attachment.buffer.hasRemaining()) {
+                unmapSendfileBuffer(attachment);
                 if (attachment.length <= 0) {
                     // All data has now been written
                     attachment.socket.setSendfileData(null);
+                    attachment.buffer = null;
                     try {
                         attachment.fchannel.close();
                     } catch (IOException e) {
@@ -1531,24 +1544,15 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                     }
                     return;
                 } else {
-                    attachment.buffer.clear();
-                    int nRead = -1;
                     try {
-                        nRead = attachment.fchannel.read(attachment.buffer);
+                        if (!fillSendfileBuffer(attachment)) {
+                            failed(new EOFException(), attachment);
+                            return;
+                        }
                     } catch (IOException e) {
                         failed(e, attachment);
                         return;
                     }
-                    if (nRead > 0) {
-                        attachment.buffer.flip();
-                        if (attachment.length < attachment.buffer.remaining()) {
-                            attachment.buffer.limit(attachment.buffer.limit() - attachment.buffer.remaining() + (int) attachment.length);
-                        }
-                        attachment.length -= nRead;
-                    } else {
-                        failed(new EOFException(), attachment);
-                        return;
-                    }
                 }
             }
             attachment.socket.getSocket().write(attachment.buffer,
@@ -1558,6 +1562,8 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
         @Override
         public void failed(Throwable exc, SendfileData attachment) {
+            unmapSendfileBuffer(attachment);
+            attachment.buffer = null;
             try {
                 attachment.fchannel.close();
             } catch (IOException e) {
@@ -1585,35 +1591,84 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                 return SendfileState.ERROR;
             }
         }
-        socket.getSocket().getBufHandler().configureWriteBufferForWrite();
-        ByteBuffer buffer = socket.getSocket().getBufHandler().getWriteBuffer();
-        int nRead = -1;
+        data.socket = socket;
         try {
-            nRead = data.fchannel.read(buffer);
-        } catch (IOException e1) {
+            if (!fillSendfileBuffer(data)) {
+                return SendfileState.ERROR;
+            }
+        } catch (IOException e) {
             return SendfileState.ERROR;
         }
 
-        if (nRead >= 0) {
-            data.socket = socket;
-            data.buffer = buffer;
-            data.length -= nRead;
-            socket.getSocket().getBufHandler().configureWriteBufferForRead();
-            Nio2Endpoint.startInline();
-            socket.getSocket().write(buffer, socket.getNio2WriteTimeout(), TimeUnit.MILLISECONDS,
-                    data, sendfile);
-            Nio2Endpoint.endInline();
-            if (data.doneInline) {
-                if (data.error) {
-                    return SendfileState.ERROR;
-                } else {
-                    return SendfileState.DONE;
-                }
+        Nio2Endpoint.startInline();
+        socket.getSocket().write(data.buffer, socket.getNio2WriteTimeout(), TimeUnit.MILLISECONDS,
+                data, sendfile);
+        Nio2Endpoint.endInline();
+        if (data.doneInline) {
+            if (data.error) {
+                return SendfileState.ERROR;
             } else {
-                return SendfileState.PENDING;
+                return SendfileState.DONE;
             }
         } else {
-            return SendfileState.ERROR;
+            return SendfileState.PENDING;
+        }
+    }
+
+    /**
+     * Prepare the next block of the file to be written. Large blocks are
+     * memory mapped and written directly so the file data is not copied into
+     * the Java heap. Smaller blocks, the first block if the response headers
+     * are still in the write buffer, and all blocks if the JVM cannot unmap a
+     * mapping once it has been written, are read into the socket's write
+     * buffer.
+     *
+     * @return <code>false</code> if the end of the file was reached before
+     *         the expected number of bytes could be read
+     */
+    private boolean fillSendfileBuffer(SendfileData data) throws IOException {
+        SocketBufferHandler bufHandler = data.socket.getSocket().getBufHandler();
+        // The position of the file channel tracks the next byte to read
+        if (data.length >= SENDFILE_MAP_THRESHOLD && bufHandler.isWriteBufferEmpty() &&
+                ByteBufferUtils.isCleanSupported()) {
+            long start = data.fchannel.position();
+            long size = Math.min(data.length, SENDFILE_MAP_MAX_SIZE);
+            if (start + size > data.fchannel.size()) {
+                return false;
+            }
+            data.buffer = data.fchannel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            data.mapped = true;
+            data.fchannel.position(start + size);
+            data.length -= size;
+            return true;
+        }
+
+        // Any data already in the write buffer (e.g. the response headers) is
+        // written ahead of the file data
+        bufHandler.configureWriteBufferForWrite();
+        ByteBuffer buffer = bufHandler.getWriteBuffer();
+        if (data.length < buffer.remaining()) {
+            buffer.limit(buffer.position() + (int) data.length);
+        }
+        int nRead = data.fchannel.read(buffer);
+        bufHandler.configureWriteBufferForRead();
+        if (nRead < 0 || (nRead == 0 && data.length > 0 && !buffer.hasRemaining())) {
+            return false;
+        }
+        data.length -= nRead;
+        data.buffer = buffer;
+        return true;
+    }
+
+    /**
+     * Unmap the current block once it has been written, or the write has
+     * failed, rather than leave the file mapping (and its file handle) in place
+     * until the buffer is garbage collected.
+     */
+    private static void unmapSendfileBuffer(SendfileData data) {
+        if (data.mapped) {
+            data.mapped = false;
+            ByteBufferUtils.cleanDirectBuffer(data.buffer);
         }
     }
 
@@ -1758,6 +1813,8 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
         // Internal use only
         private Nio2SocketWrapper socket;
         private ByteBuffer buffer;
+        // The buffer is a file mapping that must be unmapped once written
+        private boolean mapped = false;
         private boolean doneInline = false;
         private boolean error = false;
 
@@ -41,6 +41,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.ObjectName;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
@@ -52,8 +53,9 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedQueue;
-import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
@@ -122,22 +124,22 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     /**
      * Cache for SocketProcessor objects
      */
-    private SynchronizedStack<SocketProcessor> processorCache;
+    private StripedStack<SocketProcessor> processorCache;
 
     /**
      * Cache for key attachment objects
      */
-    private SynchronizedStack<NioSocketWrapper> keyCache;
+    private StripedStack<NioSocketWrapper> keyCache;
 
     /**
      * Cache for poller events
      */
-    private SynchronizedStack<PollerEvent> eventCache;
+    private StripedStack<PollerEvent> eventCache;
 
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
      */
-    private SynchronizedStack<NioChannel> nioChannels;
+    private StripedStack<NioChannel> nioChannels;
 
 
     // ------------------------------------------------------------- Properties
@@ -185,6 +187,15 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Should new connections be assigned to the poller that currently has the
+     * fewest connections rather than to the pollers in turn? Either way, a
+     * connection stays with the poller it is assigned to until it is closed.
+     */
+    private boolean useLeastLoadedPoller = false;
+    public void setUseLeastLoadedPoller(boolean useLeastLoadedPoller) { this.useLeastLoadedPoller = useLeastLoadedPoller; }
+    public boolean getUseLeastLoadedPoller() { return useLeastLoadedPoller; }
+
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -194,16 +205,50 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     private Poller[] pollers = null;
     private AtomicInteger pollerRotater = new AtomicInteger(0);
     /**
-     * Return an available poller in true round robin fashion.
+     * Return an available poller in true round robin fashion or, if
+     * {@link #getUseLeastLoadedPoller()} is set, the poller with the fewest
+     * connections.
      *
-     * @return The next poller in sequence
+     * @return The poller to use for a new connection
      */
     public Poller getPoller0() {
         int idx = Math.abs(pollerRotater.incrementAndGet()) % pollers.length;
+        if (useLeastLoadedPoller) {
+            // Start from the round robin position so ties are spread evenly
+            Poller result = pollers[idx];
+            int min = result.getStatistics().getConnectionCount();
+            for (int i = 1; i < pollers.length && min > 0; i++) {
+                Poller poller = pollers[(idx + i) % pollers.length];
+                int count = poller.getStatistics().getConnectionCount();
+                if (count < min) {
+                    result = poller;
+                    min = count;
+                }
+            }
+            return result;
+        }
         return pollers[idx];
     }
 
 
+    /**
+     * Obtain the statistics for the poller with the given index.
+     *
+     * @param index The index of the poller
+     *
+     * @return The statistics for the poller or <code>null</code> if the
+     *         endpoint is not running or there is no poller with that index
+     */
+    public PollerStatistics getPollerStatistics(int index) {
+        Poller[] pollers = this.pollers;
+        if (pollers == null || index < 0 || index >= pollers.length ||
+                pollers[index] == null) {
+            return null;
+        }
+        return pollers[index].getStatistics();
+    }
+
+
     public void setSelectorPool(NioSelectorPool selectorPool) {
         this.selectorPool = selectorPool;
     }
@@ -391,14 +436,12 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getProcessorCache());
-            keyCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                            socketProperties.getKeyCache());
-            eventCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                            socketProperties.getEventCache());
-            nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getBufferPool());
+            // These caches are used by every acceptor, poller and worker
+            // thread so use an implementation that avoids a single lock
+            processorCache = new StripedStack<>(socketProperties.getProcessorCache());
+            keyCache = new StripedStack<>(socketProperties.getKeyCache());
+            eventCache = new StripedStack<>(socketProperties.getEventCache());
+            nioChannels = new StripedStack<>(socketProperties.getBufferPool());
 
             // Create worker collection
             if ( getExecutor() == null ) {
@@ -411,6 +454,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             pollers = new Poller[getPollerThreadCount()];
             for (int i=0; i<pollers.length; i++) {
                 pollers[i] = new Poller();
+                registerPollerStatistics(pollers[i], i);
                 Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-"+i);
                 pollerThread.setPriority(threadPriority);
                 pollerThread.setDaemon(true);
@@ -436,6 +480,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             unlockAccept();
             for (int i=0; pollers!=null && i<pollers.length; i++) {
                 if (pollers[i]==null) continue;
+                unregisterPollerStatistics(pollers[i]);
                 pollers[i].destroy();
                 pollers[i] = null;
             }
@@ -738,6 +783,32 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     }
 
 
+    private void registerPollerStatistics(Poller poller, int index) {
+        String domain = getDomain();
+        if (domain == null) {
+            return;
+        }
+        try {
+            ObjectName oname = new ObjectName(domain + ":type=ThreadPool,name=" +
+                    ObjectName.quote(getName()) + ",subType=Poller,id=" + index);
+            Registry.getRegistry(null, null).registerComponent(
+                    poller.getStatistics(), oname, null);
+            poller.oname = oname;
+        } catch (Exception e) {
+            log.warn(sm.getString("endpoint.nio.pollerRegistrationFailed",
+                    Integer.valueOf(index), getName()), e);
+        }
+    }
+
+
+    private void unregisterPollerStatistics(Poller poller) {
+        if (poller.oname != null) {
+            Registry.getRegistry(null, null).unregisterComponent(poller.oname);
+            poller.oname = null;
+        }
+    }
+
+
     // ----------------------------------------------------- Poller Inner Classes
 
     /**
@@ -820,12 +891,18 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
         private volatile int keyCount = 0;
 
+        private final PollerStatistics statistics;
+        private ObjectName oname = null;
+
         public Poller() throws IOException {
             this.selector = Selector.open();
+            this.statistics = new PollerStatistics(events);
         }
 
         public int getKeyCount() { return keyCount; }
 
+        public PollerStatistics getStatistics() { return statistics; }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -898,6 +975,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
          */
         public void register(final NioChannel socket) {
             socket.setPoller(this);
+            statistics.connectionCount.incrementAndGet();
             NioSocketWrapper key = keyCache.pop();
             final NioSocketWrapper ka = key!=null?key:new NioSocketWrapper(socket, NioEndpoint.this);
             ka.reset(this,socket,getSocketProperties().getSoTimeout());
@@ -951,6 +1029,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 if (ka!=null) {
                     ka.reset();
                     countDownConnection();
+                    statistics.connectionCount.decrementAndGet();
                 }
             } catch (Throwable e) {
                 ExceptionUtils.handleThrowable(e);
@@ -1019,6 +1098,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                         log.error("",x);
                         continue;
                     }
+                    long loopStart = System.nanoTime();
                     //either we timed out or we woke up, process events first
                     if ( keyCount == 0 ) hasEvents = (hasEvents | events());
 
@@ -1041,6 +1121,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
                     //process timeouts
                     timeout(keyCount,hasEvents);
+                    statistics.loopComplete(keyCount, System.nanoTime() - loopStart);
                     if ( oomParachute > 0 && oomParachuteData == null ) checkParachute();
                 } catch (OutOfMemoryError oom) {
                     try {
@@ -1289,6 +1370,104 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         }
     }
 
+
+    /**
+     * Statistics for a single {@link Poller}. An instance is registered with
+     * JMX for each poller so that the load on each poller can be observed
+     * when sizing {@link NioEndpoint#getPollerThreadCount()}. The loop
+     * statistics are only written by the poller thread.
+     */
+    public static class PollerStatistics {
+
+        private final SynchronizedQueue<PollerEvent> events;
+        private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+        private volatile long loopCount = 0;
+        private volatile long selectedKeyCount = 0;
+        private volatile long loopTime = 0;
+        private volatile long maxLoopTime = 0;
+
+        PollerStatistics(SynchronizedQueue<PollerEvent> events) {
+            this.events = events;
+        }
+
+        private void loopComplete(int keyCount, long time) {
+            loopCount++;
+            selectedKeyCount += keyCount;
+            loopTime += time;
+            if (time > maxLoopTime) {
+                maxLoopTime = time;
+            }
+        }
+
+        /**
+         * @return The number of connections currently assigned to the poller
+         */
+        public int getConnectionCount() {
+            return connectionCount.get();
+        }
+
+        /**
+         * @return The number of events waiting to be processed by the poller
+         */
+        public int getEventQueueSize() {
+            return events.size();
+        }
+
+        /**
+         * @return The number of times the poller has completed its main loop
+         */
+        public long getLoopCount() {
+            return loopCount;
+        }
+
+        /**
+         * @return The total number of keys returned by the selector
+         */
+        public long getSelectedKeyCount() {
+            return selectedKeyCount;
+        }
+
+        /**
+         * @return The average number of keys returned by the selector per loop
+         */
+        public double getAverageSelectedKeys() {
+            long loops = loopCount;
+            if (loops == 0) {
+                return 0;
+            }
+            return (double) selectedKeyCount / loops;
+        }
+
+        /**
+         * @return The average time in microseconds spent processing the
+         *         results of each select, excluding the time spent waiting in
+         *         the select
+         */
+        public long getAverageLoopTime() {
+            long loops = loopCount;
+            if (loops == 0) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMicros(loopTime / loops);
+        }
+
+        /**
+         * @return The maximum time in microseconds spent processing the results
+         *         of a single select
+         */
+        public long getMaxLoopTime() {
+            return TimeUnit.NANOSECONDS.toMicros(maxLoopTime);
+        }
+
+        public void resetStatistics() {
+            loopCount = 0;
+            selectedKeyCount = 0;
+            loopTime = 0;
+            maxLoopTime = 0;
+        }
+    }
+
     // ---------------------------------------------------- Key Attachment Class
     public static class NioSocketWrapper extends SocketWrapperBase<NioChannel> {
 
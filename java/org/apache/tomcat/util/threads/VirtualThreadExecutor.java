@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that runs each task on a new virtual thread rather than on a
+ * thread from a bounded pool. Since virtual threads are cheap to create and to
+ * block, this allows many more concurrent tasks that block on I/O than a
+ * platform thread pool of a sensible size.
+ * <p>
+ * Virtual threads require Java 21 or later. They are created via reflection so
+ * that this class may be compiled on earlier versions. Use
+ * {@link #isSupported()} to determine if they are available.
+ * <p>
+ * The number of tasks that may execute concurrently may optionally be limited.
+ * Tasks that exceed the limit are not rejected. Their virtual thread waits
+ * until a running task completes. An accepted task is always run, even if its
+ * thread is interrupted while it waits, as the caller relies on the task to
+ * release any resources, such as a socket, that it was given.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private static final Log log = LogFactory.getLog(VirtualThreadExecutor.class);
+    private static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    private static final Method ofVirtualMethod;
+    private static final Method nameMethod;
+    private static final Method factoryMethod;
+
+    static {
+        Method m1 = null;
+        Method m2 = null;
+        Method m3 = null;
+        try {
+            m1 = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            m2 = builderClass.getMethod("name", String.class, long.class);
+            m3 = builderClass.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            // Not Java 21+
+            m1 = null;
+            m2 = null;
+            m3 = null;
+        }
+        ofVirtualMethod = m1;
+        nameMethod = m2;
+        factoryMethod = m3;
+    }
+
+
+    /**
+     * @return <code>true</code> if the current JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return ofVirtualMethod != null;
+    }
+
+
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrency;
+    private final Semaphore concurrencyLimit;
+
+    /*
+     * Tasks that have been accepted but have not yet completed, including any
+     * waiting for the concurrency limit.
+     */
+    private final AtomicInteger submittedCount = new AtomicInteger(0);
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final Object terminationLock = new Object();
+    private volatile boolean shutdown = false;
+
+
+    /**
+     * Create an executor with no limit on the number of concurrent tasks.
+     *
+     * @param namePrefix The prefix for the names of the created threads
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        this(namePrefix, -1);
+    }
+
+
+    /**
+     * Create an executor.
+     *
+     * @param namePrefix     The prefix for the names of the created threads
+     * @param maxConcurrency The maximum number of tasks that may execute at the
+     *                       same time or -1 for no limit
+     *
+     * @throws UnsupportedOperationException if the JVM does not support
+     *         virtual threads
+     */
+    public VirtualThreadExecutor(String namePrefix, int maxConcurrency) {
+        this(createVirtualThreadFactory(namePrefix), maxConcurrency);
+    }
+
+
+    /*
+     * Package private so the concurrency limit may be tested on JVMs without
+     * virtual threads.
+     */
+    VirtualThreadExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+        this.threadFactory = threadFactory;
+        this.maxConcurrency = maxConcurrency;
+        if (maxConcurrency > 0) {
+            concurrencyLimit = new Semaphore(maxConcurrency);
+        } else {
+            concurrencyLimit = null;
+        }
+    }
+
+
+    private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                    sm.getString("virtualThreadExecutor.notSupported"));
+        }
+        try {
+            Object builder = ofVirtualMethod.invoke(null);
+            builder = nameMethod.invoke(builder, namePrefix, Long.valueOf(0));
+            return (ThreadFactory) factoryMethod.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(
+                    sm.getString("virtualThreadExecutor.notSupported"), e);
+        }
+    }
+
+
+    /**
+     * @return The maximum number of tasks that may execute at the same time or
+     *         -1 if there is no limit
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+
+    /**
+     * @return The number of tasks that are currently executing
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+
+    /**
+     * @return The number of tasks that have been submitted but have not yet
+     *         completed. This includes tasks that are waiting for the
+     *         concurrency limit.
+     */
+    public int getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException(
+                    sm.getString("virtualThreadExecutor.taskRejected", command));
+        }
+        Thread t = threadFactory.newThread(new Task(command));
+        if (t == null) {
+            throw new RejectedExecutionException(
+                    sm.getString("virtualThreadExecutor.taskRejected", command));
+        }
+        submittedCount.incrementAndGet();
+        try {
+            t.start();
+        } catch (RuntimeException | Error e) {
+            taskComplete();
+            throw e;
+        }
+    }
+
+
+    private void taskComplete() {
+        if (submittedCount.decrementAndGet() == 0 && shutdown) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        synchronized (terminationLock) {
+            terminationLock.notifyAll();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tasks are never queued so this is equivalent to {@link #shutdown()} and
+     * always returns an empty list. Running tasks are not interrupted.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && submittedCount.get() == 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+            }
+        }
+        return true;
+    }
+
+
+    private class Task implements Runnable {
+
+        private final Runnable command;
+
+        Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (concurrencyLimit != null) {
+                    try {
+                        concurrencyLimit.acquire();
+                    } catch (InterruptedException e) {
+                        // The task must still run, else whatever it was
+                        // given to process (e.g. a socket) would be leaked.
+                        // Keep waiting and let the task see the interrupt.
+                        log.warn(sm.getString(
+                                "virtualThreadExecutor.interrupted", command));
+                        concurrencyLimit.acquireUninterruptibly();
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                activeCount.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                    if (concurrencyLimit != null) {
+                        concurrencyLimit.release();
+                    }
+                }
+            } finally {
+                taskComplete();
+            }
+        }
+    }
+}
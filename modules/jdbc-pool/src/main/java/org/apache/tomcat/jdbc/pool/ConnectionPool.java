@@ -31,16 +31,24 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -127,6 +135,44 @@ public class ConnectionPool {
 
     private AtomicLong poolVersion = new AtomicLong(Long.MIN_VALUE);
 
+    /**
+     * The connection each thread last returned to the pool, used when
+     * {@link PoolConfiguration#getUseThreadAffinity()} is set
+     */
+    private final ThreadLocal<WeakReference<PooledConnection>> lastReturned = new ThreadLocal<>();
+
+    /**
+     * The number of connections that have been returned to the pool but are
+     * kept in the busy queue for the thread that returned them
+     */
+    private final AtomicInteger parkedCount = new AtomicInteger(0);
+
+    /**
+     * The requests made through {@link #acquireConnection()} that wait for a
+     * connection, oldest first
+     */
+    private final ConcurrentLinkedDeque<ConnectionRequest> requests = new ConcurrentLinkedDeque<>();
+
+    /**
+     * counter to track how many {@link #acquireConnection()} requests are waiting for a connection
+     */
+    private final AtomicInteger asyncWaitcount = new AtomicInteger(0);
+
+    /**
+     * Executor that serves the {@link #acquireConnection()} requests, created on first use
+     */
+    private volatile ScheduledThreadPoolExecutor asyncExecutor = null;
+
+    /**
+     * Task that hands available connections to the waiting requests
+     */
+    private final Runnable requestService = new Runnable() {
+        @Override
+        public void run() {
+            serviceRequests();
+        }
+    };
+
     //===============================================================================
     //         PUBLIC METHODS
     //===============================================================================
@@ -174,6 +220,67 @@ public class ConnectionPool {
         }
     }
 
+    /**
+     * Retrieves a connection without blocking the calling thread.
+     * The returned stage is completed on a thread owned by the pool as soon
+     * as a connection is available, or completed exceptionally with a
+     * {@link PoolExhaustedException} if none becomes available within
+     * {@link PoolProperties#maxWait maxWait} milliseconds. No thread is
+     * blocked while the request waits. At most
+     * {@link PoolConfiguration#getMaxAsyncWaiters() maxAsyncWaiters} requests
+     * can wait at the same time, any further request fails right away.
+     * If the stage is cancelled before it completes, the connection it would
+     * have received stays in the pool.
+     * @return a stage that completes with a java.sql.Connection/javax.sql.PooledConnection reflection proxy
+     */
+    public CompletionStage<Connection> acquireConnection() {
+        ConnectionRequest request = new ConnectionRequest();
+        if (isClosed()) {
+            request.fail(new SQLException("Connection pool closed."));
+            return request.future;
+        }
+        if (asyncWaitcount.incrementAndGet() > getPoolProperties().getMaxAsyncWaiters()) {
+            asyncWaitcount.decrementAndGet();
+            if (jmxPool!=null) {
+                jmxPool.notify(org.apache.tomcat.jdbc.pool.jmx.ConnectionPool.POOL_EMPTY, "Pool empty - too many waiting requests.");
+            }
+            request.fail(new PoolExhaustedException("Pool empty. Unable to queue a connection request, "+
+                    getPoolProperties().getMaxAsyncWaiters()+" requests are already waiting[size:"+size.get()+"; busy:"+busy.size()+"]."));
+            return request.future;
+        }
+        requests.offerLast(request);
+        //a cancelled request no longer waits
+        final ConnectionRequest cancelled = request;
+        request.future.whenComplete(new BiConsumer<Connection,Throwable>() {
+            @Override
+            public void accept(Connection con, Throwable t) {
+                if (cancelled.future.isCancelled()) {
+                    cancelled.cancelTimeout();
+                    if (requests.remove(cancelled)) {
+                        asyncWaitcount.decrementAndGet();
+                    }
+                }
+            }
+        });
+        try {
+            long maxWait = getPoolProperties().getMaxWait();
+            if (maxWait>0) {
+                request.timeout = getAsyncExecutor().schedule(request, maxWait, TimeUnit.MILLISECONDS);
+            }
+            getAsyncExecutor().execute(requestService);
+        } catch (RejectedExecutionException x) {
+            //the pool was closed meanwhile
+            if (requests.remove(request)) {
+                asyncWaitcount.decrementAndGet();
+            }
+            request.fail(new SQLException("Connection pool closed."));
+        }
+        if (isClosed()) {
+            failRequests();
+        }
+        return request.future;
+    }
+
     /**
      * Borrows a connection from the pool. If a connection is available (in the idle queue) or the pool has not reached
      * {@link PoolProperties#maxActive maxActive} connections a connection is returned immediately.
@@ -223,6 +330,14 @@ public class ConnectionPool {
         return waitcount.get();
     }
 
+    /**
+     * Return the number of {@link #acquireConnection()} requests waiting for a connection
+     * @return number of requests waiting for a connection
+     */
+    public int getAsyncWaitCount() {
+        return asyncWaitcount.get();
+    }
+
     /**
      * Returns the pool properties associated with this connection pool
      * @return PoolProperties
@@ -245,7 +360,7 @@ public class ConnectionPool {
      * @return int - number of established connections that are being used by the application
      */
     public int getActive() {
-        return busy.size();
+        return busy.size() - parkedCount.get();
     }
 
     /**
@@ -253,7 +368,7 @@ public class ConnectionPool {
      * @return int - number of established connections not being used
      */
     public int getIdle() {
-        return idle.size();
+        return idle.size() + parkedCount.get();
     }
 
     /**
@@ -274,6 +389,7 @@ public class ConnectionPool {
      * This Proxy implements {@link java.sql.Connection} and {@link javax.sql.PooledConnection} interfaces.
      * All calls on {@link java.sql.Connection} methods will be propagated down to the actual JDBC connection except for the
      * {@link java.sql.Connection#close()} method.
+     * If {@link PoolConfiguration#getUseDelegatingProxies()} is set the proxy is a {@link DelegatingConnection}.
      * @param con a {@link PooledConnection} to wrap in a Proxy
      * @return a {@link java.sql.Connection} object wrapping a pooled connection.
      * @throws SQLException if an interceptor can't be configured, if the proxy can't be instantiated
@@ -315,6 +431,15 @@ public class ConnectionPool {
             }
         }
 
+        if (getPoolProperties().getUseDelegatingProxies()) {
+            boolean disposable = getPoolProperties().getUseDisposableConnectionFacade();
+            if (con.getXAConnection() != null) {
+                return new DelegatingConnection.XA(handler, con.getInterceptedMethods(), disposable);
+            } else {
+                return new DelegatingConnection(handler, con.getInterceptedMethods(), disposable);
+            }
+        }
+
         try {
             getProxyConstructor(con.getXAConnection() != null);
             //create the proxy
@@ -368,6 +493,16 @@ public class ConnectionPool {
             poolCleaner.stopRunning();
         }
 
+        /* fail the requests waiting for a connection */
+        failRequests();
+        ScheduledThreadPoolExecutor executor = asyncExecutor;
+        if (executor!=null) {
+            executor.shutdown();
+        }
+
+        /* parked connections are idle too */
+        checkParked(-1);
+
         /* release all idle connections */
         BlockingQueue<PooledConnection> pool = (idle.size()>0)?idle:(force?busy:idle);
         while (pool.size()>0) {
@@ -591,6 +726,8 @@ public class ConnectionPool {
         if (waitcount.get() > 0) {
             idle.offer(create(true));
         }
+        // a connection can be created for a waiting request
+        signalRequests();
     }
 
     /**
@@ -608,6 +745,11 @@ public class ConnectionPool {
 
         //get the current time stamp
         long now = System.currentTimeMillis();
+        //try the connection this thread returned last
+        if (getPoolProperties().getUseThreadAffinity()) {
+            PooledConnection result = borrowParkedConnection(now, username, password);
+            if (result!=null) return result;
+        }
         //see if there is one available immediately
         PooledConnection con = idle.poll();
 
@@ -644,8 +786,12 @@ public class ConnectionPool {
             long timetowait = Math.max(0, maxWait - (System.currentTimeMillis() - now));
             waitcount.incrementAndGet();
             try {
-                //retrieve an existing connection
-                con = idle.poll(timetowait, TimeUnit.MILLISECONDS);
+                //take a connection kept for another thread, if any
+                con = unparkConnection();
+                if (con == null) {
+                    //retrieve an existing connection
+                    con = idle.poll(timetowait, TimeUnit.MILLISECONDS);
+                }
             } catch (InterruptedException ex) {
                 if (getPoolProperties().getPropagateInterruptState()) {
                     Thread.currentThread().interrupt();
@@ -680,6 +826,246 @@ public class ConnectionPool {
         } //while
     }
 
+    /**
+     * Borrows the connection the current thread last returned to the pool if
+     * it is still parked.
+     * @param now timestamp of when this was called
+     * @return the connection or <code>null</code> if it is no longer available
+     * @throws SQLException if the connection can not be validated or reconnected
+     */
+    private PooledConnection borrowParkedConnection(long now, String username, String password) throws SQLException {
+        WeakReference<PooledConnection> ref = lastReturned.get();
+        PooledConnection con = (ref==null) ? null : ref.get();
+        if (con==null || !con.unpark()) {
+            return null;
+        }
+        parkedCount.decrementAndGet();
+        PooledConnection result = null;
+        try {
+            //the connection is still in the busy queue
+            result = borrowConnection(now, con, username, password, true);
+        } finally {
+            if (result==null) {
+                busy.remove(con);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Claims a connection parked for any thread, so that it is not left
+     * unused while a thread has to wait for a connection.
+     * @return the connection, removed from the busy queue, or <code>null</code>
+     */
+    private PooledConnection unparkConnection() {
+        if (parkedCount.get()==0) return null;
+        Iterator<PooledConnection> it = busy.iterator();
+        while (it.hasNext()) {
+            PooledConnection con = it.next();
+            if (con.isParked() && con.unpark()) {
+                parkedCount.decrementAndGet();
+                busy.remove(con);
+                return con;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a connection that is being returned in the busy queue for the
+     * thread returning it, unless another thread is waiting for a connection.
+     * Must be called while holding the connection lock.
+     * @param con the connection being returned
+     * @return true if the connection has been parked or released, false if
+     *         it should be returned to the idle queue as usual
+     */
+    private boolean parkConnection(PooledConnection con) {
+        if (con.isReleased() || con.isParked() || waitcount.get()>0 || asyncWaitcount.get()>0) {
+            return false;
+        }
+        if (shouldClose(con,PooledConnection.VALIDATE_RETURN)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Connection ["+con+"] will be closed and not returned to the pool.");
+            }
+            busy.remove(con);
+            release(con);
+            return true;
+        }
+        con.setStackTrace(null);
+        con.setTimestamp(System.currentTimeMillis());
+        WeakReference<PooledConnection> ref = lastReturned.get();
+        if (ref==null || ref.get()!=con) {
+            lastReturned.set(new WeakReference<>(con));
+        }
+        con.park();
+        parkedCount.incrementAndGet();
+        //a thread that started to wait before the connection was parked
+        //will not look for it, hand it over through the idle queue
+        if ((waitcount.get()>0 || asyncWaitcount.get()>0) && con.unpark()) {
+            parkedCount.decrementAndGet();
+            if (!busy.remove(con) || !idle.offer(con)) {
+                release(con);
+            }
+            signalRequests();
+        }
+        return true;
+    }
+
+    /**
+     * Moves connections that have been parked for longer than the given time
+     * to the idle queue, so that the usual idle connection handling applies
+     * to them.
+     * @param maxParkTime the time in milliseconds, -1 to move them all
+     */
+    protected void checkParked(long maxParkTime) {
+        if (parkedCount.get()==0) return;
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = busy.iterator();
+        while (it.hasNext()) {
+            PooledConnection con = it.next();
+            if (con.isParked() && (maxParkTime<0 || (now - con.getTimestamp()) > maxParkTime) && con.unpark()) {
+                parkedCount.decrementAndGet();
+                try {
+                    con.lock();
+                    if (!busy.remove(con) || isClosed() || con.getConnectionVersion() < getPoolVersion() ||
+                            !idle.offer(con)) {
+                        release(con);
+                    }
+                } finally {
+                    con.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Borrows a connection if one can be had without waiting.
+     * @return the connection or <code>null</code> if none is available and the pool is full
+     * @throws SQLException if the connection can not be validated or created
+     */
+    private PooledConnection borrowAvailableConnection() throws SQLException {
+        long now = System.currentTimeMillis();
+        PooledConnection con = idle.poll();
+        if (con==null) {
+            con = unparkConnection();
+        }
+        while (con!=null) {
+            PooledConnection result = borrowConnection(now, con, null, null);
+            if (result!=null) return result;
+            con = idle.poll();
+        }
+        if (size.get() < getPoolProperties().getMaxActive()) {
+            //atomic duplicate check
+            if (size.addAndGet(1) > getPoolProperties().getMaxActive()) {
+                size.decrementAndGet();
+            } else {
+                return createConnection(now, null, null, null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands the connections that are available to the waiting
+     * {@link #acquireConnection()} requests, oldest first, until no
+     * connection or no request is left.
+     */
+    protected void serviceRequests() {
+        try {
+            while (!isClosed()) {
+                ConnectionRequest request = requests.pollFirst();
+                if (request==null) return;
+                if (request.isDone()) {
+                    //timed out or cancelled
+                    asyncWaitcount.decrementAndGet();
+                    continue;
+                }
+                PooledConnection con;
+                try {
+                    con = borrowAvailableConnection();
+                } catch (SQLException x) {
+                    asyncWaitcount.decrementAndGet();
+                    request.fail(x);
+                    continue;
+                }
+                if (con==null) {
+                    requests.offerFirst(request);
+                    //cancelled or timed out while it was not in the queue
+                    if (request.isDone() && requests.remove(request)) {
+                        asyncWaitcount.decrementAndGet();
+                        continue;
+                    }
+                    //a connection returned before the request was put back
+                    //would not signal it, look again in that case
+                    if (idle.isEmpty() && parkedCount.get()==0 &&
+                            size.get() >= getPoolProperties().getMaxActive()) {
+                        return;
+                    }
+                    continue;
+                }
+                asyncWaitcount.decrementAndGet();
+                request.complete(con);
+            }
+        } finally {
+            if (isClosed()) {
+                failRequests();
+            }
+        }
+    }
+
+    /**
+     * Schedules {@link #serviceRequests()} if any request is waiting.
+     */
+    private void signalRequests() {
+        if (asyncWaitcount.get()==0 || isClosed()) return;
+        try {
+            getAsyncExecutor().execute(requestService);
+        } catch (RejectedExecutionException x) {
+            log.debug("Unable to serve waiting connection requests, the pool is closed.", x);
+        }
+    }
+
+    /**
+     * Fails all the waiting {@link #acquireConnection()} requests, used when the pool is closed.
+     */
+    private void failRequests() {
+        ConnectionRequest request;
+        while ((request = requests.pollFirst())!=null) {
+            asyncWaitcount.decrementAndGet();
+            request.fail(new SQLException("Connection pool closed."));
+        }
+    }
+
+    /**
+     * @return the executor that serves the {@link #acquireConnection()} requests
+     */
+    private ScheduledThreadPoolExecutor getAsyncExecutor() {
+        ScheduledThreadPoolExecutor executor = asyncExecutor;
+        if (executor==null) {
+            synchronized (requests) {
+                executor = asyncExecutor;
+                if (executor==null) {
+                    executor = new ScheduledThreadPoolExecutor(getPoolProperties().getMaxActive(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger(0);
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Tomcat JDBC Pool Async["+getName()+"]-"+count.incrementAndGet());
+                            t.setDaemon(true);
+                            t.setContextClassLoader(ConnectionPool.class.getClassLoader());
+                            return t;
+                        }
+                    });
+                    executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+                    executor.allowCoreThreadTimeOut(true);
+                    executor.setRemoveOnCancelPolicy(true);
+                    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     /**
      * Creates a JDBC connection and tries to connect to the database.
      * @param now timestamp of when this was called
@@ -740,6 +1126,11 @@ public class ConnectionPool {
      * @throws SQLException if a validation error happens
      */
     protected PooledConnection borrowConnection(long now, PooledConnection con, String username, String password) throws SQLException {
+        return borrowConnection(now, con, username, password, false);
+    }
+
+    private PooledConnection borrowConnection(long now, PooledConnection con, String username, String password,
+            boolean inBusyQueue) throws SQLException {
         //we have a connection, lets set it up
 
         //flag to see if we need to nullify
@@ -767,7 +1158,7 @@ public class ConnectionPool {
                         //set the stack trace for this pool
                         con.setStackTrace(getThreadDump());
                     }
-                    if (!busy.offer(con)) {
+                    if (!inBusyQueue && !busy.offer(con)) {
                         log.debug("Connection doesn't fit into busy array, connection will not be traceable.");
                     }
                     return con;
@@ -791,7 +1182,7 @@ public class ConnectionPool {
                         //set the stack trace for this pool
                         con.setStackTrace(getThreadDump());
                     }
-                    if (!busy.offer(con)) {
+                    if (!inBusyQueue && !busy.offer(con)) {
                         log.debug("Connection doesn't fit into busy array, connection will not be traceable.");
                     }
                     return con;
@@ -879,6 +1270,10 @@ public class ConnectionPool {
             try {
                 con.lock();
 
+                if (getPoolProperties().getUseThreadAffinity() && parkConnection(con)) {
+                    return;
+                }
+
                 if (busy.remove(con)) {
 
                     if (!shouldClose(con,PooledConnection.VALIDATE_RETURN)) {
@@ -905,6 +1300,8 @@ public class ConnectionPool {
             } finally {
                 con.unlock();
             }
+            //hand the connection to a waiting request
+            signalRequests();
         } //end if
     } //checkIn
 
@@ -915,7 +1312,7 @@ public class ConnectionPool {
      */
     protected boolean shouldAbandon() {
         if (poolProperties.getAbandonWhenPercentageFull()==0) return true;
-        float used = busy.size();
+        float used = getActive();
         float max  = poolProperties.getMaxActive();
         float perc = poolProperties.getAbandonWhenPercentageFull();
         return (used/max*100f)>=perc;
@@ -936,7 +1333,7 @@ public class ConnectionPool {
                     con.lock();
                     //the con has been returned to the pool
                     //ignore it
-                    if (idle.contains(con))
+                    if (con.isParked() || idle.contains(con))
                         continue;
                     long time = con.getTimestamp();
                     long now = System.currentTimeMillis();
@@ -1090,6 +1487,7 @@ public class ConnectionPool {
      */
     public void purge() {
         purgeOnReturn();
+        checkParked(-1);
         checkIdle(true);
     }
 
@@ -1259,6 +1657,86 @@ public class ConnectionPool {
 
 
 
+    /**
+     * A connection request made through {@link ConnectionPool#acquireConnection()}.
+     * The request completes on the pool executor. When it runs as a task it
+     * times the request out.
+     */
+    protected class ConnectionRequest implements Runnable {
+        final CompletableFuture<Connection> future = new CompletableFuture<>();
+        final long created = System.currentTimeMillis();
+        volatile ScheduledFuture<?> timeout = null;
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        /**
+         * Configures the connection and completes the request on the pool
+         * executor. The connection goes back to the pool if the request was
+         * cancelled or timed out meanwhile.
+         * @param con the borrowed connection
+         */
+        public void complete(final PooledConnection con) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    Connection result;
+                    try {
+                        result = setupConnection(con);
+                    } catch (SQLException x) {
+                        returnConnection(con);
+                        fail(x);
+                        return;
+                    }
+                    cancelTimeout();
+                    if (!future.complete(result)) {
+                        try {
+                            result.close();
+                        } catch (SQLException x) {
+                            log.debug("Unable to return connection of a cancelled request to the pool.", x);
+                        }
+                    }
+                }
+            };
+            try {
+                getAsyncExecutor().execute(task);
+            } catch (RejectedExecutionException x) {
+                task.run();
+            }
+        }
+
+        public void fail(SQLException x) {
+            cancelTimeout();
+            future.completeExceptionally(x);
+        }
+
+        void cancelTimeout() {
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout!=null) {
+                timeout.cancel(false);
+            }
+        }
+
+        /**
+         * Times the request out.
+         */
+        @Override
+        public void run() {
+            if (requests.remove(this)) {
+                asyncWaitcount.decrementAndGet();
+            }
+            long maxWait = System.currentTimeMillis() - created;
+            if (future.completeExceptionally(new PoolExhaustedException(
+                    "Timeout: Pool empty. Unable to fetch a connection in " + (maxWait / 1000) +
+                    " seconds, none available[size:"+size.get() +"; busy:"+busy.size()+"; idle:"+idle.size()+"; waiting requests:"+asyncWaitcount.get()+"].")) &&
+                    jmxPool!=null) {
+                jmxPool.notify(org.apache.tomcat.jdbc.pool.jmx.ConnectionPool.POOL_EMPTY, "Pool empty - timeout.");
+            }
+        }
+    }
+
+
     private static volatile Timer poolCleanTimer = null;
     private static HashSet<PoolCleaner> cleaners = new HashSet<>();
 
@@ -1329,6 +1807,8 @@ public class ConnectionPool {
                     (System.currentTimeMillis() - lastRun) > sleepTime) {
                 lastRun = System.currentTimeMillis();
                 try {
+                    if (pool.getPoolProperties().getUseThreadAffinity())
+                        pool.checkParked(sleepTime);
                     if (pool.getPoolProperties().isRemoveAbandoned())
                         pool.checkAbandoned();
                     if (pool.getPoolProperties().getMinIdle() < pool.idle
@@ -124,6 +124,12 @@ public class DataSourceFactory implements ObjectFactory {
 
     protected static final String PROP_IGNOREEXCEPTIONONPRELOAD = "ignoreExceptionOnPreLoad";
 
+    protected static final String PROP_USETHREADAFFINITY = "useThreadAffinity";
+
+    protected static final String PROP_USEDELEGATINGPROXIES = "useDelegatingProxies";
+
+    protected static final String PROP_MAXASYNCWAITERS = "maxAsyncWaiters";
+
     public static final int UNKNOWN_TRANSACTIONISOLATION = -1;
 
     public static final String OBJECT_NAME = "object_name";
@@ -179,7 +185,10 @@ public class DataSourceFactory implements ObjectFactory {
         PROP_USEDISPOSABLECONNECTIONFACADE,
         PROP_LOGVALIDATIONERRORS,
         PROP_PROPAGATEINTERRUPTSTATE,
-        PROP_IGNOREEXCEPTIONONPRELOAD
+        PROP_IGNOREEXCEPTIONONPRELOAD,
+        PROP_USETHREADAFFINITY,
+        PROP_USEDELEGATINGPROXIES,
+        PROP_MAXASYNCWAITERS
     };
 
     // -------------------------------------------------- ObjectFactory Methods
@@ -528,6 +537,21 @@ public class DataSourceFactory implements ObjectFactory {
             poolProperties.setIgnoreExceptionOnPreLoad(Boolean.parseBoolean(value));
         }
 
+        value = properties.getProperty(PROP_USETHREADAFFINITY);
+        if (value != null) {
+            poolProperties.setUseThreadAffinity(Boolean.parseBoolean(value));
+        }
+
+        value = properties.getProperty(PROP_USEDELEGATINGPROXIES);
+        if (value != null) {
+            poolProperties.setUseDelegatingProxies(Boolean.parseBoolean(value));
+        }
+
+        value = properties.getProperty(PROP_MAXASYNCWAITERS);
+        if (value != null) {
+            poolProperties.setMaxAsyncWaiters(Integer.parseInt(value));
+        }
+
         return poolProperties;
     }
 
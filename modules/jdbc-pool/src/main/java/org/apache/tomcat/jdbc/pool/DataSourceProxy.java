@@ -22,6 +22,8 @@ import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
@@ -138,6 +140,21 @@ public class DataSourceProxy implements PoolConfiguration {
         return pool.getConnectionAsync();
     }
 
+    /**
+     * Retrieves a connection without blocking the calling thread.
+     * @return a stage that completes with the connection when it becomes available
+     * @see ConnectionPool#acquireConnection()
+     */
+    public CompletionStage<Connection> acquireConnection() {
+        try {
+            return createPool().acquireConnection();
+        } catch (SQLException x) {
+            CompletableFuture<Connection> result = new CompletableFuture<>();
+            result.completeExceptionally(x);
+            return result;
+        }
+    }
+
     /**
      * {@link javax.sql.XADataSource#getXAConnection()}
      */
@@ -705,6 +722,17 @@ public class DataSourceProxy implements PoolConfiguration {
         }
     }
 
+    /**
+     * @return number of asynchronous connection requests waiting for a connection
+     */
+    public int getAsyncWaitCount() {
+        try {
+            return createPool().getAsyncWaitCount();
+        }catch (SQLException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
     /**
      * @return the current size of the pool
      */
@@ -1336,6 +1364,54 @@ public class DataSourceProxy implements PoolConfiguration {
         getPoolProperties().setIgnoreExceptionOnPreLoad(ignoreExceptionOnPreLoad);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseThreadAffinity(boolean useThreadAffinity) {
+        getPoolProperties().setUseThreadAffinity(useThreadAffinity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseThreadAffinity() {
+        return getPoolProperties().getUseThreadAffinity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseDelegatingProxies(boolean useDelegatingProxies) {
+        getPoolProperties().setUseDelegatingProxies(useDelegatingProxies);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseDelegatingProxies() {
+        return getPoolProperties().getUseDelegatingProxies();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxAsyncWaiters(int maxAsyncWaiters) {
+        getPoolProperties().setMaxAsyncWaiters(maxAsyncWaiters);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxAsyncWaiters() {
+        return getPoolProperties().getMaxAsyncWaiters();
+    }
+
     public void purge()  {
         try {
             createPool().purge();
@@ -0,0 +1,837 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.pool;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import javax.sql.ConnectionEventListener;
+import javax.sql.StatementEventListener;
+import javax.sql.XAConnection;
+import javax.transaction.xa.XAResource;
+
+/**
+ * A {@link Connection} that the pool hands out instead of a
+ * {@link java.lang.reflect.Proxy} when
+ * {@link PoolConfiguration#getUseDelegatingProxies()} is set. A call to a
+ * method that none of the interceptors need to see, see
+ * {@link JdbcInterceptor#isIntercepted(String)}, is a plain call on the
+ * underlying connection. Any other call is passed to the interceptor chain,
+ * just as the proxy would pass it.
+ * <p>
+ * The methods of the JDBC interfaces were generated from the interfaces and
+ * all follow the same pattern except for close, isClosed, isValid, unwrap and
+ * isWrapperFor.
+ */
+public class DelegatingConnection implements Connection, javax.sql.PooledConnection {
+
+    // Indexes in METHODS
+    private static final int CREATE_STATEMENT = 0;
+    private static final int PREPARE_STATEMENT = 1;
+    private static final int PREPARE_CALL = 2;
+    private static final int NATIVE_SQL = 3;
+    private static final int SET_AUTO_COMMIT = 4;
+    private static final int GET_AUTO_COMMIT = 5;
+    private static final int COMMIT = 6;
+    private static final int ROLLBACK = 7;
+    private static final int CLOSE = 8;
+    private static final int IS_CLOSED = 9;
+    private static final int GET_META_DATA = 10;
+    private static final int SET_READ_ONLY = 11;
+    private static final int IS_READ_ONLY = 12;
+    private static final int SET_CATALOG = 13;
+    private static final int GET_CATALOG = 14;
+    private static final int SET_TRANSACTION_ISOLATION = 15;
+    private static final int GET_TRANSACTION_ISOLATION = 16;
+    private static final int GET_WARNINGS = 17;
+    private static final int CLEAR_WARNINGS = 18;
+    private static final int CREATE_STATEMENT_2 = 19;
+    private static final int PREPARE_STATEMENT_2 = 20;
+    private static final int PREPARE_CALL_2 = 21;
+    private static final int GET_TYPE_MAP = 22;
+    private static final int SET_TYPE_MAP = 23;
+    private static final int SET_HOLDABILITY = 24;
+    private static final int GET_HOLDABILITY = 25;
+    private static final int SET_SAVEPOINT = 26;
+    private static final int SET_SAVEPOINT_2 = 27;
+    private static final int ROLLBACK_2 = 28;
+    private static final int RELEASE_SAVEPOINT = 29;
+    private static final int CREATE_STATEMENT_3 = 30;
+    private static final int PREPARE_STATEMENT_3 = 31;
+    private static final int PREPARE_CALL_3 = 32;
+    private static final int PREPARE_STATEMENT_4 = 33;
+    private static final int PREPARE_STATEMENT_5 = 34;
+    private static final int PREPARE_STATEMENT_6 = 35;
+    private static final int CREATE_CLOB = 36;
+    private static final int CREATE_BLOB = 37;
+    private static final int CREATE_NCLOB = 38;
+    private static final int CREATE_SQLXML = 39;
+    private static final int IS_VALID = 40;
+    private static final int SET_CLIENT_INFO = 41;
+    private static final int SET_CLIENT_INFO_2 = 42;
+    private static final int GET_CLIENT_INFO = 43;
+    private static final int GET_CLIENT_INFO_2 = 44;
+    private static final int CREATE_ARRAY_OF = 45;
+    private static final int CREATE_STRUCT = 46;
+    private static final int SET_SCHEMA = 47;
+    private static final int GET_SCHEMA = 48;
+    private static final int ABORT = 49;
+    private static final int SET_NETWORK_TIMEOUT = 50;
+    private static final int GET_NETWORK_TIMEOUT = 51;
+    private static final int UNWRAP = 52;
+    private static final int IS_WRAPPER_FOR = 53;
+    private static final int GET_CONNECTION = 54;
+    private static final int ADD_CONNECTION_EVENT_LISTENER = 55;
+    private static final int REMOVE_CONNECTION_EVENT_LISTENER = 56;
+    private static final int ADD_STATEMENT_EVENT_LISTENER = 57;
+    private static final int REMOVE_STATEMENT_EVENT_LISTENER = 58;
+    private static final int GET_XA_RESOURCE = 59;
+    private static final int TO_STRING = 60;
+
+    private static final Method[] METHODS;
+
+    static {
+        try {
+            METHODS = new Method[] {
+                Connection.class.getMethod("createStatement"),
+                Connection.class.getMethod("prepareStatement", String.class),
+                Connection.class.getMethod("prepareCall", String.class),
+                Connection.class.getMethod("nativeSQL", String.class),
+                Connection.class.getMethod("setAutoCommit", boolean.class),
+                Connection.class.getMethod("getAutoCommit"),
+                Connection.class.getMethod("commit"),
+                Connection.class.getMethod("rollback"),
+                Connection.class.getMethod("close"),
+                Connection.class.getMethod("isClosed"),
+                Connection.class.getMethod("getMetaData"),
+                Connection.class.getMethod("setReadOnly", boolean.class),
+                Connection.class.getMethod("isReadOnly"),
+                Connection.class.getMethod("setCatalog", String.class),
+                Connection.class.getMethod("getCatalog"),
+                Connection.class.getMethod("setTransactionIsolation", int.class),
+                Connection.class.getMethod("getTransactionIsolation"),
+                Connection.class.getMethod("getWarnings"),
+                Connection.class.getMethod("clearWarnings"),
+                Connection.class.getMethod("createStatement", int.class, int.class),
+                Connection.class.getMethod("prepareStatement", String.class, int.class, int.class),
+                Connection.class.getMethod("prepareCall", String.class, int.class, int.class),
+                Connection.class.getMethod("getTypeMap"),
+                Connection.class.getMethod("setTypeMap", Map.class),
+                Connection.class.getMethod("setHoldability", int.class),
+                Connection.class.getMethod("getHoldability"),
+                Connection.class.getMethod("setSavepoint"),
+                Connection.class.getMethod("setSavepoint", String.class),
+                Connection.class.getMethod("rollback", Savepoint.class),
+                Connection.class.getMethod("releaseSavepoint", Savepoint.class),
+                Connection.class.getMethod("createStatement", int.class, int.class, int.class),
+                Connection.class.getMethod("prepareStatement", String.class, int.class, int.class, int.class),
+                Connection.class.getMethod("prepareCall", String.class, int.class, int.class, int.class),
+                Connection.class.getMethod("prepareStatement", String.class, int.class),
+                Connection.class.getMethod("prepareStatement", String.class, int[].class),
+                Connection.class.getMethod("prepareStatement", String.class, String[].class),
+                Connection.class.getMethod("createClob"),
+                Connection.class.getMethod("createBlob"),
+                Connection.class.getMethod("createNClob"),
+                Connection.class.getMethod("createSQLXML"),
+                Connection.class.getMethod("isValid", int.class),
+                Connection.class.getMethod("setClientInfo", String.class, String.class),
+                Connection.class.getMethod("setClientInfo", Properties.class),
+                Connection.class.getMethod("getClientInfo", String.class),
+                Connection.class.getMethod("getClientInfo"),
+                Connection.class.getMethod("createArrayOf", String.class, Object[].class),
+                Connection.class.getMethod("createStruct", String.class, Object[].class),
+                Connection.class.getMethod("setSchema", String.class),
+                Connection.class.getMethod("getSchema"),
+                Connection.class.getMethod("abort", Executor.class),
+                Connection.class.getMethod("setNetworkTimeout", Executor.class, int.class),
+                Connection.class.getMethod("getNetworkTimeout"),
+                Connection.class.getMethod("unwrap", Class.class),
+                Connection.class.getMethod("isWrapperFor", Class.class),
+                javax.sql.PooledConnection.class.getMethod("getConnection"),
+                javax.sql.PooledConnection.class.getMethod("addConnectionEventListener", ConnectionEventListener.class),
+                javax.sql.PooledConnection.class.getMethod("removeConnectionEventListener", ConnectionEventListener.class),
+                javax.sql.PooledConnection.class.getMethod("addStatementEventListener", StatementEventListener.class),
+                javax.sql.PooledConnection.class.getMethod("removeStatementEventListener", StatementEventListener.class),
+                XAConnection.class.getMethod("getXAResource"),
+                Object.class.getMethod("toString")
+            };
+        } catch (NoSuchMethodException x) {
+            throw new ExceptionInInitializerError(x);
+        }
+    }
+
+    /**
+     * Works out which methods of {@link Connection} one of the interceptors
+     * above the {@link ProxyConnection} in a chain needs to see.
+     * @param handler the first interceptor of the chain
+     * @return the methods to pass to the chain, to give to
+     *         {@link #DelegatingConnection(JdbcInterceptor, boolean[], boolean)}
+     */
+    public static boolean[] getInterceptedMethods(JdbcInterceptor handler) {
+        boolean[] result = new boolean[METHODS.length];
+        JdbcInterceptor next = handler;
+        while (next != null && !(next instanceof ProxyConnection)) {
+            for (int i = 0; i < METHODS.length; i++) {
+                if (!result[i] && next.isIntercepted(METHODS[i].getName())) {
+                    result[i] = true;
+                }
+            }
+            next = next.getNext();
+        }
+        return result;
+    }
+
+
+    private volatile JdbcInterceptor handler;
+    private final ProxyConnection proxyConnection;
+    private final boolean[] intercepted;
+    private final boolean disposable;
+
+    /**
+     * @param handler     the first interceptor of the chain, which must end
+     *                    with a {@link ProxyConnection}
+     * @param intercepted the methods to pass to the chain, see
+     *                    {@link #getInterceptedMethods(JdbcInterceptor)}
+     * @param disposable  <code>true</code> if this object must stop using the
+     *                    chain once it has been closed, see
+     *                    {@link PoolConfiguration#getUseDisposableConnectionFacade()}
+     */
+    public DelegatingConnection(JdbcInterceptor handler, boolean[] intercepted,
+            boolean disposable) {
+        this.handler = handler;
+        this.intercepted = intercepted;
+        this.disposable = disposable;
+        JdbcInterceptor next = handler;
+        while (!(next instanceof ProxyConnection)) {
+            next = next.getNext();
+        }
+        proxyConnection = (ProxyConnection) next;
+    }
+
+
+    /**
+     * Passes a call to the interceptor chain.
+     */
+    private Object invoke(int method, Object[] args) throws SQLException {
+        JdbcInterceptor next = handler;
+        if (next == null) {
+            throw new SQLException("PooledConnection has already been closed.");
+        }
+        try {
+            return next.invoke(this, METHODS[method], args);
+        } catch (SQLException | RuntimeException | Error x) {
+            throw x;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+
+    /**
+     * Passes a call to a method that does not throw SQLException to the
+     * interceptor chain.
+     */
+    private Object invokeUnchecked(int method, Object[] args) {
+        try {
+            return invoke(method, args);
+        } catch (SQLException x) {
+            throw new UndeclaredThrowableException(x);
+        }
+    }
+
+
+    /**
+     * @return the underlying connection, for methods that are not passed to
+     *         the interceptor chain
+     */
+    private Connection delegate() throws SQLException {
+        if (handler == null) {
+            throw new SQLException("PooledConnection has already been closed.");
+        }
+        PooledConnection con = proxyConnection.getConnection();
+        if (con == null || con.isDiscarded()) {
+            throw new SQLException("Connection has already been closed.");
+        }
+        return con.getConnection();
+    }
+
+
+    @Override
+    public void close() throws SQLException {
+        if (handler == null) {
+            return;
+        }
+        try {
+            invoke(CLOSE, null);
+        } finally {
+            if (disposable) {
+                handler = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        if (handler == null) {
+            return true;
+        }
+        if (intercepted[IS_CLOSED]) {
+            return ((Boolean) invoke(IS_CLOSED, null)).booleanValue();
+        }
+        return proxyConnection.isClosed();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        if (handler == null) {
+            return false;
+        }
+        if (intercepted[IS_VALID]) {
+            return ((Boolean) invoke(IS_VALID, new Object[] {Integer.valueOf(timeout)})).booleanValue();
+        }
+        return delegate().isValid(timeout);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (intercepted[UNWRAP]) {
+            return iface.cast(invoke(UNWRAP, new Object[] {iface}));
+        }
+        delegate();
+        return iface.cast(proxyConnection.unwrap(iface));
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        if (intercepted[IS_WRAPPER_FOR]) {
+            return ((Boolean) invoke(IS_WRAPPER_FOR, new Object[] {iface})).booleanValue();
+        }
+        delegate();
+        return proxyConnection.isWrapperFor(iface);
+    }
+
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        if (intercepted[CREATE_STATEMENT]) {
+            return (Statement) invoke(CREATE_STATEMENT, null);
+        }
+        return delegate().createStatement();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (intercepted[PREPARE_STATEMENT]) {
+            return (PreparedStatement) invoke(PREPARE_STATEMENT, new Object[] {sql});
+        }
+        return delegate().prepareStatement(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        if (intercepted[PREPARE_CALL]) {
+            return (CallableStatement) invoke(PREPARE_CALL, new Object[] {sql});
+        }
+        return delegate().prepareCall(sql);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        if (intercepted[NATIVE_SQL]) {
+            return (String) invoke(NATIVE_SQL, new Object[] {sql});
+        }
+        return delegate().nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (intercepted[SET_AUTO_COMMIT]) {
+            invoke(SET_AUTO_COMMIT, new Object[] {Boolean.valueOf(autoCommit)});
+        } else {
+            delegate().setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        if (intercepted[GET_AUTO_COMMIT]) {
+            return ((Boolean) invoke(GET_AUTO_COMMIT, null)).booleanValue();
+        }
+        return delegate().getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        if (intercepted[COMMIT]) {
+            invoke(COMMIT, null);
+        } else {
+            delegate().commit();
+        }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        if (intercepted[ROLLBACK]) {
+            invoke(ROLLBACK, null);
+        } else {
+            delegate().rollback();
+        }
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        if (intercepted[GET_META_DATA]) {
+            return (DatabaseMetaData) invoke(GET_META_DATA, null);
+        }
+        return delegate().getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        if (intercepted[SET_READ_ONLY]) {
+            invoke(SET_READ_ONLY, new Object[] {Boolean.valueOf(readOnly)});
+        } else {
+            delegate().setReadOnly(readOnly);
+        }
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        if (intercepted[IS_READ_ONLY]) {
+            return ((Boolean) invoke(IS_READ_ONLY, null)).booleanValue();
+        }
+        return delegate().isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        if (intercepted[SET_CATALOG]) {
+            invoke(SET_CATALOG, new Object[] {catalog});
+        } else {
+            delegate().setCatalog(catalog);
+        }
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        if (intercepted[GET_CATALOG]) {
+            return (String) invoke(GET_CATALOG, null);
+        }
+        return delegate().getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        if (intercepted[SET_TRANSACTION_ISOLATION]) {
+            invoke(SET_TRANSACTION_ISOLATION, new Object[] {Integer.valueOf(level)});
+        } else {
+            delegate().setTransactionIsolation(level);
+        }
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        if (intercepted[GET_TRANSACTION_ISOLATION]) {
+            return ((Integer) invoke(GET_TRANSACTION_ISOLATION, null)).intValue();
+        }
+        return delegate().getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        if (intercepted[GET_WARNINGS]) {
+            return (SQLWarning) invoke(GET_WARNINGS, null);
+        }
+        return delegate().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        if (intercepted[CLEAR_WARNINGS]) {
+            invoke(CLEAR_WARNINGS, null);
+        } else {
+            delegate().clearWarnings();
+        }
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        if (intercepted[CREATE_STATEMENT_2]) {
+            return (Statement) invoke(CREATE_STATEMENT_2,
+                    new Object[] {Integer.valueOf(resultSetType), Integer.valueOf(resultSetConcurrency)});
+        }
+        return delegate().createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        if (intercepted[PREPARE_STATEMENT_2]) {
+            return (PreparedStatement) invoke(PREPARE_STATEMENT_2,
+                    new Object[] {sql, Integer.valueOf(resultSetType), Integer.valueOf(resultSetConcurrency)});
+        }
+        return delegate().prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        if (intercepted[PREPARE_CALL_2]) {
+            return (CallableStatement) invoke(PREPARE_CALL_2,
+                    new Object[] {sql, Integer.valueOf(resultSetType), Integer.valueOf(resultSetConcurrency)});
+        }
+        return delegate().prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String,Class<?>> getTypeMap() throws SQLException {
+        if (intercepted[GET_TYPE_MAP]) {
+            return (Map<String,Class<?>>) invoke(GET_TYPE_MAP, null);
+        }
+        return delegate().getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String,Class<?>> map) throws SQLException {
+        if (intercepted[SET_TYPE_MAP]) {
+            invoke(SET_TYPE_MAP, new Object[] {map});
+        } else {
+            delegate().setTypeMap(map);
+        }
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        if (intercepted[SET_HOLDABILITY]) {
+            invoke(SET_HOLDABILITY, new Object[] {Integer.valueOf(holdability)});
+        } else {
+            delegate().setHoldability(holdability);
+        }
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        if (intercepted[GET_HOLDABILITY]) {
+            return ((Integer) invoke(GET_HOLDABILITY, null)).intValue();
+        }
+        return delegate().getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        if (intercepted[SET_SAVEPOINT]) {
+            return (Savepoint) invoke(SET_SAVEPOINT, null);
+        }
+        return delegate().setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        if (intercepted[SET_SAVEPOINT_2]) {
+            return (Savepoint) invoke(SET_SAVEPOINT_2, new Object[] {name});
+        }
+        return delegate().setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        if (intercepted[ROLLBACK_2]) {
+            invoke(ROLLBACK_2, new Object[] {savepoint});
+        } else {
+            delegate().rollback(savepoint);
+        }
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        if (intercepted[RELEASE_SAVEPOINT]) {
+            invoke(RELEASE_SAVEPOINT, new Object[] {savepoint});
+        } else {
+            delegate().releaseSavepoint(savepoint);
+        }
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        if (intercepted[CREATE_STATEMENT_3]) {
+            return (Statement) invoke(CREATE_STATEMENT_3,
+                    new Object[] {Integer.valueOf(resultSetType), Integer.valueOf(resultSetConcurrency), Integer.valueOf(resultSetHoldability)});
+        }
+        return delegate().createStatement(resultSetType,
+                resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        if (intercepted[PREPARE_STATEMENT_3]) {
+            return (PreparedStatement) invoke(PREPARE_STATEMENT_3,
+                    new Object[] {sql, Integer.valueOf(resultSetType), Integer.valueOf(resultSetConcurrency), Integer.valueOf(resultSetHoldability)});
+        }
+        return delegate().prepareStatement(sql,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        if (intercepted[PREPARE_CALL_3]) {
+            return (CallableStatement) invoke(PREPARE_CALL_3,
+                    new Object[] {sql, Integer.valueOf(resultSetType), Integer.valueOf(resultSetConcurrency), Integer.valueOf(resultSetHoldability)});
+        }
+        return delegate().prepareCall(sql,
+                resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+            throws SQLException {
+        if (intercepted[PREPARE_STATEMENT_4]) {
+            return (PreparedStatement) invoke(PREPARE_STATEMENT_4,
+                    new Object[] {sql, Integer.valueOf(autoGeneratedKeys)});
+        }
+        return delegate().prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        if (intercepted[PREPARE_STATEMENT_5]) {
+            return (PreparedStatement) invoke(PREPARE_STATEMENT_5,
+                    new Object[] {sql, columnIndexes});
+        }
+        return delegate().prepareStatement(sql, columnIndexes);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames)
+            throws SQLException {
+        if (intercepted[PREPARE_STATEMENT_6]) {
+            return (PreparedStatement) invoke(PREPARE_STATEMENT_6, new Object[] {sql, columnNames});
+        }
+        return delegate().prepareStatement(sql, columnNames);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        if (intercepted[CREATE_CLOB]) {
+            return (Clob) invoke(CREATE_CLOB, null);
+        }
+        return delegate().createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        if (intercepted[CREATE_BLOB]) {
+            return (Blob) invoke(CREATE_BLOB, null);
+        }
+        return delegate().createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        if (intercepted[CREATE_NCLOB]) {
+            return (NClob) invoke(CREATE_NCLOB, null);
+        }
+        return delegate().createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        if (intercepted[CREATE_SQLXML]) {
+            return (SQLXML) invoke(CREATE_SQLXML, null);
+        }
+        return delegate().createSQLXML();
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        try {
+            if (intercepted[SET_CLIENT_INFO]) {
+                invoke(SET_CLIENT_INFO, new Object[] {name, value});
+            } else {
+                delegate().setClientInfo(name, value);
+            }
+        } catch (SQLClientInfoException x) {
+            throw x;
+        } catch (SQLException x) {
+            throw new SQLClientInfoException(x.getMessage(), null, x);
+        }
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        try {
+            if (intercepted[SET_CLIENT_INFO_2]) {
+                invoke(SET_CLIENT_INFO_2, new Object[] {properties});
+            } else {
+                delegate().setClientInfo(properties);
+            }
+        } catch (SQLClientInfoException x) {
+            throw x;
+        } catch (SQLException x) {
+            throw new SQLClientInfoException(x.getMessage(), null, x);
+        }
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        if (intercepted[GET_CLIENT_INFO]) {
+            return (String) invoke(GET_CLIENT_INFO, new Object[] {name});
+        }
+        return delegate().getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        if (intercepted[GET_CLIENT_INFO_2]) {
+            return (Properties) invoke(GET_CLIENT_INFO_2, null);
+        }
+        return delegate().getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        if (intercepted[CREATE_ARRAY_OF]) {
+            return (Array) invoke(CREATE_ARRAY_OF, new Object[] {typeName, elements});
+        }
+        return delegate().createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        if (intercepted[CREATE_STRUCT]) {
+            return (Struct) invoke(CREATE_STRUCT, new Object[] {typeName, attributes});
+        }
+        return delegate().createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        if (intercepted[SET_SCHEMA]) {
+            invoke(SET_SCHEMA, new Object[] {schema});
+        } else {
+            delegate().setSchema(schema);
+        }
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        if (intercepted[GET_SCHEMA]) {
+            return (String) invoke(GET_SCHEMA, null);
+        }
+        return delegate().getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        if (intercepted[ABORT]) {
+            invoke(ABORT, new Object[] {executor});
+        } else {
+            delegate().abort(executor);
+        }
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        if (intercepted[SET_NETWORK_TIMEOUT]) {
+            invoke(SET_NETWORK_TIMEOUT, new Object[] {executor, Integer.valueOf(milliseconds)});
+        } else {
+            delegate().setNetworkTimeout(executor, milliseconds);
+        }
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        if (intercepted[GET_NETWORK_TIMEOUT]) {
+            return ((Integer) invoke(GET_NETWORK_TIMEOUT, null)).intValue();
+        }
+        return delegate().getNetworkTimeout();
+    }
+
+    // ------------------------------------------- javax.sql.PooledConnection
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return (Connection) invoke(GET_CONNECTION, null);
+    }
+
+    @Override
+    public void addConnectionEventListener(ConnectionEventListener listener) {
+        invokeUnchecked(ADD_CONNECTION_EVENT_LISTENER, new Object[] {listener});
+    }
+
+    @Override
+    public void removeConnectionEventListener(ConnectionEventListener listener) {
+        invokeUnchecked(REMOVE_CONNECTION_EVENT_LISTENER, new Object[] {listener});
+    }
+
+    @Override
+    public void addStatementEventListener(StatementEventListener listener) {
+        invokeUnchecked(ADD_STATEMENT_EVENT_LISTENER, new Object[] {listener});
+    }
+
+    @Override
+    public void removeStatementEventListener(StatementEventListener listener) {
+        invokeUnchecked(REMOVE_STATEMENT_EVENT_LISTENER, new Object[] {listener});
+    }
+
+
+    @Override
+    public String toString() {
+        if (handler == null) {
+            return "DelegatingConnection[null]";
+        }
+        return (String) invokeUnchecked(TO_STRING, null);
+    }
+
+
+    /**
+     * The {@link DelegatingConnection} for pools of XA connections.
+     */
+    public static class XA extends DelegatingConnection implements XAConnection {
+
+        public XA(JdbcInterceptor handler, boolean[] intercepted, boolean disposable) {
+            super(handler, intercepted, disposable);
+        }
+
+        @Override
+        public XAResource getXAResource() throws SQLException {
+            return (XAResource) ((DelegatingConnection) this).invoke(GET_XA_RESOURCE, null);
+        }
+    }
+}
@@ -109,6 +109,22 @@ public abstract class JdbcInterceptor implements InvocationHandler {
         else throw new NullPointerException();
     }
 
+    /**
+     * Returns true if this interceptor needs to see calls to a method of
+     * {@link java.sql.Connection}. When the pool hands out a
+     * {@link DelegatingConnection} a method that no interceptor in the chain
+     * needs to see is called on the underlying connection directly, without
+     * going through {@link #invoke(Object, Method, Object[])}.
+     * The default implementation returns <code>true</code>. Sub classes that
+     * override this method must also override it again if they extend
+     * {@link #invoke(Object, Method, Object[])} to handle more methods.
+     * @param name the name of the method
+     * @return true if calls to methods of that name must be passed to this interceptor
+     */
+    public boolean isIntercepted(String name) {
+        return true;
+    }
+
     /**
      * Returns the next interceptor in the chain
      * @return the next interceptor in the chain
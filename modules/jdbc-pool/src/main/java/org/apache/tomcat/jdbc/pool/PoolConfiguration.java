@@ -888,4 +888,54 @@ public interface PoolConfiguration {
      */
     public boolean isIgnoreExceptionOnPreLoad();
 
+    /**
+     * Set to true if a thread borrowing a connection should first try to use
+     * the connection it last returned to the pool. A returned connection is
+     * kept for the thread that returned it, without going through the idle
+     * queue, while no other thread is waiting for a connection. Any other
+     * thread that is about to wait for a connection takes it instead. This
+     * avoids the cost of the shared queues when threads borrow and return
+     * connections many times in a row.
+     * @param useThreadAffinity set to true to give threads the connection they last returned
+     */
+    public void setUseThreadAffinity(boolean useThreadAffinity);
+
+    /**
+     * @see PoolConfiguration#setUseThreadAffinity(boolean)
+     * @return true if threads first try to use the connection they last returned
+     */
+    public boolean getUseThreadAffinity();
+
+    /**
+     * Set to true to hand out connections, and to have the interceptors
+     * create statements, that are classes delegating to the JDBC objects
+     * instead of {@link java.lang.reflect.Proxy} objects. Calls to methods
+     * that no interceptor needs to see are then plain calls, instead of going
+     * through {@link java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])}
+     * for each interceptor, see {@link JdbcInterceptor#isIntercepted(String)}.
+     * @param useDelegatingProxies set to true to use delegating classes instead of proxies
+     */
+    public void setUseDelegatingProxies(boolean useDelegatingProxies);
+
+    /**
+     * @see PoolConfiguration#setUseDelegatingProxies(boolean)
+     * @return true if delegating classes are used instead of proxies
+     */
+    public boolean getUseDelegatingProxies();
+
+    /**
+     * Set the maximum number of {@link ConnectionPool#acquireConnection()}
+     * requests that can wait for a connection at the same time. A request made
+     * while this many requests are waiting fails right away with a
+     * {@link PoolExhaustedException}.
+     * @param maxAsyncWaiters the maximum number of waiting requests
+     */
+    public void setMaxAsyncWaiters(int maxAsyncWaiters);
+
+    /**
+     * @see PoolConfiguration#setMaxAsyncWaiters(int)
+     * @return the maximum number of waiting requests
+     */
+    public int getMaxAsyncWaiters();
+
 }
@@ -89,6 +89,9 @@ public class PoolProperties implements PoolConfiguration, Cloneable, Serializabl
     private volatile boolean logValidationErrors = false;
     private volatile boolean propagateInterruptState = false;
     private volatile boolean ignoreExceptionOnPreLoad = false;
+    private volatile boolean useThreadAffinity = false;
+    private volatile boolean useDelegatingProxies = false;
+    private volatile int maxAsyncWaiters = DEFAULT_MAX_ACTIVE;
 
     /**
      * {@inheritDoc}
@@ -1301,6 +1304,54 @@ public class PoolProperties implements PoolConfiguration, Cloneable, Serializabl
         this.ignoreExceptionOnPreLoad = ignoreExceptionOnPreLoad;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseThreadAffinity(boolean useThreadAffinity) {
+        this.useThreadAffinity = useThreadAffinity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseThreadAffinity() {
+        return useThreadAffinity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseDelegatingProxies(boolean useDelegatingProxies) {
+        this.useDelegatingProxies = useDelegatingProxies;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseDelegatingProxies() {
+        return useDelegatingProxies;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxAsyncWaiters(int maxAsyncWaiters) {
+        this.maxAsyncWaiters = maxAsyncWaiters;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxAsyncWaiters() {
+        return maxAsyncWaiters;
+    }
+
     @Override
     protected Object clone() throws CloneNotSupportedException {
         // TODO Auto-generated method stub
@@ -113,10 +113,22 @@ public class PooledConnection {
      */
     private volatile JdbcInterceptor handler = null;
 
+    /**
+     * The methods that the interceptors of {@link #handler} need to see, see
+     * {@link DelegatingConnection#getInterceptedMethods(JdbcInterceptor)}
+     */
+    private volatile boolean[] interceptedMethods = null;
+
     private AtomicBoolean released = new AtomicBoolean(false);
 
     private volatile boolean suspect = false;
 
+    /**
+     * Set when the connection has been returned to the pool but kept for the
+     * thread that returned it, see {@link PoolConfiguration#getUseThreadAffinity()}
+     */
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+
     private java.sql.Driver driver = null;
 
     /**
@@ -713,6 +725,21 @@ public class PooledConnection {
             }//while
         }//end if
         this.handler = handler;
+        this.interceptedMethods = null;
+    }
+
+    /**
+     * Returns the methods that the interceptor chain needs to see when this
+     * connection is handed out as a {@link DelegatingConnection}
+     * @return the methods to pass to the interceptor chain
+     */
+    public boolean[] getInterceptedMethods() {
+        boolean[] result = interceptedMethods;
+        if (result == null) {
+            result = DelegatingConnection.getInterceptedMethods(handler);
+            interceptedMethods = result;
+        }
+        return result;
     }
 
     @Override
@@ -732,4 +759,30 @@ public class PooledConnection {
         return attributes;
     }
 
+    /**
+     * Marks this connection as returned to the pool but kept for the thread
+     * that returned it.
+     * @return true if the connection was not already parked
+     */
+    public boolean park() {
+        return parked.compareAndSet(false, true);
+    }
+
+    /**
+     * Claims this connection if it is parked. Only one caller can claim a
+     * parked connection.
+     * @return true if the connection was parked and has been claimed by this call
+     */
+    public boolean unpark() {
+        return parked.compareAndSet(true, false);
+    }
+
+    /**
+     * @return true if this connection is parked
+     * @see #park()
+     */
+    public boolean isParked() {
+        return parked.get();
+    }
+
 }
@@ -34,6 +34,17 @@ public class TrapException extends JdbcInterceptor {
     public TrapException() {
     }
 
+    /**
+     * {@inheritDoc}
+     * Methods called directly on the underlying connection throw their own
+     * exceptions, so this interceptor only has to see the calls that another
+     * interceptor passes down the chain.
+     */
+    @Override
+    public boolean isIntercepted(String name) {
+        return false;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         try {
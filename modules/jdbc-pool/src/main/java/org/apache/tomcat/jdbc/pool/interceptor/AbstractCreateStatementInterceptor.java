@@ -72,6 +72,19 @@ public abstract class  AbstractCreateStatementInterceptor extends JdbcIntercepto
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * This interceptor only needs to see close and the methods that create statements.
+     */
+    @Override
+    public boolean isIntercepted(String name) {
+        boolean process = compare(CLOSE_VAL, name);
+        for (int i=0; (!process) && i<STATEMENT_TYPES.length; i++) {
+            process = compare(STATEMENT_TYPES[i], name);
+        }
+        return process;
+    }
+
     /**
      * This method will be invoked after a successful statement creation. This method can choose to return a wrapper
      * around the statement or return the statement itself.
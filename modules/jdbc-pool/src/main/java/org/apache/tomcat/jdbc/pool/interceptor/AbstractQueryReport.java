@@ -23,12 +23,15 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.CallableStatement;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.DelegatingConnection;
 import org.apache.tomcat.jdbc.pool.JdbcInterceptor;
 /**
  * Abstract class that wraps statements and intercepts query executions.
@@ -188,7 +191,12 @@ public abstract class AbstractQueryReport extends AbstractCreateStatementInterce
                 //so we better bail out and let the system continue
                 return statement;
             }
-            result = constructor.newInstance(new Object[] { new StatementProxy(statement,sql) });
+            StatementProxy handler = createStatementProxy(statement,sql);
+            if (proxy instanceof DelegatingConnection) {
+                result = DelegatingStatement.newInstance((Statement)statement, (Connection)proxy, handler);
+            } else {
+                result = constructor.newInstance(new Object[] { handler });
+            }
             return result;
         }catch (Exception x) {
             log.warn("Unable to create statement proxy for slow query report.",x);
@@ -197,11 +205,22 @@ public abstract class AbstractQueryReport extends AbstractCreateStatementInterce
     }
 
 
+    /**
+     * Creates the handler that measures the query executions of a statement.
+     * @param statement the statement
+     * @param sql the SQL of a prepared or callable statement, null for a plain statement
+     * @return the handler
+     */
+    protected StatementProxy createStatementProxy(Object statement, String sql) {
+        return new StatementProxy(statement, sql);
+    }
+
+
     /**
      * Class to measure query execute time
      *
      */
-    protected class StatementProxy implements InvocationHandler {
+    protected class StatementProxy implements InvocationHandler, StatementCallback {
         protected boolean closed = false;
         protected Object delegate;
         protected final String query;
@@ -226,7 +245,7 @@ public abstract class AbstractQueryReport extends AbstractCreateStatementInterce
             //check to see if we are about to execute a query
             process = isExecute( method, process);
             //if we are executing, get the current time
-            long start = (process)?System.currentTimeMillis():0;
+            long start = (process)?beforeExecute():0;
             Object result =  null;
             try {
                 //execute the query
@@ -240,8 +259,37 @@ public abstract class AbstractQueryReport extends AbstractCreateStatementInterce
                     throw t;
                 }
             }
+            if (process) {
+                afterExecute(name, args, start);
+            }
+            //perform close cleanup
+            if (close) {
+                closed=true;
+                delegate = null;
+            }
+            return result;
+        }
+
+        @Override
+        public long beforeExecute() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void afterExecute(String name, Object[] args, long start) {
             //measure the time
-            long delta = (process)?(System.currentTimeMillis()-start):Long.MIN_VALUE;
+            long delta = System.currentTimeMillis()-start;
+            reportExecution(name, args, start, delta);
+        }
+
+        /**
+         * Reports a successful query execution as a slow query or a query.
+         * @param name the name of the method used to execute
+         * @param args the arguments to the execution
+         * @param start the time the query execution started
+         * @param delta the time the execution took
+         */
+        protected void reportExecution(String name, Object[] args, long start, long delta) {
             //see if we meet the requirements to measure
             if (delta>threshold) {
                 try {
@@ -250,15 +298,27 @@ public abstract class AbstractQueryReport extends AbstractCreateStatementInterce
                 }catch (Exception t) {
                     if (log.isWarnEnabled()) log.warn("Unable to process slow query",t);
                 }
-            } else if (process) {
+            } else {
                 reportQuery(query, args, name, start, delta);
             }
-            //perform close cleanup
-            if (close) {
-                closed=true;
-                delegate = null;
-            }
-            return result;
+        }
+
+        @Override
+        public void executeFailed(String name, Object[] args, long start, Throwable t) {
+            reportFailedQuery(query,args,name,start,t);
+        }
+
+        @Override
+        public ResultSet wrapResultSet(Statement statement, ResultSet resultSet) {
+            return resultSet;
+        }
+
+        @Override
+        public void closeInvoked() throws SQLException {
+            Statement statement = (Statement)delegate;
+            closed = true;
+            delegate = null;
+            statement.close();
         }
     }
 
@@ -122,6 +122,14 @@ public class ConnectionState extends JdbcInterceptor  {
 
 
 
+    @Override
+    public boolean isIntercepted(String name) {
+        for (int i=0; i<readState.length; i++) {
+            if (compare(name,readState[i]) || compare(name,writeState[i])) return true;
+        }
+        return false;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         String name = method.getName();
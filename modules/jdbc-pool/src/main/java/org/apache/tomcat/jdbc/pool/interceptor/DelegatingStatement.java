@@ -0,0 +1,472 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.pool.interceptor;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * A {@link Statement} that interceptors return instead of a
+ * {@link java.lang.reflect.Proxy} when the connection is a
+ * {@link org.apache.tomcat.jdbc.pool.DelegatingConnection}. The execute,
+ * executeQuery, executeUpdate and executeBatch methods report to a
+ * {@link StatementCallback}, any other method is a plain call on the
+ * statement.
+ * <p>
+ * The methods of the JDBC interfaces were generated from the interfaces.
+ *
+ * @param <S> the type of statement
+ */
+public class DelegatingStatement<S extends Statement> implements Statement {
+
+    /**
+     * Creates the delegating statement that implements the same JDBC
+     * interfaces as a statement.
+     * @param statement  the statement
+     * @param connection the connection to return from
+     *                   {@link Statement#getConnection()}
+     * @param callback   the callback to report to
+     * @return a {@link DelegatingCallableStatement},
+     *         {@link DelegatingPreparedStatement} or
+     *         {@link DelegatingStatement}
+     */
+    public static Statement newInstance(Statement statement, Connection connection,
+            StatementCallback callback) {
+        if (statement instanceof CallableStatement) {
+            return new DelegatingCallableStatement((CallableStatement) statement, connection,
+                    callback);
+        } else if (statement instanceof PreparedStatement) {
+            return new DelegatingPreparedStatement<>((PreparedStatement) statement,
+                    connection, callback);
+        } else {
+            return new DelegatingStatement<>(statement, connection, callback);
+        }
+    }
+
+
+    private S delegate;
+    private final Connection connection;
+    protected final StatementCallback callback;
+    private boolean closed = false;
+
+    public DelegatingStatement(S delegate, Connection connection, StatementCallback callback) {
+        this.delegate = delegate;
+        this.connection = connection;
+        this.callback = callback;
+    }
+
+    /**
+     * @return the statement, or <code>null</code> once it has been closed
+     */
+    public S getDelegate() {
+        return delegate;
+    }
+
+    protected S delegate() throws SQLException {
+        if (closed) {
+            throw new SQLException("Statement closed.");
+        }
+        return delegate;
+    }
+
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        delegate = null;
+        callback.closeInvoked();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        delegate();
+        return connection;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(delegate);
+    }
+
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql};
+        long start = callback.beforeExecute();
+        ResultSet result;
+        try {
+            result = statement.executeQuery(sql);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("executeQuery", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("executeQuery", args, start);
+        return callback.wrapResultSet(this, result);
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql};
+        long start = callback.beforeExecute();
+        int result;
+        try {
+            result = statement.executeUpdate(sql);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("executeUpdate", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("executeUpdate", args, start);
+        return result;
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate().getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate().setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate().getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        delegate().setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate().setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate().getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        delegate().setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate().cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate().clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate().setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql};
+        long start = callback.beforeExecute();
+        boolean result;
+        try {
+            result = statement.execute(sql);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("execute", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("execute", args, start);
+        return result;
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return delegate().getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate().getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return delegate().getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate().setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate().getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        delegate().setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate().getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate().getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate().getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        delegate().addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        delegate().clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        S statement = delegate();
+        long start = callback.beforeExecute();
+        int[] result;
+        try {
+            result = statement.executeBatch();
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("executeBatch", null, start, x);
+            throw x;
+        }
+        callback.afterExecute("executeBatch", null, start);
+        return result;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return delegate().getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return delegate().getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql, Integer.valueOf(autoGeneratedKeys)};
+        long start = callback.beforeExecute();
+        int result;
+        try {
+            result = statement.executeUpdate(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("executeUpdate", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("executeUpdate", args, start);
+        return result;
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql, columnIndexes};
+        long start = callback.beforeExecute();
+        int result;
+        try {
+            result = statement.executeUpdate(sql, columnIndexes);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("executeUpdate", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("executeUpdate", args, start);
+        return result;
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql, columnNames};
+        long start = callback.beforeExecute();
+        int result;
+        try {
+            result = statement.executeUpdate(sql, columnNames);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("executeUpdate", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("executeUpdate", args, start);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql, Integer.valueOf(autoGeneratedKeys)};
+        long start = callback.beforeExecute();
+        boolean result;
+        try {
+            result = statement.execute(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("execute", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("execute", args, start);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql, columnIndexes};
+        long start = callback.beforeExecute();
+        boolean result;
+        try {
+            result = statement.execute(sql, columnIndexes);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("execute", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("execute", args, start);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        S statement = delegate();
+        Object[] args = new Object[] {sql, columnNames};
+        long start = callback.beforeExecute();
+        boolean result;
+        try {
+            result = statement.execute(sql, columnNames);
+        } catch (SQLException | RuntimeException | Error x) {
+            callback.executeFailed("execute", args, start, x);
+            throw x;
+        }
+        callback.afterExecute("execute", args, start);
+        return result;
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate().getResultSetHoldability();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate().setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate().isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate().closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate().isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return delegate().getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        delegate().setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return delegate().getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return delegate().executeLargeBatch();
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        return delegate().executeLargeUpdate(sql);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return delegate().executeLargeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return delegate().executeLargeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        return delegate().executeLargeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return delegate().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return delegate().isWrapperFor(iface);
+    }
+}
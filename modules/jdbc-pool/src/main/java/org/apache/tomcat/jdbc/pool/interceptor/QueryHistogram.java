@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.pool.interceptor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+/**
+ * Fixed size histogram of query execution times in milliseconds.
+ * Times below 16 ms are counted exactly, larger times are counted in 16
+ * buckets per power of two, so a percentile is reported with an error of at
+ * most 1/16 of its value. Times above about 24 days all fall in the last bucket.
+ * Recording a time does not lock and does not allocate.
+ */
+public class QueryHistogram {
+    static final String[] FIELD_NAMES = new String[] {
+        "query",
+        "count",
+        "mean",
+        "max",
+        "p50",
+        "p90",
+        "p99",
+        "p999"
+    };
+
+    static final String[] FIELD_DESCRIPTIONS = new String[] {
+        "The SQL query, with literals replaced by ?",
+        "The number of query executions",
+        "The mean execution time in milliseconds",
+        "The longest execution time in milliseconds",
+        "The median execution time in milliseconds",
+        "The 90th percentile of the execution time in milliseconds",
+        "The 99th percentile of the execution time in milliseconds",
+        "The 99.9th percentile of the execution time in milliseconds"
+    };
+
+    static final OpenType<?>[] FIELD_TYPES = new OpenType[] {
+        SimpleType.STRING,
+        SimpleType.LONG,
+        SimpleType.DOUBLE,
+        SimpleType.LONG,
+        SimpleType.LONG,
+        SimpleType.LONG,
+        SimpleType.LONG,
+        SimpleType.LONG
+    };
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final String query;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public static String[] getFieldNames() {
+        return FIELD_NAMES;
+    }
+
+    public static String[] getFieldDescriptions() {
+        return FIELD_DESCRIPTIONS;
+    }
+
+    public static OpenType<?>[] getFieldTypes() {
+        return FIELD_TYPES;
+    }
+
+    public QueryHistogram(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Records an execution time.
+     * @param time the execution time in milliseconds
+     */
+    public void record(long time) {
+        if (time<0) time = 0;
+        counts.incrementAndGet(getIndex(time));
+        count.incrementAndGet();
+        total.addAndGet(time);
+        long current = max.get();
+        while (time>current && !max.compareAndSet(current, time)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the time below or at which a given percentage of the executions
+     * completed. The value returned is the largest time that is counted in the
+     * same bucket, but never more than the longest time recorded.
+     * @param percentile the percentage, between 0 and 100
+     * @return the time in milliseconds, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            recorded += snapshot[i];
+        }
+        if (recorded==0) return 0;
+        long target = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * recorded);
+        if (target<1) target = 1;
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen>=target) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i=0; i<BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c==0 ? 0.0 : (double) total.get() / (double) c;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    protected static int getIndex(long time) {
+        if (time<SUB_BUCKETS) return (int) time;
+        int exponent = 63 - Long.numberOfLeadingZeros(time);
+        if (exponent>MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (time >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    protected static long getLowerBound(int index) {
+        if (index<SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    protected static long getUpperBound(int index) {
+        if (index==BUCKETS-1) return Long.MAX_VALUE;
+        return getLowerBound(index + 1) - 1;
+    }
+
+    public CompositeDataSupport getCompositeData(final CompositeType type) throws OpenDataException{
+        Object[] values = new Object[] {
+                query,
+                Long.valueOf(getCount()),
+                Double.valueOf(getMean()),
+                Long.valueOf(getMax()),
+                Long.valueOf(getValueAtPercentile(50.0)),
+                Long.valueOf(getValueAtPercentile(90.0)),
+                Long.valueOf(getValueAtPercentile(99.0)),
+                Long.valueOf(getValueAtPercentile(99.9))
+        };
+        return new CompositeDataSupport(type,FIELD_NAMES,values);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("QueryHistogram[query:");
+        buf.append(query);
+        buf.append(", count:");
+        buf.append(getCount());
+        buf.append(", mean:");
+        buf.append(getMean());
+        buf.append(", max:");
+        buf.append(getMax());
+        buf.append(", p50:");
+        buf.append(getValueAtPercentile(50.0));
+        buf.append(", p99:");
+        buf.append(getValueAtPercentile(99.0));
+        buf.append(", p999:");
+        buf.append(getValueAtPercentile(99.9));
+        buf.append("]");
+        return buf.toString();
+    }
+}
@@ -56,6 +56,12 @@ public class ResetAbandonedTimer extends AbstractQueryReport {
     }
 
 
+    @Override
+    public boolean isIntercepted(String name) {
+        // Every operation resets the timer
+        return true;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         // TODO Auto-generated method stub
@@ -48,10 +48,19 @@ public class SlowQueryReport extends AbstractQueryReport  {
      */
     protected static ConcurrentHashMap<String,ConcurrentHashMap<String,QueryStats>> perPoolStats =
         new ConcurrentHashMap<>();
+    /**
+     * the execution time histograms, on a per pool basis
+     */
+    protected static ConcurrentHashMap<String,ConcurrentHashMap<String,QueryHistogram>> perPoolHistograms =
+        new ConcurrentHashMap<>();
     /**
      * the queries that are used for this interceptor.
      */
     protected volatile ConcurrentHashMap<String,QueryStats> queries = null;
+    /**
+     * the histograms that are used for this interceptor, keyed by normalized SQL
+     */
+    protected volatile ConcurrentHashMap<String,QueryHistogram> histograms = null;
     /**
      * Maximum number of queries we will be storing
      */
@@ -67,6 +76,11 @@ public class SlowQueryReport extends AbstractQueryReport  {
      */
     protected boolean logFailed = true;
 
+    /**
+     * Flag to enable the execution time histograms
+     */
+    protected boolean histogram = false;
+
     /**
      * Returns the query stats for a given pool
      * @param poolname - the name of the pool we want to retrieve stats for
@@ -76,6 +90,15 @@ public class SlowQueryReport extends AbstractQueryReport  {
         return perPoolStats.get(poolname);
     }
 
+    /**
+     * Returns the execution time histograms for a given pool
+     * @param poolname - the name of the pool we want to retrieve histograms for
+     * @return a hash map of histograms keyed by normalized SQL, or null if histograms are disabled
+     */
+    public static ConcurrentHashMap<String,QueryHistogram> getPoolHistograms(String poolname) {
+        return perPoolHistograms.get(poolname);
+    }
+
     /**
      * Creates a slow query report interceptor
      */
@@ -155,6 +178,10 @@ public class SlowQueryReport extends AbstractQueryReport  {
                 queries = SlowQueryReport.perPoolStats.get(pool.getName());
             }
         }
+        if (isHistogram()) {
+            perPoolHistograms.putIfAbsent(pool.getName(), new ConcurrentHashMap<String,QueryHistogram>());
+            histograms = perPoolHistograms.get(pool.getName());
+        }
     }
 
     /**
@@ -163,6 +190,7 @@ public class SlowQueryReport extends AbstractQueryReport  {
     @Override
     public void poolClosed(ConnectionPool pool) {
         perPoolStats.remove(pool.getName());
+        perPoolHistograms.remove(pool.getName());
         super.poolClosed(pool);
     }
 
@@ -199,13 +227,123 @@ public class SlowQueryReport extends AbstractQueryReport  {
     }
 
 
+    @Override
+    protected StatementProxy createStatementProxy(Object statement, String sql) {
+        if (histograms==null) {
+            return super.createStatementProxy(statement, sql);
+        }
+        return new HistogramStatementProxy(statement, sql);
+    }
+
+    /**
+     * Records the execution time of a query in the histogram of its normalized SQL.
+     * Once <code>maxQueries</code> histograms exist, queries with new SQL are
+     * not recorded.
+     * @param normalized the normalized SQL that was executed, see {@link #normalizeSql(String)}
+     * @param delta the execution time in milliseconds
+     */
+    protected void recordHistogram(String normalized, long delta) {
+        ConcurrentHashMap<String,QueryHistogram> histograms = this.histograms;
+        if (histograms==null || normalized==null) return;
+        QueryHistogram histogram = histograms.get(normalized);
+        if (histogram==null) {
+            if (histograms.size()>=maxQueries) {
+                if (log.isDebugEnabled()) log.debug("Not recording query histogram, capacity reached:"+normalized);
+                return;
+            }
+            histogram = new QueryHistogram(normalized);
+            QueryHistogram previous = histograms.putIfAbsent(normalized, histogram);
+            if (previous!=null) histogram = previous;
+        }
+        histogram.record(delta);
+    }
+
+    /**
+     * Returns the SQL with the string and numeric literals replaced by
+     * <code>?</code>, runs of white space replaced by a single space and
+     * lists of <code>?</code> collapsed to one, so that executions of the same
+     * query with different values share a histogram.
+     * @param sql the SQL
+     * @return the normalized SQL
+     */
+    public static String normalizeSql(String sql) {
+        if (sql==null) return null;
+        final int len = sql.length();
+        StringBuilder buf = new StringBuilder(len);
+        for (int i=0; i<len; i++) {
+            char c = sql.charAt(i);
+            if (c=='\'') {
+                //string literal, a quote is escaped by doubling it
+                i++;
+                while (i<len) {
+                    if (sql.charAt(i)=='\'') {
+                        if (i+1<len && sql.charAt(i+1)=='\'') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    i++;
+                }
+                appendParameter(buf);
+            } else if (c=='"' || c=='`') {
+                //quoted identifier, copied as is
+                int end = sql.indexOf(c, i+1);
+                if (end<0) end = len-1;
+                buf.append(sql, i, end+1);
+                i = end;
+            } else if (Character.isDigit(c) && !isIdentifierEnd(buf)) {
+                //numeric literal
+                while (i+1<len && (Character.isLetterOrDigit(sql.charAt(i+1)) || sql.charAt(i+1)=='.')) {
+                    i++;
+                }
+                appendParameter(buf);
+            } else if (c=='?') {
+                appendParameter(buf);
+            } else if (Character.isWhitespace(c)) {
+                if (buf.length()>0 && buf.charAt(buf.length()-1)!=' ') {
+                    buf.append(' ');
+                }
+            } else {
+                buf.append(c);
+            }
+        }
+        int end = buf.length();
+        if (end>0 && buf.charAt(end-1)==' ') buf.setLength(end-1);
+        return buf.toString();
+    }
+
+    private static boolean isIdentifierEnd(StringBuilder buf) {
+        if (buf.length()==0) return false;
+        char c = buf.charAt(buf.length()-1);
+        return Character.isLetterOrDigit(c) || c=='_' || c=='$';
+    }
+
+    private static void appendParameter(StringBuilder buf) {
+        //collapse "?, ?" into "?"
+        int pos = buf.length()-1;
+        while (pos>=0 && buf.charAt(pos)==' ') pos--;
+        if (pos>=0 && buf.charAt(pos)==',') {
+            pos--;
+            while (pos>=0 && buf.charAt(pos)==' ') pos--;
+            if (pos>=0 && buf.charAt(pos)=='?') {
+                buf.setLength(pos+1);
+                return;
+            }
+        }
+        buf.append('?');
+    }
+
     @Override
     public void reset(ConnectionPool parent, PooledConnection con) {
         super.reset(parent, con);
-        if (parent!=null)
+        if (parent!=null) {
             queries = SlowQueryReport.perPoolStats.get(parent.getName());
-        else
+            histograms = SlowQueryReport.perPoolHistograms.get(parent.getName());
+        } else {
             queries = null;
+            histograms = null;
+        }
     }
 
 
@@ -221,6 +359,14 @@ public class SlowQueryReport extends AbstractQueryReport  {
         return logFailed;
     }
 
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    public void setHistogram(boolean histogram) {
+        this.histogram = histogram;
+    }
+
     public void setLogFailed(boolean logFailed) {
         this.logFailed = logFailed;
     }
@@ -232,10 +378,12 @@ public class SlowQueryReport extends AbstractQueryReport  {
         final String maxqueries= "maxQueries";
         final String logslow = "logSlow";
         final String logfailed = "logFailed";
+        final String histogram = "histogram";
         InterceptorProperty p1 = properties.get(threshold);
         InterceptorProperty p2 = properties.get(maxqueries);
         InterceptorProperty p3 = properties.get(logslow);
         InterceptorProperty p4 = properties.get(logfailed);
+        InterceptorProperty p5 = properties.get(histogram);
         if (p1!=null) {
             setThreshold(Long.parseLong(p1.getValue()));
         }
@@ -248,6 +396,9 @@ public class SlowQueryReport extends AbstractQueryReport  {
         if (p4!=null) {
             setLogFailed(Boolean.getBoolean(p4.getValue()));
         }
+        if (p5!=null) {
+            setHistogram(Boolean.parseBoolean(p5.getValue()));
+        }
     }
 
 
@@ -445,4 +596,37 @@ public class SlowQueryReport extends AbstractQueryReport  {
     }
 
 
+    /**
+     * Statement handler that also records the execution times in the
+     * histograms. The SQL of a prepared or callable statement does not change,
+     * so it is only normalized once.
+     */
+    protected class HistogramStatementProxy extends StatementProxy {
+        protected String normalizedQuery = null;
+
+        public HistogramStatementProxy(Object parent, String query) {
+            super(parent, query);
+        }
+
+        @Override
+        protected void reportExecution(String name, Object[] args, long start, long delta) {
+            super.reportExecution(name, args, start, delta);
+            String normalized;
+            if (query!=null) {
+                normalized = normalizedQuery;
+                if (normalized==null) {
+                    normalized = normalizeSql(query);
+                    normalizedQuery = normalized;
+                }
+            } else if (args!=null && args.length>0) {
+                //a plain statement, the SQL changes with every execution
+                normalized = normalizeSql((String)args[0]);
+            } else if (compare(EXECUTE_BATCH,name)) {
+                normalized = "batch";
+            } else {
+                normalized = null;
+            }
+            recordHistogram(normalized, delta);
+        }
+    }
 }
@@ -17,7 +17,9 @@
 package org.apache.tomcat.jdbc.pool.interceptor;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,6 +63,8 @@ public class SlowQueryReportJmx extends SlowQueryReport implements NotificationE
 
     protected static volatile CompositeType SLOW_QUERY_TYPE;
 
+    protected static volatile CompositeType HISTOGRAM_TYPE;
+
     private static final Log log = LogFactory.getLog(SlowQueryReportJmx.class);
 
 
@@ -121,6 +125,22 @@ public class SlowQueryReportJmx extends SlowQueryReport implements NotificationE
         return SLOW_QUERY_TYPE;
     }
 
+    protected static CompositeType getHistogramType() {
+        if (HISTOGRAM_TYPE==null) {
+            try {
+                HISTOGRAM_TYPE = new CompositeType(
+                        QueryHistogram.class.getName(),
+                        "Composite data type for query execution time histograms",
+                        QueryHistogram.getFieldNames(),
+                        QueryHistogram.getFieldDescriptions(),
+                        QueryHistogram.getFieldTypes());
+            }catch (OpenDataException x) {
+                log.warn("Unable to initialize composite data type for JMX histograms.",x);
+            }
+        }
+        return HISTOGRAM_TYPE;
+    }
+
     @Override
     public void reset(ConnectionPool parent, PooledConnection con) {
         // TODO Auto-generated method stub
@@ -223,6 +243,10 @@ public class SlowQueryReportJmx extends SlowQueryReport implements NotificationE
             Iterator<String> it = queries.keySet().iterator();
             while (it.hasNext()) it.remove();
         }
+        ConcurrentHashMap<String,QueryHistogram> histograms = perPoolHistograms.get(poolName);
+        if (histograms!=null) {
+            histograms.clear();
+        }
     }
 
     /**
@@ -249,6 +273,24 @@ public class SlowQueryReportJmx extends SlowQueryReport implements NotificationE
         return result;
     }
 
+    /**
+     * JMX operation - returns the execution time histograms, with the
+     * percentiles of each normalized query.
+     * @return - the histograms as composite data, an empty array if
+     *           histograms are not enabled
+     */
+    @Override
+    public CompositeData[] getQueryHistogramsCD() throws OpenDataException {
+        List<CompositeData> result = new ArrayList<>();
+        ConcurrentHashMap<String,QueryHistogram> histograms = perPoolHistograms.get(poolName);
+        if (histograms!=null && getHistogramType()!=null) {
+            for (QueryHistogram histogram : histograms.values()) {
+                result.add(histogram.getCompositeData(getHistogramType()));
+            }
+        }
+        return result.toArray(new CompositeData[result.size()]);
+    }
+
     protected void deregisterJmx() {
         try {
             if (mbeans.remove(poolName)!=null) {
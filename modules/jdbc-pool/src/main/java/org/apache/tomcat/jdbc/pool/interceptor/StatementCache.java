@@ -19,6 +19,8 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -30,6 +32,15 @@ import org.apache.tomcat.jdbc.pool.PooledConnection;
 /**
  * Interceptor that caches {@code PreparedStatement} and/or
  * {@code CallableStatement} instances on a connection.
+ * The statements of a connection are kept in least recently used order.
+ * Once the pool wide limit is reached a statement replaces the least recently
+ * used statement of its connection if it has been prepared more often across
+ * the pool, see {@link StatementCacheStats}.
+ * Only the statements of the connection the statement is closed on are
+ * candidates for eviction, the cached statements of other connections may
+ * not be closed while those connections are in use by other threads. A
+ * connection that has nothing cached therefore cannot cache a statement
+ * until statements cached on other connections are used or closed.
  */
 public class StatementCache extends StatementDecoratorInterceptor {
     protected static final String[] ALL_TYPES = new String[] {PREPARE_STATEMENT,PREPARE_CALL};
@@ -43,6 +54,7 @@ public class StatementCache extends StatementDecoratorInterceptor {
     private boolean cachePrepared = true;
     private boolean cacheCallable = false;
     private int maxCacheSize = 50;
+    private int maxQueries = 1000;
     private PooledConnection pcon;
     private String[] types;
 
@@ -59,6 +71,10 @@ public class StatementCache extends StatementDecoratorInterceptor {
         return maxCacheSize;
     }
 
+    public int getMaxQueries() {
+        return maxQueries;
+    }
+
     public String[] getTypes() {
         return types;
     }
@@ -67,6 +83,10 @@ public class StatementCache extends StatementDecoratorInterceptor {
         return cacheSize;
     }
 
+    public StatementCacheStats getStats() {
+        return stats;
+    }
+
     @Override
     public void setProperties(Map<String, InterceptorProperty> properties) {
         super.setProperties(properties);
@@ -76,6 +96,8 @@ public class StatementCache extends StatementDecoratorInterceptor {
         if (p!=null) cacheCallable = p.getValueAsBoolean(cacheCallable);
         p = properties.get("max");
         if (p!=null) maxCacheSize = p.getValueAsInt(maxCacheSize);
+        p = properties.get("maxQueries");
+        if (p!=null) maxQueries = p.getValueAsInt(maxQueries);
         if (cachePrepared && cacheCallable) {
             this.types = ALL_TYPES;
         } else if (cachePrepared) {
@@ -89,24 +111,40 @@ public class StatementCache extends StatementDecoratorInterceptor {
     }
     /*end properties for the statement cache*/
 
-    /*begin the cache size*/
-    private static ConcurrentHashMap<ConnectionPool,AtomicInteger> cacheSizeMap =
+    /*begin the cache size and statistics*/
+    private static ConcurrentHashMap<ConnectionPool,StatementCacheStats> statsMap =
         new ConcurrentHashMap<>();
 
     private AtomicInteger cacheSize;
+    private StatementCacheStats stats;
+
+    /**
+     * Returns the statement cache statistics for a given pool
+     * @param pool the pool we want to retrieve statistics for
+     * @return the statistics or <code>null</code> if the pool does not use this interceptor
+     */
+    public static StatementCacheStats getPoolStats(ConnectionPool pool) {
+        return statsMap.get(pool);
+    }
 
     @Override
     public void poolStarted(ConnectionPool pool) {
-        cacheSizeMap.putIfAbsent(pool, new AtomicInteger(0));
+        StatementCacheStats poolStats = new StatementCacheStats(pool.getName(), maxCacheSize, maxQueries);
+        if (statsMap.putIfAbsent(pool, poolStats)==null && pool.getPoolProperties().isJmxEnabled()) {
+            poolStats.registerJmx();
+        }
         super.poolStarted(pool);
     }
 
     @Override
     public void poolClosed(ConnectionPool pool) {
-        cacheSizeMap.remove(pool);
+        StatementCacheStats poolStats = statsMap.remove(pool);
+        if (poolStats!=null) {
+            poolStats.deregisterJmx();
+        }
         super.poolClosed(pool);
     }
-    /*end the cache size*/
+    /*end the cache size and statistics*/
 
     /*begin the actual statement cache*/
     @Override
@@ -114,13 +152,16 @@ public class StatementCache extends StatementDecoratorInterceptor {
         super.reset(parent, con);
         if (parent==null) {
             cacheSize = null;
+            stats = null;
             this.pcon = null;
         } else {
-            cacheSize = cacheSizeMap.get(parent);
+            stats = statsMap.get(parent);
+            cacheSize = stats.getCacheSizeCounter();
             this.pcon = con;
             if (!pcon.getAttributes().containsKey(STATEMENT_CACHE_ATTR)) {
-                ConcurrentHashMap<String,CachedStatement> cache =
-                        new ConcurrentHashMap<>();
+                //insertion order, statements are put back each time they are closed
+                LinkedHashMap<String,CachedStatement> cache =
+                        new LinkedHashMap<>();
                 pcon.getAttributes().put(STATEMENT_CACHE_ATTR,cache);
             }
         }
@@ -129,14 +170,20 @@ public class StatementCache extends StatementDecoratorInterceptor {
     @Override
     public void disconnected(ConnectionPool parent, PooledConnection con, boolean finalizing) {
         @SuppressWarnings("unchecked")
-        ConcurrentHashMap<String,CachedStatement> statements =
-            (ConcurrentHashMap<String,CachedStatement>)con.getAttributes().get(STATEMENT_CACHE_ATTR);
+        Map<String,CachedStatement> statements =
+            (Map<String,CachedStatement>)con.getAttributes().get(STATEMENT_CACHE_ATTR);
 
         if (statements!=null) {
-            for (Map.Entry<String, CachedStatement> p : statements.entrySet()) {
-                closeStatement(p.getValue());
+            CachedStatement[] cached;
+            synchronized (statements) {
+                cached = statements.values().toArray(new CachedStatement[statements.size()]);
+            }
+            for (CachedStatement st : cached) {
+                closeStatement(st);
+            }
+            synchronized (statements) {
+                statements.clear();
             }
-            statements.clear();
         }
 
         super.disconnected(parent, con, finalizing);
@@ -155,10 +202,10 @@ public class StatementCache extends StatementDecoratorInterceptor {
         if (process) {
             Object result = null;
             CachedStatement statementProxy = new CachedStatement((Statement)statement,sql);
-            result = constructor.newInstance(new Object[] { statementProxy });
-            statementProxy.setActualProxy(result);
             statementProxy.setConnection(proxy);
             statementProxy.setConstructor(constructor);
+            result = createFacade(statementProxy, constructor);
+            statementProxy.setActualProxy(result);
             return result;
         } else {
             return super.createDecorator(proxy, method, args, statement, constructor, sql);
@@ -169,12 +216,14 @@ public class StatementCache extends StatementDecoratorInterceptor {
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         boolean process = process(this.types, method, false);
         if (process && args.length>0 && args[0] instanceof String) {
-            CachedStatement statement = isCached((String)args[0]);
-            if (statement!=null) {
-                //remove it from the cache since it is used
-                removeStatement(statement);
+            String sql = (String)args[0];
+            CachedStatement statement = isCached(sql);
+            if (statement!=null && removeStatement(statement)) {
+                //removed from the cache since it is used
+                stats.hit(sql);
                 return statement.getActualProxy();
             } else {
+                stats.miss(sql);
                 return super.invoke(proxy, method, args);
             }
         } else {
@@ -182,44 +231,113 @@ public class StatementCache extends StatementDecoratorInterceptor {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    protected Map<String,CachedStatement> getCache() {
+        return (Map<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
+    }
+
     public CachedStatement isCached(String sql) {
-        @SuppressWarnings("unchecked")
-        ConcurrentHashMap<String,CachedStatement> cache =
-            (ConcurrentHashMap<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
-        return cache.get(sql);
+        Map<String,CachedStatement> cache = getCache();
+        synchronized (cache) {
+            return cache.get(sql);
+        }
     }
 
-    public boolean cacheStatement(CachedStatement proxy) {
-        @SuppressWarnings("unchecked")
-        ConcurrentHashMap<String,CachedStatement> cache =
-            (ConcurrentHashMap<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
-        if (proxy.getSql()==null) {
-            return false;
-        } else if (cache.containsKey(proxy.getSql())) {
+    /**
+     * Returns true if a statement may be put in the cache, either because the
+     * cache is not full or because it is used more than the least recently
+     * used statement of this connection. Statements cached on other
+     * connections are not considered.
+     * @param sql the SQL of the statement
+     * @return true if {@link #cacheStatement(CachedStatement)} can succeed
+     */
+    protected boolean isCacheable(String sql) {
+        if (sql==null) {
             return false;
-        } else if (cacheSize.get()>=maxCacheSize) {
+        } else if (cacheSize.get() < maxCacheSize) {
+            return true;
+        } else {
+            Map<String,CachedStatement> cache = getCache();
+            synchronized (cache) {
+                CachedStatement eldest = getEldest(cache);
+                return eldest!=null && isReplacement(sql, eldest);
+            }
+        }
+    }
+
+    public boolean cacheStatement(CachedStatement proxy) {
+        Map<String,CachedStatement> cache = getCache();
+        CachedStatement evicted = null;
+        synchronized (cache) {
+            if (proxy.getSql()==null) {
+                return false;
+            } else if (cache.containsKey(proxy.getSql())) {
+                return false;
+            } else if (!reserve()) {
+                //the cache is full, take the place of the least recently used statement
+                evicted = getEldest(cache);
+                if (evicted==null || !isReplacement(proxy.getSql(), evicted)) {
+                    return false;
+                }
+                cache.remove(evicted.getSql());
+            }
+            //cache the statement
+            cache.put(proxy.getSql(), proxy);
+        }
+        if (evicted!=null) {
+            stats.evicted(evicted.getSql());
+            closeStatement(evicted);
+        }
+        return true;
+    }
+
+    /**
+     * Counts a statement against the pool wide limit.
+     * @return true if the limit has not been reached
+     */
+    protected boolean reserve() {
+        if (cacheSize.get()>=maxCacheSize) {
             return false;
         } else if (cacheSize.incrementAndGet()>maxCacheSize) {
             cacheSize.decrementAndGet();
             return false;
         } else {
-            //cache the statement
-            cache.put(proxy.getSql(), proxy);
             return true;
         }
     }
 
     public boolean removeStatement(CachedStatement proxy) {
-        @SuppressWarnings("unchecked")
-        ConcurrentHashMap<String,CachedStatement> cache =
-            (ConcurrentHashMap<String,CachedStatement>)pcon.getAttributes().get(STATEMENT_CACHE_ATTR);
-        if (cache.remove(proxy.getSql()) != null) {
-            cacheSize.decrementAndGet();
-            return true;
-        } else {
-            return false;
+        Map<String,CachedStatement> cache = getCache();
+        synchronized (cache) {
+            if (cache.get(proxy.getSql())==proxy) {
+                cache.remove(proxy.getSql());
+                cacheSize.decrementAndGet();
+                return true;
+            } else {
+                return false;
+            }
         }
     }
+
+    /**
+     * @param cache the statements of a connection
+     * @return the least recently used statement or <code>null</code> if there is none
+     */
+    protected CachedStatement getEldest(Map<String,CachedStatement> cache) {
+        Iterator<CachedStatement> it = cache.values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * Returns true if a statement should replace a cached one, which is the case
+     * when it has been prepared more often across the pool.
+     * @param sql the SQL of the statement to cache
+     * @param cached the statement that would be replaced
+     * @return true if the cached statement should be evicted
+     */
+    protected boolean isReplacement(String sql, CachedStatement cached) {
+        return stats.getFrequency(sql) > stats.getFrequency(cached.getSql());
+    }
     /*end the actual statement cache*/
 
 
@@ -233,15 +351,15 @@ public class StatementCache extends StatementDecoratorInterceptor {
         public void closeInvoked() {
             //should we cache it
             boolean shouldClose = true;
-            if (cacheSize.get() < maxCacheSize) {
+            if (isCacheable(getSql())) {
                 //cache a proxy so that we don't reuse the facade
                 CachedStatement proxy = new CachedStatement(getDelegate(),getSql());
                 try {
                     //create a new facade
-                    Object actualProxy = getConstructor().newInstance(new Object[] { proxy });
-                    proxy.setActualProxy(actualProxy);
                     proxy.setConnection(getConnection());
                     proxy.setConstructor(getConstructor());
+                    Object actualProxy = createFacade(proxy, getConstructor());
+                    proxy.setActualProxy(actualProxy);
                     if (cacheStatement(proxy)) {
                         proxy.cached = true;
                         shouldClose = false;
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.pool.interceptor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.RuntimeOperationsException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+
+/**
+ * Pool wide statistics of a {@link StatementCache}.
+ * Keeps the count of cached statements across all the connections of a pool
+ * and, for each SQL string, how often it was prepared and how often it was
+ * found in, missing from and evicted from the cache.
+ * The number of times a SQL string was prepared decides which statements
+ * are kept when the cache is full. The counts are halved each time
+ * <code>SAMPLE_FACTOR * maxQueries</code> statements have been prepared, so
+ * that the statistics favor the statements that are used now.
+ * At most <code>maxQueries</code> SQL strings are tracked. Once that is
+ * reached a new SQL string is only tracked in place of one that has not been
+ * prepared more than once recently, so that many SQL strings that are only
+ * prepared once do not push out the statistics of the ones that are used
+ * often.
+ */
+public class StatementCacheStats implements StatementCacheStatsMBean {
+    private static final Log log = LogFactory.getLog(StatementCacheStats.class);
+
+    protected static volatile CompositeType STATEMENT_STATS_TYPE;
+
+    /**
+     * The counts are halved each time this many statements per tracked SQL
+     * string have been prepared.
+     */
+    protected static final int SAMPLE_FACTOR = 10;
+
+    /**
+     * The number of tracked SQL strings compared to find the one a new SQL
+     * string replaces.
+     */
+    protected static final int EVICTION_SAMPLE = 8;
+
+    private final String poolName;
+    private final int maxCacheSize;
+    private final int maxQueries;
+    private final AtomicInteger cacheSize = new AtomicInteger(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final ConcurrentHashMap<String,StatementStats> statements =
+        new ConcurrentHashMap<>();
+    /**
+     * The number of statements prepared since the counts were last halved.
+     */
+    private final AtomicLong samples = new AtomicLong(0);
+    /**
+     * Held while the counts are halved and while a tracked SQL string is
+     * replaced. Threads preparing statements never wait for it.
+     */
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    /**
+     * Where the search for a SQL string to replace continues from, guarded by
+     * {@link #maintenanceLock}.
+     */
+    private Iterator<StatementStats> evictionHand = null;
+
+    private volatile ObjectName oname = null;
+
+    /**
+     * @param poolName     the name of the pool
+     * @param maxCacheSize the maximum number of statements cached across the pool
+     * @param maxQueries   the maximum number of SQL strings to keep statistics
+     *                     for, a value of 0 or less disables the statistics
+     */
+    public StatementCacheStats(String poolName, int maxCacheSize, int maxQueries) {
+        this.poolName = poolName;
+        this.maxCacheSize = maxCacheSize;
+        this.maxQueries = maxQueries;
+    }
+
+    protected static CompositeType getCompositeType() {
+        if (STATEMENT_STATS_TYPE==null) {
+            try {
+                STATEMENT_STATS_TYPE = new CompositeType(
+                        StatementCacheStats.class.getName(),
+                        "Composite data type for statement cache statistics",
+                        StatementStats.getFieldNames(),
+                        StatementStats.getFieldDescriptions(),
+                        StatementStats.getFieldTypes());
+            }catch (OpenDataException x) {
+                log.warn("Unable to initialize composite data type for JMX stats.",x);
+            }
+        }
+        return STATEMENT_STATS_TYPE;
+    }
+
+    /**
+     * @return the counter of statements cached across the pool
+     */
+    AtomicInteger getCacheSizeCounter() {
+        return cacheSize;
+    }
+
+    /**
+     * Returns the statistics of a SQL string, adding them if they are not
+     * tracked yet and there is room for them, see {@link #admit(StatementStats)}.
+     * @param sql the SQL string
+     * @return the statistics, never <code>null</code>. Statistics that could
+     *         not be added are not kept.
+     */
+    public StatementStats getStatementStats(String sql) {
+        if (maxQueries<=0) {
+            //not tracked, hand out statistics that nobody looks at
+            return new StatementStats(sql);
+        }
+        StatementStats stats = statements.get(sql);
+        if (stats==null) {
+            stats = new StatementStats(sql);
+            if (statements.size()<maxQueries) {
+                StatementStats previous = statements.putIfAbsent(sql, stats);
+                if (previous!=null) {
+                    stats = previous;
+                }
+            } else {
+                stats = admit(stats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Tracks a new SQL string once <code>maxQueries</code> SQL strings are
+     * tracked. The least prepared of the next {@link #EVICTION_SAMPLE} tracked
+     * SQL strings is replaced if it has not been prepared more than once since
+     * the counts were last halved, as often as the new SQL string. Otherwise
+     * the new SQL string is not tracked.
+     * @param candidate the statistics of the new SQL string
+     * @return the statistics to use for the SQL string
+     */
+    protected StatementStats admit(StatementStats candidate) {
+        if (!maintenanceLock.tryLock()) {
+            //another thread is busy with the statistics, don't wait for it
+            return candidate;
+        }
+        try {
+            StatementStats victim = null;
+            for (int i=0; i<EVICTION_SAMPLE; i++) {
+                if (evictionHand==null || !evictionHand.hasNext()) {
+                    evictionHand = statements.values().iterator();
+                    if (!evictionHand.hasNext()) {
+                        break;
+                    }
+                }
+                StatementStats stats = evictionHand.next();
+                if (victim==null || stats.getFrequency()<victim.getFrequency()) {
+                    victim = stats;
+                }
+            }
+            if (victim!=null) {
+                if (victim.getFrequency()>1) {
+                    return candidate;
+                }
+                if (statements.remove(victim.getSql(), victim) && log.isDebugEnabled()) {
+                    log.debug("Removing statement statistics, capacity reached:"+victim.getSql());
+                }
+            }
+            StatementStats previous = statements.putIfAbsent(candidate.getSql(), candidate);
+            return previous==null ? candidate : previous;
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Returns how often a SQL string was prepared recently.
+     * @param sql the SQL string
+     * @return the count, 0 if the SQL string is not tracked
+     */
+    public int getFrequency(String sql) {
+        StatementStats stats = statements.get(sql);
+        return stats==null ? 0 : stats.getFrequency();
+    }
+
+    public void hit(String sql) {
+        hits.incrementAndGet();
+        getStatementStats(sql).hit();
+        sampled();
+    }
+
+    public void miss(String sql) {
+        misses.incrementAndGet();
+        getStatementStats(sql).miss();
+        sampled();
+    }
+
+    public void evicted(String sql) {
+        evictions.incrementAndGet();
+        StatementStats stats = statements.get(sql);
+        if (stats!=null) {
+            stats.evicted();
+        }
+    }
+
+    /**
+     * Counts a prepared statement and halves the counts once
+     * <code>SAMPLE_FACTOR * maxQueries</code> statements have been prepared.
+     */
+    protected void sampled() {
+        if (maxQueries<=0) {
+            return;
+        }
+        long sampleSize = (long) maxQueries * SAMPLE_FACTOR;
+        if (samples.incrementAndGet()>=sampleSize && maintenanceLock.tryLock()) {
+            try {
+                if (samples.get()>=sampleSize) {
+                    samples.set(0);
+                    age();
+                }
+            } finally {
+                maintenanceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Halves the counts of all SQL strings. The SQL strings stay tracked until
+     * new SQL strings replace them.
+     */
+    protected void age() {
+        for (StatementStats stats : statements.values()) {
+            stats.age();
+        }
+    }
+
+    @Override
+    public String getPoolName() {
+        return poolName;
+    }
+
+    @Override
+    public int getCacheSize() {
+        return cacheSize.get();
+    }
+
+    @Override
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public CompositeData[] getStatementStatsCD() throws OpenDataException {
+        List<CompositeData> result = new ArrayList<>();
+        for (StatementStats stats : statements.values()) {
+            result.add(stats.getCompositeData(getCompositeType()));
+        }
+        return result.toArray(new CompositeData[result.size()]);
+    }
+
+    @Override
+    public void resetStats() {
+        maintenanceLock.lock();
+        try {
+            statements.clear();
+            samples.set(0);
+            evictionHand = null;
+        } finally {
+            maintenanceLock.unlock();
+        }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(ConnectionPool.POOL_JMX_TYPE_PREFIX+StatementCache.class.getName()+",name=" + poolName);
+    }
+
+    protected void registerJmx() {
+        try {
+            if (getCompositeType()!=null) {
+                ObjectName oname = getObjectName();
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, oname);
+                this.oname = oname;
+            } else {
+                log.warn(StatementCache.class.getName()+ "- No JMX support, composite type was not found.");
+            }
+        } catch (MalformedObjectNameException e) {
+            log.error("Jmx registration failed, no JMX data will be exposed for the statement cache.",e);
+        } catch (RuntimeOperationsException e) {
+            log.error("Jmx registration failed, no JMX data will be exposed for the statement cache.",e);
+        } catch (MBeanRegistrationException e) {
+            log.error("Jmx registration failed, no JMX data will be exposed for the statement cache.",e);
+        } catch (InstanceAlreadyExistsException e) {
+            log.error("Jmx registration failed, no JMX data will be exposed for the statement cache.",e);
+        } catch (NotCompliantMBeanException e) {
+            log.error("Jmx registration failed, no JMX data will be exposed for the statement cache.",e);
+        }
+    }
+
+    protected void deregisterJmx() {
+        ObjectName oname = this.oname;
+        if (oname==null) return;
+        this.oname = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(oname);
+        } catch (MBeanRegistrationException e) {
+            log.debug("Jmx deregistration failed.",e);
+        } catch (InstanceNotFoundException e) {
+            log.debug("Jmx deregistration failed.",e);
+        } catch (RuntimeOperationsException e) {
+            log.warn("Jmx deregistration failed.",e);
+        }
+    }
+
+
+    public static class StatementStats {
+        static final String[] FIELD_NAMES = new String[] {
+            "sql",
+            "frequency",
+            "hits",
+            "misses",
+            "evictions"
+        };
+
+        static final String[] FIELD_DESCRIPTIONS = new String[] {
+            "The SQL string",
+            "How often the statement was prepared recently, used to decide which statements to keep in the cache",
+            "The number of times the statement was found in the cache",
+            "The number of times the statement was not in the cache",
+            "The number of times the statement was evicted from the cache for a statement that is used more"
+        };
+
+        static final OpenType<?>[] FIELD_TYPES = new OpenType[] {
+            SimpleType.STRING,
+            SimpleType.INTEGER,
+            SimpleType.LONG,
+            SimpleType.LONG,
+            SimpleType.LONG
+        };
+
+        private final String sql;
+        private final AtomicInteger frequency = new AtomicInteger(0);
+        private final AtomicLong hits = new AtomicLong(0);
+        private final AtomicLong misses = new AtomicLong(0);
+        private final AtomicLong evictions = new AtomicLong(0);
+
+        public static String[] getFieldNames() {
+            return FIELD_NAMES;
+        }
+
+        public static String[] getFieldDescriptions() {
+            return FIELD_DESCRIPTIONS;
+        }
+
+        public static OpenType<?>[] getFieldTypes() {
+            return FIELD_TYPES;
+        }
+
+        public StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        public void hit() {
+            frequency.incrementAndGet();
+            hits.incrementAndGet();
+        }
+
+        public void miss() {
+            frequency.incrementAndGet();
+            misses.incrementAndGet();
+        }
+
+        public void evicted() {
+            evictions.incrementAndGet();
+        }
+
+        /**
+         * Halves the frequency.
+         * @return the new frequency
+         */
+        protected int age() {
+            int current;
+            do {
+                current = frequency.get();
+            } while (!frequency.compareAndSet(current, current >> 1));
+            return current >> 1;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public int getFrequency() {
+            return frequency.get();
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        public CompositeDataSupport getCompositeData(final CompositeType type) throws OpenDataException{
+            Object[] values = new Object[] {
+                    sql,
+                    Integer.valueOf(getFrequency()),
+                    Long.valueOf(getHits()),
+                    Long.valueOf(getMisses()),
+                    Long.valueOf(getEvictions())
+            };
+            return new CompositeDataSupport(type,FIELD_NAMES,values);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder("StatementStats[sql:");
+            buf.append(sql);
+            buf.append(", frequency:");
+            buf.append(getFrequency());
+            buf.append(", hits:");
+            buf.append(getHits());
+            buf.append(", misses:");
+            buf.append(getMisses());
+            buf.append(", evictions:");
+            buf.append(getEvictions());
+            buf.append("]");
+            return buf.toString();
+        }
+    }
+}
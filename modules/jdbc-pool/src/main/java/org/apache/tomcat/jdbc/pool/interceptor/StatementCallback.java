@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.pool.interceptor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The typed callbacks of a {@link DelegatingStatement}. These take the place
+ * of the {@link java.lang.reflect.InvocationHandler} of a statement proxy for
+ * the few methods that interceptors need to see.
+ */
+public interface StatementCallback {
+
+    /**
+     * Invoked before the statement is executed by one of the execute,
+     * executeQuery, executeUpdate or executeBatch methods.
+     * @return the start of the execution, passed on to
+     *         {@link #afterExecute(String, Object[], long)} or
+     *         {@link #executeFailed(String, Object[], long, Throwable)}
+     */
+    public long beforeExecute();
+
+    /**
+     * Invoked after the statement has been executed.
+     * @param name  the name of the method used to execute the statement
+     * @param args  the arguments to the method
+     * @param start the value returned by {@link #beforeExecute()}
+     */
+    public void afterExecute(String name, Object[] args, long start);
+
+    /**
+     * Invoked when the execution of the statement failed.
+     * @param name  the name of the method used to execute the statement
+     * @param args  the arguments to the method
+     * @param start the value returned by {@link #beforeExecute()}
+     * @param t     the exception that was thrown
+     */
+    public void executeFailed(String name, Object[] args, long start, Throwable t);
+
+    /**
+     * Invoked with the result of executeQuery.
+     * @param statement the statement returned to the application
+     * @param resultSet the result set
+     * @return the result set to return to the application
+     */
+    public ResultSet wrapResultSet(Statement statement, ResultSet resultSet);
+
+    /**
+     * Invoked the first time the statement is closed. This method is
+     * responsible for closing, or otherwise releasing, the statement.
+     * @throws SQLException if the statement could not be closed
+     */
+    public void closeInvoked() throws SQLException;
+}
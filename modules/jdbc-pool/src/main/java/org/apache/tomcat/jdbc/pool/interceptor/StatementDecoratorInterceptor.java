@@ -24,6 +24,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.CallableStatement;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -31,6 +32,7 @@ import java.sql.Statement;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.DelegatingConnection;
 
 /**
  * Implementation of <b>JdbcInterceptor</b> that proxies resultSets and statements.
@@ -146,13 +148,36 @@ public class StatementDecoratorInterceptor extends AbstractCreateStatementInterc
         Object result = null;
         StatementProxy<Statement> statementProxy =
                 new StatementProxy<>((Statement)statement,sql);
-        result = constructor.newInstance(new Object[] { statementProxy });
-        statementProxy.setActualProxy(result);
         statementProxy.setConnection(proxy);
         statementProxy.setConstructor(constructor);
+        result = createFacade(statementProxy, constructor);
+        statementProxy.setActualProxy(result);
         return result;
     }
 
+    /**
+     * Creates the object that is returned to the application for a statement.
+     * This is a new proxy, unless the connection of the statement is a
+     * {@link DelegatingConnection} in which case it is a delegating statement
+     * that uses the typed callbacks of the {@link StatementProxy}.
+     *
+     * @param statementProxy The handler of the statement, with the connection set
+     * @param constructor    The constructor for the desired proxy
+     *
+     * @return  A new proxy or delegating statement for the Statement
+     */
+    protected Object createFacade(StatementProxy<? extends Statement> statementProxy,
+                                  Constructor<?> constructor)
+    throws InstantiationException, IllegalAccessException, InvocationTargetException {
+        Object connection = statementProxy.getConnection();
+        if (connection instanceof DelegatingConnection) {
+            return DelegatingStatement.newInstance(statementProxy.getDelegate(),
+                    (Connection) connection, statementProxy);
+        } else {
+            return constructor.newInstance(new Object[] { statementProxy });
+        }
+    }
+
     protected boolean isExecuteQuery(String methodName) {
         return EXECUTE_QUERY_TYPES[0].equals(methodName);
     }
@@ -164,7 +189,8 @@ public class StatementDecoratorInterceptor extends AbstractCreateStatementInterc
     /**
      * Class to measure query execute time.
      */
-    protected class StatementProxy<T extends java.sql.Statement> implements InvocationHandler {
+    protected class StatementProxy<T extends java.sql.Statement>
+            implements InvocationHandler, StatementCallback {
 
         protected boolean closed = false;
         protected T delegate;
@@ -263,6 +289,26 @@ public class StatementDecoratorInterceptor extends AbstractCreateStatementInterc
             return result;
         }
 
+        @Override
+        public long beforeExecute() {
+            return 0;
+        }
+
+        @Override
+        public void afterExecute(String name, Object[] args, long start) {
+            // NOOP
+        }
+
+        @Override
+        public void executeFailed(String name, Object[] args, long start, Throwable t) {
+            // NOOP
+        }
+
+        @Override
+        public ResultSet wrapResultSet(Statement statement, ResultSet resultSet) {
+            return new DelegatingResultSet(resultSet, statement);
+        }
+
         @Override
         public String toString() {
             StringBuffer buf = new StringBuffer(StatementProxy.class.getName());
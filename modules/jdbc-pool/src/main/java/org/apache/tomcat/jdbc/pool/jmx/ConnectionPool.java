@@ -164,6 +164,11 @@ public class ConnectionPool extends NotificationBroadcasterSupport implements Co
         return pool.getWaitCount();
     }
 
+    @Override
+    public int getAsyncWaitCount() {
+        return pool.getAsyncWaitCount();
+    }
+
     //=================================================================
     //       POOL OPERATIONS
     //=================================================================
@@ -853,6 +858,54 @@ public class ConnectionPool extends NotificationBroadcasterSupport implements Co
         getPoolProperties().setIgnoreExceptionOnPreLoad(ignoreExceptionOnPreLoad);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseThreadAffinity(boolean useThreadAffinity) {
+        getPoolProperties().setUseThreadAffinity(useThreadAffinity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseThreadAffinity() {
+        return getPoolProperties().getUseThreadAffinity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUseDelegatingProxies(boolean useDelegatingProxies) {
+        getPoolProperties().setUseDelegatingProxies(useDelegatingProxies);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getUseDelegatingProxies() {
+        return getPoolProperties().getUseDelegatingProxies();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxAsyncWaiters(int maxAsyncWaiters) {
+        getPoolProperties().setMaxAsyncWaiters(maxAsyncWaiters);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxAsyncWaiters() {
+        return getPoolProperties().getMaxAsyncWaiters();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -35,6 +35,8 @@ public interface ConnectionPoolMBean extends PoolConfiguration  {
 
     public int getWaitCount();
 
+    public int getAsyncWaitCount();
+
     //=================================================================
     //       POOL OPERATIONS
     //=================================================================
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.PoolExhaustedException;
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class TestAcquireConnection extends DefaultTestCase {
+
+    @Override
+    public org.apache.tomcat.jdbc.pool.DataSource createDefaultDataSource() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = super.createDefaultDataSource();
+        ds.getPoolProperties().setDriverClassName(Driver.class.getName());
+        ds.getPoolProperties().setUrl(Driver.url);
+        ds.getPoolProperties().setInitialSize(0);
+        ds.getPoolProperties().setMinIdle(0);
+        ds.getPoolProperties().setMaxIdle(1);
+        ds.getPoolProperties().setMaxActive(1);
+        ds.getPoolProperties().setMaxWait(5000);
+        return ds;
+    }
+
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        Driver.reset();
+        super.tearDown();
+    }
+
+
+    @Test
+    public void testAvailable() throws Exception {
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        Connection con = future.get(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(con);
+        Assert.assertEquals(1, datasource.getActive());
+        con.close();
+        Assert.assertEquals(0, datasource.getActive());
+        Assert.assertEquals(1, datasource.getIdle());
+    }
+
+
+    @Test
+    public void testHandOffOnReturn() throws Exception {
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        Thread.sleep(200);
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals(1, datasource.getAsyncWaitCount());
+        con.close();
+        Connection con2 = future.get(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(con2);
+        Assert.assertEquals(0, datasource.getAsyncWaitCount());
+        Assert.assertEquals(1, datasource.getActive());
+        con2.close();
+        Assert.assertEquals(1, Driver.connectCount.get());
+    }
+
+
+    @Test
+    public void testFirstComeFirstServed() throws Exception {
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> first = datasource.acquireConnection().toCompletableFuture();
+        CompletableFuture<Connection> second = datasource.acquireConnection().toCompletableFuture();
+        con.close();
+        Connection con1 = first.get(5, TimeUnit.SECONDS);
+        Thread.sleep(200);
+        Assert.assertFalse(second.isDone());
+        con1.close();
+        second.get(5, TimeUnit.SECONDS).close();
+    }
+
+
+    @Test
+    public void testSlotFreed() throws Exception {
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        // the connection is closed instead of returned to the idle queue
+        datasource.purgeOnReturn();
+        con.close();
+        future.get(5, TimeUnit.SECONDS).close();
+        Assert.assertEquals(2, Driver.connectCount.get());
+    }
+
+
+    @Test
+    public void testTimeout() throws Exception {
+        datasource.getPoolProperties().setMaxWait(200);
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Request did not time out");
+        } catch (ExecutionException x) {
+            Assert.assertTrue(x.getCause() instanceof PoolExhaustedException);
+        }
+        Assert.assertEquals(0, datasource.getAsyncWaitCount());
+        con.close();
+        Assert.assertEquals(1, datasource.getIdle());
+    }
+
+
+    @Test
+    public void testMaxAsyncWaiters() throws Exception {
+        datasource.getPoolProperties().setMaxAsyncWaiters(1);
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> first = datasource.acquireConnection().toCompletableFuture();
+        CompletableFuture<Connection> second = datasource.acquireConnection().toCompletableFuture();
+        Assert.assertTrue(second.isCompletedExceptionally());
+        try {
+            second.get();
+            Assert.fail("Request was queued");
+        } catch (ExecutionException x) {
+            Assert.assertTrue(x.getCause() instanceof PoolExhaustedException);
+        }
+        con.close();
+        first.get(5, TimeUnit.SECONDS).close();
+    }
+
+
+    @Test
+    public void testCancel() throws Exception {
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        Assert.assertTrue(future.cancel(false));
+        con.close();
+        for (int i = 0; i < 50 && datasource.getAsyncWaitCount() > 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0, datasource.getAsyncWaitCount());
+        Assert.assertEquals(0, datasource.getActive());
+        Assert.assertEquals(1, datasource.getIdle());
+    }
+
+
+    @Test
+    public void testCancelReleasesWaiter() throws Exception {
+        datasource.getPoolProperties().setMaxWait(0);
+        datasource.getPoolProperties().setMaxAsyncWaiters(1);
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        Assert.assertEquals(1, datasource.getAsyncWaitCount());
+        Assert.assertTrue(future.cancel(false));
+        // No longer waits, even though no connection was returned
+        Assert.assertEquals(0, datasource.getAsyncWaitCount());
+        CompletableFuture<Connection> second = datasource.acquireConnection().toCompletableFuture();
+        Assert.assertFalse(second.isDone());
+        con.close();
+        second.get(5, TimeUnit.SECONDS).close();
+    }
+
+
+    @Test
+    public void testPoolClosed() throws Exception {
+        datasource.getConnection();
+        ConnectionPool pool = datasource.getPool();
+        CompletableFuture<Connection> future = pool.acquireConnection().toCompletableFuture();
+        datasource.close(true);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Request was not failed");
+        } catch (ExecutionException x) {
+            Assert.assertTrue(x.getCause() instanceof SQLException);
+        }
+        Assert.assertEquals(0, pool.getAsyncWaitCount());
+        Assert.assertTrue(pool.acquireConnection().toCompletableFuture().isCompletedExceptionally());
+    }
+
+
+    @Test
+    public void testThreadAffinity() throws Exception {
+        datasource.getPoolProperties().setUseThreadAffinity(true);
+        Connection con = datasource.getConnection();
+        CompletableFuture<Connection> future = datasource.acquireConnection().toCompletableFuture();
+        // not kept for this thread while a request waits
+        con.close();
+        future.get(5, TimeUnit.SECONDS).close();
+        Assert.assertEquals(1, Driver.connectCount.get());
+    }
+}
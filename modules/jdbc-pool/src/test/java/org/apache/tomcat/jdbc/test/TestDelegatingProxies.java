@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.PooledConnection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.DelegatingConnection;
+import org.apache.tomcat.jdbc.pool.JdbcInterceptor;
+import org.apache.tomcat.jdbc.pool.interceptor.DelegatingCallableStatement;
+import org.apache.tomcat.jdbc.pool.interceptor.DelegatingPreparedStatement;
+import org.apache.tomcat.jdbc.pool.interceptor.DelegatingResultSet;
+import org.apache.tomcat.jdbc.pool.interceptor.DelegatingStatement;
+import org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReport;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementDecoratorInterceptor;
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class TestDelegatingProxies extends DefaultTestCase {
+
+    private static final AtomicInteger commitCount = new AtomicInteger(0);
+    private static final AtomicInteger otherCount = new AtomicInteger(0);
+
+    @Override
+    public org.apache.tomcat.jdbc.pool.DataSource createDefaultDataSource() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = super.createDefaultDataSource();
+        ds.getPoolProperties().setDriverClassName(Driver.class.getName());
+        ds.getPoolProperties().setUrl(Driver.url);
+        ds.getPoolProperties().setInitialSize(0);
+        ds.getPoolProperties().setMaxActive(1);
+        ds.getPoolProperties().setUseDelegatingProxies(true);
+        return ds;
+    }
+
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        Driver.reset();
+        commitCount.set(0);
+        otherCount.set(0);
+        super.tearDown();
+    }
+
+
+    @Test
+    public void testConnection() throws Exception {
+        Connection con = datasource.getConnection();
+        Assert.assertTrue(con instanceof DelegatingConnection);
+        Assert.assertTrue(((PooledConnection) con).getConnection() instanceof
+                org.apache.tomcat.jdbc.test.driver.Connection);
+        Assert.assertTrue(con.unwrap(org.apache.tomcat.jdbc.pool.PooledConnection.class) != null);
+        // Not wrapped without interceptors
+        Statement st = con.createStatement();
+        Assert.assertTrue(st instanceof org.apache.tomcat.jdbc.test.driver.Statement);
+        st.close();
+        Assert.assertFalse(con.isClosed());
+        con.close();
+        Assert.assertTrue(con.isClosed());
+        con.close();
+        Assert.assertEquals(0, datasource.getActive());
+        Assert.assertEquals(1, datasource.getIdle());
+        try {
+            con.createStatement();
+            Assert.fail("Closed connection was used");
+        } catch (SQLException x) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testNotDisposable() throws Exception {
+        datasource.getPoolProperties().setUseDisposableConnectionFacade(false);
+        Connection con = datasource.getConnection();
+        con.close();
+        Assert.assertTrue(con.isClosed());
+        try {
+            con.commit();
+            Assert.fail("Closed connection was used");
+        } catch (SQLException x) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testInterceptedMethods() throws Exception {
+        datasource.getPoolProperties().setJdbcInterceptors(CommitCounter.class.getName());
+        Connection con = datasource.getConnection();
+        con.commit();
+        con.commit();
+        con.getMetaData();
+        con.createStatement().close();
+        con.close();
+        Assert.assertEquals(2, commitCount.get());
+        // close goes through the chain to return the connection
+        Assert.assertEquals(1, otherCount.get());
+    }
+
+
+    @Test
+    public void testStatementDecorator() throws Exception {
+        datasource.getPoolProperties().setJdbcInterceptors(
+                StatementDecoratorInterceptor.class.getName());
+        Connection con = datasource.getConnection();
+        Statement st = con.createStatement();
+        Assert.assertTrue(st instanceof DelegatingStatement);
+        Assert.assertSame(con, st.getConnection());
+        ResultSet rs = st.executeQuery("select 1");
+        Assert.assertTrue(rs instanceof DelegatingResultSet);
+        Assert.assertSame(st, rs.getStatement());
+        rs.close();
+        st.close();
+        Assert.assertTrue(st.isClosed());
+        st.close();
+        try {
+            st.executeQuery("select 1");
+            Assert.fail("Closed statement was used");
+        } catch (SQLException x) {
+            // Expected
+        }
+
+        PreparedStatement ps = con.prepareStatement("select 1");
+        Assert.assertTrue(ps instanceof DelegatingPreparedStatement);
+        ps.setInt(1, 1);
+        rs = ps.executeQuery();
+        Assert.assertSame(ps, rs.getStatement());
+        ps.close();
+
+        CallableStatement cs = con.prepareCall("select 1");
+        Assert.assertTrue(cs instanceof DelegatingCallableStatement);
+        cs.close();
+        con.close();
+    }
+
+
+    @Test
+    public void testSlowQueryReport() throws Exception {
+        datasource.getPoolProperties().setJdbcInterceptors(
+                SlowQueryReport.class.getName() + "(threshold=-1)");
+        Connection con = datasource.getConnection();
+        for (int i = 0; i < 3; i++) {
+            PreparedStatement ps = con.prepareStatement("select 1");
+            Assert.assertTrue(ps instanceof DelegatingPreparedStatement);
+            ps.executeQuery().close();
+            ps.close();
+        }
+        Statement st = con.createStatement();
+        st.execute("select 2");
+        st.close();
+        Map<String,SlowQueryReport.QueryStats> map =
+                SlowQueryReport.getPoolStats(datasource.getPool().getName());
+        Assert.assertEquals(3, map.get("select 1").getNrOfInvocations());
+        Assert.assertEquals(1, map.get("select 2").getNrOfInvocations());
+        con.close();
+    }
+
+
+    @Test
+    public void testStatementCache() throws Exception {
+        datasource.getPoolProperties().setJdbcInterceptors(
+                StatementCache.class.getName() + "(prepared=true,max=10)");
+        Connection con = datasource.getConnection();
+        PreparedStatement ps1 = con.prepareStatement("select 1");
+        Object delegate = ((DelegatingPreparedStatement<?>) ps1).getDelegate();
+        ps1.close();
+        PreparedStatement ps2 = con.prepareStatement("select 1");
+        Assert.assertNotSame(ps1, ps2);
+        Assert.assertFalse(ps2.isClosed());
+        Assert.assertSame(delegate, ((DelegatingPreparedStatement<?>) ps2).getDelegate());
+        ps2.close();
+        con.close();
+    }
+
+
+    public static class CommitCounter extends JdbcInterceptor {
+
+        @Override
+        public boolean isIntercepted(String name) {
+            return compare("commit", name) || compare(CLOSE_VAL, name);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (compare("commit", method)) {
+                commitCount.incrementAndGet();
+            } else {
+                otherCount.incrementAndGet();
+            }
+            return super.invoke(proxy, method, args);
+        }
+
+        @Override
+        public void reset(ConnectionPool parent, org.apache.tomcat.jdbc.pool.PooledConnection con) {
+            // NOOP
+        }
+    }
+}
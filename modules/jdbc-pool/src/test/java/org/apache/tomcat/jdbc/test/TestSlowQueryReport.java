@@ -34,12 +34,14 @@ import java.util.logging.Logger;
 import javax.management.AttributeChangeNotification;
 import javax.management.Notification;
 import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.interceptor.QueryHistogram;
 import org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReport;
 import org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReportJmx;
 
@@ -196,6 +198,71 @@ public class TestSlowQueryReport extends DefaultTestCase {
         Assert.assertNull(SlowQueryReport.getPoolStats(pool.getName()));
     }
 
+    @Test
+    public void testHistogram() throws Exception {
+        int count = 3;
+        this.datasource.setJdbcInterceptors(SlowQueryReportJmx.class.getName()+"(threshold=50,notifyPool=false,histogram=true)");
+        Connection con = this.datasource.getConnection();
+        for (int i=0; i<count; i++) {
+            Statement st = con.createStatement();
+            st.executeQuery("SELECT "+i).close();
+            st.close();
+        }
+        PreparedStatement ps = con.prepareStatement(superSlowSql);
+        ps.executeQuery().close();
+        ps.close();
+
+        Map<String,QueryHistogram> map = SlowQueryReport.getPoolHistograms(datasource.getPool().getName());
+        Assert.assertNotNull(map);
+        Assert.assertEquals(2,map.size());
+        QueryHistogram fast = map.get("SELECT ?");
+        Assert.assertEquals(count, fast.getCount());
+        QueryHistogram slow = map.get(SlowQueryReport.normalizeSql(superSlowSql));
+        Assert.assertEquals(1, slow.getCount());
+        Assert.assertTrue(slow.getValueAtPercentile(99.0)>=200);
+        System.out.println("Histogram:"+slow);
+
+        ConnectionPool pool = datasource.getPool();
+        CompositeData[] cd = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new SlowQueryReportJmx().getObjectName(SlowQueryReportJmx.class, pool.getName()),
+                "QueryHistogramsCD");
+        Assert.assertEquals(2, cd.length);
+        con.close();
+        tearDown();
+        Assert.assertNull(SlowQueryReport.getPoolHistograms(pool.getName()));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        QueryHistogram histogram = new QueryHistogram("select ?");
+        for (int i=1; i<=1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0.1));
+        Assert.assertEquals(500, histogram.getValueAtPercentile(50.0), 500/16);
+        Assert.assertEquals(990, histogram.getValueAtPercentile(99.0), 990/16);
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(99.9));
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(100.0));
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testNormalizeSql() {
+        Assert.assertEquals("select * from t1 where a = ? and b = ?",
+                SlowQueryReport.normalizeSql("select *  from t1\n where a = 'it''s' and b = 12.5"));
+        Assert.assertEquals("select \"col 1\" from t where x in (?)",
+                SlowQueryReport.normalizeSql("select \"col 1\" from t where x in (1, 2, 3)"));
+        Assert.assertEquals("insert into t values (?)",
+                SlowQueryReport.normalizeSql("insert into t values (?, ?, ?)"));
+        Assert.assertEquals("select a-? from t",
+                SlowQueryReport.normalizeSql("select a-0x1F from t "));
+    }
+
 
     public class ClientListener implements NotificationListener {
         AtomicInteger notificationCount = new AtomicInteger(0);
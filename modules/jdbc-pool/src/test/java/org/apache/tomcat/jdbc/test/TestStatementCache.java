@@ -16,6 +16,7 @@
  */
 package org.apache.tomcat.jdbc.test;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -26,6 +27,7 @@ import org.junit.Test;
 
 import org.apache.tomcat.jdbc.pool.JdbcInterceptor;
 import org.apache.tomcat.jdbc.pool.interceptor.StatementCache;
+import org.apache.tomcat.jdbc.pool.interceptor.StatementCacheStats;
 import org.apache.tomcat.jdbc.pool.interceptor.StatementCounterInterceptor;
 
 public class TestStatementCache extends DefaultTestCase {
@@ -176,6 +178,101 @@ public class TestStatementCache extends DefaultTestCase {
     }
 
 
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        init();
+        datasource.setJdbcInterceptors(
+                TestStatementCacheInterceptor.class.getName()
+                + "(prepared=true,callable=false,max=2);"
+                + StatementCounterInterceptor.class.getName());
+        Connection con = datasource.getConnection();
+        StatementCounterInterceptor counter = findInterceptor(con, StatementCounterInterceptor.class);
+        con.prepareStatement("select 1").close();
+        con.prepareStatement("select 2").close();
+        Assert.assertEquals(2,interceptor.getCacheSize().get());
+        Assert.assertEquals(2, counter.getActiveCount());
+
+        con.prepareStatement("select 3").close();
+        Assert.assertEquals("Used as often as the cached statements, closed", 2, counter.getActiveCount());
+        Assert.assertNull(interceptor.isCached("select 3"));
+
+        con.prepareStatement("select 3").close();
+        Assert.assertEquals("Used more, replaces the least recently used statement", 2, counter.getActiveCount());
+        Assert.assertNull(interceptor.isCached("select 1"));
+        Assert.assertNotNull(interceptor.isCached("select 2"));
+        Assert.assertNotNull(interceptor.isCached("select 3"));
+        Assert.assertEquals(2,interceptor.getCacheSize().get());
+
+        con.prepareStatement("select 3").close();
+        con.prepareStatement("select 2").close();
+
+        StatementCacheStats stats = StatementCache.getPoolStats(datasource.getPool());
+        Assert.assertSame(stats, interceptor.getStats());
+        Assert.assertEquals(2, stats.getHits());
+        Assert.assertEquals(4, stats.getMisses());
+        Assert.assertEquals(1, stats.getEvictions());
+        Assert.assertEquals(1, stats.getStatementStats("select 1").getEvictions());
+        Assert.assertEquals(3, stats.getStatementStats("select 3").getFrequency());
+        Assert.assertEquals(1, stats.getStatementStats("select 3").getHits());
+        Assert.assertEquals(2, stats.getStatementStats("select 3").getMisses());
+        con.close();
+    }
+
+    @Test
+    public void testStatsJmx() throws Exception {
+        init();
+        config(true,false,10);
+        datasource.getPoolProperties().setJmxEnabled(true);
+        Connection con = datasource.getConnection();
+        con.prepareStatement("select 1").close();
+        con.prepareStatement("select 1").close();
+        StatementCacheStats stats = StatementCache.getPoolStats(datasource.getPool());
+        Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(stats.getObjectName()));
+        Assert.assertEquals(Long.valueOf(1),
+                ManagementFactory.getPlatformMBeanServer().getAttribute(stats.getObjectName(), "Hits"));
+        Assert.assertEquals(1, stats.getStatementStatsCD().length);
+        con.close();
+        datasource.close();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(stats.getObjectName()));
+    }
+
+    @Test
+    public void testStatsCapacity() throws Exception {
+        StatementCacheStats stats = new StatementCacheStats("test", 10, 4);
+        // the counts are halved every 40 statements, many times over, so the
+        // statements used in every round are prepared at least 10 times
+        // between two halvings
+        for (int i=0; i<500; i++) {
+            stats.miss("select 1");
+            stats.miss("select 2");
+            stats.miss("select one-off "+i);
+            stats.miss("select one-off "+i+" again");
+        }
+        Assert.assertTrue(stats.getStatementStatsCD().length <= 4);
+        Assert.assertTrue("Frequently used statement is kept with a meaningful frequency",
+                stats.getFrequency("select 1") >= 5);
+        Assert.assertTrue(stats.getFrequency("select 2") >= 5);
+        Assert.assertEquals("Statistics are kept", 500, stats.getStatementStats("select 1").getMisses());
+        Assert.assertEquals(500, stats.getStatementStats("select 2").getMisses());
+        Assert.assertTrue(stats.getFrequency("select 1") > stats.getFrequency("select one-off 499"));
+        Assert.assertEquals(2000, stats.getMisses());
+    }
+
+    @Test
+    public void testStatsCapacityFull() throws Exception {
+        StatementCacheStats stats = new StatementCacheStats("test", 10, 2);
+        for (int i=0; i<5; i++) {
+            stats.miss("select 1");
+            stats.miss("select 2");
+        }
+        // both tracked statements are used more, a new one is not tracked
+        stats.miss("select 3");
+        Assert.assertEquals(0, stats.getFrequency("select 3"));
+        Assert.assertEquals(5, stats.getFrequency("select 1"));
+        Assert.assertEquals(5, stats.getFrequency("select 2"));
+        Assert.assertEquals(2, stats.getStatementStatsCD().length);
+    }
+
     public static class TestStatementCacheInterceptor extends StatementCache {
         public TestStatementCacheInterceptor() {
             TestStatementCache.interceptor = this;
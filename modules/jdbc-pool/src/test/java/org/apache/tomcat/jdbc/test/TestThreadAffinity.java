@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.jdbc.test;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.PooledConnection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.jdbc.test.driver.Driver;
+
+public class TestThreadAffinity extends DefaultTestCase {
+
+    @Override
+    public org.apache.tomcat.jdbc.pool.DataSource createDefaultDataSource() {
+        org.apache.tomcat.jdbc.pool.DataSource ds = super.createDefaultDataSource();
+        ds.getPoolProperties().setDriverClassName(Driver.class.getName());
+        ds.getPoolProperties().setUrl(Driver.url);
+        ds.getPoolProperties().setInitialSize(0);
+        ds.getPoolProperties().setMinIdle(0);
+        ds.getPoolProperties().setMaxIdle(2);
+        ds.getPoolProperties().setMaxActive(2);
+        ds.getPoolProperties().setMaxWait(2000);
+        ds.getPoolProperties().setUseThreadAffinity(true);
+        return ds;
+    }
+
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        Driver.reset();
+        super.tearDown();
+    }
+
+
+    @Test
+    public void testSameConnection() throws Exception {
+        Connection con = datasource.getConnection();
+        Connection underlying = ((PooledConnection) con).getConnection();
+        con.close();
+        Assert.assertEquals(0, datasource.getActive());
+        Assert.assertEquals(1, datasource.getIdle());
+        for (int i = 0; i < 10; i++) {
+            con = datasource.getConnection();
+            Assert.assertSame(underlying, ((PooledConnection) con).getConnection());
+            Assert.assertEquals(1, datasource.getActive());
+            Assert.assertEquals(0, datasource.getIdle());
+            con.close();
+        }
+        Assert.assertEquals(1, datasource.getSize());
+        Assert.assertEquals(1, Driver.connectCount.get());
+    }
+
+
+    @Test
+    public void testWaitingThreadTakesParkedConnection() throws Exception {
+        datasource.getPoolProperties().setMaxActive(1);
+        datasource.getPoolProperties().setMaxIdle(1);
+        Connection con = datasource.getConnection();
+        con.close();
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    datasource.getConnection().close();
+                } catch (Throwable x) {
+                    error.set(x);
+                }
+            }
+        };
+        t.start();
+        t.join();
+        Assert.assertNull(error.get());
+        Assert.assertEquals(1, datasource.getSize());
+        Assert.assertEquals(1, Driver.connectCount.get());
+    }
+
+
+    @Test
+    public void testPurge() throws Exception {
+        datasource.getConnection().close();
+        Assert.assertEquals(1, datasource.getSize());
+        datasource.purge();
+        Assert.assertEquals(0, datasource.getSize());
+        Assert.assertEquals(1, Driver.disconnectCount.get());
+    }
+
+
+    @Test
+    public void testClose() throws Exception {
+        datasource.getConnection().close();
+        datasource.close();
+        Assert.assertEquals(1, Driver.disconnectCount.get());
+    }
+}
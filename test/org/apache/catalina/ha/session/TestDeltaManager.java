@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.TesterContext;
+import org.apache.catalina.ha.CatalinaCluster;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestDeltaManager {
+
+    private DeltaManager manager;
+    private Member[] members;
+    private final List<SessionMessage> sent = new ArrayList<>();
+    private final List<Member> sentTo = new ArrayList<>();
+    private Thread transfer;
+
+
+    @Before
+    public void setup() throws Exception {
+        manager = new DeltaManager();
+        manager.setContext(new TesterContext());
+        manager.setName("test");
+        members = new Member[] {
+                new MemberImpl("127.0.0.1", 4001, 1000),
+                new MemberImpl("127.0.0.1", 4002, 1000),
+                new MemberImpl("127.0.0.1", 4003, 1000) };
+        manager.setCluster((CatalinaCluster) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { CatalinaCluster.class },
+                new ClusterHandler()));
+        manager.setStateTransferTimeout(30);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (transfer != null) {
+            manager.setStateTransfered(true);
+            transfer.join(10000);
+        }
+    }
+
+
+    @Test
+    public void testSelectPartition() {
+        Session[] sessions = new Session[1000];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = manager.createEmptySession();
+            sessions[i].setId("session" + i, false);
+        }
+
+        assertArrayEquals(sessions, manager.selectPartition(sessions, 0, 1));
+
+        // Every session is in exactly one partition
+        Set<Session> selected = new HashSet<>();
+        for (int partition = 0; partition < 3; partition++) {
+            Session[] result = manager.selectPartition(sessions, partition, 3);
+            assertTrue(result.length > 200);
+            for (Session session : result) {
+                assertTrue(selected.add(session));
+                assertEquals(partition, (session.getIdInternal().hashCode() & 0x7FFFFFFF) % 3);
+            }
+        }
+        assertEquals(sessions.length, selected.size());
+    }
+
+
+    @Test
+    public void testSingleMember() throws Exception {
+        startTransfer(1);
+        assertEquals(1, sent.size());
+        // The member is asked for all the sessions
+        assertNull(sent.get(0).getSession());
+        assertEquals(1, manager.getStateTransferPartitionsPending());
+
+        complete(members[0], null);
+        awaitTransfer();
+        assertTrue(manager.getStateTransfered());
+    }
+
+
+    @Test
+    public void testAllPartitionsComplete() throws Exception {
+        startTransfer(3);
+        assertEquals(3, sent.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(SessionMessage.EVT_GET_ALL_SESSIONS, sent.get(i).getEventType());
+            assertSame(members[i], sentTo.get(i));
+            assertPartition(sent.get(i), i);
+        }
+        assertEquals(3, manager.getStateTransferPartitionsPending());
+
+        complete(members[0], partition(0));
+        complete(members[2], partition(2));
+        assertEquals(1, manager.getStateTransferPartitionsPending());
+        assertFalse(manager.getStateTransfered());
+
+        complete(members[1], partition(1));
+        awaitTransfer();
+        assertEquals(0, manager.getStateTransferPartitionsPending());
+        assertTrue(manager.getStateTransfered());
+    }
+
+
+    @Test
+    public void testMemberSendsAllSessions() throws Exception {
+        startTransfer(3);
+        // A member that does not support partitions sends every session
+        complete(members[1], null);
+        awaitTransfer();
+        assertTrue(manager.getStateTransfered());
+    }
+
+
+    @Test
+    public void testNoContextManagerReassigned() throws Exception {
+        startTransfer(3);
+        noContextManager(members[1]);
+
+        // The partition is requested from the first member that has one
+        assertEquals(4, sent.size());
+        assertSame(members[0], sentTo.get(3));
+        assertPartition(sent.get(3), 1);
+        assertEquals(3, manager.getStateTransferPartitionsPending());
+        assertFalse(manager.isNoContextManagerReceived());
+
+        complete(members[0], partition(0));
+        complete(members[2], partition(2));
+        assertFalse(manager.getStateTransfered());
+        complete(members[0], partition(1));
+        awaitTransfer();
+        assertTrue(manager.getStateTransfered());
+        assertFalse(manager.isNoContextManagerReceived());
+    }
+
+
+    @Test
+    public void testNoContextManagerOnAllMembers() throws Exception {
+        startTransfer(3);
+        noContextManager(members[0]);
+        // Partitions 0 and 1 are now both requested from member 1
+        assertSame(members[1], sentTo.get(3));
+        assertPartition(sent.get(3), 0);
+        noContextManager(members[1]);
+        noContextManager(members[2]);
+
+        awaitTransfer();
+        assertEquals(0, manager.getStateTransferPartitionsPending());
+        assertFalse(manager.getStateTransfered());
+        assertTrue(manager.isNoContextManagerReceived());
+    }
+
+
+    private void startTransfer(int count) throws Exception {
+        manager.setStateTransferMembers(count);
+        transfer = new Thread() {
+            @Override
+            public void run() {
+                manager.getAllClusterSessions();
+            }
+        };
+        transfer.start();
+        for (int i = 0; i < 100; i++) {
+            synchronized (sent) {
+                if (sent.size() >= count) {
+                    break;
+                }
+            }
+            Thread.sleep(50);
+        }
+    }
+
+
+    private void awaitTransfer() throws Exception {
+        transfer.join(10000);
+        assertFalse(transfer.isAlive());
+        transfer = null;
+    }
+
+
+    private void complete(Member sender, byte[] partition) {
+        SessionMessage msg = new SessionMessageImpl(manager.getName(),
+                SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE, partition,
+                "SESSION-STATE-TRANSFERED", "SESSION-STATE-TRANSFERED-test");
+        msg.setTimestamp(System.currentTimeMillis());
+        manager.handleALL_SESSION_TRANSFERCOMPLETE(msg, sender);
+    }
+
+
+    private void noContextManager(Member sender) {
+        SessionMessage msg = new SessionMessageImpl(manager.getName(),
+                SessionMessage.EVT_ALL_SESSION_NOCONTEXTMANAGER, null,
+                "NO-CONTEXT-MANAGER", "NO-CONTEXT-MANAGER-test");
+        manager.handleALL_SESSION_NOCONTEXTMANAGER(msg, sender);
+    }
+
+
+    private static byte[] partition(int partition) {
+        byte[] data = new byte[8];
+        XByteBuffer.toBytes(partition, data, 0);
+        XByteBuffer.toBytes(3, data, 4);
+        return data;
+    }
+
+
+    private static void assertPartition(SessionMessage msg, int partition) {
+        assertArrayEquals(partition(partition), msg.getSession());
+    }
+
+
+    private class ClusterHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getMembers":
+                    return members;
+                case "send":
+                    if (args.length == 2) {
+                        synchronized (sent) {
+                            sent.add((SessionMessage) args[0]);
+                            sentTo.add((Member) args[1]);
+                        }
+                    }
+                    return null;
+                case "hasMembers":
+                    return Boolean.TRUE;
+                default:
+                    if (method.getReturnType() == boolean.class) {
+                        return Boolean.FALSE;
+                    }
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.core.TesterContext;
+
+public class TestDeltaRequest {
+
+    private DeltaSession primary;
+    private DeltaSession backup;
+
+
+    @Before
+    public void setup() {
+        primary = createSession();
+        backup = createSession();
+    }
+
+
+    @Test
+    public void testDiffReplicated() throws Exception {
+        TesterCart cart = new TesterCart();
+        for (int i = 0; i < 100; i++) {
+            cart.setQuantity("item" + i, 1);
+        }
+        primary.setAttribute("cart", cart);
+        int full = replicate();
+        TesterCart backupCart = (TesterCart) backup.getAttribute("cart");
+        assertNotSame(cart, backupCart);
+        assertEquals(cart.items, backupCart.items);
+
+        cart.setQuantity("item5", 3);
+        primary.setAttribute("cart", cart);
+        int diff = replicate();
+        assertTrue("full [" + full + "] diff [" + diff + "]", diff * 10 < full);
+        assertEquals(cart.items, backupCart.items);
+        assertEquals(Integer.valueOf(3), backupCart.items.get("item5"));
+    }
+
+
+    @Test
+    public void testFullValueWhenNotReplicated() throws Exception {
+        TesterCart cart = new TesterCart();
+        cart.setQuantity("item1", 1);
+        primary.setAttribute("cart", cart);
+        // Set again before the first value has been replicated
+        cart.setQuantity("item2", 2);
+        primary.setAttribute("cart", cart);
+        replicate();
+        assertEquals(cart.items, ((TesterCart) backup.getAttribute("cart")).items);
+    }
+
+
+    private int replicate() throws Exception {
+        byte[] data = primary.getDeltaRequest().serialize();
+        primary.resetDeltaRequest();
+        DeltaRequest request = new DeltaRequest();
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            request.readExternal(ois);
+        }
+        request.execute(backup, false);
+        return data.length;
+    }
+
+
+    private static DeltaSession createSession() {
+        DeltaManager manager = new DeltaManager();
+        manager.setContext(new TesterContext());
+        DeltaSession session = (DeltaSession) manager.createSession("session", false);
+        session.resetDeltaRequest();
+        return session;
+    }
+
+
+    private static class TesterCart implements DeltaAttribute {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String,Integer> items = new HashMap<>();
+        private transient Map<String,Integer> changes = new HashMap<>();
+
+        public void setQuantity(String item, int quantity) {
+            items.put(item, Integer.valueOf(quantity));
+            changes.put(item, Integer.valueOf(quantity));
+        }
+
+        @Override
+        public byte[] getDiff() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (DataOutputStream dos = new DataOutputStream(baos)) {
+                dos.writeInt(changes.size());
+                for (Map.Entry<String,Integer> entry : changes.entrySet()) {
+                    dos.writeUTF(entry.getKey());
+                    dos.writeInt(entry.getValue().intValue());
+                }
+            }
+            changes.clear();
+            return baos.toByteArray();
+        }
+
+        @Override
+        public void applyDiff(byte[] diff, int offset, int length) throws IOException {
+            try (DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(diff, offset, length))) {
+                int count = dis.readInt();
+                for (int i = 0; i < count; i++) {
+                    items.put(dis.readUTF(), Integer.valueOf(dis.readInt()));
+                }
+            }
+        }
+
+        @Override
+        public void resetDiff() {
+            changes.clear();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            changes = new HashMap<>();
+        }
+    }
+}
@@ -61,7 +61,7 @@ public class TestMapper extends LoggingBaseTest {
         return context;
     }
 
-    private Wrapper createWrapper(String name) {
+    protected Wrapper createWrapper(String name) {
         Wrapper wrapper = new StandardWrapper();
         wrapper.setName(name);
         return wrapper;
@@ -284,6 +284,111 @@ public class TestMapper extends LoggingBaseTest {
         assertTrue(mappingData.redirectPath.isNull());
     }
 
+    @Test
+    public void testMapWithCache() throws Exception {
+        mapper.setMappingCacheSize(16);
+        assertEquals(16, mapper.getMappingCacheSize());
+        // The second pass is served from the cache
+        testMap();
+        testMap();
+    }
+
+    @Test
+    public void testMapCacheInvalidation() throws Exception {
+        mapper.setMappingCacheSize(16);
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("iowejoiejfoiew");
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString("/foo/bar/blah/bobou/foo");
+        uri.toChars();
+        uri.getCharChunk().setLimit(-1);
+
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("wrapper5", mappingData.wrapper.getName());
+
+        mapper.removeWrapper("iowejoiejfoiew", "/foo/bar", "0", "/blah/bobou/*");
+
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        assertEquals("wrapper1", mappingData.wrapper.getName());
+        assertEquals("/blah/bobou/foo", mappingData.wrapperPath.toString());
+        assertTrue(mappingData.pathInfo.isNull());
+    }
+
+    @Test
+    public void testMapCacheReload() throws Exception {
+        final String hostName = "iowejoiejfoiew";
+        final String contextPath = "/foo/bar";
+        mapper.setMappingCacheSize(16);
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString(hostName);
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString("/foo/bar/blah/bobou/foo");
+        uri.toChars();
+        uri.getCharChunk().setLimit(-1);
+
+        mapper.map(host, uri, null, mappingData);
+        Context oldContext = mappingData.context;
+        Wrapper oldWrapper = mappingData.wrapper;
+        assertEquals("context2", oldContext.getName());
+        assertTrue(mapper.getMappingCache().references(oldContext));
+        assertTrue(mapper.getMappingCache().references(oldWrapper));
+
+        // Reload the context
+        mapper.removeContextVersion(oldContext, hostName, contextPath, "0");
+        Context newContext = createContext("context2-reloaded");
+        mapper.addContextVersion(hostName, createHost("blah7"), contextPath, "0",
+                newContext, new String[0], null,
+                Arrays.asList(new WrapperMappingInfo[] { new WrapperMappingInfo(
+                        "/blah/bobou/*", createWrapper("wrapper5-reloaded"), false, false) }));
+
+        assertFalse(mapper.getMappingCache().references(oldContext));
+        assertFalse(mapper.getMappingCache().references(oldWrapper));
+
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        assertSame(newContext, mappingData.context);
+        assertEquals("wrapper5-reloaded", mappingData.wrapper.getName());
+        assertTrue(mapper.getMappingCache().references(newContext));
+        assertFalse(mapper.getMappingCache().references(oldContext));
+    }
+
+    @Test
+    public void testWrapperTrie() {
+        Mapper.MappedWrapper root = new Mapper.MappedWrapper("", null, false, false);
+        Mapper.MappedWrapper a = new Mapper.MappedWrapper("/a", null, false, false);
+        Mapper.MappedWrapper ab = new Mapper.MappedWrapper("/a/b", null, false, false);
+        Mapper.MappedWrapper exact = new Mapper.MappedWrapper("/a/b/c", null, false, false);
+        Mapper.MappedWrapper jsp = new Mapper.MappedWrapper("jsp", null, false, false);
+        WrapperTrie trie = new WrapperTrie(
+                new Mapper.MappedWrapper[] { exact },
+                new Mapper.MappedWrapper[] { root, a, ab },
+                new Mapper.MappedWrapper[] { jsp });
+
+        assertSame(ab, findWildcard(trie, "/a/b"));
+        assertSame(ab, findWildcard(trie, "/a/b/"));
+        assertSame(ab, findWildcard(trie, "/a/b/c"));
+        assertSame(a, findWildcard(trie, "/a/b-c/d"));
+        assertSame(a, findWildcard(trie, "/a"));
+        assertSame(root, findWildcard(trie, "/ab"));
+        assertSame(root, findWildcard(trie, "/"));
+
+        char[] path = "/a/b/c".toCharArray();
+        assertSame(exact, trie.findExact(path, 0, path.length));
+        assertNull(trie.findExact(path, 0, path.length - 1));
+
+        char[] file = "index.jsp".toCharArray();
+        assertSame(jsp, trie.findExtension(file, 6, file.length));
+        assertNull(trie.findExtension(file, 7, file.length));
+    }
+
+    private static Mapper.MappedWrapper findWildcard(WrapperTrie trie, String path) {
+        char[] chars = path.toCharArray();
+        return trie.findWildcard(chars, 0, chars.length);
+    }
+
     @Test
     public void testAddRemoveContextVersion() throws Exception {
         final String hostName = "iowejoiejfoiew";
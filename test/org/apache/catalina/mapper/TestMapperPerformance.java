@@ -16,6 +16,9 @@
  */
 package org.apache.catalina.mapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -40,6 +43,56 @@ public class TestMapperPerformance extends TestMapper {
         assertTrue(String.valueOf(time), time < maxTime);
     }
 
+    /*
+     * Compares mapping with and without the cache of mapping results for a
+     * context with hundreds of servlet mappings.
+     */
+    @Test
+    public void testPerformanceManyMappings() throws Exception {
+        List<WrapperMappingInfo> wrappers = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            wrappers.add(new WrapperMappingInfo("/exact/" + i,
+                    createWrapper("exact" + i), false, false));
+            wrappers.add(new WrapperMappingInfo("/prefix/" + i + "/*",
+                    createWrapper("prefix" + i), false, false));
+            wrappers.add(new WrapperMappingInfo("*.ext" + i,
+                    createWrapper("extension" + i), false, false));
+        }
+        mapper.addWrappers("iowejoiejfoiew", "/foo", "0", wrappers);
+
+        String[] uris = new String[] { "/foo/exact/150", "/foo/prefix/299/a/b/c",
+                "/foo/some/path/file.ext42", "/foo/prefix/1/index.ext7" };
+
+        long withoutCache = testPerformanceImpl(uris);
+        mapper.setMappingCacheSize(1024);
+        long withCache = testPerformanceImpl(uris);
+        log.info("Mapping with many mappings took [" + withoutCache +
+                "] ms without the cache and [" + withCache + "] ms with the cache");
+        assertTrue(String.valueOf(withoutCache), withoutCache < 5000);
+        assertTrue(String.valueOf(withCache), withCache < 5000);
+    }
+
+    private long testPerformanceImpl(String[] uriStrings) throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("iowejoiejfoiew");
+        MessageBytes[] uris = new MessageBytes[uriStrings.length];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = MessageBytes.newInstance();
+            uris[i].setString(uriStrings[i]);
+            uris[i].toChars();
+            uris[i].getCharChunk().setLimit(-1);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000000; i++) {
+            mappingData.recycle();
+            mapper.map(host, uris[i % uris.length], null, mappingData);
+        }
+        long time = System.currentTimeMillis() - start;
+        return time;
+    }
+
     private long testPerformanceImpl() throws Exception {
         MappingData mappingData = new MappingData();
         MessageBytes host = MessageBytes.newInstance();
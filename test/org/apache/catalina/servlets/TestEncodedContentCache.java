@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestEncodedContentCache {
+
+    @Test
+    public void testKeyIncludesETag() {
+        EncodedContentCache cache = new EncodedContentCache(1024);
+        String key1 = EncodedContentCache.createKey("/a.js", "W/\"10-1\"", "gzip");
+        String key2 = EncodedContentCache.createKey("/a.js", "W/\"10-2\"", "gzip");
+        String key3 = EncodedContentCache.createKey("/a.js", "W/\"10-1\"", "br");
+
+        cache.put(key1, new byte[10]);
+        Assert.assertNotNull(cache.get(key1));
+        Assert.assertNull(cache.get(key2));
+        Assert.assertNull(cache.get(key3));
+        Assert.assertEquals(3, cache.getLookupCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        EncodedContentCache cache = new EncodedContentCache(400);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        // Make b the least recently used
+        cache.get("a");
+        cache.get("c");
+        cache.put("d", new byte[100]);
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("c"));
+        Assert.assertNotNull(cache.get("d"));
+        Assert.assertTrue(cache.getSize() <= 400);
+    }
+
+    @Test
+    public void testTooLarge() {
+        EncodedContentCache cache = new EncodedContentCache(100);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[200]);
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void testEmptyEntriesEvicted() {
+        byte[] empty = new byte[0];
+        EncodedContentCache cache = new EncodedContentCache(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, empty);
+        }
+        Assert.assertTrue(cache.getEntryCount() <= 2);
+        Assert.assertTrue(cache.getSize() <= 10);
+    }
+
+    @Test
+    public void testGzipEncoder() throws Exception {
+        byte[] content = new byte[8192];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + i % 7);
+        }
+        ContentEncoder encoder = new GzipContentEncoder();
+        Assert.assertEquals("gzip", encoder.getEncoding());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream os = encoder.createEncodingStream(baos)) {
+            os.write(content);
+        }
+        Assert.assertTrue(baos.size() < content.length);
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (GZIPInputStream gis = new GZIPInputStream(
+                new ByteArrayInputStream(baos.toByteArray()))) {
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = gis.read(buf)) > 0) {
+                decoded.write(buf, 0, len);
+            }
+        }
+        Assert.assertArrayEquals(content, decoded.toByteArray());
+    }
+}
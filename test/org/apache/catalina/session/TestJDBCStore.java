@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.core.TesterContext;
+
+public class TestJDBCStore {
+
+    private StandardManager manager;
+    private JDBCStore store;
+
+
+    @Before
+    public void setup() throws Exception {
+        TesterDriver.reset();
+        manager = new StandardManager();
+        manager.setContext(new TesterContext() {
+            @Override
+            public String getName() {
+                return "/test";
+            }
+        });
+        manager.setMaxInactiveInterval(60);
+        store = new JDBCStore();
+        store.setDriverName(TesterDriver.class.getName());
+        store.setConnectionURL("jdbc:tester");
+        store.setManager(manager);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        TesterDriver.available = true;
+        if (store.getState().isAvailable()) {
+            store.stop();
+        }
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        store.start();
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s2", "v2"));
+        store.save(createSession("s1", "v1-updated"));
+        store.remove("s2");
+        assertEquals(1, store.getSize());
+        assertEquals("v1-updated", load("s1").getAttribute("attr"));
+        assertNull(store.load("s2"));
+    }
+
+
+    @Test
+    public void testWriteBehindLoadWhilePending() throws Exception {
+        startWriteBehind();
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s1", "v2"));
+        assertTrue(TesterDriver.rows.isEmpty());
+        assertEquals("v2", load("s1").getAttribute("attr"));
+
+        assertTrue(store.flushPendingSaves());
+        assertEquals(1, TesterDriver.rows.size());
+        assertEquals("v2", load("s1").getAttribute("attr"));
+    }
+
+
+    @Test
+    public void testWriteBehindFlushOnStop() throws Exception {
+        startWriteBehind();
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s2", "v2"));
+        assertTrue(TesterDriver.rows.isEmpty());
+
+        store.stop();
+        assertEquals(2, TesterDriver.rows.size());
+    }
+
+
+    @Test
+    public void testWriteBehindNoDelay() throws Exception {
+        store.setWriteBehind(true);
+        store.setWriteBehindDelay(0);
+        store.start();
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s2", "v2"));
+
+        int count = 0;
+        while (rowCount() < 2 && count < 100) {
+            Thread.sleep(50);
+            count++;
+        }
+        assertEquals(2, rowCount());
+    }
+
+
+    @Test
+    public void testWriteBehindFlushOnProcessExpires() throws Exception {
+        startWriteBehind();
+        StandardSession expired = createSession("expired", "v");
+        expired.lastAccessedTime -= 120000;
+        expired.thisAccessedTime -= 120000;
+        store.save(expired);
+        store.save(createSession("valid", "v"));
+        assertTrue(TesterDriver.rows.isEmpty());
+
+        store.processExpires();
+        assertArrayEquals(new String[] { "valid" }, store.keys());
+        assertNull(store.load("expired"));
+    }
+
+
+    @Test
+    public void testExpiredKeysNeverExpire() throws Exception {
+        store.start();
+        StandardSession expired = createSession("expired", "v");
+        expired.lastAccessedTime -= 120000;
+        store.save(expired);
+        StandardSession immortal = createSession("immortal", "v");
+        immortal.setMaxInactiveInterval(-1);
+        immortal.lastAccessedTime -= 120000;
+        store.save(immortal);
+        StandardSession zero = createSession("zero", "v");
+        zero.setMaxInactiveInterval(0);
+        zero.lastAccessedTime -= 120000;
+        store.save(zero);
+        store.save(createSession("valid", "v"));
+
+        assertArrayEquals(new String[] { "expired" }, store.expiredKeys());
+    }
+
+
+    @Test
+    public void testWriteBehindDatabaseUnavailable() throws Exception {
+        startWriteBehind();
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s2", "v1"));
+
+        // A newer save made while the failing write is in progress wins
+        TesterDriver.available = false;
+        TesterDriver.onFailure = new Runnable() {
+            @Override
+            public void run() {
+                TesterDriver.onFailure = null;
+                try {
+                    store.save(createSession("s1", "v2"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        assertFalse(store.flushPendingSaves());
+        assertTrue(TesterDriver.rows.isEmpty());
+
+        // Nothing was lost
+        assertEquals("v2", load("s1").getAttribute("attr"));
+        assertEquals("v1", load("s2").getAttribute("attr"));
+
+        TesterDriver.available = true;
+        assertTrue(store.flushPendingSaves());
+        assertEquals(2, TesterDriver.rows.size());
+        assertEquals("v2", load("s1").getAttribute("attr"));
+        assertEquals("v1", load("s2").getAttribute("attr"));
+    }
+
+
+    private void startWriteBehind() throws Exception {
+        store.setWriteBehind(true);
+        // Only write when told to
+        store.setWriteBehindDelay(60000);
+        store.start();
+    }
+
+
+    private StandardSession createSession(String id, String value) {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(60);
+        session.setId(id, false);
+        session.setAttribute("attr", value, false);
+        return session;
+    }
+
+
+    private int rowCount() {
+        synchronized (TesterDriver.rows) {
+            return TesterDriver.rows.size();
+        }
+    }
+
+
+    private StandardSession load(String id) throws Exception {
+        return (StandardSession) store.load(id);
+    }
+
+
+    /**
+     * A minimal in-memory JDBC driver that understands the SQL generated by
+     * JDBCStore with the default column names.
+     */
+    public static class TesterDriver implements Driver {
+
+        static final Map<String,Object[]> rows = new TreeMap<>();
+        static volatile boolean available = true;
+        static volatile Runnable onFailure = null;
+
+        // Columns of a row
+        private static final int DATA = 0;
+        private static final int MAX_INACTIVE = 1;
+        private static final int LAST_ACCESS = 2;
+
+        static void reset() {
+            synchronized (rows) {
+                rows.clear();
+            }
+            available = true;
+            onFailure = null;
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            checkAvailable();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, new ConnectionHandler());
+        }
+
+        private static void checkAvailable() throws SQLException {
+            if (!available) {
+                Runnable r = onFailure;
+                if (r != null) {
+                    r.run();
+                }
+                throw new SQLException("Database unavailable");
+            }
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return true;
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+
+        private static class ConnectionHandler implements InvocationHandler {
+
+            private boolean closed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "prepareStatement":
+                        return Proxy.newProxyInstance(TesterDriver.class.getClassLoader(),
+                                new Class<?>[] { PreparedStatement.class },
+                                new StatementHandler((String) args[0]));
+                    case "isClosed":
+                        return Boolean.valueOf(closed);
+                    case "getAutoCommit":
+                        return Boolean.TRUE;
+                    case "close":
+                        closed = true;
+                        return null;
+                    default:
+                        return null;
+                }
+            }
+        }
+
+
+        private static class StatementHandler implements InvocationHandler {
+
+            private final String sql;
+            private Object[] params = new Object[8];
+            private final List<Object[]> batch = new ArrayList<>();
+
+            StatementHandler(String sql) {
+                this.sql = sql;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "setString":
+                    case "setInt":
+                    case "setLong":
+                        params[((Integer) args[0]).intValue()] = args[1];
+                        return null;
+                    case "setBinaryStream":
+                        InputStream is = (InputStream) args[1];
+                        byte[] data = new byte[((Integer) args[2]).intValue()];
+                        int read = 0;
+                        while (read < data.length) {
+                            read += is.read(data, read, data.length - read);
+                        }
+                        params[((Integer) args[0]).intValue()] = data;
+                        return null;
+                    case "addBatch":
+                        batch.add(params);
+                        params = new Object[8];
+                        return null;
+                    case "executeBatch":
+                        checkAvailable();
+                        int[] counts = new int[batch.size()];
+                        for (int i = 0; i < counts.length; i++) {
+                            counts[i] = executeUpdate(batch.get(i));
+                        }
+                        batch.clear();
+                        return counts;
+                    case "executeUpdate":
+                        checkAvailable();
+                        return Integer.valueOf(executeUpdate(params));
+                    case "execute":
+                        checkAvailable();
+                        executeUpdate(params);
+                        return Boolean.FALSE;
+                    case "executeQuery":
+                        checkAvailable();
+                        return executeQuery();
+                    default:
+                        return null;
+                }
+            }
+
+            private int executeUpdate(Object[] p) {
+                synchronized (rows) {
+                    if (sql.startsWith("UPDATE")) {
+                        // data, valid, maxinactive, lastaccess, id, app
+                        String key = p[6] + p[5].toString();
+                        if (!rows.containsKey(key)) {
+                            return 0;
+                        }
+                        rows.put(key, new Object[] { p[1], p[3], p[4] });
+                        return 1;
+                    } else if (sql.startsWith("INSERT")) {
+                        // id, app, data, valid, maxinactive, lastaccess
+                        rows.put(p[2] + p[1].toString(), new Object[] { p[3], p[5], p[6] });
+                        return 1;
+                    } else if (sql.startsWith("DELETE") && p[2] != null) {
+                        // id, app
+                        return rows.remove(p[2] + p[1].toString()) == null ? 0 : 1;
+                    } else if (sql.startsWith("DELETE")) {
+                        // app
+                        int count = 0;
+                        for (String key : new ArrayList<>(rows.keySet())) {
+                            if (key.startsWith(p[1].toString())) {
+                                rows.remove(key);
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                }
+                throw new IllegalArgumentException(sql);
+            }
+
+            private ResultSet executeQuery() {
+                List<Object[]> result = new ArrayList<>();
+                synchronized (rows) {
+                    if (sql.startsWith("SELECT COUNT(")) {
+                        int count = 0;
+                        for (String key : rows.keySet()) {
+                            if (key.startsWith(params[1].toString())) {
+                                count++;
+                            }
+                        }
+                        result.add(new Object[] { Integer.valueOf(count) });
+                    } else if (sql.contains("/ 1000 >=")) {
+                        // app, now
+                        boolean excludeNeverExpire = sql.contains("maxinactive > 0");
+                        long now = ((Long) params[2]).longValue();
+                        for (Map.Entry<String,Object[]> entry : rows.entrySet()) {
+                            String app = params[1].toString();
+                            int maxInactive = ((Integer) entry.getValue()[MAX_INACTIVE]).intValue();
+                            long lastAccess = ((Long) entry.getValue()[LAST_ACCESS]).longValue();
+                            if (entry.getKey().startsWith(app) &&
+                                    (!excludeNeverExpire || maxInactive > 0) &&
+                                    (now - lastAccess) / 1000 >= maxInactive) {
+                                result.add(new Object[] { entry.getKey().substring(app.length()) });
+                            }
+                        }
+                    } else if (params[2] != null) {
+                        // id, app
+                        Object[] row = rows.get(params[2] + params[1].toString());
+                        if (row != null) {
+                            result.add(new Object[] { params[1], row[DATA] });
+                        }
+                    } else {
+                        // app
+                        String app = params[1].toString();
+                        for (String key : rows.keySet()) {
+                            if (key.startsWith(app)) {
+                                result.add(new Object[] { key.substring(app.length()) });
+                            }
+                        }
+                    }
+                }
+                return (ResultSet) Proxy.newProxyInstance(TesterDriver.class.getClassLoader(),
+                        new Class<?>[] { ResultSet.class }, new ResultSetHandler(result));
+            }
+        }
+
+
+        private static class ResultSetHandler implements InvocationHandler {
+
+            private final List<Object[]> result;
+            private int row = -1;
+
+            ResultSetHandler(List<Object[]> result) {
+                this.result = result;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "next":
+                        row++;
+                        return Boolean.valueOf(row < result.size());
+                    case "getString":
+                        return result.get(row)[((Integer) args[0]).intValue() - 1].toString();
+                    case "getInt":
+                        return result.get(row)[((Integer) args[0]).intValue() - 1];
+                    case "getBinaryStream":
+                        return new ByteArrayInputStream(
+                                (byte[]) result.get(row)[((Integer) args[0]).intValue() - 1]);
+                    default:
+                        return null;
+                }
+            }
+        }
+    }
+}
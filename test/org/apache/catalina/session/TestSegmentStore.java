@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.core.TesterContext;
+import org.apache.catalina.startup.ExpandWar;
+
+public class TestSegmentStore {
+
+    private File dir;
+    private StandardManager manager;
+    private SegmentStore store;
+
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("segmentstore").toFile();
+        manager = new StandardManager();
+        manager.setContext(new TesterContext());
+        manager.setMaxInactiveInterval(60);
+        store = createStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        store.stop();
+        ExpandWar.delete(dir);
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s2", "v2"));
+        store.save(createSession("s1", "v1-updated"));
+        store.remove("s2");
+        assertEquals(1, store.getSize());
+        assertEquals("v1-updated", load("s1").getAttribute("attr"));
+        assertNull(store.load("s2"));
+
+        restart();
+        assertArrayEquals(new String[] { "s1" }, store.keys());
+        assertEquals("v1-updated", load("s1").getAttribute("attr"));
+    }
+
+
+    @Test
+    public void testIncompleteRecordIgnored() throws Exception {
+        store.save(createSession("s1", "v1"));
+        store.save(createSession("s2", "v2"));
+        store.stop();
+
+        // Corrupt the final byte of the last record
+        File[] segments = dir.listFiles();
+        assertEquals(1, segments.length);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            long offset = raf.length() - 1;
+            while (offset > 0) {
+                raf.seek(offset);
+                if (raf.read() != 0) {
+                    break;
+                }
+                offset--;
+            }
+            raf.seek(offset);
+            raf.write(0x55);
+        }
+
+        store = createStore();
+        assertArrayEquals(new String[] { "s1" }, store.keys());
+
+        // Records written after the incomplete record are recovered
+        store.save(createSession("s3", "v3"));
+        restart();
+        String[] keys = store.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(new String[] { "s1", "s3" }, keys);
+        assertEquals("v3", load("s3").getAttribute("attr"));
+    }
+
+
+    @Test
+    public void testCorruptOlderSegmentNotCleared() throws Exception {
+        store.stop();
+        store = createStore(8 * 1024);
+        for (int i = 0; i < 100; i++) {
+            store.save(createSession("session" + i, "value" + i));
+        }
+        store.stop();
+
+        File[] segments = dir.listFiles();
+        assertTrue(segments.length > 1);
+        Arrays.sort(segments);
+        // Corrupt the first record of the oldest segment
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            raf.seek(40);
+            int b = raf.read();
+            raf.seek(40);
+            raf.write(b ^ 0xFF);
+        }
+        byte[] corrupt = Files.readAllBytes(segments[0].toPath());
+
+        // Records in the newer segments are still recovered and the older
+        // segment is left as it is rather than cleared
+        store = createStore(8 * 1024);
+        assertNull(store.load("session0"));
+        assertEquals("value99", load("session99").getAttribute("attr"));
+        store.stop();
+        assertArrayEquals(corrupt, Files.readAllBytes(segments[0].toPath()));
+        store = createStore(8 * 1024);
+    }
+
+
+    @Test
+    public void testCompaction() throws Exception {
+        store.stop();
+        store = createStore(8 * 1024);
+
+        for (int i = 0; i < 1000; i++) {
+            store.save(createSession("session" + i, "value" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0) {
+                store.remove("session" + i);
+            }
+        }
+        int before = store.getSegmentCount();
+        assertTrue(before > 5);
+        store.compact();
+        assertTrue(store.getSegmentCount() < before / 2);
+        assertEquals(store.getSegmentCount(), dir.list().length);
+
+        restart();
+        assertEquals(100, store.getSize());
+        for (int i = 0; i < 1000; i += 10) {
+            assertEquals("value" + i, load("session" + i).getAttribute("attr"));
+        }
+    }
+
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        StandardSession expired = createSession("expired", "v");
+        expired.thisAccessedTime -= 120000;
+        store.save(expired);
+        store.save(createSession("valid", "v"));
+        assertArrayEquals(new String[] { "expired" }, store.expiredKeys());
+    }
+
+
+    private StandardSession createSession(String id, String value) {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(60);
+        session.setId(id, false);
+        session.setAttribute("attr", value, false);
+        return session;
+    }
+
+
+    private StandardSession load(String id) throws Exception {
+        return (StandardSession) store.load(id);
+    }
+
+
+    private SegmentStore createStore() throws Exception {
+        return createStore(64 * 1024);
+    }
+
+
+    private SegmentStore createStore(int segmentSize) throws Exception {
+        SegmentStore store = new SegmentStore();
+        store.setDirectory(dir.getAbsolutePath());
+        store.setSegmentSize(segmentSize);
+        store.setManager(manager);
+        store.start();
+        return store;
+    }
+
+
+    private void restart() throws Exception {
+        store.stop();
+        store = createStore(store.getSegmentSize());
+    }
+}
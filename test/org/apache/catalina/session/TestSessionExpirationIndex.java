@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.TesterContext;
+
+public class TestSessionExpirationIndex {
+
+    private StandardManager manager;
+
+
+    @Before
+    public void setup() {
+        manager = new StandardManager();
+        manager.setContext(new TesterContext());
+        manager.setMaxInactiveInterval(60);
+    }
+
+
+    @Test
+    public void testPollDue() {
+        SessionExpirationIndex index = new SessionExpirationIndex(1000);
+        Session s1 = new StandardSession(null);
+        Session s2 = new StandardSession(null);
+        Session s3 = new StandardSession(null);
+        index.schedule(s1, 10500);
+        index.schedule(s2, 12000);
+        index.schedule(s3, SessionExpirationIndex.NEVER);
+        assertEquals(3, index.size());
+
+        // Sessions are never returned before they are due
+        assertTrue(index.pollDue(10999).isEmpty());
+        List<Session> due = index.pollDue(11000);
+        assertEquals(1, due.size());
+        assertSame(s1, due.get(0));
+        assertFalse(index.contains(s1));
+
+        // Moving a session removes it from its previous bucket
+        index.schedule(s2, 20000);
+        assertTrue(index.pollDue(19999).isEmpty());
+        assertEquals(1, index.pollDue(20000).size());
+
+        assertTrue(index.pollDue(Long.MAX_VALUE - 1).isEmpty());
+        assertEquals(1, index.size());
+        index.remove(s3);
+        assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testOnlyDueSessionsInspected() {
+        for (int i = 0; i < 100; i++) {
+            manager.createSession("session" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            StandardSession session = getSession("session" + i);
+            session.setMaxInactiveInterval(1);
+            makeIdle(session, 2000);
+        }
+
+        // Sessions are checked in one second buckets so allow for rounding
+        long timeNow = System.currentTimeMillis();
+        assertEquals(0, manager.expireDueSessions(timeNow));
+        assertEquals(10, manager.expireDueSessions(timeNow + 2000));
+        assertEquals(10, manager.getInspectedSessions());
+        assertEquals(90, manager.getActiveSessions());
+        assertEquals(10, manager.getExpiredSessions());
+    }
+
+
+    @Test
+    public void testValidSessionRescheduled() {
+        StandardSession session = (StandardSession) manager.createSession("session");
+        session.setMaxInactiveInterval(1);
+
+        long timeNow = System.currentTimeMillis();
+        // The session has been accessed since it was scheduled
+        session.thisAccessedTime = timeNow + 5000;
+        session.lastAccessedTime = timeNow + 5000;
+        assertEquals(0, manager.expireDueSessions(timeNow + 2000));
+        assertEquals(1, manager.getInspectedSessions());
+        assertEquals(1, manager.getActiveSessions());
+
+        // Not due again until a second after it was last accessed
+        assertEquals(0, manager.expireDueSessions(timeNow + 2000));
+        assertEquals(1, manager.getInspectedSessions());
+    }
+
+
+    @Test
+    public void testNeverExpires() {
+        StandardSession session = (StandardSession) manager.createSession("session");
+        session.setMaxInactiveInterval(-1);
+        makeIdle(session, 120000);
+        assertEquals(0, manager.expireDueSessions(Long.MAX_VALUE - 1));
+        assertEquals(0, manager.getInspectedSessions());
+
+        session.setMaxInactiveInterval(60);
+        assertEquals(1, manager.expireDueSessions(System.currentTimeMillis()));
+        assertEquals(0, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testSessionAddedDirectly() {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setMaxInactiveInterval(1);
+        session.setId("session", false);
+        manager.remove(session);
+        makeIdle(session, 2000);
+
+        // Bypasses the index
+        manager.sessions.put(session.getIdInternal(), session);
+        assertEquals(1, manager.expireDueSessions(System.currentTimeMillis()));
+        assertEquals(0, manager.getActiveSessions());
+    }
+
+
+    private StandardSession getSession(String id) {
+        return (StandardSession) manager.sessions.get(id);
+    }
+
+
+    private static void makeIdle(StandardSession session, long idleTime) {
+        session.thisAccessedTime -= idleTime;
+        session.lastAccessedTime -= idleTime;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.SessionSerializer;
+import org.apache.catalina.core.TesterContext;
+
+public class TestSessionSerializer {
+
+    private StandardManager manager;
+
+
+    @Before
+    public void setup() {
+        manager = new StandardManager();
+        manager.setContext(new TesterContext());
+        manager.setMaxInactiveInterval(60);
+    }
+
+
+    @Test
+    public void testCompactRoundTrip() throws Exception {
+        doTestRoundTrip(new CompactSessionSerializer());
+    }
+
+
+    @Test
+    public void testCompactCompressedRoundTrip() throws Exception {
+        CompactSessionSerializer serializer = new CompactSessionSerializer();
+        serializer.setCompressionThreshold(0);
+        doTestRoundTrip(serializer);
+    }
+
+
+    @Test
+    public void testJavaRoundTrip() throws Exception {
+        doTestRoundTrip(new JavaSessionSerializer());
+    }
+
+
+    private void doTestRoundTrip(SessionSerializer serializer) throws Exception {
+        manager.setSessionSerializer(serializer);
+        StandardSession session = (StandardSession) manager.createSession("session");
+        session.setAttribute("string", "valueé");
+        session.setAttribute("int", Integer.valueOf(-42));
+        session.setAttribute("long", Long.valueOf(Long.MIN_VALUE));
+        session.setAttribute("true", Boolean.TRUE);
+        session.setAttribute("false", Boolean.FALSE);
+        session.setAttribute("short", Short.valueOf((short) 7));
+        session.setAttribute("byte", Byte.valueOf((byte) -1));
+        session.setAttribute("char", Character.valueOf('x'));
+        session.setAttribute("float", Float.valueOf(1.5f));
+        session.setAttribute("double", Double.valueOf(Math.PI));
+        session.setAttribute("bytes", new byte[] { 1, 2, 3 });
+        session.setAttribute("date", new Date(1234567890L));
+        session.setAttribute("enum1", TimeUnit.SECONDS);
+        session.setAttribute("enum2", TimeUnit.DAYS);
+        session.setAttribute("list1", new ArrayList<>(Arrays.asList("a", "b")));
+        session.setAttribute("list2", new ArrayList<>(Arrays.asList("c")));
+
+        StandardSession copy = readSession(writeSession(session));
+
+        assertEquals(session.getIdInternal(), copy.getIdInternal());
+        assertEquals(session.getCreationTimeInternal(), copy.getCreationTimeInternal());
+        assertEquals(session.getThisAccessedTimeInternal(), copy.getThisAccessedTimeInternal());
+        assertEquals(60, copy.getMaxInactiveInterval());
+        assertTrue(copy.isValid());
+        for (String name : session.keys()) {
+            if (name.equals("bytes")) {
+                assertArrayEquals((byte[]) session.getAttribute(name),
+                        (byte[]) copy.getAttribute(name));
+            } else {
+                assertEquals(session.getAttribute(name), copy.getAttribute(name));
+            }
+        }
+        assertEquals(session.keys().length, copy.keys().length);
+    }
+
+
+    @Test
+    public void testCompactSmaller() throws Exception {
+        StandardSession session = (StandardSession) manager.createSession("session");
+        session.setAttribute("user", "someone@example.org");
+        session.setAttribute("count", Integer.valueOf(3));
+        session.setAttribute("loggedIn", Boolean.TRUE);
+        session.setAttribute("unit", TimeUnit.SECONDS);
+
+        manager.setSessionSerializer(new CompactSessionSerializer());
+        int compact = writeSession(session).length;
+        manager.setSessionSerializer(new JavaSessionSerializer());
+        int java = writeSession(session).length;
+        assertTrue("compact [" + compact + "] java [" + java + "]", compact * 2 < java);
+    }
+
+
+    @Test
+    public void testCompression() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("repeated text ");
+        }
+        StandardSession session = (StandardSession) manager.createSession("session");
+        session.setAttribute("text", sb.toString());
+
+        manager.setSessionSerializer(new CompactSessionSerializer());
+        int uncompressed = writeSession(session).length;
+        CompactSessionSerializer serializer = new CompactSessionSerializer();
+        serializer.setCompressionThreshold(1024);
+        manager.setSessionSerializer(serializer);
+        byte[] compressed = writeSession(session);
+        assertTrue(compressed.length * 10 < uncompressed);
+
+        // The format is recorded in the stream so it can be read with any
+        // serializer configured
+        manager.setSessionSerializer(new JavaSessionSerializer());
+        assertEquals(sb.toString(), readSession(compressed).getAttribute("text"));
+    }
+
+
+    @Test
+    public void testNotSerializable() throws Exception {
+        // Java serialization, like earlier versions, can't skip a value that
+        // is only found not to be serializable part way through writing it
+        manager.setSessionSerializer(new CompactSessionSerializer());
+        StandardSession session = (StandardSession) manager.createSession("session");
+        List<Object> bad = new ArrayList<>();
+        bad.add(new Object());
+        session.setAttribute("a", new ArrayList<>(Arrays.asList("a")));
+        session.setAttribute("b", bad);
+        session.setAttribute("c", new ArrayList<>(Arrays.asList("c")));
+
+        StandardSession copy = readSession(writeSession(session));
+        assertEquals(Arrays.asList("a"), copy.getAttribute("a"));
+        assertNull(copy.getAttribute("b"));
+        assertEquals(Arrays.asList("c"), copy.getAttribute("c"));
+    }
+
+
+    @Test
+    public void testReadLegacyFormat() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(Long.valueOf(1000));
+            oos.writeObject(Long.valueOf(2000));
+            oos.writeObject(Integer.valueOf(30));
+            oos.writeObject(Boolean.FALSE);
+            oos.writeObject(Boolean.TRUE);
+            oos.writeObject(Long.valueOf(3000));
+            oos.writeObject("legacy");
+            oos.writeObject(Integer.valueOf(2));
+            oos.writeObject("name");
+            oos.writeObject("value");
+            oos.writeObject("broken");
+            oos.writeObject(StandardSession.NOT_SERIALIZED);
+        }
+
+        StandardSession session = readSession(baos.toByteArray());
+        assertEquals("legacy", session.getIdInternal());
+        assertEquals(1000, session.getCreationTimeInternal());
+        assertEquals(3000, session.getThisAccessedTimeInternal());
+        assertEquals(30, session.getMaxInactiveInterval());
+        assertFalse(session.isNew());
+        assertEquals("value", session.getAttribute("name"));
+        assertEquals(1, session.keys().length);
+    }
+
+
+    @Test
+    public void testDefaultWritesLegacyFormat() throws Exception {
+        StandardSession session = (StandardSession) manager.createSession("session");
+        session.setAttribute("name", "value");
+
+        // Exactly what versions without session serializers write, so those
+        // versions can read it
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(Long.valueOf(session.getCreationTimeInternal()));
+            oos.writeObject(Long.valueOf(session.getLastAccessedTimeInternal()));
+            oos.writeObject(Integer.valueOf(60));
+            oos.writeObject(Boolean.TRUE);
+            oos.writeObject(Boolean.TRUE);
+            oos.writeObject(Long.valueOf(session.getThisAccessedTimeInternal()));
+            oos.writeObject("session");
+            oos.writeObject(Integer.valueOf(1));
+            oos.writeObject("name");
+            oos.writeObject("value");
+        }
+
+        assertArrayEquals(baos.toByteArray(), writeSession(session));
+    }
+
+
+    @Test
+    public void testNullIdJava() throws Exception {
+        doTestNullId(new JavaSessionSerializer());
+    }
+
+
+    @Test
+    public void testNullIdCompact() throws Exception {
+        doTestNullId(new CompactSessionSerializer());
+    }
+
+
+    private void doTestNullId(SessionSerializer serializer) throws Exception {
+        manager.setSessionSerializer(serializer);
+        StandardSession session = (StandardSession) manager.createEmptySession();
+        session.setValid(true);
+        session.setCreationTime(1000);
+        session.setAttribute("name", "value", false);
+
+        StandardSession copy = readSession(writeSession(session));
+        assertNull(copy.getIdInternal());
+        assertEquals("value", copy.getAttribute("name"));
+    }
+
+
+    private byte[] writeSession(StandardSession session) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            session.writeObjectData(oos);
+        }
+        return baos.toByteArray();
+    }
+
+
+    private StandardSession readSession(byte[] data) throws Exception {
+        StandardSession session = (StandardSession) manager.createEmptySession();
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            session.readObjectData(ois);
+        }
+        return session;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.ErrorHandler;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestBatchingInterceptor {
+
+    private BatchingInterceptor interceptor;
+    private TesterTransport transport;
+    private TesterApplication application;
+    private Member local;
+    private Member[] destination;
+
+
+    @Before
+    public void setUp() throws Exception {
+        interceptor = new BatchingInterceptor();
+        // Only flush explicitly during the tests
+        interceptor.setMaxDelay(60000);
+        transport = new TesterTransport();
+        application = new TesterApplication();
+        interceptor.setNext(transport);
+        interceptor.setPrevious(application);
+        local = new MemberImpl("localhost", 4000, 0);
+        destination = new Member[] { new MemberImpl("localhost", 4001, 0) };
+        interceptor.start(Channel.SND_TX_SEQ);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        interceptor.stop(Channel.SND_TX_SEQ);
+    }
+
+
+    @Test
+    public void testMessagesCombined() throws Exception {
+        List<ChannelMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ChannelMessage msg = createMessage("message" + i, Channel.SEND_OPTIONS_ASYNCHRONOUS);
+            sent.add((ChannelMessage) msg.deepclone());
+            interceptor.sendMessage(destination, msg, null);
+        }
+        assertEquals(0, transport.messages.size());
+        interceptor.flush();
+        assertEquals(1, transport.messages.size());
+        assertEquals(1, interceptor.getBatchesSent());
+
+        transport.deliver(interceptor);
+        assertReceived(sent);
+    }
+
+
+    @Test
+    public void testOrderPreserved() throws Exception {
+        List<ChannelMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // Every third message is synchronous and must not overtake the
+            // pending asynchronous messages
+            int options = (i % 3 == 2) ? 0 : Channel.SEND_OPTIONS_ASYNCHRONOUS;
+            ChannelMessage msg = createMessage("message" + i, options);
+            sent.add((ChannelMessage) msg.deepclone());
+            interceptor.sendMessage(destination, msg, null);
+        }
+        interceptor.flush();
+        // 3 batches of two, 3 synchronous messages and the final batch
+        assertEquals(7, transport.messages.size());
+
+        transport.deliver(interceptor);
+        assertReceived(sent);
+    }
+
+
+    @Test
+    public void testMaxSize() throws Exception {
+        interceptor.setMaxSize(1024);
+        List<ChannelMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ChannelMessage msg = createMessage("message" + i, Channel.SEND_OPTIONS_ASYNCHRONOUS);
+            sent.add((ChannelMessage) msg.deepclone());
+            interceptor.sendMessage(destination, msg, null);
+        }
+        for (ChannelMessage msg : transport.messages) {
+            assertTrue(msg.getMessage().getLength() <= 1024 + 1);
+        }
+        interceptor.flush();
+
+        transport.deliver(interceptor);
+        assertReceived(sent);
+    }
+
+
+    @Test
+    public void testMemberDisappeared() throws Exception {
+        TesterErrorHandler handler = new TesterErrorHandler();
+        InterceptorPayload payload = new InterceptorPayload();
+        payload.setErrorHandler(handler);
+        for (int i = 0; i < 10; i++) {
+            ChannelMessage msg = createMessage("message" + i, Channel.SEND_OPTIONS_ASYNCHRONOUS);
+            interceptor.sendMessage(destination, msg, payload);
+        }
+        interceptor.memberDisappeared(destination[0]);
+        assertEquals(10, handler.errors.get());
+        assertEquals(0, handler.completions.get());
+
+        interceptor.flush();
+        assertEquals(0, transport.messages.size());
+
+        // Messages sent afterwards are not affected
+        ChannelMessage msg = createMessage("message", Channel.SEND_OPTIONS_ASYNCHRONOUS);
+        interceptor.sendMessage(destination, msg, payload);
+        interceptor.flush();
+        assertEquals(1, transport.messages.size());
+        assertEquals(10, handler.errors.get());
+        assertEquals(1, handler.completions.get());
+    }
+
+
+    @Test
+    public void testMemberDisappearedConcurrently() throws Exception {
+        final TesterErrorHandler handler = new TesterErrorHandler();
+        final InterceptorPayload payload = new InterceptorPayload();
+        payload.setErrorHandler(handler);
+        final int threadCount = 4;
+        final int messageCount = 10000;
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < messageCount; j++) {
+                        try {
+                            interceptor.sendMessage(destination, createMessage("message" + j,
+                                    Channel.SEND_OPTIONS_ASYNCHRONOUS), payload);
+                        } catch (ChannelException x) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        boolean alive = true;
+        while (alive) {
+            interceptor.memberDisappeared(destination[0]);
+            alive = false;
+            for (Thread thread : threads) {
+                alive |= thread.isAlive();
+            }
+        }
+        interceptor.flush();
+
+        // Every message was either sent or reported as failed
+        assertEquals(0, failures.get());
+        assertEquals(threadCount * messageCount,
+                handler.errors.get() + handler.completions.get());
+    }
+
+
+    private void assertReceived(List<ChannelMessage> sent) {
+        assertEquals(sent.size(), application.messages.size());
+        for (int i = 0; i < sent.size(); i++) {
+            ChannelMessage expected = sent.get(i);
+            ChannelMessage actual = application.messages.get(i);
+            assertArrayEquals(expected.getUniqueId(), actual.getUniqueId());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getOptions(), actual.getOptions());
+            assertEquals(local, actual.getAddress());
+            assertArrayEquals(expected.getMessage().getBytes(), actual.getMessage().getBytes());
+        }
+    }
+
+
+    private ChannelMessage createMessage(String content, int options) {
+        ChannelData data = new ChannelData(true);
+        data.setAddress(local);
+        data.setTimestamp(System.currentTimeMillis());
+        data.setOptions(options);
+        data.setMessage(new XByteBuffer(content.getBytes(StandardCharsets.UTF_8), false));
+        return data;
+    }
+
+
+    private static class TesterTransport extends ChannelInterceptorBase {
+
+        private final List<ChannelMessage> messages =
+                Collections.synchronizedList(new ArrayList<ChannelMessage>());
+
+        @Override
+        public void sendMessage(Member[] destination, ChannelMessage msg,
+                InterceptorPayload payload) throws ChannelException {
+            messages.add((ChannelMessage) msg.deepclone());
+        }
+
+        public void deliver(BatchingInterceptor interceptor) {
+            for (ChannelMessage msg : messages) {
+                interceptor.messageReceived(msg);
+            }
+            messages.clear();
+        }
+    }
+
+
+    private static class TesterErrorHandler implements ErrorHandler {
+
+        private final AtomicInteger errors = new AtomicInteger(0);
+        private final AtomicInteger completions = new AtomicInteger(0);
+
+        @Override
+        public void handleError(ChannelException x, UniqueId id) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void handleCompletion(UniqueId id) {
+            completions.incrementAndGet();
+        }
+    }
+
+
+    private static class TesterApplication extends ChannelInterceptorBase {
+
+        private final List<ChannelMessage> messages = new ArrayList<>();
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            messages.add(msg);
+        }
+    }
+}
@@ -16,12 +16,30 @@
  */
 package org.apache.catalina.tribes.group.interceptors;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
 public class TestGzipInterceptor {
 
     @Test
@@ -59,6 +77,80 @@ public class TestGzipInterceptor {
         doCompressDecompress(GzipInterceptor.DEFAULT_BUFFER_SIZE * 10 + 1000);
     }
 
+    @Test
+    public void testGzipStreamCompatibility() throws Exception {
+        byte[] data = createData(100000);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (GZIPOutputStream gout = new GZIPOutputStream(bout)) {
+            gout.write(data);
+        }
+        assertArrayEquals(data, GzipInterceptor.decompress(bout.toByteArray()));
+
+        byte[] compressed = GzipInterceptor.compress(data);
+        bout.reset();
+        try (GZIPInputStream gin = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] tmp = new byte[1024];
+            int n;
+            while ((n = gin.read(tmp)) > -1) {
+                bout.write(tmp, 0, n);
+            }
+        }
+        assertArrayEquals(data, bout.toByteArray());
+    }
+
+    @Test
+    public void testLz() throws Exception {
+        Random random = new Random(1);
+        for (int size : new int[] { 0, 1, 11, 12, 13, 100, 65536, 300000 }) {
+            byte[] data = createData(size);
+            byte[] compressed = GzipInterceptor.compressLz(data, 0, data.length);
+            assertArrayEquals(data, GzipInterceptor.decode(compressed, 0, compressed.length));
+            // Incompressible data
+            random.nextBytes(data);
+            compressed = GzipInterceptor.compressLz(data, 0, data.length);
+            assertArrayEquals(data, GzipInterceptor.decode(compressed, 0, compressed.length));
+        }
+        byte[] data = createData(100000);
+        assertTrue(GzipInterceptor.compressLz(data, 0, data.length).length < data.length / 4);
+    }
+
+    @Test(expected=IOException.class)
+    public void testLzInvalid() throws Exception {
+        byte[] data = createData(1000);
+        byte[] compressed = GzipInterceptor.compressLz(data, 0, data.length);
+        // Claim more data than there is
+        XByteBuffer.toBytes(2000, compressed, 1);
+        GzipInterceptor.decode(compressed, 0, compressed.length);
+    }
+
+    @Test
+    public void testInterceptor() throws Exception {
+        GzipInterceptor interceptor = new GzipInterceptor();
+        interceptor.setCodec(GzipInterceptor.CODEC_LZ);
+        interceptor.setThreshold(100);
+        TesterLoopback loopback = new TesterLoopback(interceptor);
+        interceptor.setNext(loopback);
+        interceptor.setPrevious(loopback);
+
+        byte[] small = createData(50);
+        byte[] large = createData(10000);
+        assertArrayEquals(small, loopback.send(small));
+        assertArrayEquals(large, loopback.send(large));
+        assertEquals(1, interceptor.getMessagesCompressed());
+        assertEquals(1, interceptor.getMessagesNotCompressed());
+        assertTrue(interceptor.getCompressionRatio() < 0.25);
+    }
+
+    private static byte[] createData(int size) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append("<attribute name=\"item").append(i++ % 50).append("\" value=\"");
+            sb.append(i * 31).append("\"/>");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.US_ASCII), size);
+    }
+
     private void doCompressDecompress(int size) throws Exception {
         byte[] data = new byte[size];
         Arrays.fill(data, (byte)1);
@@ -66,4 +158,34 @@ public class TestGzipInterceptor {
         byte[] result = GzipInterceptor.decompress(compress);
         assertTrue(Arrays.equals(data, result));
     }
+
+
+    private static class TesterLoopback extends ChannelInterceptorBase {
+
+        private final GzipInterceptor interceptor;
+        private byte[] received;
+
+        public TesterLoopback(GzipInterceptor interceptor) {
+            this.interceptor = interceptor;
+        }
+
+        public byte[] send(byte[] data) throws ChannelException, IOException {
+            ChannelData msg = new ChannelData(true);
+            msg.setAddress(new MemberImpl("localhost", 4000, 0));
+            msg.setMessage(new XByteBuffer(data, false));
+            interceptor.sendMessage(new Member[0], msg, null);
+            return received;
+        }
+
+        @Override
+        public void sendMessage(Member[] destination, ChannelMessage msg,
+                InterceptorPayload payload) throws ChannelException {
+            interceptor.messageReceived((ChannelMessage) msg.deepclone());
+        }
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            received = msg.getMessage().getBytes();
+        }
+    }
 }
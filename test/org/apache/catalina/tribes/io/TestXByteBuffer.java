@@ -16,12 +16,18 @@
  */
 package org.apache.catalina.tribes.io;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import org.apache.catalina.tribes.membership.MemberImpl;
+
 public class TestXByteBuffer {
 
     @Test
@@ -38,4 +44,71 @@ public class TestXByteBuffer {
         assertTrue(obj instanceof String);
         assertEquals(test, obj);
     }
+
+    @Test
+    public void testExtractPackages() throws Exception {
+        XByteBuffer buffer = new XByteBuffer(1024, true);
+        ChannelData[] sent = new ChannelData[3];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = createChannelData("message" + i);
+            // Frame into a larger, pooled style, buffer
+            int length = XByteBuffer.getDataPackageLength(sent[i].getDataPackageLength());
+            byte[] data = new byte[length + 16];
+            XByteBuffer.createDataPackage(sent[i], data, 0);
+            assertArrayEquals(XByteBuffer.createDataPackage(sent[i]),
+                    Arrays.copyOf(data, length));
+            buffer.append(data, 0, length);
+        }
+        // Partial package that must remain in the buffer
+        byte[] partial = XByteBuffer.createDataPackage(createChannelData("partial"));
+        buffer.append(partial, 0, 10);
+
+        assertEquals(3, buffer.countPackages());
+        ChannelData[] received = buffer.extractPackages(3);
+        assertEquals(3, received.length);
+        for (int i = 0; i < sent.length; i++) {
+            assertArrayEquals(sent[i].getUniqueId(), received[i].getUniqueId());
+            assertEquals(sent[i].getAddress(), received[i].getAddress());
+            assertEquals("message" + i, new String(received[i].getMessage().getBytes(),
+                    StandardCharsets.UTF_8));
+        }
+        assertEquals(10, buffer.getLength());
+
+        buffer.append(partial, 10, partial.length - 10);
+        ChannelData last = buffer.extractPackage(true);
+        assertEquals("partial", new String(last.getMessage().getBytes(), StandardCharsets.UTF_8));
+        assertEquals(0, buffer.getLength());
+    }
+
+    @Test
+    public void testPooledBufferSizeClasses() {
+        BufferPool15Impl pool = new BufferPool15Impl();
+        pool.setMaxSize(1024 * 1024);
+        XByteBuffer buffer = pool.getBuffer(5000, false);
+        assertEquals(8192, buffer.getCapacity());
+        pool.returnBuffer(buffer);
+        // Too large for the class the buffer was returned to
+        assertTrue(pool.getBuffer(9000, false) != buffer);
+        assertTrue(pool.getBuffer(4097, false) == buffer);
+    }
+
+    @Test
+    public void testLargeBuffersNotPooled() {
+        BufferPool15Impl pool = new BufferPool15Impl();
+        pool.setMaxSize(16 * 1024 * 1024);
+        int size = 1024 * 1024 + 1;
+        // Not rounded up to the next power of two
+        XByteBuffer buffer = pool.getBuffer(size, false);
+        assertEquals(size, buffer.getCapacity());
+        pool.returnBuffer(buffer);
+        assertTrue(pool.getBuffer(size, false) != buffer);
+    }
+
+    private static ChannelData createChannelData(String message) throws Exception {
+        ChannelData data = new ChannelData(true);
+        data.setAddress(new MemberImpl("localhost", 4000, 0));
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        data.setMessage(new XByteBuffer(bytes, false));
+        return data;
+    }
 }
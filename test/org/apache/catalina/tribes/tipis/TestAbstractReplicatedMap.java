@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapMessage;
+
+/**
+ * Tests the asynchronous replication of {@link AbstractReplicatedMap} using a
+ * channel that only records the messages sent.
+ */
+public class TestAbstractReplicatedMap {
+
+    private static final long RPC_TIMEOUT = 10000;
+
+    private final List<MapMessage> sent = new ArrayList<>();
+    private volatile long sendDelay = 0;
+    private volatile CountDownLatch sendGate = null;
+
+    private Member local;
+    private Member[] backup;
+    private ReplicatedMap<Integer,Integer> map;
+
+    @Before
+    public void setUp() throws Exception {
+        local = new MemberImpl("127.0.0.1", 4000, 1000);
+        backup = new Member[] { new MemberImpl("127.0.0.1", 4001, 1000) };
+        Channel channel = (Channel) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { Channel.class },
+                new ChannelHandler());
+        map = new ReplicatedMap<>(null, channel, RPC_TIMEOUT, "TestMap", null);
+        map.setAsyncReplication(true);
+        map.setReplicationThreads(4);
+        map.setMaxPendingReplications(10);
+    }
+
+    @After
+    public void tearDown() {
+        CountDownLatch gate = sendGate;
+        if (gate != null) {
+            gate.countDown();
+        }
+        map.breakdown();
+    }
+
+
+    @Test
+    public void testPerKeyOrdering() throws Exception {
+        sendDelay = 1;
+        int keys = 8;
+        int count = 50;
+        for (int i = 0; i < count; i++) {
+            for (int key = 0; key < keys; key++) {
+                map.send(Integer.valueOf(key), backup, message(key, i));
+            }
+        }
+        map.breakdown();
+
+        assertEquals(keys * count, sent.size());
+        int[] next = new int[keys];
+        for (MapMessage msg : sent) {
+            int key = ((Integer) msg.getKey()).intValue();
+            assertEquals("Out of order for key " + key,
+                    next[key], ((Integer) msg.getValue()).intValue());
+            next[key]++;
+        }
+        assertEquals(0, map.getPendingReplications());
+        assertEquals(0, map.getReplicationsFailed());
+    }
+
+
+    @Test
+    public void testFlushOnBreakdown() throws Exception {
+        sendDelay = 20;
+        for (int i = 0; i < 8; i++) {
+            map.send(Integer.valueOf(i), backup, message(i, 0));
+        }
+        map.send(Integer.valueOf(0), backup, message(0, 1));
+        assertTrue(map.getPendingReplications() > 0);
+
+        map.breakdown();
+
+        // Every queued message was sent before breakdown returned
+        assertEquals(9, sent.size());
+    }
+
+
+    @Test
+    public void testAwaitReplication() throws Exception {
+        sendGate = new CountDownLatch(1);
+        // Integer keys 0 and 1 are sent by different threads
+        map.send(Integer.valueOf(0), backup, message(0, 0));
+        map.send(Integer.valueOf(0), backup, message(0, 1));
+
+        // Nothing is queued for key 1 so there is nothing to wait for
+        long start = System.currentTimeMillis();
+        map.awaitReplication(Integer.valueOf(1));
+        assertTrue(System.currentTimeMillis() - start < RPC_TIMEOUT / 2);
+        assertEquals(0, sent.size());
+
+        Thread release = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                sendGate.countDown();
+            }
+        };
+        release.start();
+        map.awaitReplication(Integer.valueOf(0));
+        assertEquals(2, sent.size());
+        release.join();
+    }
+
+
+    @Test
+    public void testNoRestartAfterBreakdown() throws Exception {
+        map.send(Integer.valueOf(0), backup, message(0, 0));
+        ExecutorService executor = map.getReplicationExecutor(Integer.valueOf(0));
+        map.breakdown();
+
+        assertTrue(executor.awaitTermination(RPC_TIMEOUT, TimeUnit.MILLISECONDS));
+        // A late sender gets the stopped executor rather than a new one
+        assertSame(executor, map.getReplicationExecutor(Integer.valueOf(0)));
+        try {
+            map.send(Integer.valueOf(0), backup, message(0, 1));
+            fail("Message queued after breakdown");
+        } catch (ChannelException expected) {
+            // Expected
+        }
+        assertEquals(1, sent.size());
+        assertEquals(0, map.getPendingReplications());
+    }
+
+
+    @Test
+    public void testNoStartAfterBreakdown() {
+        map.breakdown();
+        assertNull(map.getReplicationExecutor(Integer.valueOf(0)));
+        assertNull(map.replicationExecutors);
+    }
+
+
+    private MapMessage message(int key, int value) {
+        return new MapMessage(map.getMapContextName(), MapMessage.MSG_BACKUP, false,
+                Integer.valueOf(key), Integer.valueOf(value), null, local, backup);
+    }
+
+
+    private class ChannelHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Exception {
+            switch (method.getName()) {
+                case "getMembers":
+                    return new Member[0];
+                case "getLocalMember":
+                    return local;
+                case "send":
+                    if (args[1] instanceof MapMessage &&
+                            ((MapMessage) args[1]).getMsgType() == MapMessage.MSG_BACKUP) {
+                        CountDownLatch gate = sendGate;
+                        if (gate != null) {
+                            gate.await();
+                        }
+                        if (sendDelay > 0) {
+                            Thread.sleep(sendDelay);
+                        }
+                        synchronized (sent) {
+                            sent.add((MapMessage) args[1]);
+                        }
+                    }
+                    return null;
+                default:
+                    if (method.getReturnType() == boolean.class) {
+                        return Boolean.FALSE;
+                    }
+                    return null;
+            }
+        }
+    }
+}
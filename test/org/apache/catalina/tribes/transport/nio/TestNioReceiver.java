@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.transport.nio;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.MessageListener;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestNioReceiver {
+
+    private static final int CONNECTIONS = 6;
+    private static final int MESSAGES = 100;
+
+    private NioReceiver receiver;
+    private Recorder recorder;
+
+    @Before
+    public void setUp() throws Exception {
+        recorder = new Recorder();
+        receiver = new NioReceiver();
+        receiver.setHost("localhost");
+        receiver.setPort(4300);
+        // A single replication task is saturated by a few connections
+        receiver.setMinThreads(1);
+        receiver.setMaxThreads(1);
+        receiver.setSelectorCount(2);
+        receiver.setMessageListener(recorder);
+        receiver.start();
+    }
+
+    @After
+    public void tearDown() {
+        receiver.stop();
+    }
+
+
+    @Test
+    public void testSaturatedTaskPool() throws Exception {
+        Member mbr = new MemberImpl("localhost", receiver.getPort(), 0);
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            senders.add(new Sender(mbr, i));
+        }
+        for (Thread sender : senders) {
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (recorder.count() < CONNECTIONS * MESSAGES &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        // Every message was delivered, in the order it was sent on its
+        // connection
+        Assert.assertEquals(CONNECTIONS * MESSAGES, recorder.count());
+        for (int i = 0; i < CONNECTIONS; i++) {
+            List<Integer> received = recorder.received(i);
+            Assert.assertEquals(MESSAGES, received.size());
+            for (int j = 0; j < MESSAGES; j++) {
+                Assert.assertEquals("Connection " + i, j, received.get(j).intValue());
+            }
+        }
+
+        // The selector threads queued the readable connections rather than
+        // waiting for the busy task
+        Assert.assertTrue(receiver.getDeferredReads() > 0);
+        Assert.assertTrue(receiver.getMaxPendingReads() > 0);
+        Assert.assertEquals(0, receiver.getPendingReads());
+    }
+
+
+    private static class Sender extends Thread {
+
+        private final Member mbr;
+        private final int connection;
+
+        public Sender(Member mbr, int connection) {
+            this.mbr = mbr;
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket("localhost", mbr.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                for (int i = 0; i < MESSAGES; i++) {
+                    ChannelData data = new ChannelData(true);
+                    data.setAddress(mbr);
+                    byte[] msg = (connection + ":" + i).getBytes(StandardCharsets.ISO_8859_1);
+                    data.setMessage(new XByteBuffer(msg, false));
+                    out.write(XByteBuffer.createDataPackage(data));
+                    out.flush();
+                }
+                // Let the receiver read everything before the socket closes
+                Thread.sleep(200);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    private static class Recorder implements MessageListener {
+
+        private final List<List<Integer>> received = new ArrayList<>();
+        private int count = 0;
+
+        public Recorder() {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                received.add(new ArrayList<Integer>());
+            }
+        }
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            String s = new String(msg.getMessage().getBytes(), StandardCharsets.ISO_8859_1);
+            int sep = s.indexOf(':');
+            int connection = Integer.parseInt(s.substring(0, sep));
+            int seq = Integer.parseInt(s.substring(sep + 1));
+            try {
+                // Keep the only task busy
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            synchronized (this) {
+                received.get(connection).add(Integer.valueOf(seq));
+                count++;
+            }
+        }
+
+        @Override
+        public boolean accept(ChannelMessage msg) {
+            return true;
+        }
+
+        public synchronized int count() {
+            return count;
+        }
+
+        public synchronized List<Integer> received(int connection) {
+            return new ArrayList<>(received.get(connection));
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.WebResource;
+
+public class TestCache {
+
+    // Each entry for an empty resource is 500 bytes so 20 fit in the cache
+    private static final int MAX_ENTRIES = 20;
+
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        StandardRoot root = new StandardRoot() {
+            {
+                setMainResources(new EmptyResourceSet(this));
+            }
+        };
+        cache = new Cache(root);
+        cache.setMaxSize(10);
+        cache.setTtl(60000);
+    }
+
+
+    @Test
+    public void testSizeLimit() {
+        for (int i = 0; i < 100; i++) {
+            cache.getResource("/file" + i, false);
+        }
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertTrue(cache.getEntryCount() <= MAX_ENTRIES);
+        assertEquals(100, cache.getMissCount());
+        assertEquals(100 - cache.getEntryCount(),
+                cache.getEvictionCount() + cache.getRejectionCount());
+    }
+
+
+    @Test
+    public void testHotEntriesSurviveScan() {
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 10; i++) {
+                cache.getResource("/hot" + i, false);
+            }
+        }
+        assertEquals(40, cache.getHitCount());
+
+        // A crawler requests lots of resources once each
+        for (int i = 0; i < 1000; i++) {
+            cache.getResource("/crawl" + i, false);
+        }
+        assertTrue(cache.getRejectionCount() > 0);
+
+        cache.resetStatistics();
+        for (int i = 0; i < 10; i++) {
+            cache.getResource("/hot" + i, false);
+        }
+        assertEquals(10, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testNewEntryAdmittedAfterRepeatedUse() {
+        for (int i = 0; i < MAX_ENTRIES * 2; i++) {
+            cache.getResource("/file" + i, false);
+        }
+        // A rejected entry builds up frequency with each request until it is
+        // admitted
+        for (int i = 0; i < 5; i++) {
+            cache.getResource("/new", false);
+        }
+        long hits = cache.getHitCount();
+        cache.getResource("/new", false);
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testInvalidation() {
+        cache.getResource("/a", false);
+        cache.getResource("/b", false);
+        assertEquals(2, cache.getEntryCount());
+
+        cache.removeCacheEntry("/a");
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(0, cache.getEvictionCount());
+
+        cache.getResource("/a", false);
+        assertEquals(3, cache.getMissCount());
+        assertEquals(2, cache.getEntryCount());
+    }
+
+
+    @Test
+    public void testReduceMaxSize() {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            cache.getResource("/file" + i, false);
+        }
+        assertEquals(MAX_ENTRIES, cache.getEntryCount());
+
+        cache.setMaxSize(5);
+        cache.backgroundProcess();
+        assertTrue(cache.getSize() <= 5);
+        assertEquals(MAX_ENTRIES / 2, cache.getEntryCount());
+        assertEquals(MAX_ENTRIES / 2, cache.getEvictionCount());
+    }
+
+
+    @Test
+    public void testClear() {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            cache.getResource("/file" + i, false);
+        }
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEntryCount());
+
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            cache.getResource("/file" + i, false);
+        }
+        assertEquals(MAX_ENTRIES, cache.getEntryCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+
+    @Test
+    public void testContentStorageHeap() throws Exception {
+        doTestContentStorage("heap");
+    }
+
+
+    @Test
+    public void testContentStorageDirect() throws Exception {
+        doTestContentStorage("direct");
+    }
+
+
+    @Test
+    public void testContentStorageMapped() throws Exception {
+        doTestContentStorage("mapped");
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testContentStorageInvalid() {
+        cache.setContentStorage("disk");
+    }
+
+
+    private void doTestContentStorage(String contentStorage) throws Exception {
+        File dir = new File("test/webapp");
+        byte[] expected = Files.readAllBytes(new File(dir, "index.html").toPath());
+
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", dir.getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+        cache.setContentStorage(contentStorage);
+        assertEquals(contentStorage, cache.getContentStorage());
+
+        WebResource resource = cache.getResource("/index.html", false);
+        assertEquals(expected.length, resource.getContentLength());
+        if ("heap".equals(contentStorage)) {
+            assertArrayEquals(expected, resource.getContent());
+        } else {
+            assertNull(resource.getContent());
+        }
+
+        // Concurrent streams must not affect each other
+        InputStream is1 = resource.getInputStream();
+        InputStream is2 = resource.getInputStream();
+        assertEquals(expected[0], (byte) is1.read());
+        assertArrayEquals(expected, readAll(is2));
+        assertArrayEquals(expected, readAll(cache.getResource("/index.html", false).getInputStream()));
+        is1.close();
+    }
+
+
+    @Test
+    public void testContentReleasedDirect() throws Exception {
+        doTestContentReleased("direct");
+    }
+
+
+    @Test
+    public void testContentReleasedMapped() throws Exception {
+        doTestContentReleased("mapped");
+    }
+
+
+    private void doTestContentReleased(String contentStorage) throws Exception {
+        File dir = new File("test/webapp");
+        byte[] expected = Files.readAllBytes(new File(dir, "index.html").toPath());
+
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", dir.getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+        cache.setContentStorage(contentStorage);
+
+        CachedResource resource = (CachedResource) cache.getResource("/index.html", false);
+        InputStream is = resource.getInputStream();
+        assertEquals(expected[0], (byte) is.read());
+
+        // The buffer is still being read so must not be released yet
+        cache.clear();
+        assertFalse(resource.isContentBufferReleased());
+        byte[] rest = readAll(is);
+        assertEquals(expected.length - 1, rest.length);
+        assertEquals(expected[1], rest[0]);
+
+        // Released once the last stream is closed
+        assertTrue(resource.isContentBufferReleased());
+        try {
+            is.read();
+            fail();
+        } catch (IOException expectedIOE) {
+            // Expected
+        }
+
+        // A removed entry no longer caches the content
+        assertArrayEquals(expected, readAll(resource.getInputStream()));
+        assertTrue(resource.isContentBufferReleased());
+
+        // Released immediately when there are no streams
+        resource = (CachedResource) cache.getResource("/index.html", false);
+        assertArrayEquals(expected, readAll(resource.getInputStream()));
+        assertFalse(resource.isContentBufferReleased());
+        cache.clear();
+        assertTrue(resource.isContentBufferReleased());
+    }
+
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        int read;
+        while ((read = is.read(buf)) > 0) {
+            baos.write(buf, 0, read);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+
+
+    @Test
+    public void testFrequencySketch() {
+        FrequencySketch sketch = new FrequencySketch();
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("/hot".hashCode());
+        }
+        sketch.increment("/cold".hashCode());
+        assertEquals(10, sketch.frequency("/hot".hashCode()));
+        assertEquals(1, sketch.frequency("/cold".hashCode()));
+        assertEquals(0, sketch.frequency("/unknown".hashCode()));
+
+        // Counters saturate
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("/hot".hashCode());
+        }
+        assertEquals(15, sketch.frequency("/hot".hashCode()));
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.SocketFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+
+import static org.apache.catalina.startup.SimpleHttpClient.CRLF;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Base class for tests that talk to the HTTP/2 implementation over a raw
+ * socket. The connection is switched to HTTP/2 using the h2c upgrade and the
+ * frames sent by the server are read and checked by the tests.
+ */
+public abstract class Http2TestBase extends TomcatBaseTest {
+
+    static final int FLAG_END_STREAM = 0x01;
+    static final int FLAG_ACK = 0x01;
+    static final int FLAG_END_HEADERS = 0x04;
+
+    // SETTINGS_HEADER_TABLE_SIZE of 4096, the default
+    private static final String HTTP2_SETTINGS = "AAEAABAA";
+
+    private static final byte[] CLIENT_PREFACE =
+            "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+
+    protected Http2Protocol http2Protocol;
+
+    private Socket s;
+    private InputStream is;
+    private OutputStream os;
+
+    private final HpackEncoder hpackEncoder = new HpackEncoder();
+    private final HpackDecoder hpackDecoder = new HpackDecoder();
+    // Frames that have been read but not yet consumed by the test
+    private final List<Frame> readFrames = new ArrayList<>();
+
+
+    @After
+    public void closeClientConnection() throws IOException {
+        if (s != null) {
+            s.close();
+        }
+    }
+
+
+    protected void enableHttp2() {
+        http2Protocol = new Http2Protocol();
+        getTomcatInstance().getConnector().addUpgradeProtocol(http2Protocol);
+    }
+
+
+    /**
+     * Creates the ROOT context with a {@link HelloWorldServlet} mapped to
+     * <code>/simple</code> and an {@link EchoBodyServlet} mapped to
+     * <code>/echo</code>. Tests may add further servlets before starting
+     * Tomcat.
+     */
+    protected Context createContext() {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", null);
+        Tomcat.addServlet(ctxt, "simple", new HelloWorldServlet());
+        ctxt.addServletMapping("/simple", "simple");
+        Tomcat.addServlet(ctxt, "echo", new EchoBodyServlet());
+        ctxt.addServletMapping("/echo", "echo");
+        return ctxt;
+    }
+
+
+    protected void openClientConnection() throws IOException {
+        s = SocketFactory.getDefault().createSocket("localhost", getPort());
+        s.setSoTimeout(30000);
+        is = s.getInputStream();
+        os = s.getOutputStream();
+    }
+
+
+    /**
+     * Sends a GET request for the given path that asks for the connection to
+     * be upgraded to HTTP/2 and checks that the server agrees. The request is
+     * processed by the server as stream 1.
+     */
+    protected void doHttpUpgrade(String path) throws IOException {
+        String request = "GET " + path + " HTTP/1.1" + CRLF +
+                "Host: localhost:" + getPort() + CRLF +
+                "Connection: Upgrade, HTTP2-Settings" + CRLF +
+                "Upgrade: h2c" + CRLF +
+                "HTTP2-Settings: " + HTTP2_SETTINGS + CRLF +
+                CRLF;
+        os.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        os.flush();
+
+        String response = readHttpResponseHeaders();
+        Assert.assertTrue(response, response.startsWith("HTTP/1.1 101 "));
+        Assert.assertTrue(response, response.contains("Upgrade: h2c"));
+    }
+
+
+    /*
+     * Reads a byte at a time so none of the HTTP/2 frames that follow the
+     * response headers are consumed.
+     */
+    private String readHttpResponseHeaders() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 4 || !sb.substring(sb.length() - 4).equals(CRLF + CRLF)) {
+            int b = is.read();
+            if (b == -1) {
+                throw new EOFException(sb.toString());
+            }
+            sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Sends the client connection preface which is the fixed preface string
+     * followed by an empty SETTINGS frame.
+     */
+    protected void sendClientPreface() throws IOException {
+        os.write(CLIENT_PREFACE);
+        writeFrame(FrameType.SETTINGS, 0, 0, new byte[0]);
+    }
+
+
+    protected void sendHeaders(int streamId, String method, String path, boolean endOfStream)
+            throws IOException {
+        MimeHeaders headers = new MimeHeaders();
+        headers.addValue(":method").setString(method);
+        headers.addValue(":scheme").setString("http");
+        headers.addValue(":path").setString(path);
+        headers.addValue(":authority").setString("localhost:" + getPort());
+        ByteBuffer headerBlock = hpackEncoder.encode(headers);
+        byte[] payload = new byte[headerBlock.remaining()];
+        headerBlock.get(payload);
+        int flags = FLAG_END_HEADERS;
+        if (endOfStream) {
+            flags |= FLAG_END_STREAM;
+        }
+        writeFrame(FrameType.HEADERS, flags, streamId, payload);
+    }
+
+
+    protected void sendData(int streamId, byte[] data, boolean endOfStream) throws IOException {
+        writeFrame(FrameType.DATA, endOfStream ? FLAG_END_STREAM : 0, streamId, data);
+    }
+
+
+    protected void writeFrame(FrameType type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        ByteUtil.setThreeBytes(header, 0, payload.length);
+        header[3] = type.getIdByte();
+        header[4] = (byte) flags;
+        ByteUtil.set31Bits(header, 5, streamId);
+        os.write(header);
+        os.write(payload);
+        os.flush();
+    }
+
+
+    /**
+     * @return The next frame sent by the server that has not already been
+     *         returned by {@link #waitForFrame(FrameType, int)}
+     */
+    protected Frame readFrame() throws IOException {
+        if (!readFrames.isEmpty()) {
+            return readFrames.remove(0);
+        }
+        return readFrameFromSocket();
+    }
+
+
+    /**
+     * Reads frames until one of the given type is received for the given
+     * stream. Any other frames are retained, in order, for later calls.
+     */
+    protected Frame waitForFrame(FrameType type, int streamId) throws IOException {
+        Iterator<Frame> iter = readFrames.iterator();
+        while (iter.hasNext()) {
+            Frame frame = iter.next();
+            if (frame.getType() == type && frame.getStreamId() == streamId) {
+                iter.remove();
+                return frame;
+            }
+        }
+        while (true) {
+            Frame frame = readFrameFromSocket();
+            if (frame.getType() == type && frame.getStreamId() == streamId) {
+                return frame;
+            }
+            readFrames.add(frame);
+        }
+    }
+
+
+    /**
+     * Reads the body of the response for the given stream, starting with the
+     * DATA frames that follow the given HEADERS frame.
+     */
+    protected String readResponseBody(Frame headers) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Frame frame = headers;
+        while ((frame.getFlags() & FLAG_END_STREAM) == 0) {
+            frame = waitForFrame(FrameType.DATA, headers.getStreamId());
+            body.write(frame.getPayload());
+        }
+        return body.toString("UTF-8");
+    }
+
+
+    private Frame readFrameFromSocket() throws IOException {
+        byte[] header = new byte[FRAME_HEADER_LENGTH];
+        readFully(header);
+        int payloadSize = ByteUtil.getThreeBytes(header, 0);
+        FrameType type = FrameType.valueOf(ByteUtil.getOneByte(header, 3));
+        int flags = ByteUtil.getOneByte(header, 4);
+        int streamId = ByteUtil.get31Bits(header, 5);
+        byte[] payload = new byte[payloadSize];
+        readFully(payload);
+
+        Map<String,String> headers = null;
+        if (type == FrameType.HEADERS) {
+            // The server always sends the complete header block in a single,
+            // unpadded HEADERS frame without priority information
+            Assert.assertTrue((flags & FLAG_END_HEADERS) != 0);
+            final Map<String,String> decoded = new HashMap<>();
+            hpackDecoder.setHeaderEmitter(new HpackDecoder.HeaderEmitter() {
+                @Override
+                public void emitHeader(String name, String value) {
+                    decoded.put(name, value);
+                }
+            });
+            try {
+                hpackDecoder.decode(ByteBuffer.wrap(payload));
+            } catch (HpackException e) {
+                throw new IOException(e);
+            }
+            headers = decoded;
+        }
+        return new Frame(type, flags, streamId, payload, headers);
+    }
+
+
+    private void readFully(byte[] dest) throws IOException {
+        int pos = 0;
+        while (pos < dest.length) {
+            int read = is.read(dest, pos, dest.length - pos);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            pos += read;
+        }
+    }
+
+
+    protected static class Frame {
+
+        private final FrameType type;
+        private final int flags;
+        private final int streamId;
+        private final byte[] payload;
+        private final Map<String,String> headers;
+
+        Frame(FrameType type, int flags, int streamId, byte[] payload,
+                Map<String,String> headers) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.payload = payload;
+            this.headers = headers;
+        }
+
+        public FrameType getType() {
+            return type;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getStreamId() {
+            return streamId;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return The decoded headers for a HEADERS frame, otherwise
+         *         <code>null</code>
+         */
+        public Map<String,String> getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * Test cases for {@link HPackHuffman} based on the examples in Appendix C of
+ * RFC 7541.
+ */
+public class TestHPackHuffman {
+
+    @Test
+    public void testEncode01() {
+        doTestEncode("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+    }
+
+
+    @Test
+    public void testEncode02() {
+        doTestEncode("no-cache", "a8eb10649cbf");
+    }
+
+
+    @Test
+    public void testEncode03() {
+        doTestEncode("custom-key", "25a849e95ba97d7f");
+    }
+
+
+    @Test
+    public void testEncode04() {
+        doTestEncode("custom-value", "25a849e95bb8e8b4bf");
+    }
+
+
+    @Test
+    public void testEncodeLowercase() {
+        doTestEncode("Custom-Key", true, "25a849e95ba97d7f");
+    }
+
+
+    @Test
+    public void testEncodeNonLatin1() {
+        Assert.assertEquals(-1, HPackHuffman.encodedLength("€", false));
+    }
+
+
+    @Test
+    public void testRoundTripAllOctets() throws HpackException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            sb.append((char) i);
+        }
+        String input = sb.toString();
+        ByteBuffer buffer = ByteBuffer.allocate(HPackHuffman.encodedLength(input, false));
+        HPackHuffman.encode(buffer, input, false);
+        Assert.assertFalse(buffer.hasRemaining());
+        buffer.flip();
+
+        StringBuilder result = new StringBuilder();
+        HPackHuffman.decode(buffer, buffer.remaining(), result);
+        Assert.assertEquals(input, result.toString());
+    }
+
+
+    @Test
+    public void testDecode01() throws HpackException {
+        StringBuilder result = new StringBuilder();
+        byte[] input = HexUtils.fromHexString("f1e3c2e5f23a6ba0ab90f4ff");
+        HPackHuffman.decode(ByteBuffer.wrap(input), input.length, result);
+        Assert.assertEquals("www.example.com", result.toString());
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testDecodeInvalidPadding() throws HpackException {
+        // 'a' is 00011 so padding with zeros is invalid
+        HPackHuffman.decode(ByteBuffer.wrap(new byte[] { 0x18 }), 1, new StringBuilder());
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testDecodeExcessivePadding() throws HpackException {
+        // A full octet of padding is not permitted
+        HPackHuffman.decode(ByteBuffer.wrap(new byte[] { 0x1f, (byte) 0xff }), 2,
+                new StringBuilder());
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testDecodeEos() throws HpackException {
+        // EOS is 30 ones
+        HPackHuffman.decode(ByteBuffer.wrap(new byte[] {
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff }), 4, new StringBuilder());
+    }
+
+
+    private static void doTestEncode(String input, String expectedHex) {
+        doTestEncode(input, false, expectedHex);
+    }
+
+
+    private static void doTestEncode(String input, boolean forceLowercase, String expectedHex) {
+        int len = HPackHuffman.encodedLength(input, forceLowercase);
+        Assert.assertEquals(expectedHex.length() / 2, len);
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        HPackHuffman.encode(buffer, input, forceLowercase);
+        Assert.assertEquals(expectedHex, HexUtils.toHexString(buffer.array()));
+    }
+}
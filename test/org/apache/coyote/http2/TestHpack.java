@@ -0,0 +1,247 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Test cases for {@link HpackDecoder} and {@link HpackEncoder} based on the
+ * examples in Appendix C of RFC 7541.
+ */
+public class TestHpack {
+
+    @Test
+    public void testEncodeInteger01() {
+        // RFC 7541, C.1.1
+        doTestEncodeInteger(10, 5, "0a");
+    }
+
+
+    @Test
+    public void testEncodeInteger02() {
+        // RFC 7541, C.1.2
+        doTestEncodeInteger(1337, 5, "1f9a0a");
+    }
+
+
+    @Test
+    public void testEncodeInteger03() {
+        // RFC 7541, C.1.3
+        doTestEncodeInteger(42, 8, "2a");
+    }
+
+
+    @Test
+    public void testIntegerRoundTrip() throws HpackException {
+        for (int n = 1; n <= 8; n++) {
+            for (int value : new int[] { 0, 1, (1 << n) - 2, (1 << n) - 1, 1 << n, 127, 128,
+                    16383, 16384, Integer.MAX_VALUE >> 4 }) {
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                buffer.put((byte) 0);
+                Hpack.encodeInteger(buffer, value, n);
+                buffer.flip();
+                Assert.assertEquals(value, Hpack.decodeInteger(buffer, n));
+                Assert.assertFalse(buffer.hasRemaining());
+            }
+        }
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testDecodeIntegerTruncated() throws HpackException {
+        Hpack.decodeInteger(ByteBuffer.wrap(HexUtils.fromHexString("1f9a")), 5);
+    }
+
+
+    @Test
+    public void testDecodeRequestsWithoutHuffman() throws HpackException {
+        // RFC 7541, C.3
+        HpackDecoder decoder = new HpackDecoder();
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "828684410f7777772e6578616d706c652e636f6d")));
+        emitter.assertHeaders(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com");
+        Assert.assertEquals(57, decoder.getCurrentMemorySize());
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "828684be58086e6f2d6361636865")));
+        emitter.assertHeaders(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com", "cache-control", "no-cache");
+        Assert.assertEquals(110, decoder.getCurrentMemorySize());
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565")));
+        emitter.assertHeaders(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com", "custom-key", "custom-value");
+        Assert.assertEquals(164, decoder.getCurrentMemorySize());
+        Assert.assertEquals(3, decoder.getFilledTableSlots());
+    }
+
+
+    @Test
+    public void testDecodeRequestsWithHuffman() throws HpackException {
+        // RFC 7541, C.4
+        HpackDecoder decoder = new HpackDecoder();
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "828684418cf1e3c2e5f23a6ba0ab90f4ff")));
+        emitter.assertHeaders(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com");
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "828684be5886a8eb10649cbf")));
+        emitter.assertHeaders(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com", "cache-control", "no-cache");
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf")));
+        emitter.assertHeaders(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com", "custom-key", "custom-value");
+        Assert.assertEquals(164, decoder.getCurrentMemorySize());
+    }
+
+
+    @Test
+    public void testDecodeEviction() throws HpackException {
+        // RFC 7541, C.5 - table size of 256
+        HpackDecoder decoder = new HpackDecoder(256);
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString(
+                "4803333032580770726976617465611d" +
+                "4d6f6e2c203231204f63742032303133" +
+                "2032303a31333a323120474d546e1768" +
+                "747470733a2f2f7777772e6578616d70" +
+                "6c652e636f6d")));
+        emitter.assertHeaders(":status", "302", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com");
+        Assert.assertEquals(222, decoder.getCurrentMemorySize());
+
+        decoder.decode(ByteBuffer.wrap(HexUtils.fromHexString("4803333037c1c0bf")));
+        emitter.assertHeaders(":status", "307", "cache-control", "private",
+                "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com");
+        // The oldest entry (:status 302) has been evicted
+        Assert.assertEquals(222, decoder.getCurrentMemorySize());
+        Assert.assertEquals(4, decoder.getFilledTableSlots());
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testDecodeZeroIndex() throws HpackException {
+        new HpackDecoder().decode(ByteBuffer.wrap(HexUtils.fromHexString("80")));
+    }
+
+
+    @Test(expected=HpackException.class)
+    public void testDecodeInvalidIndex() throws HpackException {
+        // Index 62 with an empty dynamic table
+        new HpackDecoder().decode(ByteBuffer.wrap(HexUtils.fromHexString("be")));
+    }
+
+
+    @Test
+    public void testEncoderDecoderRoundTrip() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+
+        for (int i = 0; i < 3; i++) {
+            MimeHeaders headers = new MimeHeaders();
+            headers.addValue(":status").setString("200");
+            headers.addValue("Content-Type").setString("text/html;charset=UTF-8");
+            headers.addValue("X-Custom").setString("value-" + i);
+            headers.addValue("set-cookie").setString("a=b");
+
+            ByteBuffer block = encoder.encode(headers);
+            int encodedLength = block.remaining();
+            decoder.decode(block);
+            emitter.assertHeaders(":status", "200", "content-type", "text/html;charset=UTF-8",
+                    "x-custom", "value-" + i, "set-cookie", "a=b");
+            if (i > 0) {
+                // Repeated headers are indexed
+                Assert.assertTrue(encodedLength < 30);
+            }
+        }
+        Assert.assertEquals(encoder.getCurrentTableSize(), decoder.getCurrentMemorySize());
+    }
+
+
+    @Test
+    public void testEncoderTableSizeUpdate() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+
+        MimeHeaders headers = new MimeHeaders();
+        headers.addValue("x-custom").setString("value");
+        decoder.decode(encoder.encode(headers));
+        emitter.assertHeaders("x-custom", "value");
+        Assert.assertEquals(45, decoder.getCurrentMemorySize());
+
+        encoder.setMaxTableSize(0);
+        decoder.decode(encoder.encode(headers));
+        emitter.assertHeaders("x-custom", "value");
+        Assert.assertEquals(0, encoder.getCurrentTableSize());
+        Assert.assertEquals(0, decoder.getCurrentMemorySize());
+    }
+
+
+    private static void doTestEncodeInteger(int value, int n, String expectedHex) {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.put((byte) 0);
+        Hpack.encodeInteger(buffer, value, n);
+        buffer.flip();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        Assert.assertEquals(expectedHex, HexUtils.toHexString(result));
+    }
+
+
+    private static class RecordingEmitter implements HpackDecoder.HeaderEmitter {
+
+        private final List<String> headers = new ArrayList<>();
+
+        @Override
+        public void emitHeader(String name, String value) {
+            headers.add(name);
+            headers.add(value);
+        }
+
+        void assertHeaders(String... expected) {
+            List<String> actual = new ArrayList<>(headers);
+            headers.clear();
+            Assert.assertEquals(Arrays.asList(expected), actual);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+
+public class TestHttp2UpgradeHandler extends Http2TestBase {
+
+    @Test
+    public void testSettingsExchange() throws Exception {
+        enableHttp2();
+        http2Protocol.setMaxConcurrentStreams(100);
+        http2Protocol.setInitialWindowSize(32 * 1024);
+        createContext();
+        getTomcatInstance().start();
+
+        openClientConnection();
+        doHttpUpgrade("/simple");
+
+        // The server preface must be the first frame after the 101 response
+        Frame settings = readFrame();
+        Assert.assertEquals(FrameType.SETTINGS, settings.getType());
+        Assert.assertEquals(0, settings.getStreamId());
+        Assert.assertEquals(0, settings.getFlags() & FLAG_ACK);
+
+        byte[] payload = settings.getPayload();
+        Assert.assertEquals(0, payload.length % 6);
+        Map<Integer,Long> values = new HashMap<>();
+        for (int i = 0; i < payload.length; i += 6) {
+            values.put(Integer.valueOf(ByteUtil.getTwoBytes(payload, i)),
+                    Long.valueOf(ByteUtil.getFourBytes(payload, i + 2)));
+        }
+        Assert.assertEquals(Long.valueOf(100), values.get(
+                Integer.valueOf(ConnectionSettings.SETTINGS_MAX_CONCURRENT_STREAMS)));
+        Assert.assertEquals(Long.valueOf(32 * 1024), values.get(
+                Integer.valueOf(ConnectionSettings.SETTINGS_INITIAL_WINDOW_SIZE)));
+
+        // The client's SETTINGS must be acknowledged
+        sendClientPreface();
+        Frame ack = waitForFrame(FrameType.SETTINGS, 0);
+        Assert.assertEquals(FLAG_ACK, ack.getFlags() & FLAG_ACK);
+        Assert.assertEquals(0, ack.getPayload().length);
+    }
+
+
+    @Test
+    public void testUpgradeRequestOnStream1() throws Exception {
+        enableHttp2();
+        createContext();
+        getTomcatInstance().start();
+
+        openClientConnection();
+        doHttpUpgrade("/simple");
+        sendClientPreface();
+
+        Frame headers = waitForFrame(FrameType.HEADERS, 1);
+        Assert.assertEquals("200", headers.getHeaders().get(":status"));
+        Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, readResponseBody(headers));
+    }
+
+
+    @Test
+    public void testGetOnNewStream() throws Exception {
+        enableHttp2();
+        createContext();
+        getTomcatInstance().start();
+
+        openClientConnection();
+        doHttpUpgrade("/simple");
+        sendClientPreface();
+        readResponseBody(waitForFrame(FrameType.HEADERS, 1));
+
+        sendHeaders(3, "GET", "/simple", true);
+
+        Frame headers = waitForFrame(FrameType.HEADERS, 3);
+        Assert.assertEquals("200", headers.getHeaders().get(":status"));
+        Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, readResponseBody(headers));
+    }
+
+
+    @Test
+    public void testStreamRefusedBeyondMaxConcurrentStreams() throws Exception {
+        enableHttp2();
+        http2Protocol.setMaxConcurrentStreams(1);
+        Context ctxt = createContext();
+        BlockingServlet blocking = new BlockingServlet();
+        Tomcat.addServlet(ctxt, "blocking", blocking);
+        ctxt.addServletMapping("/blocking", "blocking");
+        getTomcatInstance().start();
+
+        openClientConnection();
+        // Stream 1 stays open until the servlet is released
+        doHttpUpgrade("/blocking");
+        sendClientPreface();
+        Assert.assertTrue(blocking.awaitStarted());
+
+        try {
+            sendHeaders(3, "GET", "/simple", true);
+
+            Frame rst = waitForFrame(FrameType.RST, 3);
+            Assert.assertEquals(Http2Error.REFUSED_STREAM.getCode(),
+                    ByteUtil.getFourBytes(rst.getPayload(), 0));
+        } finally {
+            blocking.release();
+        }
+
+        Frame headers = waitForFrame(FrameType.HEADERS, 1);
+        Assert.assertEquals("200", headers.getHeaders().get(":status"));
+        Assert.assertEquals(BlockingServlet.RESPONSE_TEXT, readResponseBody(headers));
+    }
+
+
+    @Test
+    public void testWindowUpdateForRequestBody() throws Exception {
+        enableHttp2();
+        createContext();
+        getTomcatInstance().start();
+
+        openClientConnection();
+        doHttpUpgrade("/simple");
+        sendClientPreface();
+        readResponseBody(waitForFrame(FrameType.HEADERS, 1));
+
+        byte[] part1 = new byte[1000];
+        Arrays.fill(part1, (byte) 'a');
+        byte[] part2 = new byte[500];
+        Arrays.fill(part2, (byte) 'b');
+
+        sendHeaders(3, "POST", "/echo", false);
+        sendData(3, part1, false);
+
+        // Received data is returned to the connection window straight away
+        // and to the stream window once the application has read it
+        Assert.assertEquals(part1.length, getWindowUpdateIncrement(0));
+        Assert.assertEquals(part1.length, getWindowUpdateIncrement(3));
+
+        sendData(3, part2, true);
+        Assert.assertEquals(part2.length, getWindowUpdateIncrement(0));
+
+        Frame headers = waitForFrame(FrameType.HEADERS, 3);
+        Assert.assertEquals("200", headers.getHeaders().get(":status"));
+        Assert.assertEquals(new String(part1, "US-ASCII") + new String(part2, "US-ASCII"),
+                readResponseBody(headers));
+    }
+
+
+    private int getWindowUpdateIncrement(int streamId) throws IOException {
+        Frame windowUpdate = waitForFrame(FrameType.WINDOW_UPDATE, streamId);
+        Assert.assertEquals(4, windowUpdate.getPayload().length);
+        return ByteUtil.get31Bits(windowUpdate.getPayload(), 0);
+    }
+
+
+    private static class BlockingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        public static final String RESPONSE_TEXT = "OK";
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            started.countDown();
+            try {
+                released.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resp.getWriter().print(RESPONSE_TEXT);
+        }
+
+        public boolean awaitStarted() throws InterruptedException {
+            return started.await(10, TimeUnit.SECONDS);
+        }
+
+        public void release() {
+            released.countDown();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+public class TestStreamProcessor extends Http2TestBase {
+
+    private static final long ASYNC_TIMEOUT = 2000;
+
+    @Test
+    public void testAsyncTimeoutWithListener() throws Exception {
+        doTestAsyncTimeout(true);
+    }
+
+
+    @Test
+    public void testAsyncTimeoutWithoutListener() throws Exception {
+        doTestAsyncTimeout(false);
+    }
+
+
+    private void doTestAsyncTimeout(boolean useListener) throws Exception {
+        enableHttp2();
+        Context ctxt = createContext();
+        Wrapper w = Tomcat.addServlet(ctxt, "async", new AsyncTimeoutServlet(useListener));
+        w.setAsyncSupported(true);
+        ctxt.addServletMapping("/async", "async");
+        getTomcatInstance().start();
+
+        openClientConnection();
+        doHttpUpgrade("/simple");
+        sendClientPreface();
+        readResponseBody(waitForFrame(FrameType.HEADERS, 1));
+
+        long start = System.currentTimeMillis();
+        sendHeaders(3, "GET", "/async", true);
+
+        // The servlet never completes the request so the response can only
+        // be the result of the timeout
+        Frame headers = waitForFrame(FrameType.HEADERS, 3);
+        String body = readResponseBody(headers);
+        long duration = System.currentTimeMillis() - start;
+
+        Assert.assertTrue(Long.toString(duration), duration >= ASYNC_TIMEOUT);
+        if (useListener) {
+            Assert.assertEquals("200", headers.getHeaders().get(":status"));
+            Assert.assertEquals(AsyncTimeoutServlet.RESPONSE_TEXT, body);
+        } else {
+            Assert.assertEquals("500", headers.getHeaders().get(":status"));
+        }
+    }
+
+
+    private static class AsyncTimeoutServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        public static final String RESPONSE_TEXT = "Timeout";
+
+        private final boolean useListener;
+
+        public AsyncTimeoutServlet(boolean useListener) {
+            this.useListener = useListener;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            AsyncContext ac = req.startAsync();
+            ac.setTimeout(ASYNC_TIMEOUT);
+            if (useListener) {
+                ac.addListener(new TimeoutListener());
+            }
+        }
+    }
+
+
+    private static class TimeoutListener implements AsyncListener {
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            event.getSuppliedResponse().getWriter().print(AsyncTimeoutServlet.RESPONSE_TEXT);
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // NO-OP
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            // NO-OP
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            // NO-OP
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ByteBufferUtils}.
+ */
+public class TestByteBufferUtils {
+
+    @Test
+    public void testCleanSupported() {
+        // All the JVMs Tomcat supports provide a cleaner
+        Assert.assertTrue(ByteBufferUtils.isCleanSupported());
+    }
+
+
+    @Test
+    public void testCleanMapped() throws Exception {
+        File file = File.createTempFile("test", ".bin");
+        try {
+            Files.write(file.toPath(), new byte[] { 1, 2, 3, 4 });
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(
+                    file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4);
+            }
+            Assert.assertEquals(3, buffer.get(2));
+            ByteBufferUtils.cleanDirectBuffer(buffer);
+            // The file is no longer in use, even on Windows
+            Assert.assertTrue(file.delete());
+        } finally {
+            if (file.exists()) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+    }
+
+
+    @Test
+    public void testCleanIgnored() {
+        // None of these may be cleaned, none of them may fail
+        ByteBufferUtils.cleanDirectBuffer(null);
+        ByteBufferUtils.cleanDirectBuffer(ByteBuffer.allocate(10));
+        ByteBuffer direct = ByteBuffer.allocateDirect(10);
+        ByteBufferUtils.cleanDirectBuffer(direct.duplicate());
+        direct.put((byte) 1);
+        ByteBufferUtils.cleanDirectBuffer(direct);
+    }
+}
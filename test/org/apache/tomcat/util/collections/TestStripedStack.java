@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStripedStack {
+
+    @Test
+    public void testPopEmpty() {
+        StripedStack<Object> stack = new StripedStack<>();
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testPushPopOrderSingleStripe() {
+        StripedStack<Object> stack = new StripedStack<>(10, 1);
+
+        Object o1 = new Object();
+        Object o2 = new Object();
+        Object o3 = new Object();
+
+        stack.push(o1);
+        stack.push(o2);
+        stack.push(o3);
+
+        Assert.assertSame(o3, stack.pop());
+        Assert.assertSame(o2, stack.pop());
+        Assert.assertSame(o1, stack.pop());
+
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testLimit() {
+        StripedStack<Object> stack = new StripedStack<>(5, 4);
+
+        int pushed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (stack.push(new Object())) {
+                pushed++;
+            }
+        }
+        Assert.assertEquals(5, pushed);
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(stack.pop());
+        }
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testLimitZero() {
+        StripedStack<Object> stack = new StripedStack<>(0);
+        Assert.assertFalse(stack.push(new Object()));
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testUnbounded() {
+        StripedStack<Object> stack = new StripedStack<>(-1, 2);
+
+        Set<Object> objects = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        for (int i = 0; i < 1000; i++) {
+            Object o = new Object();
+            objects.add(o);
+            Assert.assertTrue(stack.push(o));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(objects.remove(stack.pop()));
+        }
+        Assert.assertNull(stack.pop());
+        Assert.assertTrue(objects.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        StripedStack<Object> stack = new StripedStack<>(-1, 2);
+        for (int i = 0; i < 100; i++) {
+            stack.push(new Object());
+        }
+        stack.clear();
+        Assert.assertNull(stack.pop());
+        // Cleared slots are re-usable
+        Assert.assertTrue(stack.push(new Object()));
+        Assert.assertNotNull(stack.pop());
+    }
+
+    @Test
+    public void testConcurrentNoDuplicates() throws InterruptedException {
+        final StripedStack<Object> stack = new StripedStack<>(16, 8);
+        final Set<Object> borrowed =
+                Collections.synchronizedSet(Collections.newSetFromMap(
+                        new IdentityHashMap<Object,Boolean>()));
+        final AtomicInteger errors = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        Object obj = stack.pop();
+                        if (obj == null) {
+                            obj = new Object();
+                        }
+                        if (!borrowed.add(obj)) {
+                            // The same object was handed to two threads
+                            errors.incrementAndGet();
+                        }
+                        borrowed.remove(obj);
+                        stack.push(obj);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, errors.get());
+    }
+}
@@ -21,87 +21,117 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.junit.Test;
 
+/**
+ * Compares the object pool implementations available to the endpoints with a
+ * workload similar to theirs: each thread repeatedly takes an object from the
+ * pool (creating one if the pool is empty) and returns it. Each
+ * implementation is run with an increasing number of threads so the effect
+ * of contention is visible.
+ */
 public class TesterPerformanceSynchronizedStack {
 
-    private static final int THREAD_COUNT = 4;
+    private static final int[] THREAD_COUNTS = { 1, 4,
+            Math.max(8, Runtime.getRuntime().availableProcessors() * 2) };
     private static final int ITERATIONS = 1000000;
-
-    private static final SynchronizedStack<Object> STACK =
-            new SynchronizedStack<>();
-
-    private static final Queue<Object> QUEUE = new ConcurrentLinkedQueue<>();
+    private static final int LIMIT = 500;
 
     @Test
     public void testSynchronizedStack() throws InterruptedException {
-        Thread[] threads = new Thread[THREAD_COUNT];
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            threads[i] = new StackThread();
-        }
-
-        long start = System.currentTimeMillis();
-
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            threads[i].start();
-        }
-
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            threads[i].join();
+        for (int threadCount : THREAD_COUNTS) {
+            final SynchronizedStack<Object> stack =
+                    new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, LIMIT);
+            doTest("SynchronizedStack", threadCount, new Pool() {
+                @Override
+                public Object take() {
+                    return stack.pop();
+                }
+                @Override
+                public void give(Object obj) {
+                    stack.push(obj);
+                }
+            });
         }
-
-        long end = System.currentTimeMillis();
-
-        System.out.println("SynchronizedStack: " + (end - start) + "ms");
     }
 
-    public static class StackThread extends Thread {
-
-        @Override
-        public void run() {
-            for(int i = 0; i < ITERATIONS; i++) {
-                Object obj = STACK.pop();
-                if (obj == null) {
-                    obj = new Object();
+    @Test
+    public void testStripedStack() throws InterruptedException {
+        for (int threadCount : THREAD_COUNTS) {
+            final StripedStack<Object> stack = new StripedStack<>(LIMIT);
+            doTest("StripedStack", threadCount, new Pool() {
+                @Override
+                public Object take() {
+                    return stack.pop();
                 }
-                STACK.push(obj);
-            }
-            super.run();
+                @Override
+                public void give(Object obj) {
+                    stack.push(obj);
+                }
+            });
         }
     }
 
     @Test
     public void testConcurrentQueue() throws InterruptedException {
-        Thread[] threads = new Thread[THREAD_COUNT];
-        for (int i = 0; i < THREAD_COUNT; i++) {
-            threads[i] = new QueueThread();
+        for (int threadCount : THREAD_COUNTS) {
+            final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+            doTest("ConcurrentLinkedQueue", threadCount, new Pool() {
+                @Override
+                public Object take() {
+                    return queue.poll();
+                }
+                @Override
+                public void give(Object obj) {
+                    queue.offer(obj);
+                }
+            });
+        }
+    }
+
+    private static void doTest(String name, int threadCount, Pool pool)
+            throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new PoolThread(pool);
         }
 
         long start = System.currentTimeMillis();
 
-        for (int i = 0; i < THREAD_COUNT; i++) {
+        for (int i = 0; i < threadCount; i++) {
             threads[i].start();
         }
 
-        for (int i = 0; i < THREAD_COUNT; i++) {
+        for (int i = 0; i < threadCount; i++) {
             threads[i].join();
         }
 
         long end = System.currentTimeMillis();
 
-        System.out.println("ConcurrentLinkedQueue: " + (end - start) + "ms");
+        System.out.println(name + ": threads [" + threadCount + "], iterations per thread [" +
+                ITERATIONS + "], " + (end - start) + "ms");
+    }
+
+    private interface Pool {
+        Object take();
+        void give(Object obj);
     }
 
-    public static class QueueThread extends Thread {
+    private static class PoolThread extends Thread {
+
+        private final Pool pool;
+
+        public PoolThread(Pool pool) {
+            this.pool = pool;
+        }
 
         @Override
         public void run() {
             for(int i = 0; i < ITERATIONS; i++) {
-                Object obj = QUEUE.poll();
+                Object obj = pool.take();
                 if (obj == null) {
                     obj = new Object();
                 }
-                QUEUE.offer(obj);
+                pool.give(obj);
             }
-            super.run();
         }
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestVirtualThreadExecutor {
+
+    @Test
+    public void testUnlimited() throws Exception {
+        // Platform threads are used so the test runs on any JVM
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(
+                Executors.defaultThreadFactory(), -1);
+        BlockingTask task = new BlockingTask(10);
+        for (int i = 0; i < 10; i++) {
+            executor.execute(task);
+        }
+        assertTrue(task.started.await(5, TimeUnit.SECONDS));
+        assertEquals(10, executor.getActiveCount());
+        task.release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getSubmittedCount());
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(
+                Executors.defaultThreadFactory(), 2);
+        BlockingTask task = new BlockingTask(2);
+        for (int i = 0; i < 6; i++) {
+            executor.execute(task);
+        }
+        assertTrue(task.started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(2, executor.getActiveCount());
+        assertEquals(2, task.maxRunning.get());
+        assertEquals(6, executor.getSubmittedCount());
+        task.release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, task.maxRunning.get());
+        assertEquals(6, task.completed.get());
+    }
+
+    @Test
+    public void testInterruptedWhileWaiting() throws Exception {
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        final ThreadFactory factory = Executors.defaultThreadFactory();
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = factory.newThread(r);
+                        threads.add(t);
+                        return t;
+                    }
+                }, 1);
+        BlockingTask task = new BlockingTask(1);
+        executor.execute(task);
+        assertTrue(task.started.await(5, TimeUnit.SECONDS));
+
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                interrupted.set(Thread.currentThread().isInterrupted());
+                ran.countDown();
+            }
+        });
+        // Wait for the second task to block on the concurrency limit
+        Thread waiting = threads.get(1);
+        for (int i = 0; i < 50 && waiting.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(100);
+        }
+        waiting.interrupt();
+        Thread.sleep(100);
+        // Interrupting does not bypass the limit
+        assertEquals(1, ran.getCount());
+
+        task.release.countDown();
+        // The task is run, not dropped, and sees the interrupt
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected=RejectedExecutionException.class)
+    public void testRejectAfterShutdown() {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(
+                Executors.defaultThreadFactory(), -1);
+        executor.shutdown();
+        assertTrue(executor.isTerminated());
+        executor.execute(new BlockingTask(0));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        if (!VirtualThreadExecutor.isSupported()) {
+            return;
+        }
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-virt-");
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1000, count.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(executor.getSubmittedCount() > 0);
+    }
+
+
+    private static class BlockingTask implements Runnable {
+
+        private final CountDownLatch started;
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+
+        BlockingTask(int expectedStarts) {
+            started = new CountDownLatch(expectedStarts);
+        }
+
+        @Override
+        public void run() {
+            int now = running.incrementAndGet();
+            int max;
+            while ((max = maxRunning.get()) < now) {
+                maxRunning.compareAndSet(max, now);
+            }
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            running.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+}